@@ -2170,6 +2170,16 @@ public class DefaultPicketLinkLogger implements PicketLinkLogger {
         return new ConfigurationException("Could not find a audit manager configuration. Location: " + location, t);
     }
 
+    /*
+     *(non-Javadoc)
+     *
+     *@see org.picketlink.identity.federation.PicketLinkLogger#auditSinkNotLoaded(java.lang.String, java.lang.Throwable)
+     */
+    @Override
+    public ConfigurationException auditSinkNotLoaded(String sinkType, Throwable t) {
+        return new ConfigurationException("Could not create the audit sink [" + sinkType + "].", t);
+    }
+
     /*
      *(non-Javadoc)
      *
@@ -2369,6 +2379,16 @@ public class DefaultPicketLinkLogger implements PicketLinkLogger {
         return new RuntimeException("Pool reached miximum number of clients within the pool (" + max + ")");
     }
 
+    @Override
+    public RuntimeException timedOutWaitingForSTSClient(String key, long timeout) {
+        return new RuntimeException("Timed out after " + timeout + " ms waiting for a client of the STS client pool: " + key);
+    }
+
+    @Override
+    public WSTrustException stsUnexpectedNumberOfResponses(int expected, int actual) {
+        return new WSTrustException("Expected " + expected + " responses from the STS but got " + actual);
+    }
+
     @Override
     public RuntimeException cannotSetMaxPoolSizeToNegative(String max) {
         return new RuntimeException("Cannot set maximum STS client pool size to negative number (" + max + ")");
@@ -2379,4 +2399,40 @@ public class DefaultPicketLinkLogger implements PicketLinkLogger {
         return new RuntimeException("Parser feature " + feature + " not supported.");
     }
 
+    @Override
+    public ProcessingException samlAssertionReplayedError(String id) {
+        return new ProcessingException(ErrorCodes.REPLAYED_ASSERTION + id);
+    }
+
+    @Override
+    public IllegalStateException stsRegistryClosedError(String registry) {
+        return new IllegalStateException(ErrorCodes.REGISTRY_CLOSED + registry);
+    }
+
+    @Override
+    public ProcessingException samlReplayCacheFullError(int maxEntries) {
+        return new ProcessingException(ErrorCodes.REPLAY_CACHE_FULL + maxEntries);
+    }
+
+    @Override
+    public ProcessingException samlHandlerClosedError(String handler) {
+        return new ProcessingException(ErrorCodes.HANDLER_CLOSED + handler);
+    }
+
+    @Override
+    public IllegalStateException samlMetadataProviderClosedError(String provider) {
+        return new IllegalStateException(ErrorCodes.METADATA_PROVIDER_CLOSED + provider);
+    }
+
+    @Override
+    public IOException samlInflatedMessageTooLargeError(long maxSize) {
+        return new IOException(ErrorCodes.INFLATED_MESSAGE_TOO_LARGE + maxSize);
+    }
+
+    @Override
+    public void invalidSystemPropertyValue(String property, String value, String defaultValue) {
+        logger.warn("Invalid value [" + value + "] of system property " + property + ", using the default value ["
+            + defaultValue + "]");
+    }
+
 }
@@ -199,6 +199,18 @@ public interface ErrorCodes {
 
     String LOCAL_VALIDATION_SEC_DOMAIN_MUST_BE_SPECIFIED = "PL00105: When using local validation 'localValidationSecurityDomain' must be specified.";
 
+    String REPLAYED_ASSERTION = "PL00106: Assertion has already been processed:";
+
+    String REGISTRY_CLOSED = "PL00107: Registry has been closed:";
+
+    String REPLAY_CACHE_FULL = "PL00108: Replay cache is full, maximum number of ids:";
+
+    String HANDLER_CLOSED = "PL00109: Handler has been closed:";
+
+    String METADATA_PROVIDER_CLOSED = "PL00110: Metadata provider has been closed:";
+
+    String INFLATED_MESSAGE_TOO_LARGE = "PL00111: Inflated message is larger than the maximum size in bytes:";
+
     String COMPRESSION_ENABLED_SAML_CRED = "When compression is enabled, received credential should be SamlCredential, but got ";
 
 }
\ No newline at end of file
@@ -1139,6 +1139,14 @@ public interface PicketLinkLogger {
      */
     ConfigurationException auditAuditManagerNotFound(String location, Throwable t);
 
+    /**
+     * @param sinkType
+     * @param t
+     *
+     * @return
+     */
+    ConfigurationException auditSinkNotLoaded(String sinkType, Throwable t);
+
     /** @return  */
     IssueInstantMissingException samlIssueInstantMissingError();
 
@@ -1213,8 +1221,26 @@ public interface PicketLinkLogger {
 
     RuntimeException maximumNumberOfClientsReachedforPool(String max);
 
+    RuntimeException timedOutWaitingForSTSClient(String key, long timeout);
+
+    WSTrustException stsUnexpectedNumberOfResponses(int expected, int actual);
+
     RuntimeException cannotSetMaxPoolSizeToNegative(String max);
 
     RuntimeException parserFeatureNotSupported(String feature);
 
+    ProcessingException samlAssertionReplayedError(String id);
+
+    IllegalStateException stsRegistryClosedError(String registry);
+
+    ProcessingException samlReplayCacheFullError(int maxEntries);
+
+    ProcessingException samlHandlerClosedError(String handler);
+
+    IllegalStateException samlMetadataProviderClosedError(String provider);
+
+    IOException samlInflatedMessageTooLargeError(long maxSize);
+
+    void invalidSystemPropertyValue(String property, String value, String defaultValue);
+
 }
\ No newline at end of file
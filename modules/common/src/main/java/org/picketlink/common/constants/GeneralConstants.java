@@ -146,4 +146,131 @@ public interface GeneralConstants {
     String REQUESTED_AUTHN_CONTEXT_COMPARISON = "REQUESTED_AUTHN_CONTEXT_COMPARISON";
 
     String BASE64_ENCODE_WSTRUST_SECRET_KEY = "picketlink.wstrust.base64_encode_wstrust_secret_key";
+
+    /**
+     * <p>Number of threads used by the STS to process the requests of a WS-Trust batch. When 0, the requests are
+     * processed one after the other by the caller thread.</p>
+     */
+    String WSTRUST_BATCH_THREADS = "picketlink.wstrust.batch_threads";
+
+    /**
+     * <p>Maximum number of batch requests waiting for a thread. When full, requests are processed by the caller thread.</p>
+     */
+    String WSTRUST_BATCH_QUEUE_SIZE = "picketlink.wstrust.batch_queue_size";
+
+    /**
+     * <p>Interval, in milliseconds, used by the STS to check if its configuration file has changed. Disabled by default.</p>
+     */
+    String WSTRUST_CONFIG_RELOAD_INTERVAL = "picketlink.wstrust.config_reload_interval";
+
+    /**
+     * <p>Maximum number of idle Deflater and Inflater instances kept for reuse by the HTTP/Redirect binding.</p>
+     */
+    String DEFLATE_POOL_SIZE = "picketlink.deflate.pool_size";
+
+    /**
+     * <p>Maximum size, in bytes, of a message inflated by the HTTP/Redirect binding.</p>
+     */
+    String INFLATE_MAX_SIZE = "picketlink.inflate.max_size";
+
+    /**
+     * <p>Whether audit events are written by a background thread instead of the request thread. Enabled by default.</p>
+     */
+    String AUDIT_ASYNC = "picketlink.audit.async";
+
+    /**
+     * <p>Maximum number of audit events waiting to be written.</p>
+     */
+    String AUDIT_BUFFER_SIZE = "picketlink.audit.buffer_size";
+
+    /**
+     * <p>Maximum number of audit events handed to the audit sink at once.</p>
+     */
+    String AUDIT_BATCH_SIZE = "picketlink.audit.batch_size";
+
+    /**
+     * <p>What to do with an audit event when the buffer is full: BLOCK, DROP or SAMPLE.</p>
+     */
+    String AUDIT_OVERFLOW_POLICY = "picketlink.audit.overflow_policy";
+
+    /**
+     * <p>With the SAMPLE overflow policy, only one in this many events is kept once the buffer is three quarters full.</p>
+     */
+    String AUDIT_SAMPLE_RATE = "picketlink.audit.sample_rate";
+
+    /**
+     * <p>Class name of the {@code AuditSink} that writes the audit events, instead of the security domain's AuditManager.</p>
+     */
+    String AUDIT_SINK = "picketlink.audit.sink";
+
+    /**
+     * <p>Path of a local file the audit events are written to, instead of the security domain's AuditManager.</p>
+     */
+    String AUDIT_FILE = "picketlink.audit.file";
+
+    /**
+     * <p>Size, in bytes, after which the audit file is rolled over.</p>
+     */
+    String AUDIT_FILE_MAX_SIZE = "picketlink.audit.file.max_size";
+
+    /**
+     * <p>Number of rolled over audit files that are kept.</p>
+     */
+    String AUDIT_FILE_MAX_BACKUPS = "picketlink.audit.file.max_backups";
+
+    /**
+     * <p>JNDI name of the PartitionManager used by the IDM attribute manager and role generator.</p>
+     */
+    String IDM_PARTITION_MANAGER_JNDI_NAME = "picketlink.idm.partition_manager_jndi_name";
+
+    /**
+     * <p>Name of the realm the IDM attribute manager and role generator look the principals up in.</p>
+     */
+    String IDM_REALM = "picketlink.idm.realm";
+
+    /**
+     * <p>Time, in milliseconds, the attributes and roles of a principal loaded from IDM are cached.</p>
+     */
+    String IDM_CACHE_TTL = "picketlink.idm.cache.ttl";
+
+    /**
+     * <p>Maximum number of principals whose attributes and roles loaded from IDM are cached.</p>
+     */
+    String IDM_CACHE_MAX_SIZE = "picketlink.idm.cache.max_size";
+
+    /**
+     * <p>Maximum number of clients of the STS client pool for each STS configuration. Pooling is disabled when 0, the
+     * default.</p>
+     */
+    String STS_CLIENT_POOL_MAX_SIZE = "picketlink.sts_client_pool.max_size";
+
+    /**
+     * <p>Time, in milliseconds, a caller waits for a client of an exhausted STS client pool before failing.</p>
+     */
+    String STS_CLIENT_POOL_ACQUIRE_TIMEOUT = "picketlink.sts_client_pool.acquire_timeout";
+
+    /**
+     * <p>Time, in milliseconds, after which an idle client above the initial number of clients is discarded.</p>
+     */
+    String STS_CLIENT_POOL_MAX_IDLE_TIME = "picketlink.sts_client_pool.max_idle_time";
+
+    /**
+     * <p>Maximum number of requests an asynchronous STS client has sent and not yet received the response of.</p>
+     */
+    String STS_CLIENT_MAX_IN_FLIGHT = "picketlink.sts_client.max_in_flight";
+
+    /**
+     * <p>Time, in milliseconds, a decision of the SOAP SAML XACML PDP is cached. Decisions are not cached when 0.</p>
+     */
+    String XACML_DECISION_CACHE_TTL = "picketlink.xacml.decision_cache.ttl";
+
+    /**
+     * <p>Maximum number of decisions of the SOAP SAML XACML PDP that are cached.</p>
+     */
+    String XACML_DECISION_CACHE_MAX_SIZE = "picketlink.xacml.decision_cache.max_size";
+
+    /**
+     * <p>JNDI name, relative to java:comp/env, of the data source of the JDBC identity participant stack.</p>
+     */
+    String IDENTITY_PARTICIPANT_STACK_DATASOURCE = "picketlink.identity_participant_stack.datasource";
 }
@@ -17,23 +17,57 @@
  */
 package org.picketlink.identity.federation.api.util;
 
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.common.util.SystemPropertiesUtil;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 /**
+ * <p>
  * Encoder of saml messages based on DEFLATE compression
+ * </p>
+ * <p>
+ * The native Deflater and Inflater instances are reused from a bounded pool, whose size is set by the
+ * {@link GeneralConstants#DEFLATE_POOL_SIZE} system property. Decoded messages are limited to the size set by the
+ * {@link GeneralConstants#INFLATE_MAX_SIZE} system property, so that small compressed inputs can not be inflated into
+ * large amounts of memory. Invalid values of these properties are logged and the defaults are used instead.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Dec 11, 2008
  */
 public class DeflateUtil {
 
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * The default maximum size of an inflated message, in bytes.
+     */
+    public static final long DEFAULT_INFLATE_MAX_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final int POOL_SIZE = (int) getLongProperty(GeneralConstants.DEFLATE_POOL_SIZE,
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final long INFLATE_MAX_SIZE = getLongProperty(GeneralConstants.INFLATE_MAX_SIZE,
+            DEFAULT_INFLATE_MAX_SIZE);
+
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(Math.max(1, POOL_SIZE));
+
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(Math.max(1, POOL_SIZE));
+
     /**
      * Apply DEFLATE encoding
      *
@@ -44,11 +78,8 @@ public class DeflateUtil {
      * @throws IOException
      */
     public static byte[] encode(byte[] message) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Deflater deflater = new Deflater(Deflater.DEFLATED, true);
-        DeflaterOutputStream deflaterStream = new DeflaterOutputStream(baos, deflater);
-        deflaterStream.write(message);
-        deflaterStream.finish();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(message.length / 2 + 16);
+        encode(message, baos);
 
         return baos.toByteArray();
     }
@@ -66,6 +97,33 @@ public class DeflateUtil {
         return encode(message.getBytes());
     }
 
+    /**
+     * Apply DEFLATE encoding, writing the encoded message to the given stream. The stream is not closed.
+     *
+     * @param message
+     * @param outputStream
+     *
+     * @throws IOException
+     */
+    public static void encode(byte[] message, OutputStream outputStream) throws IOException {
+        Deflater deflater = getDeflater();
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            deflater.setInput(message);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            release(deflater);
+        }
+    }
+
     /**
      * DEFLATE decoding
      *
@@ -74,7 +132,130 @@ public class DeflateUtil {
      * @return
      */
     public static InputStream decode(byte[] msgToDecode) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(msgToDecode);
-        return new InflaterInputStream(bais, new Inflater(true));
+        return decode(new ByteArrayInputStream(msgToDecode));
+    }
+
+    /**
+     * <p>
+     * DEFLATE decoding of a stream. The message is inflated before this method returns, so that the pooled Inflater is
+     * given back whatever the caller does with the returned stream. If the message can not be decoded, or is larger
+     * than the maximum inflated size, reading the returned stream fails.
+     * </p>
+     *
+     * @param deflatedStream the stream of the message that needs decoding
+     *
+     * @return
+     */
+    public static InputStream decode(InputStream deflatedStream) {
+        Inflater inflater = getInflater();
+
+        try {
+            return new ByteArrayInputStream(inflate(deflatedStream, inflater, INFLATE_MAX_SIZE));
+        } catch (IOException e) {
+            return new FailedInputStream(e);
+        } finally {
+            release(inflater);
+        }
+    }
+
+    private static byte[] inflate(InputStream deflatedStream, Inflater inflater, long maxSize) throws IOException {
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(BUFFER_SIZE * 4);
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE];
+
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int read = deflatedStream.read(input);
+
+                    if (read == -1) {
+                        // a truncated message is left to fail when it is parsed
+                        break;
+                    }
+
+                    inflater.setInput(input, 0, read);
+                }
+
+                int length = inflater.inflate(output);
+
+                inflated.write(output, 0, length);
+
+                if (inflated.size() > maxSize) {
+                    throw logger.samlInflatedMessageTooLargeError(maxSize);
+                }
+            }
+        } catch (DataFormatException e) {
+            IOException ioe = new IOException(e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+
+        return inflated.toByteArray();
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = SystemPropertiesUtil.getSystemProperty(name, String.valueOf(defaultValue));
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.invalidSystemPropertyValue(name, value, String.valueOf(defaultValue));
+            return defaultValue;
+        }
+    }
+
+    private static Deflater getDeflater() {
+        Deflater deflater = deflaters.poll();
+
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFLATED, true);
+        }
+
+        return deflater;
+    }
+
+    private static void release(Deflater deflater) {
+        deflater.reset();
+
+        if (POOL_SIZE <= 0 || !deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static Inflater getInflater() {
+        Inflater inflater = inflaters.poll();
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        return inflater;
+    }
+
+    private static void release(Inflater inflater) {
+        inflater.reset();
+
+        if (POOL_SIZE <= 0 || !inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A stream of a message that could not be decoded, which reports the decoding error when it is read.
+     */
+    private static class FailedInputStream extends InputStream {
+
+        private final IOException error;
+
+        FailedInputStream(IOException error) {
+            this.error = error;
+        }
+
+        @Override
+        public int read() throws IOException {
+            IOException ioe = new IOException(this.error.getMessage());
+            ioe.initCause(this.error);
+            throw ioe;
+        }
     }
-}
\ No newline at end of file
+}
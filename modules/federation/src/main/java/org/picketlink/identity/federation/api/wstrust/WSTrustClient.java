@@ -75,7 +75,8 @@ public class WSTrustClient {
         if (endpointURIs.length == 0)
             throw logger.nullArgumentError("At least one endpoint URI must be provided");
 
-        // create an STSClient for each endpointURI.
+        // create an STSClient for each endpointURI. The clients are kept for the lifetime of this object, so they are not
+        // taken out of the STSClientPool, which would otherwise be exhausted by instances that are never closed.
         this.clients = new STSClient[endpointURIs.length];
         Builder builder = new STSClientConfig.Builder();
         builder.serviceName(serviceName).portName(port).username(secInfo.username).password(secInfo.passwd);
@@ -83,7 +84,7 @@ public class WSTrustClient {
         int index = 0;
         for (String endpointURI : endpointURIs) {
             builder.endpointAddress(endpointURI);
-            this.clients[index++] = STSClientFactory.getInstance().createPool(builder.build());
+            this.clients[index++] = new STSClient(builder.build());
         }
 
     }
@@ -389,7 +390,7 @@ public class WSTrustClient {
     }
 
     /**
-     * This method returns all allocated clients back to the STSClientPool when pooling is enabled.
+     * This method returns the clients taken out of the STSClientPool, if any, back to the pool.
      */
     public void close() {
         for (STSClient client: this.clients) {
@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.audit;
+
+import org.jboss.security.audit.AuditEvent;
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * Hands audit events to an {@link AuditSink} from a background thread, so that the thread auditing an event does not
+ * wait for the sink. The events are kept in a bounded buffer and written in batches of up to the batch size.
+ * </p>
+ * <p>
+ * When the buffer is full, the {@link OverflowPolicy} decides whether the auditing thread waits for room or the event
+ * is discarded. The number of discarded events is available from {@link #getDroppedCount()}.
+ * </p>
+ * <p>
+ * An event is queued while holding a shared lock, that {@link #close()} takes exclusively to stop accepting events. So
+ * every event accepted before the dispatcher is closed is written, and none is accepted afterwards.
+ * </p>
+ */
+public class AsyncAuditDispatcher {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final long POLL_INTERVAL = 100;
+
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    /**
+     * What to do with an event when the buffer is full
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Wait until there is room for the event
+         */
+        BLOCK,
+
+        /**
+         * Discard the event
+         */
+        DROP,
+
+        /**
+         * Once the buffer is three quarters full, keep only one in every "sample rate" events, and discard the event if
+         * the buffer is full
+         */
+        SAMPLE
+    }
+
+    private final AuditSink sink;
+
+    private final BlockingQueue<AuditEvent> buffer;
+
+    private final int batchSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int sampleRate;
+
+    private final int sampleThreshold;
+
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Thread worker;
+
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed;
+
+    public AsyncAuditDispatcher(AuditSink sink, int bufferSize, int batchSize, OverflowPolicy overflowPolicy,
+                                int sampleRate) {
+        this.sink = sink;
+        this.buffer = new ArrayBlockingQueue<AuditEvent>(bufferSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.sampleThreshold = bufferSize - bufferSize / 4;
+
+        this.worker = new Thread(new Runnable() {
+            public void run() {
+                dispatch();
+            }
+        }, "picketlink-audit");
+
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * <p>
+     * Queue an event to be written by the sink.
+     * </p>
+     *
+     * @param event
+     *
+     * @return false if the dispatcher is closed, so the event was not queued
+     */
+    public boolean dispatch(AuditEvent event) {
+        Lock lock = this.closeLock.readLock();
+
+        lock.lock();
+
+        try {
+            if (this.closed) {
+                return false;
+            }
+
+            if (!enqueue(event)) {
+                this.droppedCount.incrementAndGet();
+            }
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of events discarded because the buffer was full
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * <p>
+     * Stop accepting events, wait for the queued ones to be written and close the sink.
+     * </p>
+     */
+    public void close() {
+        Lock lock = this.closeLock.writeLock();
+
+        // waits for the events being queued, which the worker keeps writing meanwhile
+        lock.lock();
+
+        try {
+            this.closed = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            this.worker.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean enqueue(AuditEvent event) {
+        boolean queued;
+
+        switch (this.overflowPolicy) {
+            case BLOCK:
+                try {
+                    this.buffer.put(event);
+                    queued = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+                break;
+            case SAMPLE:
+                if (this.buffer.size() >= this.sampleThreshold
+                        && this.sampleCount.incrementAndGet() % this.sampleRate != 0) {
+                    queued = false;
+                } else {
+                    queued = this.buffer.offer(event);
+                }
+                break;
+            default:
+                queued = this.buffer.offer(event);
+        }
+
+        return queued;
+    }
+
+    private void dispatch() {
+        List<AuditEvent> batch = new ArrayList<AuditEvent>(this.batchSize);
+
+        try {
+            while (true) {
+                AuditEvent event;
+
+                try {
+                    event = this.buffer.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    event = null;
+                }
+
+                if (event == null) {
+                    if (this.closed && this.buffer.isEmpty()) {
+                        break;
+                    }
+
+                    continue;
+                }
+
+                batch.add(event);
+                this.buffer.drainTo(batch, this.batchSize - 1);
+
+                try {
+                    this.sink.write(Collections.unmodifiableList(batch));
+                } catch (RuntimeException e) {
+                    logger.error(e);
+                }
+
+                batch.clear();
+            }
+        } finally {
+            this.sink.close();
+        }
+    }
+}
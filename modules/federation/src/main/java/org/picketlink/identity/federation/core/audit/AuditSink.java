@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.audit;
+
+import org.jboss.security.audit.AuditEvent;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Destination of the audit events dispatched by the {@link PicketLinkAuditHelper}. The events are handed in batches,
+ * in the order they were audited, and always by a single thread at a time.
+ * </p>
+ * <p>
+ * Implementations configured with the "picketlink.audit.sink" system property must have a public default
+ * constructor.
+ * </p>
+ */
+public interface AuditSink {
+
+    /**
+     * Write a batch of events
+     *
+     * @param events
+     */
+    void write(List<AuditEvent> events);
+
+    /**
+     * Release any resource held by the sink. No events are written afterwards.
+     */
+    void close();
+}
@@ -36,11 +36,21 @@ import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.servlet.ServletContext;
+import java.io.File;
 import java.io.InputStream;
+import java.util.Collections;
 
 /**
  * Helper class to deal with audit
  *
+ * <p>
+ * The {@link AuditManager} of the security domain is looked up once, when the helper is created. Unless the
+ * "picketlink.audit.async" system property is false, events are written to it by an {@link AsyncAuditDispatcher}, so
+ * that auditing does not add the cost of the audit providers to the request. The "picketlink.audit.sink" and
+ * "picketlink.audit.file" system properties replace the {@link AuditManager} with a custom {@link AuditSink} or a
+ * {@link RollingFileAuditSink}.
+ * </p>
+ *
  * @author anil saldhana
  */
 public class PicketLinkAuditHelper {
@@ -49,6 +59,10 @@ public class PicketLinkAuditHelper {
 
     private AuditManager auditManager = null;
 
+    private AuditSink auditSink;
+
+    private AsyncAuditDispatcher dispatcher;
+
     /**
      * Create a {@link PicketLinkAuditHelper}
      *
@@ -57,7 +71,71 @@ public class PicketLinkAuditHelper {
      * @throws ConfigurationException
      */
     public PicketLinkAuditHelper(String securityDomainName) throws ConfigurationException {
+        this.auditSink = createAuditSink(securityDomainName);
+
+        if (this.auditSink != null && Boolean.parseBoolean(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_ASYNC,
+                "true"))) {
+            this.dispatcher = createDispatcher(this.auditSink);
+        }
+    }
+
+    /**
+     * <p>
+     * Create the {@link AuditSink} the events are written to.
+     * </p>
+     *
+     * @param securityDomainName the security domain name
+     *
+     * @return the sink or null if there is no {@link AuditManager}
+     *
+     * @throws ConfigurationException
+     */
+    protected AuditSink createAuditSink(String securityDomainName) throws ConfigurationException {
+        String sinkType = SecurityActions.getSystemProperty(GeneralConstants.AUDIT_SINK, null);
+
+        if (StringUtil.isNotNull(sinkType)) {
+            Class<?> clazz = SecurityActions.loadClass(getClass(), sinkType);
+
+            if (clazz == null) {
+                throw logger.auditSinkNotLoaded(sinkType, null);
+            }
+
+            try {
+                return (AuditSink) clazz.newInstance();
+            } catch (Exception e) {
+                throw logger.auditSinkNotLoaded(sinkType, e);
+            }
+        }
+
+        String fileName = SecurityActions.getSystemProperty(GeneralConstants.AUDIT_FILE, null);
+
+        if (StringUtil.isNotNull(fileName)) {
+            long maxSize = Long.parseLong(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_FILE_MAX_SIZE,
+                    String.valueOf(RollingFileAuditSink.DEFAULT_MAX_SIZE)));
+            int maxBackups = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_FILE_MAX_BACKUPS,
+                    String.valueOf(RollingFileAuditSink.DEFAULT_MAX_BACKUPS)));
+
+            return new RollingFileAuditSink(new File(fileName), maxSize, maxBackups);
+        }
+
         configureAuditManager(securityDomainName);
+
+        if (auditManager == null) {
+            return null;
+        }
+
+        return new AuditManagerSink(auditManager);
+    }
+
+    private AsyncAuditDispatcher createDispatcher(AuditSink sink) {
+        int bufferSize = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_BUFFER_SIZE, "4096"));
+        int batchSize = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_BATCH_SIZE, "64"));
+        int sampleRate = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.AUDIT_SAMPLE_RATE, "10"));
+        AsyncAuditDispatcher.OverflowPolicy overflowPolicy = AsyncAuditDispatcher.OverflowPolicy.valueOf(SecurityActions
+                .getSystemProperty(GeneralConstants.AUDIT_OVERFLOW_POLICY, AsyncAuditDispatcher.OverflowPolicy.BLOCK.name())
+                .toUpperCase());
+
+        return new AsyncAuditDispatcher(sink, bufferSize, batchSize, overflowPolicy, sampleRate);
     }
 
     protected void configureAuditManager(String securityDomainName) throws ConfigurationException {
@@ -76,10 +154,24 @@ public class PicketLinkAuditHelper {
      * @param ae
      */
     public void audit(AuditEvent ae) {
-        if (auditManager == null) {
+        if (auditSink == null) {
             throw logger.auditNullAuditManager();
         }
-        auditManager.audit(ae);
+        if (dispatcher == null || !dispatcher.dispatch(ae)) {
+            auditSink.write(Collections.singletonList(ae));
+        }
+    }
+
+    /**
+     * <p>
+     * Write the pending events and release the audit sink. Events audited afterwards are written by the calling
+     * thread.
+     * </p>
+     */
+    public void close() {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
     }
 
     /**
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.audit;
+
+import org.jboss.security.audit.AuditEvent;
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * {@link AuditSink} that appends the events to a local file, one line per event prefixed by the time it was written.
+ * Each batch is flushed at once.
+ * </p>
+ * <p>
+ * When the file grows beyond the maximum size it is renamed with a ".1" suffix, shifting the previous backups up to
+ * the maximum number of backups, and a new file is started.
+ * </p>
+ */
+public class RollingFileAuditSink implements AuditSink {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_BACKUPS = 5;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final File file;
+
+    private final long maxSize;
+
+    private final int maxBackups;
+
+    private final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+    private Writer writer;
+
+    private long size;
+
+    public RollingFileAuditSink(File file, long maxSize, int maxBackups) {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.maxBackups = maxBackups;
+    }
+
+    public synchronized void write(List<AuditEvent> events) {
+        try {
+            String time = this.dateFormat.format(new Date());
+
+            for (AuditEvent event : events) {
+                if (this.writer == null || this.size >= this.maxSize) {
+                    roll();
+                }
+
+                String line = time + " " + event + LINE_SEPARATOR;
+
+                this.writer.write(line);
+                this.size += line.length();
+            }
+
+            this.writer.flush();
+        } catch (IOException e) {
+            logger.error(e);
+            close();
+        }
+    }
+
+    public synchronized void close() {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (IOException ignore) {
+            }
+
+            this.writer = null;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (this.writer != null && this.size >= this.maxSize) {
+            close();
+
+            if (this.maxBackups > 0) {
+                new File(this.file.getPath() + "." + this.maxBackups).delete();
+
+                for (int i = this.maxBackups - 1; i > 0; i--) {
+                    new File(this.file.getPath() + "." + i).renameTo(new File(this.file.getPath() + "." + (i + 1)));
+                }
+
+                this.file.renameTo(new File(this.file.getPath() + ".1"));
+            } else {
+                this.file.delete();
+            }
+        }
+
+        if (this.writer == null) {
+            File parent = this.file.getAbsoluteFile().getParentFile();
+
+            if (parent != null) {
+                parent.mkdirs();
+            }
+
+            this.size = this.file.length();
+            this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8"));
+        }
+    }
+}
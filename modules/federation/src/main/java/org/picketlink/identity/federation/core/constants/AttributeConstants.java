@@ -27,6 +27,11 @@ public interface AttributeConstants {
 
     String ROLES = "roles";
 
+    /**
+     * Comma separated paths of the groups a principal is a member of
+     */
+    String GROUPS = "groups";
+
     /**
      * Default identifier in the saml2 attribute statements to indicate role *
      */
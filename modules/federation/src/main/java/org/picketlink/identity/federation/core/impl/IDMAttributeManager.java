@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.impl;
+
+import org.picketlink.identity.federation.core.interfaces.AttributeManager;
+import org.picketlink.idm.PartitionManager;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * {@link AttributeManager} that reads the attributes of the principal from the PicketLink IDM user with the same login
+ * name: its "loginName", "firstName", "lastName" and "email", its ad-hoc attributes, the "roles" granted to it and the
+ * "groups" it is a member of.
+ * </p>
+ * <p>
+ * The data of each principal is cached by an {@link IDMPrincipalCache}, which can be shared with an
+ * {@link IDMRoleGenerator}. When created with the default constructor, the {@link PartitionManager} is looked up in
+ * JNDI, see {@link IDMPrincipalCache#create(PartitionManager)}.
+ * </p>
+ */
+public class IDMAttributeManager implements AttributeManager {
+
+    private final PartitionManager partitionManager;
+
+    private volatile IDMPrincipalCache cache;
+
+    public IDMAttributeManager() {
+        this((PartitionManager) null);
+    }
+
+    public IDMAttributeManager(PartitionManager partitionManager) {
+        this.partitionManager = partitionManager;
+    }
+
+    public IDMAttributeManager(IDMPrincipalCache cache) {
+        this.partitionManager = null;
+        this.cache = cache;
+    }
+
+    /**
+     * @see AttributeManager#getAttributes(Principal, List)
+     */
+    public Map<String, Object> getAttributes(Principal userPrincipal, List<String> attributeKeys) {
+        Map<String, Object> attributes = getCache().getAttributes(userPrincipal.getName());
+
+        if (attributeKeys == null || attributeKeys.isEmpty()) {
+            return new HashMap<String, Object>(attributes);
+        }
+
+        Map<String, Object> result = new HashMap<String, Object>();
+
+        for (String attributeKey : attributeKeys) {
+            Object value = attributes.get(attributeKey);
+
+            if (value != null) {
+                result.put(attributeKey, value);
+            }
+        }
+
+        return result;
+    }
+
+    private IDMPrincipalCache getCache() {
+        if (this.cache == null) {
+            this.cache = IDMPrincipalCache.create(this.partitionManager);
+        }
+
+        return this.cache;
+    }
+}
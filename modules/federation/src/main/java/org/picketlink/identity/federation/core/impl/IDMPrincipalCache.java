@@ -0,0 +1,330 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.impl;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.identity.federation.core.constants.AttributeConstants;
+import org.picketlink.identity.federation.core.util.BoundedCache;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Bounded cache of the attributes, roles and groups of the principals, loaded from a PicketLink IDM
+ * {@link PartitionManager}. The same cache can be given to an {@link IDMAttributeManager} and an
+ * {@link IDMRoleGenerator}, so that they share the data of the principals.
+ * </p>
+ * <p>
+ * The data of a principal is loaded with one query for the user and one query for all its relationships, from which
+ * the granted roles and the group memberships are read. The roles granted to the groups of the user, and to their
+ * parent groups, are then read with one more query, so that the user has the same roles as when they are checked with
+ * {@link BasicModel#hasRole(RelationshipManager, IdentityType, org.picketlink.idm.model.basic.Role)}. The data is kept
+ * for the configured time to live, and the least recently used principals are evicted once the cache is full.
+ * </p>
+ */
+public class IDMPrincipalCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final String DEFAULT_PARTITION_MANAGER_JNDI_NAME = "java:comp/env/picketlink/PartitionManager";
+
+    public static final long DEFAULT_TTL = 60 * 1000L;
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final PartitionManager partitionManager;
+
+    private final String realmName;
+
+    private final long ttl;
+
+    private final BoundedCache<String, CachedPrincipal> principals;
+
+    private volatile Partition partition;
+
+    /**
+     * @param partitionManager the partition manager the principals are loaded from
+     * @param realmName the name of the realm of the principals
+     * @param maxSize the maximum number of principals kept
+     * @param ttl the time, in milliseconds, the data of a principal is kept
+     */
+    public IDMPrincipalCache(PartitionManager partitionManager, String realmName, int maxSize, long ttl) {
+        if (partitionManager == null)
+            throw logger.nullArgumentError("partitionManager");
+
+        this.partitionManager = partitionManager;
+        this.realmName = realmName;
+        this.ttl = ttl;
+        this.principals = new BoundedCache<String, CachedPrincipal>(maxSize);
+    }
+
+    /**
+     * <p>
+     * Create a cache for the given partition manager. The realm, time to live and size of the cache are read from the
+     * "picketlink.idm.realm", "picketlink.idm.cache.ttl" and "picketlink.idm.cache.max_size" system properties.
+     * </p>
+     *
+     * @param partitionManager the partition manager, or null to use the one bound to the JNDI name in the
+     * "picketlink.idm.partition_manager_jndi_name" system property
+     *
+     * @return
+     */
+    public static IDMPrincipalCache create(PartitionManager partitionManager) {
+        if (partitionManager == null) {
+            partitionManager = lookupPartitionManager();
+        }
+
+        String realmName = SecurityActions.getSystemProperty(GeneralConstants.IDM_REALM, Realm.DEFAULT_REALM);
+        int maxSize = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.IDM_CACHE_MAX_SIZE,
+                String.valueOf(DEFAULT_MAX_SIZE)));
+        long ttl = Long.parseLong(SecurityActions.getSystemProperty(GeneralConstants.IDM_CACHE_TTL,
+                String.valueOf(DEFAULT_TTL)));
+
+        return new IDMPrincipalCache(partitionManager, realmName, maxSize, ttl);
+    }
+
+    /**
+     * Get the attributes of the user with the given login name, with its "roles" and "groups"
+     *
+     * @param principalName
+     *
+     * @return an unmodifiable map, empty if the user does not exist
+     */
+    public Map<String, Object> getAttributes(String principalName) {
+        return get(principalName).attributes;
+    }
+
+    /**
+     * Get the names of the roles granted to the user with the given login name, directly or through its groups
+     *
+     * @param principalName
+     *
+     * @return an unmodifiable list, empty if the user does not exist
+     */
+    public List<String> getRoles(String principalName) {
+        return get(principalName).roles;
+    }
+
+    /**
+     * Get the paths of the groups the user with the given login name is a member of
+     *
+     * @param principalName
+     *
+     * @return an unmodifiable list, empty if the user does not exist
+     */
+    public List<String> getGroups(String principalName) {
+        return get(principalName).groups;
+    }
+
+    /**
+     * Forget the data of a principal, so that it is loaded again when it is next used
+     *
+     * @param principalName
+     */
+    public void invalidate(String principalName) {
+        this.principals.remove(principalName);
+    }
+
+    public void invalidateAll() {
+        this.principals.clear();
+    }
+
+    private CachedPrincipal get(String principalName) {
+        CachedPrincipal principal = this.principals.get(principalName);
+
+        if (principal == null) {
+            // loaded outside the lock of the cache, so that a slow store does not block the lookups of other principals
+            long expiration = System.currentTimeMillis() + this.ttl;
+
+            principal = load(principalName);
+            this.principals.put(principalName, principal, expiration);
+        }
+
+        return principal;
+    }
+
+    private CachedPrincipal load(String principalName) {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager(getPartition());
+        User user = BasicModel.getUser(identityManager, principalName);
+
+        if (user == null) {
+            return new CachedPrincipal(Collections.<String, Object>emptyMap(), Collections.<String>emptyList(),
+                    Collections.<String>emptyList());
+        }
+
+        List<String> roles = new ArrayList<String>();
+        List<String> groups = new ArrayList<String>();
+
+        // the groups of the user and their parent groups, whose granted roles the user inherits
+        Map<String, Group> inheritingGroups = new LinkedHashMap<String, Group>();
+
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        List<Relationship> relationships = relationshipManager.createRelationshipQuery(Relationship.class)
+                .setParameter(Relationship.IDENTITY, user).getResultList();
+
+        for (Relationship relationship : relationships) {
+            if (relationship instanceof Grant) {
+                Grant grant = (Grant) relationship;
+
+                if (isSameIdentity(user, grant.getAssignee())) {
+                    addRole(roles, grant);
+                }
+            } else if (relationship instanceof GroupMembership) {
+                GroupMembership membership = (GroupMembership) relationship;
+
+                if (isSameIdentity(user, membership.getMember()) && membership.getGroup() != null) {
+                    groups.add(membership.getGroup().getPath());
+
+                    for (Group group = membership.getGroup(); group != null; group = group.getParentGroup()) {
+                        inheritingGroups.put(group.getId() != null ? group.getId() : group.getPath(), group);
+                    }
+                }
+            }
+        }
+
+        if (!inheritingGroups.isEmpty()) {
+            List<Grant> groupGrants = relationshipManager.createRelationshipQuery(Grant.class)
+                    .setParameter(Grant.ASSIGNEE, inheritingGroups.values().toArray()).getResultList();
+
+            for (Grant grant : groupGrants) {
+                for (Group group : inheritingGroups.values()) {
+                    if (isSameIdentity(group, grant.getAssignee())) {
+                        addRole(roles, grant);
+                        break;
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> attributes = new HashMap<String, Object>();
+
+        putIfNotNull(attributes, "loginName", user.getLoginName());
+        putIfNotNull(attributes, "firstName", user.getFirstName());
+        putIfNotNull(attributes, "lastName", user.getLastName());
+        putIfNotNull(attributes, "email", user.getEmail());
+
+        for (Attribute<? extends Serializable> attribute : user.getAttributes()) {
+            putIfNotNull(attributes, attribute.getName(), attribute.getValue());
+        }
+
+        attributes.put(AttributeConstants.ROLES, Collections.unmodifiableList(roles));
+
+        if (!groups.isEmpty()) {
+            StringBuilder groupPaths = new StringBuilder();
+
+            for (String group : groups) {
+                if (groupPaths.length() > 0) {
+                    groupPaths.append(',');
+                }
+
+                groupPaths.append(group);
+            }
+
+            attributes.put(AttributeConstants.GROUPS, groupPaths.toString());
+        }
+
+        return new CachedPrincipal(Collections.unmodifiableMap(attributes), Collections.unmodifiableList(roles),
+                Collections.unmodifiableList(groups));
+    }
+
+    private Partition getPartition() {
+        Partition partition = this.partition;
+
+        if (partition == null) {
+            partition = this.partitionManager.getPartition(Realm.class, this.realmName);
+
+            // a missing realm is looked up again, in case it is created later
+            this.partition = partition;
+        }
+
+        return partition;
+    }
+
+    private static void addRole(List<String> roles, Grant grant) {
+        if (grant.getRole() != null && !roles.contains(grant.getRole().getName())) {
+            roles.add(grant.getRole().getName());
+        }
+    }
+
+    private static boolean isSameIdentity(IdentityType user, IdentityType identity) {
+        if (identity == null) {
+            return false;
+        }
+
+        if (user.getId() == null) {
+            return user == identity;
+        }
+
+        return user.getId().equals(identity.getId());
+    }
+
+    private static void putIfNotNull(Map<String, Object> attributes, String name, Object value) {
+        if (value != null) {
+            attributes.put(name, value instanceof String ? value : value.toString());
+        }
+    }
+
+    private static PartitionManager lookupPartitionManager() {
+        String jndiName = SecurityActions.getSystemProperty(GeneralConstants.IDM_PARTITION_MANAGER_JNDI_NAME,
+                DEFAULT_PARTITION_MANAGER_JNDI_NAME);
+
+        try {
+            return (PartitionManager) new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            throw logger.runtimeException("Could not find the PartitionManager at " + jndiName, e);
+        }
+    }
+
+    private static class CachedPrincipal {
+
+        private final Map<String, Object> attributes;
+
+        private final List<String> roles;
+
+        private final List<String> groups;
+
+        private CachedPrincipal(Map<String, Object> attributes, List<String> roles, List<String> groups) {
+            this.attributes = attributes;
+            this.roles = roles;
+            this.groups = groups;
+        }
+    }
+}
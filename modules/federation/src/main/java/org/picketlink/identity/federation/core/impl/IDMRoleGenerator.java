@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.impl;
+
+import org.picketlink.identity.federation.core.interfaces.RoleGenerator;
+import org.picketlink.idm.PartitionManager;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * {@link RoleGenerator} that returns the names of the roles granted to the PicketLink IDM user with the same login name
+ * as the principal, including the roles granted within a group and the roles granted to its groups.
+ * </p>
+ * <p>
+ * The roles of each principal are cached by an {@link IDMPrincipalCache}, which can be shared with an
+ * {@link IDMAttributeManager}. When created with the default constructor, the {@link PartitionManager} is looked up in
+ * JNDI, see {@link IDMPrincipalCache#create(PartitionManager)}.
+ * </p>
+ */
+public class IDMRoleGenerator implements RoleGenerator {
+
+    private final PartitionManager partitionManager;
+
+    private volatile IDMPrincipalCache cache;
+
+    public IDMRoleGenerator() {
+        this((PartitionManager) null);
+    }
+
+    public IDMRoleGenerator(PartitionManager partitionManager) {
+        this.partitionManager = partitionManager;
+    }
+
+    public IDMRoleGenerator(IDMPrincipalCache cache) {
+        this.partitionManager = null;
+        this.cache = cache;
+    }
+
+    /**
+     * @see RoleGenerator#generateRoles(Principal)
+     */
+    public List<String> generateRoles(Principal principal) {
+        return new ArrayList<String>(getCache().getRoles(principal.getName()));
+    }
+
+    private IDMPrincipalCache getCache() {
+        if (this.cache == null) {
+            this.cache = IDMPrincipalCache.create(this.partitionManager);
+        }
+
+        return this.cache;
+    }
+}
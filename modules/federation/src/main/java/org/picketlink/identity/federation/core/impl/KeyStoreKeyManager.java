@@ -43,12 +43,29 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * <p>
  * KeyStore based Trust Key Manager
+ * </p>
+ * <p>
+ * The signing key, the certificates and the validating keys of the configured domains are read once from the keystore
+ * and kept in an immutable cache, so that they are resolved without using the {@link KeyStore} API. If the keystore is
+ * a file, it is checked for changes at most once per reload interval and reloaded in the background when it changes.
+ * The new keys replace the cached ones at once.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 22, 2009
@@ -57,21 +74,42 @@ public class KeyStoreKeyManager implements TrustKeyManager {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
+    /**
+     * Reloads the changed keystores of all the key managers. Its thread is only kept alive while there are reloads to
+     * run.
+     */
+    private static final ThreadPoolExecutor reloadExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "picketlink-keystore-reload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        reloadExecutor.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * An map of secret keys alive only for the duration of the program. The keys are generated on the fly. If you need
      * sophisticated key storage, then a custom version of the {@code TrustKeyManager} needs to be written that either
      * uses a
      * secure thumb drive or a TPM module or a HSM module. Also see JBoss XMLKey.
      */
-    private final Map<String, SecretKey> keys = new HashMap<String, SecretKey>();
+    private final ConcurrentMap<String, SecretKey> keys = new ConcurrentHashMap<String, SecretKey>();
 
-    private final Map<String, Object> options = new HashMap<String, Object>();
+    private final ConcurrentMap<String, Object> options = new ConcurrentHashMap<String, Object>();
 
-    private final HashMap<String, String> domainAliasMap = new HashMap<String, String>();
+    private final ConcurrentMap<String, String> domainAliasMap = new ConcurrentHashMap<String, String>();
 
     private final HashMap<String, String> authPropsMap = new HashMap<String, String>();
 
-    private KeyStore ks = null;
+    private volatile KeyCache cache;
+
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+
+    private volatile long reloadInterval = DEFAULT_RELOAD_INTERVAL;
 
     private String keyStoreURL;
 
@@ -89,13 +127,25 @@ public class KeyStoreKeyManager implements TrustKeyManager {
 
     public static final String SIGNING_KEY_ALIAS = "SigningKeyAlias";
 
+    /**
+     * The interval, in milliseconds, between the checks for changes of the keystore file. Zero or a negative value
+     * disables the reloading of the keystore.
+     */
+    public static final String KEYSTORE_RELOAD_INTERVAL = "KeyStoreReloadInterval";
+
+    public static final long DEFAULT_RELOAD_INTERVAL = 60 * 1000L;
+
     /**
      * @see TrustKeyManager#getSigningKey()
      */
     public PrivateKey getSigningKey() throws TrustKeyConfigurationException, TrustKeyProcessingException {
         try {
-            initKeyStore();
-            return (PrivateKey) ks.getKey(this.signingAlias, this.signingKeyPass);
+            KeyCache cache = getKeyCache();
+
+            if (cache.signingKey != null)
+                return cache.signingKey;
+
+            return (PrivateKey) cache.keyStore.getKey(this.signingAlias, this.signingKeyPass);
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
         } catch (NoSuchAlgorithmException e) {
@@ -116,9 +166,13 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      */
     public KeyPair getSigningKeyPair() throws TrustKeyConfigurationException, TrustKeyProcessingException {
         try {
-            initKeyStore();
+            KeyCache cache = getKeyCache();
+
+            if (cache.signingKeyPair != null)
+                return cache.signingKeyPair;
+
             PrivateKey privateKey = this.getSigningKey();
-            PublicKey publicKey = KeyStoreUtil.getPublicKey(this.ks, this.signingAlias, this.signingKeyPass);
+            PublicKey publicKey = KeyStoreUtil.getPublicKey(cache.keyStore, this.signingAlias, this.signingKeyPass);
             return new KeyPair(publicKey, privateKey);
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
@@ -134,14 +188,12 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      */
     public Certificate getCertificate(String alias) throws TrustKeyConfigurationException, TrustKeyProcessingException {
         try {
-            initKeyStore();
+            KeyCache cache = getKeyCache();
 
             if (alias == null || alias.length() == 0)
                 throw logger.keyStoreNullAlias();
 
-            return ks.getCertificate(alias);
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
+            return cache.certificates.get(alias);
         } catch (GeneralSecurityException e) {
             throw logger.keyStoreProcessingError(e);
         } catch (IOException e) {
@@ -156,17 +208,15 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         PublicKey publicKey = null;
 
         try {
-            initKeyStore();
+            KeyCache cache = getKeyCache();
 
-            Certificate cert = ks.getCertificate(alias);
+            Certificate cert = alias != null ? cache.certificates.get(alias) : null;
             if (cert != null)
                 publicKey = cert.getPublicKey();
             else
                 logger.keyStoreNullPublicKeyForAlias(alias);
 
             return publicKey;
-        } catch (KeyStoreException e) {
-            throw logger.keyStoreConfigurationError(e);
         } catch (GeneralSecurityException e) {
             throw logger.keyStoreProcessingError(e);
         } catch (IOException e) {
@@ -184,23 +234,30 @@ public class KeyStoreKeyManager implements TrustKeyManager {
     public PublicKey getValidatingKey(String domain) throws TrustKeyConfigurationException, TrustKeyProcessingException {
         PublicKey publicKey = null;
         try {
-            initKeyStore();
+            KeyCache cache = getKeyCache();
+
+            publicKey = cache.validatingKeys.get(domain);
+
+            if (publicKey != null)
+                return publicKey;
 
             String domainAlias = this.domainAliasMap.get(domain);
             if (domainAlias == null && domain.startsWith("[") && domain.endsWith("]")) {
                 // in case of IPv6 URL we need to strip [ ], because JBoss DMR is not storing attribute enclosed using [] (treating it as list)
-                domainAlias = this.domainAliasMap.get(domain.substring(1, domain.length() - 1));
+                String strippedDomain = domain.substring(1, domain.length() - 1);
+
+                publicKey = cache.validatingKeys.get(strippedDomain);
+
+                if (publicKey != null)
+                    return publicKey;
+
+                domainAlias = this.domainAliasMap.get(strippedDomain);
             }
 
             if (domainAlias == null)
                 throw logger.keyStoreMissingDomainAlias(domain);
 
-            try {
-                publicKey = KeyStoreUtil.getPublicKey(ks, domainAlias, this.keyStorePass.toCharArray());
-            } catch (UnrecoverableKeyException urke) {
-                // Try with the signing key pass
-                publicKey = KeyStoreUtil.getPublicKey(ks, domainAlias, this.signingKeyPass);
-            }
+            publicKey = getPublicKey(cache.keyStore, domainAlias);
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
         } catch (NoSuchAlgorithmException e) {
@@ -213,20 +270,10 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         return publicKey;
     }
 
-    private void initKeyStore() throws GeneralSecurityException, IOException {
-        if (ks == null) {
-            logger.keyStoreSetup();
-            this.setUpKeyStore();
-        }
-
-        if (ks == null)
-            throw logger.keyStoreNullStore();
-    }
-
     /**
      * @see TrustKeyManager#setAuthProperties(List)
      */
-    public void setAuthProperties(List<AuthPropertyType> authList) throws TrustKeyConfigurationException,
+    public synchronized void setAuthProperties(List<AuthPropertyType> authList) throws TrustKeyConfigurationException,
             TrustKeyProcessingException {
         for (AuthPropertyType auth : authList) {
             this.authPropsMap.put(auth.getKey(), auth.getValue());
@@ -241,16 +288,31 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         if (keypass == null || keypass.length() == 0)
             throw logger.keyStoreNullSigningKeyPass();
         this.signingKeyPass = keypass.toCharArray();
+
+        String reloadInterval = this.authPropsMap.get(KEYSTORE_RELOAD_INTERVAL);
+        if (reloadInterval != null && reloadInterval.length() > 0) {
+            try {
+                this.reloadInterval = Long.parseLong(reloadInterval.trim());
+            } catch (NumberFormatException e) {
+                throw logger.keyStoreConfigurationError(e);
+            }
+        }
+
+        // the keys are read again with the new properties
+        this.cache = null;
     }
 
     /**
      * @see TrustKeyManager#setValidatingAlias(List)
      */
-    public void setValidatingAlias(List<KeyValueType> aliases) throws TrustKeyConfigurationException,
+    public synchronized void setValidatingAlias(List<KeyValueType> aliases) throws TrustKeyConfigurationException,
             TrustKeyProcessingException {
         for (KeyValueType alias : aliases) {
             domainAliasMap.put(alias.getKey(), alias.getValue());
         }
+
+        // the validating keys of the new domains are cached when the keys are read again
+        this.cache = null;
     }
 
     /**
@@ -266,7 +328,11 @@ public class KeyStoreKeyManager implements TrustKeyManager {
             } catch (GeneralSecurityException e) {
                 throw logger.keyStoreProcessingError(e);
             }
-            keys.put(domain, key);
+
+            SecretKey existingKey = keys.putIfAbsent(domain, key);
+
+            if (existingKey != null)
+                key = existingKey;
         }
         return key;
     }
@@ -276,7 +342,10 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      *      java.lang.Object)
      */
     public void addAdditionalOption(String key, Object value) {
-        this.options.put(key, value);
+        if (value == null)
+            this.options.remove(key);
+        else
+            this.options.put(key, value);
     }
 
     /**
@@ -286,7 +355,76 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         return this.options.get(key);
     }
 
-    private void setUpKeyStore() throws GeneralSecurityException, IOException {
+    /**
+     * Returns the cached keys, reading them from the keystore the first time.
+     *
+     * @return
+     *
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    private KeyCache getKeyCache() throws GeneralSecurityException, IOException {
+        KeyCache current = this.cache;
+
+        if (current == null) {
+            synchronized (this) {
+                current = this.cache;
+
+                if (current == null) {
+                    logger.keyStoreSetup();
+                    current = loadKeyCache();
+                    this.cache = current;
+                }
+            }
+        } else {
+            reloadIfModified(current);
+        }
+
+        return current;
+    }
+
+    /**
+     * Checks, at most once per reload interval, if the keystore file has changed. If so, the keys are read again in the
+     * background while the current ones are still used.
+     *
+     * @param current
+     */
+    private void reloadIfModified(final KeyCache current) {
+        if (current.file == null || this.reloadInterval <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long nextCheck = this.nextReloadCheck.get();
+
+        if (now < nextCheck || !this.nextReloadCheck.compareAndSet(nextCheck, now + this.reloadInterval)) {
+            return;
+        }
+
+        if (current.file.lastModified() == current.lastModified) {
+            return;
+        }
+
+        reloadExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    KeyCache reloaded = loadKeyCache();
+
+                    synchronized (KeyStoreKeyManager.this) {
+                        // the keys may have been read again because of a configuration change
+                        if (cache == current) {
+                            cache = reloaded;
+                        }
+                    }
+                } catch (Exception e) {
+                    // the current keys are kept, and the keystore is read again on the next check
+                    logger.error(e);
+                }
+            }
+        });
+    }
+
+    private synchronized KeyCache loadKeyCache() throws GeneralSecurityException, IOException {
         // Keystore URL/Pass can be either by configuration or on the HTTPS connector
         if (this.keyStoreURL == null) {
             this.keyStoreURL = SecurityActions.getProperty("javax.net.ssl.keyStore", null);
@@ -295,8 +433,40 @@ public class KeyStoreKeyManager implements TrustKeyManager {
             this.keyStorePass = SecurityActions.getProperty("javax.net.ssl.keyStorePassword", null);
         }
 
+        File file = this.keyStoreURL != null ? new File(this.keyStoreURL) : null;
+
+        if (file != null && !file.isFile()) {
+            file = null;
+        }
+
+        // read before the keystore, so that changes made while it is read are detected by the next check
+        long lastModified = file != null ? file.lastModified() : 0;
+
         InputStream is = this.getKeyStoreInputStream(this.keyStoreURL);
-        ks = KeyStoreUtil.getKeyStore(is, keyStorePass.toCharArray());
+        KeyStore ks;
+
+        try {
+            ks = KeyStoreUtil.getKeyStore(is, keyStorePass.toCharArray());
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        if (ks == null)
+            throw logger.keyStoreNullStore();
+
+        return new KeyCache(ks, file, lastModified);
+    }
+
+    private PublicKey getPublicKey(KeyStore ks, String alias) throws GeneralSecurityException {
+        try {
+            return KeyStoreUtil.getPublicKey(ks, alias, this.keyStorePass.toCharArray());
+        } catch (UnrecoverableKeyException urke) {
+            // Try with the signing key pass
+            return KeyStoreUtil.getPublicKey(ks, alias, this.signingKeyPass);
+        }
     }
 
     /**
@@ -345,4 +515,80 @@ public class KeyStoreKeyManager implements TrustKeyManager {
             throw logger.keyStoreNotLocated(keyStore);
         return is;
     }
-}
\ No newline at end of file
+
+    /**
+     * The keys read from a keystore. Keys that can not be read when the keystore is loaded are not cached, and are read
+     * from the keystore when used, so that the errors are reported to the caller.
+     */
+    private final class KeyCache {
+
+        private final KeyStore keyStore;
+
+        private final File file;
+
+        private final long lastModified;
+
+        private final PrivateKey signingKey;
+
+        private final KeyPair signingKeyPair;
+
+        private final Map<String, Certificate> certificates;
+
+        private final Map<String, PublicKey> validatingKeys;
+
+        private KeyCache(KeyStore keyStore, File file, long lastModified) throws KeyStoreException {
+            this.keyStore = keyStore;
+            this.file = file;
+            this.lastModified = lastModified;
+
+            PrivateKey signingKey = null;
+            KeyPair signingKeyPair = null;
+
+            if (signingAlias != null) {
+                try {
+                    signingKey = (PrivateKey) keyStore.getKey(signingAlias, signingKeyPass);
+
+                    if (signingKey != null) {
+                        signingKeyPair = new KeyPair(KeyStoreUtil.getPublicKey(keyStore, signingAlias, signingKeyPass),
+                                signingKey);
+                    }
+                } catch (Exception e) {
+                    logger.trace("Signing key is not cached: " + signingAlias, e);
+                }
+            }
+
+            this.signingKey = signingKey;
+            this.signingKeyPair = signingKeyPair;
+
+            Map<String, Certificate> certificates = new HashMap<String, Certificate>();
+            Enumeration<String> aliases = keyStore.aliases();
+
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                Certificate certificate = keyStore.getCertificate(alias);
+
+                if (certificate != null) {
+                    certificates.put(alias, certificate);
+                }
+            }
+
+            this.certificates = Collections.unmodifiableMap(certificates);
+
+            Map<String, PublicKey> validatingKeys = new HashMap<String, PublicKey>();
+
+            for (Map.Entry<String, String> domainAlias : domainAliasMap.entrySet()) {
+                try {
+                    PublicKey publicKey = getPublicKey(keyStore, domainAlias.getValue());
+
+                    if (publicKey != null) {
+                        validatingKeys.put(domainAlias.getKey(), publicKey);
+                    }
+                } catch (Exception e) {
+                    logger.trace("Validating key is not cached: " + domainAlias.getValue(), e);
+                }
+            }
+
+            this.validatingKeys = Collections.unmodifiableMap(validatingKeys);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.parsers.saml.metadata;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.JBossSAMLConstants;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.common.exceptions.ParsingException;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.common.parsers.ParserNamespaceSupport;
+import org.picketlink.common.util.StaxParserUtil;
+import org.picketlink.common.util.StaxUtil;
+import org.picketlink.identity.federation.core.saml.md.providers.IndexedEntityDescriptor;
+import org.picketlink.identity.federation.core.saml.md.providers.MetadataIndex;
+import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
+import org.picketlink.identity.federation.saml.v2.metadata.IndexedEndpointType;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>
+ * Stream a SAML metadata document, usually an aggregate of many "EntityDescriptor" elements, into a
+ * {@link MetadataIndex}.
+ * </p>
+ * <p>
+ * Only the endpoints and the certificates of each entity are read, every "EntityDescriptor" is copied as compressed XML
+ * so that it can be parsed by the {@link SAMLEntityDescriptorParser} when it is needed. The memory used by the parser is
+ * bounded by the size of a single entity, whatever the size of the document.
+ * </p>
+ */
+public class SAMLMetadataIndexParser implements ParserNamespaceSupport {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final String METADATA_NSURI = JBossSAMLURIConstants.METADATA_NSURI.get();
+
+    private static final String XMLDSIG_NSURI = JBossSAMLURIConstants.XMLDSIG_NSURI.get();
+
+    private static final String X509_CERTIFICATE = "X509Certificate";
+
+    private final XMLEventFactory xmlEventFactory = XMLEventFactory.newInstance();
+
+    /**
+     * @see org.picketlink.common.parsers.ParserNamespaceSupport#parse(javax.xml.stream.XMLEventReader)
+     *
+     * @return the {@link MetadataIndex} of the document
+     */
+    public Object parse(XMLEventReader xmlEventReader) throws ParsingException {
+        Map<String, IndexedEntityDescriptor> entities = new HashMap<String, IndexedEntityDescriptor>();
+
+        // the namespaces declared by the ancestors of the current element
+        LinkedList<List<Namespace>> namespaces = new LinkedList<List<Namespace>>();
+
+        try {
+            while (xmlEventReader.hasNext()) {
+                XMLEvent xmlEvent = xmlEventReader.nextEvent();
+
+                if (xmlEvent.isStartElement()) {
+                    StartElement startElement = xmlEvent.asStartElement();
+
+                    if (isMetadataElement(startElement, JBossSAMLConstants.ENTITY_DESCRIPTOR)) {
+                        IndexedEntityDescriptor entity = indexEntity(xmlEventReader, startElement, namespaces);
+
+                        entities.put(entity.getEntityID(), entity);
+                    } else {
+                        namespaces.addLast(getNamespaces(startElement));
+                    }
+                } else if (xmlEvent.isEndElement()) {
+                    namespaces.removeLast();
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw logger.parserException(e);
+        }
+
+        return new MetadataIndex(entities);
+    }
+
+    /**
+     * @see org.picketlink.common.parsers.ParserNamespaceSupport#supports(javax.xml.namespace.QName)
+     */
+    public boolean supports(QName qname) {
+        String localPart = qname.getLocalPart();
+
+        return METADATA_NSURI.equals(qname.getNamespaceURI())
+                && (JBossSAMLConstants.ENTITIES_DESCRIPTOR.get().equals(localPart)
+                || JBossSAMLConstants.ENTITY_DESCRIPTOR.get().equals(localPart));
+    }
+
+    private IndexedEntityDescriptor indexEntity(XMLEventReader xmlEventReader, StartElement entityElement,
+                                                List<List<Namespace>> ancestorNamespaces) throws XMLStreamException, ParsingException {
+        String entityID = StaxParserUtil.getAttributeValue(entityElement, JBossSAMLConstants.ENTITY_ID.get());
+
+        if (entityID == null) {
+            throw logger.parserRequiredAttribute(JBossSAMLConstants.ENTITY_ID.get());
+        }
+
+        boolean sp = false;
+        boolean idp = false;
+        List<IndexedEndpointType> assertionConsumerServices = new ArrayList<IndexedEndpointType>();
+        List<EndpointType> spSingleLogoutServices = new ArrayList<EndpointType>();
+        List<EndpointType> idpSingleSignOnServices = new ArrayList<EndpointType>();
+        List<EndpointType> idpSingleLogoutServices = new ArrayList<EndpointType>();
+        List<String> signingCertificates = new ArrayList<String>();
+        List<String> encryptionCertificates = new ArrayList<String>();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflaterStream = new DeflaterOutputStream(bytes);
+        XMLEventWriter xmlEventWriter = getXMLEventWriter(deflaterStream);
+
+        // the copy must declare the namespaces declared by the ancestors of the entity in the document
+        xmlEventWriter.add(this.xmlEventFactory.createStartElement(entityElement.getName(), entityElement.getAttributes(),
+                getInScopeNamespaces(ancestorNamespaces, entityElement)));
+
+        int depth = 0;
+        String role = null;
+        boolean signingKey = false;
+        boolean encryptionKey = false;
+        StringBuilder certificate = null;
+
+        while (true) {
+            if (!xmlEventReader.hasNext()) {
+                throw logger.parserExpectedEndTag(JBossSAMLConstants.ENTITY_DESCRIPTOR.get());
+            }
+
+            XMLEvent xmlEvent = xmlEventReader.nextEvent();
+
+            xmlEventWriter.add(xmlEvent);
+
+            if (xmlEvent.isStartElement()) {
+                StartElement startElement = xmlEvent.asStartElement();
+                String nsURI = startElement.getName().getNamespaceURI();
+                String localPart = startElement.getName().getLocalPart();
+
+                depth++;
+
+                if (depth == 1) {
+                    if (isMetadataElement(startElement, JBossSAMLConstants.SP_SSO_DESCRIPTOR)) {
+                        role = localPart;
+                        sp = true;
+                    } else if (isMetadataElement(startElement, JBossSAMLConstants.IDP_SSO_DESCRIPTOR)) {
+                        role = localPart;
+                        idp = true;
+                    }
+                } else if (role != null && METADATA_NSURI.equals(nsURI)) {
+                    boolean spRole = JBossSAMLConstants.SP_SSO_DESCRIPTOR.get().equals(role);
+
+                    if (JBossSAMLConstants.KEY_DESCRIPTOR.get().equals(localPart)) {
+                        String use = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.USE.get());
+
+                        signingKey = use == null || "signing".equals(use);
+                        encryptionKey = use == null || "encryption".equals(use);
+                    } else if (JBossSAMLConstants.ASSERTION_CONSUMER_SERVICE.get().equals(localPart) && spRole) {
+                        IndexedEndpointType endpoint = getIndexedEndpoint(startElement);
+
+                        if (endpoint != null) {
+                            assertionConsumerServices.add(endpoint);
+                        }
+                    } else if (JBossSAMLConstants.SINGLE_LOGOUT_SERVICE.get().equals(localPart)) {
+                        addEndpoint(spRole ? spSingleLogoutServices : idpSingleLogoutServices, startElement);
+                    } else if (JBossSAMLConstants.SINGLE_SIGNON_SERVICE.get().equals(localPart) && !spRole) {
+                        addEndpoint(idpSingleSignOnServices, startElement);
+                    }
+                } else if ((signingKey || encryptionKey) && XMLDSIG_NSURI.equals(nsURI) && X509_CERTIFICATE.equals(localPart)) {
+                    certificate = new StringBuilder();
+                }
+            } else if (xmlEvent.isCharacters()) {
+                if (certificate != null) {
+                    certificate.append(xmlEvent.asCharacters().getData());
+                }
+            } else if (xmlEvent.isEndElement()) {
+                if (depth == 0) {
+                    break;
+                }
+
+                String localPart = xmlEvent.asEndElement().getName().getLocalPart();
+
+                if (certificate != null) {
+                    String encoded = certificate.toString().replaceAll("\\s", "");
+
+                    if (signingKey) {
+                        signingCertificates.add(encoded);
+                    }
+
+                    if (encryptionKey) {
+                        encryptionCertificates.add(encoded);
+                    }
+
+                    certificate = null;
+                } else if (JBossSAMLConstants.KEY_DESCRIPTOR.get().equals(localPart)) {
+                    signingKey = false;
+                    encryptionKey = false;
+                }
+
+                if (depth == 1) {
+                    role = null;
+                }
+
+                depth--;
+            }
+        }
+
+        try {
+            xmlEventWriter.flush();
+            xmlEventWriter.close();
+            deflaterStream.close();
+        } catch (IOException e) {
+            throw logger.parserException(e);
+        }
+
+        return new IndexedEntityDescriptor(entityID, sp, idp, assertionConsumerServices, spSingleLogoutServices,
+                idpSingleSignOnServices, idpSingleLogoutServices, signingCertificates, encryptionCertificates,
+                bytes.toByteArray());
+    }
+
+    private void addEndpoint(List<EndpointType> endpoints, StartElement startElement) {
+        String binding = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.BINDING.get());
+        String location = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.LOCATION.get());
+
+        if (binding == null || location == null) {
+            return;
+        }
+
+        EndpointType endpoint = new EndpointType(URI.create(binding), URI.create(location));
+        String responseLocation = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.RESPONSE_LOCATION.get());
+
+        if (responseLocation != null) {
+            endpoint.setResponseLocation(URI.create(responseLocation));
+        }
+
+        endpoints.add(endpoint);
+    }
+
+    private IndexedEndpointType getIndexedEndpoint(StartElement startElement) {
+        String binding = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.BINDING.get());
+        String location = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.LOCATION.get());
+
+        if (binding == null || location == null) {
+            return null;
+        }
+
+        IndexedEndpointType endpoint = new IndexedEndpointType(URI.create(binding), URI.create(location));
+        String isDefault = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.ISDEFAULT.get());
+
+        if (isDefault != null) {
+            endpoint.setIsDefault(Boolean.parseBoolean(isDefault));
+        }
+
+        String index = StaxParserUtil.getAttributeValue(startElement, JBossSAMLConstants.INDEX.get());
+
+        if (index != null) {
+            endpoint.setIndex(Integer.parseInt(index));
+        }
+
+        return endpoint;
+    }
+
+    private boolean isMetadataElement(StartElement startElement, JBossSAMLConstants element) {
+        QName name = startElement.getName();
+
+        return METADATA_NSURI.equals(name.getNamespaceURI()) && element.get().equals(name.getLocalPart());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Namespace> getNamespaces(StartElement startElement) {
+        List<Namespace> namespaces = new ArrayList<Namespace>();
+        Iterator<Namespace> iterator = startElement.getNamespaces();
+
+        while (iterator.hasNext()) {
+            namespaces.add(iterator.next());
+        }
+
+        return namespaces;
+    }
+
+    private Iterator<Namespace> getInScopeNamespaces(List<List<Namespace>> ancestorNamespaces, StartElement startElement) {
+        Map<String, Namespace> inScope = new LinkedHashMap<String, Namespace>();
+
+        for (List<Namespace> namespaces : ancestorNamespaces) {
+            for (Namespace namespace : namespaces) {
+                inScope.put(namespace.getPrefix(), namespace);
+            }
+        }
+
+        for (Namespace namespace : getNamespaces(startElement)) {
+            inScope.put(namespace.getPrefix(), namespace);
+        }
+
+        return inScope.values().iterator();
+    }
+
+    private XMLEventWriter getXMLEventWriter(DeflaterOutputStream outputStream) throws ParsingException {
+        try {
+            return StaxUtil.getXMLEventWriter(outputStream);
+        } catch (ProcessingException e) {
+            throw logger.parserException(e);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import org.jboss.security.xacml.core.JBossPDP;
 import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.util.DocumentUtil;
 import org.picketlink.common.util.StaxUtil;
 import org.picketlink.common.util.SystemPropertiesUtil;
@@ -33,12 +34,11 @@ import org.w3c.dom.Document;
 import javax.annotation.Resource;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.ws.Provider;
 import javax.xml.ws.WebServiceContext;
 import javax.xml.ws.WebServiceProvider;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -46,6 +46,11 @@ import java.security.PrivilegedActionException;
 
 /**
  * SOAP 1.2 based XACML PDP that accepts SAML requests
+ * <p>
+ * The decisions of the PDP are cached in a {@link XACMLDecisionCache}, configured with the
+ * {@link GeneralConstants#XACML_DECISION_CACHE_TTL} and {@link GeneralConstants#XACML_DECISION_CACHE_MAX_SIZE} system
+ * properties. The cache is disabled when the time to live is 0.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 24, 2011
@@ -62,6 +67,8 @@ public class SOAPSAMLXACMLPDP implements Provider<Source> {
 
     protected PolicyDecisionPoint pdp;
 
+    protected XACMLDecisionCache decisionCache;
+
     protected String issuer = "PicketLinkPDP";
 
     public SOAPSAMLXACMLPDP() {
@@ -70,6 +77,16 @@ public class SOAPSAMLXACMLPDP implements Provider<Source> {
         } catch (PrivilegedActionException e) {
             throw new RuntimeException(e);
         }
+
+        long ttl = Long.parseLong(SecurityActions.getSystemProperty(GeneralConstants.XACML_DECISION_CACHE_TTL,
+                String.valueOf(XACMLDecisionCache.DEFAULT_TTL)));
+
+        if (ttl > 0) {
+            int maxSize = Integer.parseInt(SecurityActions.getSystemProperty(GeneralConstants.XACML_DECISION_CACHE_MAX_SIZE,
+                    String.valueOf(XACMLDecisionCache.DEFAULT_MAX_SIZE)));
+
+            decisionCache = new XACMLDecisionCache(maxSize, ttl);
+        }
     }
 
     public Source invoke(Source request) {
@@ -81,13 +98,14 @@ public class SOAPSAMLXACMLPDP implements Provider<Source> {
             }
 
             XACMLAuthzDecisionQueryType xacmlQuery = SOAPSAMLXACMLUtil.getXACMLQueryType(doc);
-            ResponseType samlResponseType = SOAPSAMLXACMLUtil.handleXACMLQuery(pdp, issuer, xacmlQuery);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            XMLStreamWriter xmlStreamWriter = StaxUtil.getXMLStreamWriter(baos);
+            ResponseType samlResponseType = SOAPSAMLXACMLUtil.handleXACMLQuery(pdp, issuer, xacmlQuery, decisionCache);
+
+            // the response is written straight into a DOM, so that it does not have to be parsed again
+            Document responseDocument = DocumentUtil.createDocument();
+            XMLStreamWriter xmlStreamWriter = StaxUtil.getXMLStreamWriter(new DOMResult(responseDocument));
 
             SAMLResponseWriter samlResponseWriter = new SAMLResponseWriter(xmlStreamWriter);
             samlResponseWriter.write(samlResponseType);
-            Document responseDocument = DocumentUtil.getDocument(new ByteArrayInputStream(baos.toByteArray()));
 
             return new DOMSource(responseDocument.getDocumentElement());
         } catch (Exception e) {
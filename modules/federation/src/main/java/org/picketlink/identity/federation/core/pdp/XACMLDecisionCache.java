@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.pdp;
+
+import org.jboss.security.xacml.core.model.context.ActionType;
+import org.jboss.security.xacml.core.model.context.AttributeType;
+import org.jboss.security.xacml.core.model.context.AttributeValueType;
+import org.jboss.security.xacml.core.model.context.EnvironmentType;
+import org.jboss.security.xacml.core.model.context.RequestType;
+import org.jboss.security.xacml.core.model.context.ResourceType;
+import org.jboss.security.xacml.core.model.context.ResultType;
+import org.jboss.security.xacml.core.model.context.SubjectType;
+import org.picketlink.common.exceptions.ConfigurationException;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.BoundedCache;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Bounded cache of the decisions of a XACML PDP, so that a request that has already been evaluated is answered without
+ * evaluating the policies again.
+ * </p>
+ * <p>
+ * Decisions are keyed by a normalized form of the subject, resource, action and environment attributes of the request,
+ * in which the attributes of each category are sorted, so that two requests that only differ in the order of their
+ * attributes share a decision. Requests with a resource content are not cached, as the content may be matched by the
+ * policies. A decision is kept for the configured time to live, and the least recently used decisions are evicted once
+ * the cache is full.
+ * </p>
+ * <p>
+ * The cache must be invalidated with {@link #invalidateAll()} when the policies are reloaded. A decision evaluated with
+ * the policies read before the invalidation is not cached afterwards.
+ * </p>
+ */
+public class XACMLDecisionCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    public static final long DEFAULT_TTL = 60 * 1000L;
+
+    private final long ttl;
+
+    private final BoundedCache<String, ResultType> decisions;
+
+    private long generation;
+
+    /**
+     * @param maxSize the maximum number of decisions kept
+     * @param ttl the time, in milliseconds, a decision is kept
+     */
+    public XACMLDecisionCache(int maxSize, long ttl) {
+        this.ttl = ttl;
+        this.decisions = new BoundedCache<String, ResultType>(maxSize);
+    }
+
+    /**
+     * <p>
+     * Compute the key of a request in the cache.
+     * </p>
+     *
+     * @param request
+     *
+     * @return the normalized request, or null if the request can not be cached
+     *
+     * @throws ConfigurationException
+     * @throws ProcessingException
+     */
+    public static String getKey(RequestType request) throws ConfigurationException, ProcessingException {
+        StringBuilder key = new StringBuilder();
+
+        for (SubjectType subject : request.getSubject()) {
+            key.append("S");
+            appendValue(key, subject.getSubjectCategory());
+            appendAttributes(key, subject.getAttribute());
+        }
+
+        for (ResourceType resource : request.getResource()) {
+            if (resource.getResourceContent() != null) {
+                return null;
+            }
+
+            key.append("R");
+            appendAttributes(key, resource.getAttribute());
+        }
+
+        ActionType action = request.getAction();
+        if (action != null) {
+            key.append("A");
+            appendAttributes(key, action.getAttribute());
+        }
+
+        EnvironmentType environment = request.getEnvironment();
+        if (environment != null) {
+            key.append("E");
+            appendAttributes(key, environment.getAttribute());
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Get the current generation of the cache, to be given back when the decision evaluated afterwards is cached
+     *
+     * @return
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Get the cached decision for a request
+     *
+     * @param key the key of the request, as computed by {@link #getKey(RequestType)}
+     *
+     * @return the result, or null if the request has to be evaluated by the PDP
+     */
+    public ResultType getDecision(String key) {
+        return this.decisions.get(key);
+    }
+
+    /**
+     * Cache the decision of the PDP for a request
+     *
+     * @param key the key of the request, as computed by {@link #getKey(RequestType)}
+     * @param result
+     * @param generation the generation of the cache when the evaluation started. The decision is not cached if the
+     * cache has been invalidated since.
+     */
+    public void putDecision(String key, ResultType result, long generation) {
+        long expiration = System.currentTimeMillis() + this.ttl;
+
+        // the generation is checked and the decision put under the same lock, so that invalidateAll() can not run
+        // in between
+        synchronized (this) {
+            if (generation == this.generation) {
+                this.decisions.put(key, result, expiration);
+            }
+        }
+    }
+
+    /**
+     * Forget all the decisions, for instance because the policies have changed
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            this.generation++;
+            this.decisions.clear();
+        }
+    }
+
+    public int size() {
+        return this.decisions.size();
+    }
+
+    private static void appendAttributes(StringBuilder key, List<AttributeType> attributes) throws ConfigurationException,
+            ProcessingException {
+        List<String> normalized = new ArrayList<String>(attributes.size());
+
+        for (AttributeType attribute : attributes) {
+            StringBuilder value = new StringBuilder("{");
+
+            appendValue(value, attribute.getAttributeId());
+            appendValue(value, attribute.getDataType());
+            appendValue(value, attribute.getIssuer());
+
+            for (AttributeValueType attributeValue : attribute.getAttributeValue()) {
+                StringBuilder content = new StringBuilder();
+
+                for (Object item : attributeValue.getContent()) {
+                    if (item instanceof Node) {
+                        content.append(DocumentUtil.getNodeAsString((Node) item));
+                    } else {
+                        content.append(item);
+                    }
+                }
+
+                appendValue(value, content.toString());
+            }
+
+            normalized.add(value.append('}').toString());
+        }
+
+        Collections.sort(normalized);
+
+        for (String attribute : normalized) {
+            key.append(attribute);
+        }
+    }
+
+    /**
+     * Values are prefixed with their length, so that values containing separators can not be confused
+     */
+    private static void appendValue(StringBuilder key, String value) {
+        if (value == null) {
+            key.append("-;");
+        } else {
+            key.append(value.length()).append(':').append(value).append(';');
+        }
+    }
+}
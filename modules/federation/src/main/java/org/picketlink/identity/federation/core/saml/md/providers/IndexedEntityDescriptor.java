@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.md.providers;
+
+import org.picketlink.common.exceptions.ParsingException;
+import org.picketlink.common.util.Base64;
+import org.picketlink.common.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.parsers.saml.metadata.SAMLEntityDescriptorParser;
+import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType.EDTChoiceType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType.EDTDescriptorChoiceType;
+import org.picketlink.identity.federation.saml.v2.metadata.IDPSSODescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.IndexedEndpointType;
+import org.picketlink.identity.federation.saml.v2.metadata.SPSSODescriptorType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>
+ * The indexed form of an {@link EntityDescriptorType}. Only the endpoints and the signing and encryption certificates
+ * of the entity are kept as objects, the rest of the descriptor is kept as compressed XML and only parsed when
+ * {@link #getEntityDescriptor()} is called.
+ * </p>
+ * <p>
+ * The parsed descriptor is softly referenced, so it is parsed again if the memory it uses was reclaimed.
+ * </p>
+ */
+public class IndexedEntityDescriptor {
+
+    private final String entityID;
+
+    private final List<IndexedEndpointType> assertionConsumerServices;
+
+    private final List<EndpointType> spSingleLogoutServices;
+
+    private final List<EndpointType> idpSingleSignOnServices;
+
+    private final List<EndpointType> idpSingleLogoutServices;
+
+    private final List<String> signingCertificates;
+
+    private final List<String> encryptionCertificates;
+
+    private final boolean sp;
+
+    private final boolean idp;
+
+    private final byte[] compressedDescriptor;
+
+    private volatile SoftReference<EntityDescriptorType> entityDescriptor;
+
+    public IndexedEntityDescriptor(String entityID, boolean sp, boolean idp,
+                                   List<IndexedEndpointType> assertionConsumerServices, List<EndpointType> spSingleLogoutServices,
+                                   List<EndpointType> idpSingleSignOnServices, List<EndpointType> idpSingleLogoutServices,
+                                   List<String> signingCertificates, List<String> encryptionCertificates,
+                                   byte[] compressedDescriptor) {
+        this.entityID = entityID;
+        this.sp = sp;
+        this.idp = idp;
+        this.assertionConsumerServices = unmodifiable(assertionConsumerServices);
+        this.spSingleLogoutServices = unmodifiable(spSingleLogoutServices);
+        this.idpSingleSignOnServices = unmodifiable(idpSingleSignOnServices);
+        this.idpSingleLogoutServices = unmodifiable(idpSingleLogoutServices);
+        this.signingCertificates = unmodifiable(signingCertificates);
+        this.encryptionCertificates = unmodifiable(encryptionCertificates);
+        this.compressedDescriptor = compressedDescriptor;
+    }
+
+    public String getEntityID() {
+        return this.entityID;
+    }
+
+    /**
+     * Whether the entity has a SPSSODescriptor
+     *
+     * @return
+     */
+    public boolean isServiceProvider() {
+        return this.sp;
+    }
+
+    /**
+     * Whether the entity has an IDPSSODescriptor
+     *
+     * @return
+     */
+    public boolean isIdentityProvider() {
+        return this.idp;
+    }
+
+    public List<IndexedEndpointType> getAssertionConsumerServices() {
+        return this.assertionConsumerServices;
+    }
+
+    public List<EndpointType> getSPSingleLogoutServices() {
+        return this.spSingleLogoutServices;
+    }
+
+    public List<EndpointType> getIDPSingleSignOnServices() {
+        return this.idpSingleSignOnServices;
+    }
+
+    public List<EndpointType> getIDPSingleLogoutServices() {
+        return this.idpSingleLogoutServices;
+    }
+
+    /**
+     * Get the certificates of the KeyDescriptors used for signing, including the ones without a use
+     *
+     * @return
+     */
+    public List<X509Certificate> getSigningCertificates() {
+        return decode(this.signingCertificates);
+    }
+
+    /**
+     * Get the certificates of the KeyDescriptors used for encryption, including the ones without a use
+     *
+     * @return
+     */
+    public List<X509Certificate> getEncryptionCertificates() {
+        return decode(this.encryptionCertificates);
+    }
+
+    /**
+     * <p>
+     * Get the complete descriptor of the entity, parsing it if needed.
+     * </p>
+     *
+     * @return
+     */
+    public EntityDescriptorType getEntityDescriptor() {
+        SoftReference<EntityDescriptorType> reference = this.entityDescriptor;
+        EntityDescriptorType descriptor = reference != null ? reference.get() : null;
+
+        if (descriptor == null) {
+            descriptor = parse();
+            this.entityDescriptor = new SoftReference<EntityDescriptorType>(descriptor);
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * Get the SPSSODescriptor of the entity, parsing it if needed.
+     *
+     * @return the descriptor or null if the entity is not a service provider
+     */
+    public SPSSODescriptorType getSPDescriptor() {
+        if (!this.sp) {
+            return null;
+        }
+
+        for (EDTChoiceType edt : getEntityDescriptor().getChoiceType()) {
+            for (EDTDescriptorChoiceType edtDesc : edt.getDescriptors()) {
+                if (edtDesc.getSpDescriptor() != null) {
+                    return edtDesc.getSpDescriptor();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the IDPSSODescriptor of the entity, parsing it if needed.
+     *
+     * @return the descriptor or null if the entity is not an identity provider
+     */
+    public IDPSSODescriptorType getIDPDescriptor() {
+        if (!this.idp) {
+            return null;
+        }
+
+        for (EDTChoiceType edt : getEntityDescriptor().getChoiceType()) {
+            for (EDTDescriptorChoiceType edtDesc : edt.getDescriptors()) {
+                if (edtDesc.getIdpDescriptor() != null) {
+                    return edtDesc.getIdpDescriptor();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private EntityDescriptorType parse() {
+        InputStream is = new InflaterInputStream(new ByteArrayInputStream(this.compressedDescriptor));
+
+        try {
+            return (EntityDescriptorType) new SAMLEntityDescriptorParser().parse(StaxParserUtil.getXMLEventReader(is));
+        } catch (ParsingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private static List<X509Certificate> decode(List<String> certificates) {
+        if (certificates.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<X509Certificate> result = new ArrayList<X509Certificate>(certificates.size());
+
+        try {
+            CertificateFactory factory = CertificateFactory.getInstance("X.509");
+
+            for (String certificate : certificates) {
+                byte[] encoded = Base64.decode(certificate);
+
+                result.add((X509Certificate) factory.generateCertificate(new ByteArrayInputStream(encoded)));
+            }
+        } catch (CertificateException e) {
+            throw new RuntimeException(e);
+        }
+
+        return result;
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.md.providers;
+
+import org.picketlink.common.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.parsers.saml.metadata.SAMLMetadataIndexParser;
+import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.SPSSODescriptorType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * <p>
+ * File based provider for large metadata aggregates. The document is streamed into a {@link MetadataIndex} keyed by
+ * entityID, instead of being parsed into a tree of descriptors, and each descriptor is only parsed when it is used.
+ * </p>
+ * <p>
+ * When the metadata is read from a URL, either injected with {@link #injectResource(URL)} or given as the "FileName"
+ * option, it is read again every "RefreshInterval" milliseconds if it has changed. The new index replaces the current one
+ * at once, and the current one is kept if the new document can not be read.
+ * </p>
+ * <p>
+ * The metadata is read by {@link #load()} once the metadata is injected, so that the first requests do not wait for a
+ * large document to be indexed.
+ * </p>
+ */
+public class IndexedMetadataProvider extends AbstractFileBasedMetadataProvider<EntitiesDescriptorType> {
+
+    public static final String REFRESH_INTERVAL_KEY = "RefreshInterval";
+
+    public static final long DEFAULT_REFRESH_INTERVAL = 5 * 60 * 1000;
+
+    private volatile MetadataIndex index;
+
+    private URL metadataResource;
+
+    private long lastModified;
+
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private Timer timer;
+
+    private boolean closed;
+
+    @Override
+    public void init(Map<String, String> options) {
+        super.init(options);
+
+        String refreshInterval = options.get(REFRESH_INTERVAL_KEY);
+
+        if (refreshInterval != null) {
+            this.refreshInterval = Long.parseLong(refreshInterval);
+        }
+    }
+
+    /**
+     * Inject the URL of the metadata, so that it can be read again when it changes
+     *
+     * @param metadataResource
+     */
+    public void injectResource(URL metadataResource) {
+        this.metadataResource = metadataResource;
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.interfaces.IMetadataProvider#getMetaData()
+     */
+    public EntitiesDescriptorType getMetaData() {
+        MetadataIndex index = getIndex();
+        EntitiesDescriptorType entitiesDescriptor = new EntitiesDescriptorType();
+
+        for (String entityID : index.getEntityIDs()) {
+            entitiesDescriptor.addEntityDescriptor(index.getEntity(entityID).getEntityDescriptor());
+        }
+
+        return entitiesDescriptor;
+    }
+
+    public boolean isMultiple() {
+        return true;
+    }
+
+    /**
+     * <p>
+     * Get the current index of the metadata, reading the metadata if it was not loaded yet.
+     * </p>
+     *
+     * @return
+     */
+    public MetadataIndex getIndex() {
+        MetadataIndex index = this.index;
+
+        if (index == null) {
+            index = load();
+        }
+
+        return index;
+    }
+
+    /**
+     * <p>
+     * Get a read-only view of the SPSSODescriptor of the service providers in the metadata, by entityID. The view always
+     * reads the current index, and a descriptor is only parsed when it is looked up.
+     * </p>
+     *
+     * @return
+     */
+    public Map<String, SPSSODescriptorType> getSPDescriptors() {
+        return new SPDescriptorMap();
+    }
+
+    /**
+     * Read the metadata again if it has changed since it was last read
+     */
+    public void refresh() {
+        URL resource = getMetadataResource();
+
+        if (resource == null) {
+            return;
+        }
+
+        try {
+            URLConnection connection = resource.openConnection();
+            long lastModified = connection.getLastModified();
+
+            if (lastModified != 0 && lastModified == this.lastModified) {
+                connection.getInputStream().close();
+                return;
+            }
+
+            MetadataIndex index = parse(connection.getInputStream());
+
+            synchronized (this) {
+                this.lastModified = lastModified;
+                this.index = index;
+            }
+        } catch (Exception e) {
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Stop refreshing the metadata. The provider can not be loaded once closed.
+     */
+    public synchronized void close() {
+        this.closed = true;
+
+        if (this.timer != null) {
+            this.timer.cancel();
+            this.timer = null;
+        }
+    }
+
+    /**
+     * <p>
+     * Read and index the metadata, and start refreshing it if it is read from a URL. It does nothing if the metadata
+     * is already loaded.
+     * </p>
+     *
+     * @return the index of the metadata
+     */
+    public synchronized MetadataIndex load() {
+        if (this.closed) {
+            throw logger.samlMetadataProviderClosedError(getClass().getName());
+        }
+
+        if (this.index != null) {
+            return this.index;
+        }
+
+        URL resource = getMetadataResource();
+
+        try {
+            if (this.metadataFileStream != null) {
+                this.index = parse(this.metadataFileStream);
+                this.metadataFileStream = null;
+            } else if (resource != null) {
+                URLConnection connection = resource.openConnection();
+
+                this.lastModified = connection.getLastModified();
+                this.index = parse(connection.getInputStream());
+            } else {
+                throw logger.injectedValueMissing("Metadata file");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (resource != null && this.refreshInterval > 0 && this.timer == null) {
+            this.timer = new Timer("picketlink-metadata-refresh", true);
+
+            this.timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, this.refreshInterval, this.refreshInterval);
+        }
+
+        return this.index;
+    }
+
+    private MetadataIndex parse(InputStream is) throws IOException {
+        try {
+            return (MetadataIndex) new SAMLMetadataIndexParser().parse(StaxParserUtil.getXMLEventReader(is));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            is.close();
+        }
+    }
+
+    private synchronized URL getMetadataResource() {
+        if (this.metadataResource == null) {
+            String fileName = requireFileInjection();
+
+            try {
+                this.metadataResource = new URL(fileName);
+            } catch (MalformedURLException notAURL) {
+                File file = new File(fileName);
+
+                if (file.isFile()) {
+                    try {
+                        this.metadataResource = file.toURI().toURL();
+                    } catch (MalformedURLException ignore) {
+                    }
+                }
+            }
+        }
+
+        return this.metadataResource;
+    }
+
+    private class SPDescriptorMap extends AbstractMap<String, SPSSODescriptorType> {
+
+        @Override
+        public SPSSODescriptorType get(Object key) {
+            IndexedEntityDescriptor entity = getIndex().getEntity((String) key);
+
+            return entity != null ? entity.getSPDescriptor() : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            IndexedEntityDescriptor entity = getIndex().getEntity((String) key);
+
+            return entity != null && entity.isServiceProvider();
+        }
+
+        @Override
+        public Set<Entry<String, SPSSODescriptorType>> entrySet() {
+            MetadataIndex index = getIndex();
+            Map<String, SPSSODescriptorType> descriptors = new HashMap<String, SPSSODescriptorType>();
+
+            for (String entityID : index.getEntityIDs()) {
+                IndexedEntityDescriptor entity = index.getEntity(entityID);
+
+                if (entity.isServiceProvider()) {
+                    descriptors.put(entityID, entity.getSPDescriptor());
+                }
+            }
+
+            return descriptors.entrySet();
+        }
+    }
+}
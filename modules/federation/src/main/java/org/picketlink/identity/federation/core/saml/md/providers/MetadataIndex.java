@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.md.providers;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * An immutable index of the {@link IndexedEntityDescriptor} of a metadata document, keyed by entityID.
+ * </p>
+ */
+public class MetadataIndex {
+
+    private final Map<String, IndexedEntityDescriptor> entities;
+
+    /**
+     * @param entities the entities by entityID, which must not be changed afterwards
+     */
+    public MetadataIndex(Map<String, IndexedEntityDescriptor> entities) {
+        this.entities = Collections.unmodifiableMap(entities);
+    }
+
+    /**
+     * Get the entity with the given entityID
+     *
+     * @param entityID
+     *
+     * @return the entity or null if the metadata does not describe it
+     */
+    public IndexedEntityDescriptor getEntity(String entityID) {
+        if (entityID == null) {
+            return null;
+        }
+
+        return this.entities.get(entityID);
+    }
+
+    public Set<String> getEntityIDs() {
+        return this.entities.keySet();
+    }
+
+    public int size() {
+        return this.entities.size();
+    }
+}
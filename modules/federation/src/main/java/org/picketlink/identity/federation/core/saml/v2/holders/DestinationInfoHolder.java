@@ -17,6 +17,10 @@
  */
 package org.picketlink.identity.federation.core.saml.v2.holders;
 
+import org.picketlink.common.util.Base64;
+import org.picketlink.common.util.DocumentUtil;
+import org.w3c.dom.Document;
+
 /**
  * Holder containing the information about a destination
  *
@@ -27,6 +31,7 @@ public class DestinationInfoHolder {
 
     private String destination;
     private String samlMessage;
+    private Document samlDocument;
     private String relayState;
 
     /**
@@ -42,14 +47,51 @@ public class DestinationInfoHolder {
         this.relayState = relayState;
     }
 
+    /**
+     * Create an holder for a SAML document, which is only encoded when it is sent
+     *
+     * @param destination The destination where the post will be sent
+     * @param samlDocument SAML document
+     * @param relayState
+     */
+    public DestinationInfoHolder(String destination, Document samlDocument, String relayState) {
+        this.destination = destination;
+        this.samlDocument = samlDocument;
+        this.relayState = relayState;
+    }
+
     public String getDestination() {
         return destination;
     }
 
+    /**
+     * Get the base64 encoded SAML message. If the holder was created with a SAML document, the document is encoded
+     * when this method is first called.
+     *
+     * @return
+     */
     public String getSamlMessage() {
+        if (samlMessage == null && samlDocument != null) {
+            try {
+                samlMessage = Base64.encodeBytes(DocumentUtil.getDocumentAsString(samlDocument).getBytes("UTF-8"),
+                        Base64.DONT_BREAK_LINES);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         return samlMessage;
     }
 
+    /**
+     * Get the SAML document, if the holder was created with one
+     *
+     * @return the document or null
+     */
+    public Document getSamlDocument() {
+        return samlDocument;
+    }
+
     public String getRelayState() {
         return relayState;
     }
@@ -26,41 +26,45 @@ import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
- * Default implementation of the SAML2 handler chain
+ * Default implementation of the SAML2 handler chain. The handlers are kept in an immutable set that is replaced when the
+ * chain changes, so that requests can iterate them concurrently without copying or locking.
  *
  * @author Anil.Saldhana@redhat.com
  * @since Oct 1, 2009
  */
 public class DefaultSAML2HandlerChain implements SAML2HandlerChain {
 
-    private Set<SAML2Handler> handlers = new LinkedHashSet<SAML2Handler>();
+    private volatile Set<SAML2Handler> handlers = Collections.emptySet();
 
     /**
      * @see SAML2HandlerChain#add(SAML2Handler)
      */
-    public boolean add(SAML2Handler handler) {
-        return handlers.add(handler);
+    public synchronized boolean add(SAML2Handler handler) {
+        return addAll(Collections.singleton(handler));
     }
 
     /**
      * @see SAML2HandlerChain#add(SAML2Handler)
      */
-    public boolean addAll(Collection<SAML2Handler> handlers) {
-        return this.handlers.addAll(handlers);
+    public synchronized boolean addAll(Collection<SAML2Handler> handlers) {
+        Set<SAML2Handler> newHandlers = new LinkedHashSet<SAML2Handler>(this.handlers);
+        boolean changed = newHandlers.addAll(handlers);
+        this.handlers = Collections.unmodifiableSet(newHandlers);
+        return changed;
     }
 
     /**
      * @see SAML2HandlerChain#handlers()
      */
     public Set<SAML2Handler> handlers() {
-        return Collections.unmodifiableSet(handlers);
+        return handlers;
     }
 
     /**
      * @see SAML2HandlerChain#remove(SAML2Handler)
      */
-    public boolean remove(SAML2Handler handler) {
-        return handlers.remove(handler);
+    public synchronized boolean remove(SAML2Handler handler) {
+        return removeAll(Collections.singleton(handler));
     }
 
     /**
@@ -73,7 +77,10 @@ public class DefaultSAML2HandlerChain implements SAML2HandlerChain {
     /**
      * @see SAML2HandlerChain#removeAll(Collection)
      */
-    public boolean removeAll(Collection<SAML2Handler> handlers) {
-        return handlers.removeAll(handlers);
+    public synchronized boolean removeAll(Collection<SAML2Handler> handlers) {
+        Set<SAML2Handler> newHandlers = new LinkedHashSet<SAML2Handler>(this.handlers);
+        boolean changed = newHandlers.removeAll(handlers);
+        this.handlers = Collections.unmodifiableSet(newHandlers);
+        return changed;
     }
-}
\ No newline at end of file
+}
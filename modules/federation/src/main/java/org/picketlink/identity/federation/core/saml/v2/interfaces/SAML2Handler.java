@@ -47,6 +47,12 @@ public interface SAML2Handler {
 
     String ROLE_KEY = "ROLE_KEY";
 
+    String ASSERTION_REPLAY_CHECK = "ASSERTION_REPLAY_CHECK";
+
+    String REPLAY_CACHE_FILE = "REPLAY_CACHE_FILE";
+
+    String REPLAY_CACHE_STORE = "REPLAY_CACHE_STORE";
+
     /**
      * Processing Point - idp side or service side
      */
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.interfaces;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Marks a {@link SAML2Handler} that only changes its instance state while it is initialized. All the state of a
+ * request is kept in the {@link SAML2HandlerRequest} and {@link SAML2HandlerResponse}, so the handler can process any
+ * number of requests concurrently and {@link SAML2Handler#reset()} is never needed between them.
+ * </p>
+ * <p>
+ * A handler chain made only of stateless handlers is never locked, even if locking is enabled in the configuration.
+ * The annotation is not inherited, so a subclass of a stateless handler is locked and reset unless it is annotated
+ * itself.
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StatelessSAML2Handler {
+}
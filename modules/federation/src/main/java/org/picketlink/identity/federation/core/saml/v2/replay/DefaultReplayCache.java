@@ -0,0 +1,282 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.replay;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.util.SharedScheduler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A lock-free, in-memory {@link ReplayCache}. Accepted ids are kept in a concurrent map and indexed in buckets by their
+ * expiration, so that a background task of the {@link SharedScheduler} drops whole buckets once their ids expire,
+ * without scanning the live ids.
+ * </p>
+ * <p>
+ * The cache is bounded: once it holds the maximum number of ids, new ids are rejected until some of the ids held
+ * expire. Ids are never evicted before their expiration, as the messages that carry them could be replayed. Accepted
+ * ids can optionally be written to a {@link ReplayCacheStore}, which is read when the cache is created. When a store is
+ * configured, an id that can not be written is not accepted.
+ * </p>
+ */
+public class DefaultReplayCache implements ReplayCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * Default maximum number of ids kept by the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /**
+     * Default duration, in milliseconds, of a bucket.
+     */
+    public static final long DEFAULT_BUCKET_DURATION = 60 * 1000L;
+
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<String, Long>();
+
+    private final ConcurrentNavigableMap<Long, Queue<String>> buckets = new ConcurrentSkipListMap<Long, Queue<String>>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong replays = new AtomicLong();
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    private final int maxEntries;
+
+    private final long bucketDuration;
+
+    private final ReplayCacheStore store;
+
+    private final SharedScheduler.ScheduledTask purgeTask;
+
+    public DefaultReplayCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_BUCKET_DURATION, null);
+    }
+
+    /**
+     * @param maxEntries the maximum number of ids kept by the cache
+     * @param bucketDuration the duration, in milliseconds, of each bucket. Expired buckets are dropped once per bucket
+     * duration.
+     * @param store the persistent store of the accepted ids. It can be null.
+     */
+    public DefaultReplayCache(int maxEntries, long bucketDuration, ReplayCacheStore store) {
+        if (maxEntries <= 0)
+            throw logger.invalidArgumentError("maxEntries must be greater than zero");
+        if (bucketDuration <= 0)
+            throw logger.invalidArgumentError("bucketDuration must be greater than zero");
+
+        this.maxEntries = maxEntries;
+        this.bucketDuration = bucketDuration;
+        this.store = store;
+
+        if (store != null) {
+            try {
+                long now = System.currentTimeMillis();
+
+                for (Map.Entry<String, Long> entry : store.load(now).entrySet()) {
+                    add(entry.getKey(), entry.getValue(), now);
+                }
+            } catch (IOException e) {
+                throw logger.runtimeException("Could not load the replay cache", e);
+            }
+        }
+
+        this.purgeTask = SharedScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                purge();
+            }
+        }, bucketDuration);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.saml.v2.replay.ReplayCache#checkAndStore(java.lang.String, long)
+     */
+    public boolean checkAndStore(String id, long expiration) throws ProcessingException {
+        if (id == null)
+            throw logger.nullArgumentError("id");
+
+        long now = currentTimeMillis();
+
+        // ids that already expired are rejected by the expiration checks, there is no need to remember them.
+        if (expiration <= now) {
+            return true;
+        }
+
+        // concurrent additions may exceed the maximum by the number of threads checking at the same time.
+        if (this.size.get() >= this.maxEntries && !this.ids.containsKey(id)) {
+            dropExpired(now);
+
+            if (this.size.get() >= this.maxEntries) {
+                this.rejections.incrementAndGet();
+                throw logger.samlReplayCacheFullError(this.maxEntries);
+            }
+        }
+
+        if (!add(id, expiration, now)) {
+            this.replays.incrementAndGet();
+            return false;
+        }
+
+        if (this.store != null) {
+            try {
+                this.store.store(id, expiration);
+            } catch (IOException e) {
+                // the id would not be known after a restart, so the message is not accepted
+                if (this.ids.remove(id, expiration)) {
+                    this.size.decrementAndGet();
+                }
+
+                throw logger.processingError(e);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.saml.v2.replay.ReplayCache#close()
+     */
+    public void close() {
+        this.purgeTask.cancel();
+
+        if (this.store != null) {
+            try {
+                this.store.close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of ids currently held by the cache.
+     *
+     * @return
+     */
+    public int getSize() {
+        return this.size.get();
+    }
+
+    /**
+     * Returns the number of replays detected by the cache.
+     *
+     * @return
+     */
+    public long getReplayCount() {
+        return this.replays.get();
+    }
+
+    /**
+     * Returns the number of ids rejected because the cache was full.
+     *
+     * @return
+     */
+    public long getRejectionCount() {
+        return this.rejections.get();
+    }
+
+    /**
+     * Drops the buckets whose ids have expired.
+     */
+    protected void purge() {
+        long now = currentTimeMillis();
+
+        dropExpired(now);
+
+        if (this.store != null) {
+            try {
+                this.store.purge(now);
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the current time, in milliseconds, used to expire the ids.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void dropExpired(long now) {
+        ConcurrentNavigableMap<Long, Queue<String>> expiredBuckets = this.buckets.headMap(now / this.bucketDuration);
+
+        Map.Entry<Long, Queue<String>> bucket;
+
+        while ((bucket = expiredBuckets.pollFirstEntry()) != null) {
+            for (String id : bucket.getValue()) {
+                Long expiration = this.ids.get(id);
+
+                // the id may have been accepted again, with a later expiration, after it expired.
+                if (expiration != null && expiration <= now && this.ids.remove(id, expiration)) {
+                    this.size.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean add(String id, long expiration, long now) {
+        Long previous = this.ids.putIfAbsent(id, expiration);
+
+        if (previous == null) {
+            this.size.incrementAndGet();
+        } else if (previous > now || !this.ids.replace(id, previous, expiration)) {
+            return false;
+        }
+
+        Long bucketIndex = expiration / this.bucketDuration;
+
+        while (true) {
+            Queue<String> bucket = this.buckets.get(bucketIndex);
+
+            if (bucket == null) {
+                Queue<String> newBucket = new ConcurrentLinkedQueue<String>();
+
+                bucket = this.buckets.putIfAbsent(bucketIndex, newBucket);
+
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+
+            bucket.offer(id);
+
+            // a purge with a later time may have dropped the bucket meanwhile, the id must be indexed by a live one
+            if (this.buckets.get(bucketIndex) == bucket) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.replay;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A {@link ReplayCacheStore} that appends each accepted id, with its expiration, as a line of a local file. The file is
+ * rewritten without the expired ids once it has grown to twice its size after the last rewrite.
+ * </p>
+ */
+public class FileReplayCacheStore implements ReplayCacheStore {
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int MIN_COMPACTION_LINES = 1024;
+
+    private final File file;
+
+    private Writer writer;
+
+    private int lines;
+
+    private int compactionThreshold = MIN_COMPACTION_LINES;
+
+    public FileReplayCacheStore(String fileName) {
+        this.file = new File(fileName);
+
+        File parent = this.file.getAbsoluteFile().getParentFile();
+
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.saml.v2.replay.ReplayCacheStore#load(long)
+     */
+    public synchronized Map<String, Long> load(long now) throws IOException {
+        Map<String, Long> ids = read(now);
+
+        rewrite(ids);
+
+        return ids;
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.saml.v2.replay.ReplayCacheStore#store(java.lang.String, long)
+     */
+    public synchronized void store(String id, long expiration) throws IOException {
+        if (this.writer == null) {
+            this.writer = newWriter();
+        }
+
+        writeLine(this.writer, id, expiration);
+        this.writer.flush();
+        this.lines++;
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.saml.v2.replay.ReplayCacheStore#purge(long)
+     */
+    public synchronized void purge(long now) throws IOException {
+        if (this.lines >= this.compactionThreshold) {
+            rewrite(read(now));
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.saml.v2.replay.ReplayCacheStore#close()
+     */
+    public synchronized void close() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    private Map<String, Long> read(long now) throws IOException {
+        Map<String, Long> ids = new HashMap<String, Long>();
+
+        if (!this.file.exists()) {
+            return ids;
+        }
+
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), ENCODING));
+
+        try {
+            String line = reader.readLine();
+
+            while (line != null) {
+                int separator = line.indexOf('\t');
+
+                // lines that were partially written are ignored.
+                if (separator > 0 && separator < line.length() - 1) {
+                    try {
+                        long expiration = Long.parseLong(line.substring(0, separator));
+
+                        if (expiration > now) {
+                            ids.put(line.substring(separator + 1), expiration);
+                        }
+                    } catch (NumberFormatException ignore) {
+                    }
+                }
+
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+
+        return ids;
+    }
+
+    private void rewrite(Map<String, Long> ids) throws IOException {
+        File compactedFile = new File(this.file.getPath() + ".tmp");
+        Writer compacted = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compactedFile), ENCODING));
+
+        try {
+            for (Map.Entry<String, Long> entry : ids.entrySet()) {
+                writeLine(compacted, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            compacted.close();
+        }
+
+        close();
+
+        if (this.file.exists() && !this.file.delete()) {
+            throw new IOException("Could not replace replay cache file " + this.file);
+        }
+
+        if (!compactedFile.renameTo(this.file)) {
+            throw new IOException("Could not rename " + compactedFile + " to " + this.file);
+        }
+
+        this.writer = newWriter();
+        this.lines = ids.size();
+        this.compactionThreshold = Math.max(MIN_COMPACTION_LINES, ids.size() * 2);
+    }
+
+    private Writer newWriter() throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), ENCODING));
+    }
+
+    private void writeLine(Writer output, String id, long expiration) throws IOException {
+        output.write(Long.toString(expiration));
+        output.write('\t');
+        output.write(id);
+        output.write('\n');
+    }
+}
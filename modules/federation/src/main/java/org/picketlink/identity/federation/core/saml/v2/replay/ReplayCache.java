@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.replay;
+
+import org.picketlink.common.exceptions.ProcessingException;
+
+/**
+ * <p>
+ * Remembers the ids of the SAML messages and assertions that were already accepted, so that they can not be replayed
+ * while they are still valid.
+ * </p>
+ */
+public interface ReplayCache {
+
+    /**
+     * <p>
+     * Atomically checks whether the given id was already accepted and, if not, remembers it until the given expiration.
+     * </p>
+     *
+     * @param id the id of the message or assertion.
+     * @param expiration the time, in milliseconds, after which the message or assertion is no longer accepted.
+     *
+     * @return {@code true} if the id was not seen before, {@code false} if it is a replay.
+     *
+     * @throws ProcessingException if the id can not be remembered, eg.: because the cache is full. The message must be
+     * rejected, as a replay could not be detected later.
+     */
+    boolean checkAndStore(String id, long expiration) throws ProcessingException;
+
+    /**
+     * <p>
+     * Releases the resources held by the cache.
+     * </p>
+     */
+    void close();
+}
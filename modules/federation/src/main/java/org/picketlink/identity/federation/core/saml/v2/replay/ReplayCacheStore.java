@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.replay;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * <p>
+ * A persistent backend for the {@link DefaultReplayCache}, used to keep the accepted ids across restarts. Lookups are
+ * always served from memory, the store is only written when an id is accepted and read when the cache is created.
+ * </p>
+ */
+public interface ReplayCacheStore {
+
+    /**
+     * <p>
+     * Loads the ids that are still valid.
+     * </p>
+     *
+     * @param now the current time in milliseconds.
+     *
+     * @return a {@code Map} with the ids and their expiration in milliseconds.
+     *
+     * @throws IOException
+     */
+    Map<String, Long> load(long now) throws IOException;
+
+    /**
+     * <p>
+     * Stores an accepted id.
+     * </p>
+     *
+     * @param id the id of the message or assertion.
+     * @param expiration the expiration of the id in milliseconds.
+     *
+     * @throws IOException
+     */
+    void store(String id, long expiration) throws IOException;
+
+    /**
+     * <p>
+     * Invoked periodically, so that the store can discard the ids that expired.
+     * </p>
+     *
+     * @param now the current time in milliseconds.
+     *
+     * @throws IOException
+     */
+    void purge(long now) throws IOException;
+
+    /**
+     * <p>
+     * Releases the resources held by the store.
+     * </p>
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
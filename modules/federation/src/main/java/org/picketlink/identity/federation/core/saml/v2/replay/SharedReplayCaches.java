@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.replay;
+
+import org.picketlink.common.exceptions.ProcessingException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Keeps the {@link ReplayCache} instances shared by the handler chains built from the same provider configuration. A
+ * cache is created by the first handler that acquires it and closed when the last handler releases it.
+ * </p>
+ * <p>
+ * When a handler chain is rebuilt, eg.: after a configuration reload, the new handlers acquire the cache before the
+ * previous chain is torn down, so the ids accepted by the previous chain are still rejected if replayed.
+ * </p>
+ */
+public final class SharedReplayCaches {
+
+    private static final Map<String, SharedReplayCache> caches = new HashMap<String, SharedReplayCache>();
+
+    private SharedReplayCaches() {
+    }
+
+    /**
+     * Creates the caches that are not shared yet.
+     */
+    public interface Factory {
+
+        ReplayCache create() throws ProcessingException;
+    }
+
+    /**
+     * <p>
+     * Returns the cache with the given key, creating it if no handler holds it.
+     * </p>
+     *
+     * @param key identifies the provider configuration the cache belongs to.
+     * @param factory creates the cache.
+     *
+     * @return the shared cache.
+     *
+     * @throws ProcessingException if the cache could not be created.
+     */
+    public static synchronized ReplayCache acquire(String key, Factory factory) throws ProcessingException {
+        SharedReplayCache shared = caches.get(key);
+
+        if (shared == null) {
+            shared = new SharedReplayCache(factory.create());
+            caches.put(key, shared);
+        }
+
+        shared.references++;
+
+        return shared.cache;
+    }
+
+    /**
+     * <p>
+     * Releases a cache. The cache is closed if no other handler holds it.
+     * </p>
+     *
+     * @param cache the cache.
+     */
+    public static synchronized void release(ReplayCache cache) {
+        Iterator<SharedReplayCache> iterator = caches.values().iterator();
+
+        while (iterator.hasNext()) {
+            SharedReplayCache shared = iterator.next();
+
+            if (shared.cache == cache) {
+                if (--shared.references == 0) {
+                    iterator.remove();
+                    cache.close();
+                }
+
+                return;
+            }
+        }
+    }
+
+    private static class SharedReplayCache {
+
+        private final ReplayCache cache;
+
+        private int references;
+
+        SharedReplayCache(ReplayCache cache) {
+            this.cache = cache;
+        }
+    }
+}
@@ -26,7 +26,11 @@ import org.picketlink.config.federation.handler.Handlers;
 import org.picketlink.identity.federation.core.saml.v2.impl.DefaultSAML2HandlerConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerConfig;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -73,6 +77,66 @@ public class HandlerUtil {
         return handlerSet;
     }
 
+    /**
+     * Checks if the class of the given handler is annotated with {@link StatelessSAML2Handler}. Subclasses of a
+     * stateless handler are not stateless unless they are annotated themselves.
+     *
+     * @param handler
+     *
+     * @return
+     */
+    public static boolean isStateless(SAML2Handler handler) {
+        return handler.getClass().isAnnotationPresent(StatelessSAML2Handler.class);
+    }
+
+    /**
+     * Checks if all the given handlers are {@link StatelessSAML2Handler}s, in which case they can process requests
+     * concurrently.
+     *
+     * @param handlers
+     *
+     * @return
+     */
+    public static boolean isStateless(Collection<SAML2Handler> handlers) {
+        for (SAML2Handler handler : handlers) {
+            if (!isStateless(handler)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if the given handlers must be serialized by the chain lock, which is only the case if locking is enabled
+     * and some of the handlers keep per-request state.
+     *
+     * @param handlersConfig
+     * @param handlers
+     *
+     * @return
+     */
+    public static boolean requiresLocking(Handlers handlersConfig, Collection<SAML2Handler> handlers) {
+        return handlersConfig != null && handlersConfig.isLocking() && !isStateless(handlers);
+    }
+
+    /**
+     * Closes the handlers that hold resources, once the chain they belong to is no longer used.
+     *
+     * @param handlers
+     */
+    public static void closeHandlers(Collection<SAML2Handler> handlers) {
+        for (SAML2Handler handler : handlers) {
+            if (handler instanceof Closeable) {
+                try {
+                    ((Closeable) handler).close();
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+            }
+        }
+    }
+
     private static SAML2Handler createInstance(Handler handler) throws ConfigurationException {
         Class<?> clazz = handler.getType();
 
@@ -30,6 +30,7 @@ import org.picketlink.common.exceptions.ProcessingException;
 import org.picketlink.common.util.DocumentUtil;
 import org.picketlink.common.util.StaxParserUtil;
 import org.picketlink.identity.federation.core.factories.XACMLContextFactory;
+import org.picketlink.identity.federation.core.pdp.XACMLDecisionCache;
 import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
 import org.picketlink.identity.federation.core.parsers.saml.xacml.SAMLXACMLRequestParser;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
@@ -104,23 +105,53 @@ public class SOAPSAMLXACMLUtil {
         throw new RuntimeException("Not found XACMLAuthzDecisionStatementType");
     }
 
-    public static synchronized org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
+    public static org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
             PolicyDecisionPoint pdp, String issuer, XACMLAuthzDecisionQueryType xacmlRequest) throws ProcessingException,
             ConfigurationException {
+        return handleXACMLQuery(pdp, issuer, xacmlRequest, null);
+    }
+
+    /**
+     * Evaluate the XACML Authorization Decision Query and create the SAML response, answering the query from the
+     * given cache when it has the decision for the request
+     *
+     * @param pdp
+     * @param issuer
+     * @param xacmlRequest
+     * @param decisionCache the cache of the decisions of the pdp, or null
+     *
+     * @return
+     *
+     * @throws ProcessingException
+     * @throws ConfigurationException
+     */
+    public static org.picketlink.identity.federation.saml.v2.protocol.ResponseType handleXACMLQuery(
+            PolicyDecisionPoint pdp, String issuer, XACMLAuthzDecisionQueryType xacmlRequest,
+            XACMLDecisionCache decisionCache) throws ProcessingException, ConfigurationException {
         RequestType requestType = xacmlRequest.getRequest();
 
-        RequestContext requestContext = new JBossRequestContext();
-        try {
-            requestContext.setRequest(requestType);
-        } catch (IOException e) {
-            throw new ProcessingException(e);
+        String key = null;
+        ResultType resultType = null;
+
+        if (decisionCache != null) {
+            key = XACMLDecisionCache.getKey(requestType);
+
+            if (key != null) {
+                resultType = decisionCache.getDecision(key);
+            }
         }
 
-        // pdp evaluation is thread safe
-        ResponseContext responseContext = pdp.evaluate(requestContext);
+        if (resultType == null) {
+            long generation = decisionCache != null ? decisionCache.getGeneration() : 0;
+
+            resultType = evaluate(pdp, requestType);
+
+            if (key != null) {
+                decisionCache.putDecision(key, resultType, generation);
+            }
+        }
 
         ResponseType responseType = new ResponseType();
-        ResultType resultType = responseContext.getResult();
         responseType.getResult().add(resultType);
 
         XACMLAuthzDecisionStatementType xacmlStatement = XACMLContextFactory.createXACMLAuthzDecisionStatementType(requestType,
@@ -143,4 +174,17 @@ public class SOAPSAMLXACMLUtil {
 
         return samlResponseType;
     }
-}
\ No newline at end of file
+
+    private static ResultType evaluate(PolicyDecisionPoint pdp, RequestType requestType) throws ProcessingException {
+        RequestContext requestContext = new JBossRequestContext();
+        try {
+            requestContext.setRequest(requestType);
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        }
+
+        ResponseContext responseContext = pdp.evaluate(requestContext);
+
+        return responseContext.getResult();
+    }
+}
@@ -199,9 +199,7 @@ public class ServiceProviderSAMLWorkflow {
     public void sendHttpPostBindingRequest(String destination, Document samlDocument, String relayState, HttpServletResponse response,
                                               boolean willSendRequest) throws ProcessingException, IOException,
             ConfigurationException {
-        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getDocumentAsString(samlDocument));
-
-        DestinationInfoHolder destinationHolder = new DestinationInfoHolder(destination, samlMessage, relayState);
+        DestinationInfoHolder destinationHolder = new DestinationInfoHolder(destination, samlDocument, relayState);
 
         //PostBindingUtil.sendPost(destinationHolder, response, willSendRequest);
         redirectionHandler.sendPost(destinationHolder, response, willSendRequest);
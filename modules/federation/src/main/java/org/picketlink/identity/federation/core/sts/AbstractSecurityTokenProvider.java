@@ -19,9 +19,17 @@ package org.picketlink.identity.federation.core.sts;
 
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.exceptions.ParsingException;
+import org.picketlink.common.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.interfaces.SecurityTokenProvider;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.BucketedRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.DefaultRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringTokenRegistry;
+import org.picketlink.identity.federation.core.sts.registry.FileBasedBucketedRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.FileBasedExpiringTokenRegistry;
 import org.picketlink.identity.federation.core.sts.registry.FileBasedRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.FileBasedTokenRegistry;
 import org.picketlink.identity.federation.core.sts.registry.JDBCRevocationRegistry;
@@ -30,7 +38,12 @@ import org.picketlink.identity.federation.core.sts.registry.JPABasedRevocationRe
 import org.picketlink.identity.federation.core.sts.registry.JPABasedTokenRegistry;
 import org.picketlink.identity.federation.core.sts.registry.RevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -40,7 +53,7 @@ import java.util.Map;
  * @author Anil.Saldhana@redhat.com
  * @since Jan 4, 2011
  */
-public abstract class AbstractSecurityTokenProvider implements SecurityTokenProvider {
+public abstract class AbstractSecurityTokenProvider implements SecurityTokenProvider, Closeable {
 
     protected static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
@@ -70,6 +83,8 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
 
     protected Map<String, String> properties;
 
+    private boolean closed;
+
     public void initialize(Map<String, String> properties) {
         this.properties = properties;
 
@@ -85,6 +100,24 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
                     this.tokenRegistry = new FileBasedTokenRegistry(tokenRegistryFile);
                 else
                     this.tokenRegistry = new FileBasedTokenRegistry();
+            }
+            // expiring registries are shared, so that their tokens are kept when the configuration is reloaded.
+            else if ("EXPIRING".equalsIgnoreCase(tokenRegistryOption)) {
+                this.tokenRegistry = SharedRegistries.acquire("EXPIRING",
+                    new SharedRegistries.Factory<ExpiringTokenRegistry>() {
+                        public ExpiringTokenRegistry create() {
+                            return new ExpiringTokenRegistry();
+                        }
+                    });
+            } else if ("EXPIRING_FILE".equalsIgnoreCase(tokenRegistryOption)) {
+                final String tokenRegistryFile = this.properties.get(TOKEN_REGISTRY_FILE);
+
+                this.tokenRegistry = SharedRegistries.acquire(getSharedRegistryKey("EXPIRING_FILE", tokenRegistryFile),
+                    new SharedRegistries.Factory<FileBasedExpiringTokenRegistry>() {
+                        public FileBasedExpiringTokenRegistry create() {
+                            return new FileBasedExpiringTokenRegistry(tokenRegistryFile);
+                        }
+                    });
             } else if ("JPA".equalsIgnoreCase(tokenRegistryOption)) {
                 String tokenRegistryjpa = this.properties.get(TOKEN_REGISTRY_JPA);
                 if (tokenRegistryjpa != null)
@@ -136,6 +169,24 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
                 else
                     this.revocationRegistry = new FileBasedRevocationRegistry();
             }
+            // bucketed registries drop the revoked ids once the tokens expire.
+            else if ("BUCKETED".equalsIgnoreCase(registryOption)) {
+                this.revocationRegistry = SharedRegistries.acquire("BUCKETED",
+                    new SharedRegistries.Factory<BucketedRevocationRegistry>() {
+                        public BucketedRevocationRegistry create() {
+                            return new BucketedRevocationRegistry();
+                        }
+                    });
+            } else if ("BUCKETED_FILE".equalsIgnoreCase(registryOption)) {
+                final String registryFile = this.properties.get(REVOCATION_REGISTRY_FILE);
+
+                this.revocationRegistry = SharedRegistries.acquire(getSharedRegistryKey("BUCKETED_FILE", registryFile),
+                    new SharedRegistries.Factory<FileBasedBucketedRevocationRegistry>() {
+                        public FileBasedBucketedRevocationRegistry create() {
+                            return new FileBasedBucketedRevocationRegistry(registryFile);
+                        }
+                    });
+            }
             // another option is to use the default JPA registry to store the revoked ids.
             else if ("JPA".equalsIgnoreCase(registryOption)) {
                 String configuration = this.properties.get(REVOCATION_REGISTRY_JPA_CONFIG);
@@ -174,4 +225,79 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
 
                     DefaultRevocationRegistry();
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Closes the token and revocation registries that hold resources, such as background timers or open files. This
+     * method is invoked when the configuration that created the provider is discarded. Registries shared with other
+     * providers are only closed when the last of them is closed.
+     * </p>
+     */
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        closeRegistry(this.tokenRegistry);
+        closeRegistry(this.revocationRegistry);
+    }
+
+    /**
+     * <p>
+     * Adds the id of the specified assertion to the revocation registry. If the registry is an
+     * {@code ExpiringRevocationRegistry}, the id is kept only until the {@code Conditions/NotOnOrAfter} of the
+     * assertion, or for the retention period of the registry if the assertion has none.
+     * </p>
+     *
+     * @param tokenType a {@code String} representing the security token type.
+     * @param assertionId the id of the assertion being revoked.
+     * @param assertionElement the SAML assertion being revoked.
+     *
+     * @throws ProcessingException if the revocation could not be stored.
+     */
+    protected void revokeAssertion(String tokenType, String assertionId, Element assertionElement)
+        throws ProcessingException {
+        if (this.revocationRegistry instanceof ExpiringRevocationRegistry) {
+            long expiration = ExpiringRevocationRegistry.NO_EXPIRATION;
+            String notOnOrAfter = null;
+
+            for (Node child = assertionElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child instanceof Element && "Conditions".equals(child.getLocalName())) {
+                    notOnOrAfter = ((Element) child).getAttribute("NotOnOrAfter");
+                    break;
+                }
+            }
+
+            if (notOnOrAfter != null && notOnOrAfter.length() > 0) {
+                try {
+                    expiration = XMLTimeUtil.parse(notOnOrAfter).toGregorianCalendar().getTimeInMillis();
+                } catch (ParsingException pe) {
+                    logger.debug("Could not parse NotOnOrAfter of assertion " + assertionId + ": " + pe.getMessage());
+                }
+            }
+
+            // the checked variant, so that a revocation that could not be stored fails the cancel request
+            ((ExpiringRevocationRegistry) this.revocationRegistry).revokeToken(tokenType, assertionId, expiration);
+
+            return;
+        }
+
+        this.revocationRegistry.revokeToken(tokenType, assertionId);
+    }
+
+    private void closeRegistry(Object registry) {
+        if (!SharedRegistries.release(registry) && registry instanceof Closeable) {
+            try {
+                ((Closeable) registry).close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    private String getSharedRegistryKey(String registryOption, String fileName) {
+        // the default file is resolved by the registry itself.
+        return registryOption + ":" + (fileName != null ? new File(fileName).getAbsolutePath() : "");
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Keeps the registries that are shared by all the token providers configured with the same registry option. A registry
+ * is created by the first provider that acquires it and closed when the last provider releases it.
+ * </p>
+ * <p>
+ * As a reloaded STS configuration acquires its registries before the previous configuration releases them, the tokens
+ * held in memory survive the reload and a file is never written by two registries at the same time.
+ * </p>
+ */
+final class SharedRegistries {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final Map<String, SharedRegistry> registries = new HashMap<String, SharedRegistry>();
+
+    private SharedRegistries() {
+    }
+
+    /**
+     * Creates the registries that are not shared yet.
+     */
+    interface Factory<T extends Closeable> {
+
+        T create();
+    }
+
+    /**
+     * <p>
+     * Returns the registry with the given key, creating it if no provider holds it.
+     * </p>
+     *
+     * @param key the registry option and the file it stores the data, if any.
+     * @param factory creates the registry.
+     *
+     * @return the shared registry.
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized <T extends Closeable> T acquire(String key, Factory<T> factory) {
+        SharedRegistry shared = registries.get(key);
+
+        if (shared == null) {
+            shared = new SharedRegistry(factory.create());
+            registries.put(key, shared);
+        }
+
+        shared.references++;
+
+        return (T) shared.registry;
+    }
+
+    /**
+     * <p>
+     * Releases a registry. The registry is closed if no other provider holds it.
+     * </p>
+     *
+     * @param registry the registry.
+     *
+     * @return {@code true} if the registry was acquired from this class, {@code false} otherwise.
+     */
+    static synchronized boolean release(Object registry) {
+        Iterator<SharedRegistry> iterator = registries.values().iterator();
+
+        while (iterator.hasNext()) {
+            SharedRegistry shared = iterator.next();
+
+            if (shared.registry == registry) {
+                if (--shared.references == 0) {
+                    iterator.remove();
+
+                    try {
+                        shared.registry.close();
+                    } catch (IOException e) {
+                        logger.error(e);
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static class SharedRegistry {
+
+        private final Closeable registry;
+
+        private int references;
+
+        SharedRegistry(Closeable registry) {
+            this.registry = registry;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
+import org.picketlink.identity.federation.core.util.SharedScheduler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * An in-memory {@code RevocationRegistry} that partitions the revoked ids into buckets by the expiration of their
+ * tokens. Once all the tokens of a bucket have expired they can no longer be accepted, and the whole bucket is dropped
+ * by a background task of the {@link SharedScheduler}. Ids revoked without an expiration are kept for a default
+ * retention period.
+ * </p>
+ * <p>
+ * Revocation checks are lock-free. A Bloom filter over all the revoked ids answers the common case of a token that was
+ * not revoked without looking into the buckets. The filter is rebuilt whenever buckets are dropped.
+ * </p>
+ * <p>
+ * The registry must be closed once it is no longer used, which stops the background task.
+ * </p>
+ */
+public class BucketedRevocationRegistry implements ExpiringRevocationRegistry, Closeable {
+
+    protected static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * Default duration, in milliseconds, of a bucket.
+     */
+    public static final long DEFAULT_BUCKET_DURATION = 10 * 60 * 1000L;
+
+    /**
+     * Default time, in milliseconds, that ids revoked without an expiration are kept.
+     */
+    public static final long DEFAULT_RETENTION = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Default number of ids the Bloom filter is sized for.
+     */
+    public static final int DEFAULT_EXPECTED_REVOCATIONS = 10000;
+
+    private final ConcurrentNavigableMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<Long, Set<String>>();
+
+    // revocations hold the read lock, so that the filter is never rebuilt while an id is being added.
+    private final ReadWriteLock filterLock = new ReentrantReadWriteLock();
+
+    private final long bucketDuration;
+
+    private final long retention;
+
+    private final int expectedRevocations;
+
+    private volatile BloomFilter filter;
+
+    private final SharedScheduler.ScheduledTask purgeTask;
+
+    private volatile boolean closed;
+
+    public BucketedRevocationRegistry() {
+        this(DEFAULT_BUCKET_DURATION, DEFAULT_RETENTION, DEFAULT_EXPECTED_REVOCATIONS);
+    }
+
+    /**
+     * @param bucketDuration the duration, in milliseconds, of each bucket. Expired buckets are dropped once per bucket
+     * duration.
+     * @param retention the time, in milliseconds, that ids revoked without an expiration are kept
+     * @param expectedRevocations the number of revoked ids the Bloom filter is initially sized for
+     */
+    public BucketedRevocationRegistry(long bucketDuration, long retention, int expectedRevocations) {
+        if (bucketDuration <= 0)
+            throw logger.invalidArgumentError("bucketDuration must be greater than zero");
+        if (retention <= 0)
+            throw logger.invalidArgumentError("retention must be greater than zero");
+        if (expectedRevocations <= 0)
+            throw logger.invalidArgumentError("expectedRevocations must be greater than zero");
+
+        this.bucketDuration = bucketDuration;
+        this.retention = retention;
+        this.expectedRevocations = expectedRevocations;
+        this.filter = new BloomFilter(expectedRevocations);
+        this.purgeTask = SharedScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                purge();
+            }
+        }, bucketDuration);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketlink.identity.federation.core.sts.registry.RevocationRegistry#isRevoked(java.lang.String,
+     * java.lang.String)
+     */
+    public boolean isRevoked(String tokenType, String id) {
+        String key = toKey(tokenType, id);
+
+        if (!this.filter.mightContain(key)) {
+            return false;
+        }
+
+        // buckets that are about to be purged still hold ids of expired tokens, which are rejected anyway.
+        for (Set<String> bucket : this.buckets.values()) {
+            if (bucket.contains(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Revokes an id for the default retention period. {@link RevocationRegistry#revokeToken(String, String)} can not
+     * report that the revocation could not be stored, so it is only logged: callers that must know it use
+     * {@link #revokeToken(String, String, long)} with {@link #NO_EXPIRATION}, as the token providers do. The id is
+     * revoked in memory in any case.
+     * </p>
+     *
+     * @see org.picketlink.identity.federation.core.sts.registry.RevocationRegistry#revokeToken(java.lang.String,
+     *      java.lang.String)
+     */
+    public void revokeToken(String tokenType, String id) {
+        try {
+            revokeToken(tokenType, id, NO_EXPIRATION);
+        } catch (ProcessingException e) {
+            // already logged
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry#revokeToken(java.lang.String,
+     * java.lang.String, long)
+     */
+    public void revokeToken(String tokenType, String id, long expiration) throws ProcessingException {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        checkNotClosed();
+
+        if (expiration == NO_EXPIRATION) {
+            expiration = currentTimeMillis() + this.retention;
+        } else if (expiration <= currentTimeMillis()) {
+            return;
+        }
+
+        if (addRevocation(tokenType, id, expiration)) {
+            // the id stays revoked in memory, but the caller must know that it will not survive a restart.
+            try {
+                storeRevocation(tokenType, id, expiration);
+            } catch (IOException e) {
+                logger.error(e);
+                throw logger.processingError(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of revoked ids currently held by the registry.
+     *
+     * @return
+     */
+    public int getRevocationCount() {
+        int count = 0;
+
+        for (Set<String> bucket : this.buckets.values()) {
+            count += bucket.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Stops the background purge. Tokens can no longer be revoked once the registry is closed.
+     */
+    public void close() {
+        this.closed = true;
+        this.purgeTask.cancel();
+    }
+
+    /**
+     * Returns whether the registry was closed.
+     *
+     * @return
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Adds a revoked id without persisting it, eg.: when reading the ids from a persistent store during startup.
+     *
+     * @param tokenType
+     * @param id
+     * @param expiration
+     *
+     * @return {@code true} if the id was added, {@code false} if it was already revoked or has expired.
+     */
+    protected boolean addRevocation(String tokenType, String id, long expiration) {
+        if (expiration <= currentTimeMillis()) {
+            return false;
+        }
+
+        String key = toKey(tokenType, id);
+        Long bucketIndex = expiration / this.bucketDuration;
+
+        this.filterLock.readLock().lock();
+
+        try {
+            Set<String> bucket = this.buckets.get(bucketIndex);
+
+            if (bucket == null) {
+                Set<String> newBucket = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+                bucket = this.buckets.putIfAbsent(bucketIndex, newBucket);
+
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+
+            // the filter must see the id before any lookup can find it in the bucket.
+            this.filter.put(key);
+
+            return bucket.add(key);
+        } finally {
+            this.filterLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Callback invoked after an id was revoked. Subclasses can override it to persist the revocation.
+     *
+     * @param tokenType
+     * @param id
+     * @param expiration
+     *
+     * @throws IOException
+     */
+    protected void storeRevocation(String tokenType, String id, long expiration) throws IOException {
+    }
+
+    /**
+     * Callback invoked after expired buckets were dropped.
+     */
+    protected void afterPurge() {
+    }
+
+    /**
+     * Returns the current time, in milliseconds, used to expire the revoked ids.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Throws an {@code IllegalStateException} if the registry was closed.
+     */
+    protected void checkNotClosed() {
+        if (this.closed) {
+            throw logger.stsRegistryClosedError(getClass().getName());
+        }
+    }
+
+    /**
+     * Drops all the buckets whose tokens have expired and rebuilds the Bloom filter from the remaining ids.
+     */
+    protected void purge() {
+        long firstLiveBucket = currentTimeMillis() / this.bucketDuration;
+        ConcurrentNavigableMap<Long, Set<String>> expiredBuckets = this.buckets.headMap(firstLiveBucket);
+
+        if (expiredBuckets.isEmpty()) {
+            return;
+        }
+
+        this.filterLock.writeLock().lock();
+
+        try {
+            expiredBuckets.clear();
+
+            int revocationCount = getRevocationCount();
+            BloomFilter newFilter = new BloomFilter(Math.max(this.expectedRevocations, revocationCount * 2));
+
+            for (Set<String> bucket : this.buckets.values()) {
+                for (String key : bucket) {
+                    newFilter.put(key);
+                }
+            }
+
+            this.filter = newFilter;
+        } finally {
+            this.filterLock.writeLock().unlock();
+        }
+
+        afterPurge();
+    }
+
+    /**
+     * Returns the revoked ids and their expiration, as the end of the bucket that holds them.
+     *
+     * @return
+     */
+    protected Iterator<Revocation> getRevocations() {
+        final Iterator<Map.Entry<Long, Set<String>>> bucketIterator = this.buckets.entrySet().iterator();
+
+        return new Iterator<Revocation>() {
+            private long expiration;
+
+            private Iterator<String> keyIterator = Collections.<String>emptySet().iterator();
+
+            public boolean hasNext() {
+                while (!this.keyIterator.hasNext() && bucketIterator.hasNext()) {
+                    Map.Entry<Long, Set<String>> bucket = bucketIterator.next();
+
+                    this.expiration = (bucket.getKey() + 1) * bucketDuration;
+                    this.keyIterator = bucket.getValue().iterator();
+                }
+
+                return this.keyIterator.hasNext();
+            }
+
+            public Revocation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                String key = this.keyIterator.next();
+                int separator = key.indexOf('\n');
+
+                return new Revocation(key.substring(0, separator), key.substring(separator + 1), this.expiration);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private String toKey(String tokenType, String id) {
+        return (tokenType != null ? tokenType : "") + '\n' + id;
+    }
+
+    /**
+     * A revoked id.
+     */
+    protected static class Revocation {
+
+        private final String tokenType;
+
+        private final String id;
+
+        private final long expiration;
+
+        Revocation(String tokenType, String id, long expiration) {
+            this.tokenType = tokenType;
+            this.id = id;
+            this.expiration = expiration;
+        }
+
+        public String getTokenType() {
+            return this.tokenType;
+        }
+
+        public String getId() {
+            return this.id;
+        }
+
+        public long getExpiration() {
+            return this.expiration;
+        }
+    }
+
+    /**
+     * A thread-safe Bloom filter sized for a false positive rate of about 1%.
+     */
+    private static class BloomFilter {
+
+        private static final int HASH_FUNCTIONS = 7;
+
+        private final AtomicLongArray bits;
+
+        private final int size;
+
+        BloomFilter(int expectedInsertions) {
+            // about 9.6 bits per element give a 1% false positive rate with 7 hash functions.
+            long requiredBits = Math.max(64L, (long) expectedInsertions * 10L);
+            int words = (int) Math.min(Integer.MAX_VALUE / 64, (requiredBits + 63) / 64);
+
+            this.bits = new AtomicLongArray(words);
+            this.size = words * 64;
+        }
+
+        void put(String key) {
+            int hash1 = key.hashCode();
+            int hash2 = secondaryHash(key);
+
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = index(hash1 + i * hash2);
+                int word = bit >>> 6;
+                long mask = 1L << bit;
+
+                while (true) {
+                    long current = this.bits.get(word);
+
+                    if ((current & mask) != 0 || this.bits.compareAndSet(word, current, current | mask)) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        boolean mightContain(String key) {
+            int hash1 = key.hashCode();
+            int hash2 = secondaryHash(key);
+
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = index(hash1 + i * hash2);
+
+                if ((this.bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private int index(int hash) {
+            return (hash & Integer.MAX_VALUE) % this.size;
+        }
+
+        private static int secondaryHash(String key) {
+            // FNV-1a, forced to be odd so that all the probes differ.
+            int hash = 0x811c9dc5;
+
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x01000193;
+            }
+
+            return hash | 1;
+        }
+    }
+}
@@ -17,8 +17,9 @@
  */
 package org.picketlink.identity.federation.core.sts.registry;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
@@ -33,7 +34,7 @@ import java.util.Set;
  */
 public class DefaultRevocationRegistry implements RevocationRegistry {
 
-    private static Set<String> ids = new HashSet<String>();
+    private static Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /*
      * (non-Javadoc)
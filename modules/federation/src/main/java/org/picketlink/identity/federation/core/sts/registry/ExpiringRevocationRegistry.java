@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import org.picketlink.common.exceptions.ProcessingException;
+
+/**
+ * <p>
+ * A {@code RevocationRegistry} that is aware of the expiration of the revoked tokens. Once a token expires it can no
+ * longer be accepted, so its id can be safely forgotten by the registry.
+ * </p>
+ */
+public interface ExpiringRevocationRegistry extends RevocationRegistry {
+
+    /**
+     * The expiration of a token that does not expire by itself. The registry keeps its id for a retention period of
+     * its own.
+     */
+    long NO_EXPIRATION = Long.MAX_VALUE;
+
+    /**
+     * <p>
+     * Adds the specified id to the revocation registry until the given expiration.
+     * </p>
+     *
+     * @param tokenType a {@code String} representing the security token type.
+     * @param id the id to registered.
+     * @param expiration the time, in milliseconds, after which the token is no longer valid, or {@link #NO_EXPIRATION}.
+     *
+     * @throws ProcessingException if the revocation could not be stored.
+     */
+    void revokeToken(String tokenType, String id, long expiration) throws ProcessingException;
+}
@@ -0,0 +1,473 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
+import org.picketlink.identity.federation.core.util.SharedScheduler;
+import org.picketlink.identity.federation.saml.common.CommonConditionsType;
+import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded {@link SecurityTokenRegistry} that evicts tokens once they expire. The expiration of SAML assertions is
+ * taken from their {@code Conditions/NotOnOrAfter}, any other token (or assertions without conditions) expire after a
+ * default time to live.
+ * </p>
+ * <p>
+ * Tokens are indexed by expiration using a hashed time wheel. A background task of the {@link SharedScheduler}
+ * advances the wheel once per tick and drops the expired tokens of the current slot, so eviction costs are proportional
+ * to the number of expired tokens and not to the size of the registry. When the maximum size is reached, tokens are
+ * evicted slot by slot starting from the current tick, so the tokens that expire within the next rotation of the wheel
+ * go first, but a token that expires in a later rotation may be evicted with them.
+ * </p>
+ * <p>
+ * The registry must be closed once it is no longer used, which stops the background task.
+ * </p>
+ */
+public class ExpiringTokenRegistry implements SecurityTokenRegistry, Closeable {
+
+    protected static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * Default maximum number of tokens kept by the registry.
+     */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /**
+     * Default time to live, in milliseconds, for tokens without an expiration.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 2 * 60 * 60 * 1000L;
+
+    /**
+     * Default duration, in milliseconds, of a wheel slot.
+     */
+    public static final long DEFAULT_TICK_DURATION = 1000L;
+
+    private static final int WHEEL_SIZE = 512;
+
+    private final ConcurrentMap<String, TokenEntry> tokens = new ConcurrentHashMap<String, TokenEntry>();
+
+    private final List<Queue<TokenEntry>> wheel;
+
+    private final int maxSize;
+
+    private final long defaultTimeToLive;
+
+    private final long tickDuration;
+
+    private final AtomicLong expiredEvictions = new AtomicLong();
+
+    private final AtomicLong capacityEvictions = new AtomicLong();
+
+    private final Object evictionLock = new Object();
+
+    private long lastTick;
+
+    private final SharedScheduler.ScheduledTask evictionTask;
+
+    private volatile boolean closed;
+
+    public ExpiringTokenRegistry() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE, DEFAULT_TICK_DURATION);
+    }
+
+    /**
+     * @param maxSize the maximum number of tokens kept by the registry
+     * @param defaultTimeToLive the time to live, in milliseconds, of tokens without an expiration
+     * @param tickDuration the duration, in milliseconds, of a wheel slot. The background eviction runs once per tick.
+     */
+    public ExpiringTokenRegistry(int maxSize, long defaultTimeToLive, long tickDuration) {
+        if (maxSize <= 0)
+            throw logger.invalidArgumentError("maxSize must be greater than zero");
+        if (defaultTimeToLive <= 0)
+            throw logger.invalidArgumentError("defaultTimeToLive must be greater than zero");
+        if (tickDuration <= 0)
+            throw logger.invalidArgumentError("tickDuration must be greater than zero");
+
+        this.maxSize = maxSize;
+        this.defaultTimeToLive = defaultTimeToLive;
+        this.tickDuration = tickDuration;
+        this.wheel = new ArrayList<Queue<TokenEntry>>(WHEEL_SIZE);
+
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            this.wheel.add(new ConcurrentLinkedQueue<TokenEntry>());
+        }
+
+        this.lastTick = toTick(currentTimeMillis());
+        this.evictionTask = SharedScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                evictExpired();
+            }
+        }, tickDuration);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#addToken(java.lang.String,
+     *      java.lang.Object)
+     */
+    public void addToken(String tokenID, Object token) throws IOException {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        checkNotClosed();
+
+        long now = currentTimeMillis();
+        long expiration = getExpiration(token, now + this.defaultTimeToLive);
+
+        if (expiration <= now) {
+            return;
+        }
+
+        TokenEntry entry = new TokenEntry(tokenID, token, expiration);
+
+        this.tokens.put(tokenID, entry);
+        schedule(entry);
+
+        try {
+            storeToken(entry);
+        } catch (IOException e) {
+            this.tokens.remove(tokenID, entry);
+            throw e;
+        }
+
+        if (this.tokens.size() > this.maxSize) {
+            evictOverCapacity();
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#removeToken(java.lang.String)
+     */
+    public void removeToken(String tokenID) throws IOException {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        checkNotClosed();
+
+        // the entry is left in the wheel, it is discarded when its slot is processed.
+        if (this.tokens.remove(tokenID) != null) {
+            deleteToken(tokenID);
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#getToken(java.lang.String)
+     */
+    public Object getToken(String tokenID) {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        TokenEntry entry = this.tokens.get(tokenID);
+
+        if (entry == null) {
+            return null;
+        }
+
+        // tokens that expired since the last tick are not returned.
+        if (entry.expiration <= currentTimeMillis()) {
+            return null;
+        }
+
+        return entry.token;
+    }
+
+    /**
+     * Returns the number of tokens currently held by the registry.
+     *
+     * @return
+     */
+    public int getTokenCount() {
+        return this.tokens.size();
+    }
+
+    /**
+     * Returns the number of tokens evicted because they expired.
+     *
+     * @return
+     */
+    public long getExpiredEvictionCount() {
+        return this.expiredEvictions.get();
+    }
+
+    /**
+     * Returns the number of tokens evicted because the registry reached its maximum size.
+     *
+     * @return
+     */
+    public long getCapacityEvictionCount() {
+        return this.capacityEvictions.get();
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Stops the background eviction. Tokens can no longer be added or removed once the registry is closed.
+     */
+    public void close() {
+        this.closed = true;
+        this.evictionTask.cancel();
+    }
+
+    /**
+     * Returns whether the registry was closed.
+     *
+     * @return
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * <p>
+     * Returns the expiration of the given token. SAML v1.1 and v2.0 assertions expire at their
+     * {@code Conditions/NotOnOrAfter}, any other token expires at the given default expiration.
+     * </p>
+     *
+     * @param token the token
+     * @param defaultExpiration the expiration, in milliseconds, to be used if the token has none
+     *
+     * @return the expiration of the token in milliseconds
+     */
+    public static long getExpiration(Object token, long defaultExpiration) {
+        CommonConditionsType conditions = null;
+
+        if (token instanceof AssertionType) {
+            conditions = ((AssertionType) token).getConditions();
+        } else if (token instanceof SAML11AssertionType) {
+            conditions = ((SAML11AssertionType) token).getConditions();
+        }
+
+        if (conditions != null) {
+            XMLGregorianCalendar notOnOrAfter = conditions.getNotOnOrAfter();
+
+            if (notOnOrAfter != null) {
+                return notOnOrAfter.toGregorianCalendar().getTimeInMillis();
+            }
+        }
+
+        return defaultExpiration;
+    }
+
+    /**
+     * Restores a token without persisting it, eg.: when reading the tokens from a persistent store during startup.
+     *
+     * @param tokenID
+     * @param token
+     * @param expiration
+     */
+    protected void restoreToken(String tokenID, Object token, long expiration) {
+        if (expiration <= currentTimeMillis()) {
+            return;
+        }
+
+        TokenEntry entry = new TokenEntry(tokenID, token, expiration);
+
+        this.tokens.put(tokenID, entry);
+        schedule(entry);
+    }
+
+    /**
+     * Callback invoked after a token was added to the registry. Subclasses can override it to persist the token.
+     *
+     * @param entry
+     *
+     * @throws IOException
+     */
+    protected void storeToken(TokenEntry entry) throws IOException {
+    }
+
+    /**
+     * Callback invoked after a token was removed or evicted because of the capacity of the registry. Expired tokens
+     * are not notified, as they can be discarded by the persistent store based on their expiration.
+     *
+     * @param tokenID
+     *
+     * @throws IOException
+     */
+    protected void deleteToken(String tokenID) throws IOException {
+    }
+
+    /**
+     * Callback invoked by the background eviction after each tick.
+     */
+    protected void afterEviction() {
+    }
+
+    /**
+     * Returns the live tokens of the registry.
+     *
+     * @return
+     */
+    protected Iterable<TokenEntry> getTokenEntries() {
+        return this.tokens.values();
+    }
+
+    /**
+     * Returns the current time, in milliseconds, used to expire the tokens.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Throws an {@code IllegalStateException} if the registry was closed.
+     */
+    protected void checkNotClosed() {
+        if (this.closed) {
+            throw logger.stsRegistryClosedError(getClass().getName());
+        }
+    }
+
+    /**
+     * Drops the expired tokens of all slots between the last processed tick and the current one.
+     */
+    protected void evictExpired() {
+        long now = currentTimeMillis();
+        long currentTick = toTick(now);
+
+        synchronized (this.evictionLock) {
+            // never process more than a full rotation, the remaining ticks would map to the same slots.
+            long firstTick = Math.max(this.lastTick, currentTick - WHEEL_SIZE + 1);
+
+            for (long tick = firstTick; tick <= currentTick; tick++) {
+                Queue<TokenEntry> slot = this.wheel.get(toSlot(tick));
+                int pending = slot.size();
+
+                for (int i = 0; i < pending; i++) {
+                    TokenEntry entry = slot.poll();
+
+                    if (entry == null) {
+                        break;
+                    }
+
+                    if (entry.expiration <= now) {
+                        if (this.tokens.remove(entry.tokenID, entry)) {
+                            this.expiredEvictions.incrementAndGet();
+                        }
+                    } else if (this.tokens.get(entry.tokenID) == entry) {
+                        // expires in a later rotation of the wheel.
+                        slot.offer(entry);
+                    }
+                }
+            }
+
+            this.lastTick = currentTick;
+        }
+
+        afterEviction();
+    }
+
+    /**
+     * Evicts tokens until the registry is back to its maximum size, slot by slot starting from the current tick. The
+     * slots hold the tokens of every rotation of the wheel, so this is only the order of expiration for the tokens that
+     * expire within the next rotation. The evicted tokens are deleted once the eviction lock is released.
+     *
+     * @throws IOException
+     */
+    private void evictOverCapacity() throws IOException {
+        List<String> evicted = new ArrayList<String>();
+
+        synchronized (this.evictionLock) {
+            int slotIndex = toSlot(toTick(currentTimeMillis()));
+
+            for (int i = 0; i < WHEEL_SIZE && this.tokens.size() > this.maxSize; i++) {
+                Queue<TokenEntry> slot = this.wheel.get((slotIndex + i) & (WHEEL_SIZE - 1));
+
+                while (this.tokens.size() > this.maxSize) {
+                    TokenEntry entry = slot.poll();
+
+                    if (entry == null) {
+                        break;
+                    }
+
+                    if (this.tokens.remove(entry.tokenID, entry)) {
+                        this.capacityEvictions.incrementAndGet();
+                        evicted.add(entry.tokenID);
+                    }
+                }
+            }
+        }
+
+        for (String tokenID : evicted) {
+            deleteToken(tokenID);
+        }
+    }
+
+    private void schedule(TokenEntry entry) {
+        this.wheel.get(toSlot(toTick(entry.expiration))).offer(entry);
+    }
+
+    private long toTick(long time) {
+        return time / this.tickDuration;
+    }
+
+    private int toSlot(long tick) {
+        return (int) (tick & (WHEEL_SIZE - 1));
+    }
+
+    /**
+     * A token and its expiration.
+     */
+    protected static class TokenEntry {
+
+        final String tokenID;
+
+        final Object token;
+
+        final long expiration;
+
+        TokenEntry(String tokenID, Object token, long expiration) {
+            this.tokenID = tokenID;
+            this.token = token;
+            this.expiration = expiration;
+        }
+
+        public String getTokenID() {
+            return this.tokenID;
+        }
+
+        public Object getToken() {
+            return this.token;
+        }
+
+        public long getExpiration() {
+            return this.expiration;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * A {@link BucketedRevocationRegistry} that persists the revoked ids to a file. Each revocation appends a single line
+ * with the expiration, token type and id of the revoked token. Expired lines are skipped when the file is read during
+ * startup, and the file is rewritten with the live revocations once it holds much more lines than revoked ids.
+ * </p>
+ */
+public class FileBasedBucketedRevocationRegistry extends BucketedRevocationRegistry {
+
+    protected static final String FILE_NAME = "revoked.ids.log";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int MIN_COMPACTION_LINES = 1024;
+
+    // the file that stores the revoked ids.
+    protected final File registryFile;
+
+    private Writer writer;
+
+    private int lines;
+
+    public FileBasedBucketedRevocationRegistry() {
+        this(null);
+    }
+
+    public FileBasedBucketedRevocationRegistry(String registryFileName) {
+        this(registryFileName, DEFAULT_BUCKET_DURATION, DEFAULT_RETENTION, DEFAULT_EXPECTED_REVOCATIONS);
+    }
+
+    /**
+     * @param registryFileName the file that stores the revoked ids. If null, the ids are stored in
+     * $HOME/picketlink-store/sts.
+     * @param bucketDuration the duration, in milliseconds, of each bucket
+     * @param retention the time, in milliseconds, that ids revoked without an expiration are kept
+     * @param expectedRevocations the number of revoked ids the Bloom filter is initially sized for
+     */
+    public FileBasedBucketedRevocationRegistry(String registryFileName, long bucketDuration, long retention,
+                                               int expectedRevocations) {
+        super(bucketDuration, retention, expectedRevocations);
+
+        if (registryFileName == null) {
+            // use the default location registry file location.
+            File directory = new File(System.getProperty("user.home") + File.separator + "picketlink-store"
+                + File.separator + "sts");
+
+            if (!directory.exists())
+                directory.mkdirs();
+
+            this.registryFile = new File(directory, FILE_NAME);
+        } else {
+            this.registryFile = new File(registryFileName);
+        }
+
+        try {
+            loadRevokedIds();
+            compact();
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        synchronized (this) {
+            if (this.writer != null) {
+                try {
+                    this.writer.close();
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+
+                this.writer = null;
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void storeRevocation(String tokenType, String id, long expiration) throws IOException {
+        // the registry may have been closed after the id was added to the memory.
+        checkNotClosed();
+        writeLine(this.writer, tokenType, id, expiration);
+        this.writer.flush();
+        this.lines++;
+    }
+
+    @Override
+    protected void afterPurge() {
+        synchronized (this) {
+            if (this.writer == null || this.lines < Math.max(MIN_COMPACTION_LINES, getRevocationCount() * 2)) {
+                return;
+            }
+        }
+
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Rewrites the registry file keeping only the live revocations.
+     *
+     * @throws IOException
+     */
+    protected synchronized void compact() throws IOException {
+        // a background compaction must not reopen the file of a closed registry.
+        if (isClosed()) {
+            return;
+        }
+
+        File compactedFile = new File(this.registryFile.getPath() + ".tmp");
+        Writer compacted = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compactedFile), ENCODING));
+        int compactedLines = 0;
+
+        try {
+            Iterator<Revocation> revocations = getRevocations();
+
+            while (revocations.hasNext()) {
+                Revocation revocation = revocations.next();
+
+                writeLine(compacted, revocation.getTokenType(), revocation.getId(), revocation.getExpiration());
+                compactedLines++;
+            }
+        } finally {
+            compacted.close();
+        }
+
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+
+        if (this.registryFile.exists() && !this.registryFile.delete()) {
+            throw new IOException("Could not replace revocation registry file " + this.registryFile);
+        }
+
+        if (!compactedFile.renameTo(this.registryFile)) {
+            throw new IOException("Could not rename " + compactedFile + " to " + this.registryFile);
+        }
+
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.registryFile, true), ENCODING));
+        this.lines = compactedLines;
+    }
+
+    private void loadRevokedIds() throws IOException {
+        if (!this.registryFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.registryFile), ENCODING));
+
+        try {
+            String line = reader.readLine();
+
+            while (line != null) {
+                int firstSeparator = line.indexOf('\t');
+                int secondSeparator = line.indexOf('\t', firstSeparator + 1);
+
+                // lines that were partially written are ignored.
+                if (firstSeparator > 0 && secondSeparator > firstSeparator) {
+                    try {
+                        long expiration = Long.parseLong(line.substring(0, firstSeparator));
+
+                        addRevocation(line.substring(firstSeparator + 1, secondSeparator),
+                            line.substring(secondSeparator + 1), expiration);
+                    } catch (NumberFormatException nfe) {
+                        logger.debug("Ignoring invalid revocation registry entry: " + line);
+                    }
+                }
+
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeLine(Writer output, String tokenType, String id, long expiration) throws IOException {
+        output.write(Long.toString(expiration));
+        output.write('\t');
+        output.write(tokenType != null ? tokenType : "");
+        output.write('\t');
+        output.write(id);
+        output.write('\n');
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * An {@link ExpiringTokenRegistry} that persists the tokens to an append-only log. Each addition or removal appends a
+ * single record to the log, instead of rewriting the whole registry. The log is replayed during startup, discarding the
+ * tokens that expired in the meantime, and compacted in background once it holds much more records than live tokens.
+ * </p>
+ */
+public class FileBasedExpiringTokenRegistry extends ExpiringTokenRegistry {
+
+    protected static final String FILE_NAME = "token.registry.log";
+
+    private static final byte ADD_RECORD = 1;
+
+    private static final byte REMOVE_RECORD = 2;
+
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    // the file that stores the tokens.
+    protected final File registryFile;
+
+    private DataOutputStream log;
+
+    private int records;
+
+    public FileBasedExpiringTokenRegistry() {
+        this(null);
+    }
+
+    public FileBasedExpiringTokenRegistry(String fileName) {
+        this(fileName, DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE, DEFAULT_TICK_DURATION);
+    }
+
+    /**
+     * @param fileName the log file. If null, the log is stored in $HOME/picketlink-store/sts.
+     * @param maxSize the maximum number of tokens kept by the registry
+     * @param defaultTimeToLive the time to live, in milliseconds, of tokens without an expiration
+     * @param tickDuration the duration, in milliseconds, of a wheel slot
+     */
+    public FileBasedExpiringTokenRegistry(String fileName, int maxSize, long defaultTimeToLive, long tickDuration) {
+        super(maxSize, defaultTimeToLive, tickDuration);
+
+        if (fileName == null) {
+            // use the default location registry file location.
+            File directory = new File(System.getProperty("user.home") + File.separator + "picketlink-store"
+                + File.separator + "sts");
+
+            if (!directory.exists())
+                directory.mkdirs();
+
+            this.registryFile = new File(directory, FILE_NAME);
+        } else {
+            this.registryFile = new File(fileName);
+        }
+
+        try {
+            replay();
+            compact();
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        synchronized (this) {
+            if (this.log != null) {
+                try {
+                    this.log.close();
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+
+                this.log = null;
+            }
+        }
+    }
+
+    @Override
+    protected void storeToken(TokenEntry entry) throws IOException {
+        if (!(entry.getToken() instanceof Serializable))
+            throw logger.notSerializableError("Token");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+        oos.writeObject(entry.getToken());
+        oos.close();
+
+        byte[] serializedToken = bos.toByteArray();
+
+        synchronized (this) {
+            // the registry may have been closed after the token was added to the memory.
+            checkNotClosed();
+            writeAddRecord(this.log, entry.getTokenID(), entry.getExpiration(), serializedToken);
+            this.log.flush();
+            this.records++;
+        }
+    }
+
+    @Override
+    protected void deleteToken(String tokenID) throws IOException {
+        synchronized (this) {
+            checkNotClosed();
+            this.log.writeByte(REMOVE_RECORD);
+            this.log.writeUTF(tokenID);
+            this.log.flush();
+            this.records++;
+        }
+    }
+
+    @Override
+    protected void afterEviction() {
+        synchronized (this) {
+            if (this.log == null || this.records < Math.max(MIN_COMPACTION_RECORDS, getTokenCount() * 2)) {
+                return;
+            }
+        }
+
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Rewrites the log keeping only the live tokens.
+     *
+     * @throws IOException
+     */
+    protected synchronized void compact() throws IOException {
+        // a background compaction must not reopen the log of a closed registry.
+        if (isClosed()) {
+            return;
+        }
+
+        File compactedFile = new File(this.registryFile.getPath() + ".tmp");
+        DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)));
+        int compactedRecords = 0;
+
+        try {
+            long now = currentTimeMillis();
+
+            for (TokenEntry entry : getTokenEntries()) {
+                if (entry.getExpiration() > now) {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+                    oos.writeObject(entry.getToken());
+                    oos.close();
+
+                    writeAddRecord(compacted, entry.getTokenID(), entry.getExpiration(), bos.toByteArray());
+                    compactedRecords++;
+                }
+            }
+        } finally {
+            compacted.close();
+        }
+
+        if (this.log != null) {
+            this.log.close();
+            this.log = null;
+        }
+
+        if (this.registryFile.exists() && !this.registryFile.delete()) {
+            throw new IOException("Could not replace token registry file " + this.registryFile);
+        }
+
+        if (!compactedFile.renameTo(this.registryFile)) {
+            throw new IOException("Could not rename " + compactedFile + " to " + this.registryFile);
+        }
+
+        this.log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.registryFile, true)));
+        this.records = compactedRecords;
+    }
+
+    private void replay() throws IOException {
+        if (!this.registryFile.exists()) {
+            return;
+        }
+
+        Map<String, Object[]> liveTokens = new LinkedHashMap<String, Object[]>();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.registryFile)));
+
+        try {
+            while (true) {
+                byte type;
+
+                try {
+                    type = input.readByte();
+                } catch (EOFException eof) {
+                    break;
+                }
+
+                try {
+                    String tokenID = input.readUTF();
+
+                    if (type == ADD_RECORD) {
+                        long expiration = input.readLong();
+                        byte[] serializedToken = new byte[input.readInt()];
+
+                        input.readFully(serializedToken);
+                        liveTokens.put(tokenID, new Object[] { serializedToken, expiration });
+                    } else if (type == REMOVE_RECORD) {
+                        liveTokens.remove(tokenID);
+                    } else {
+                        throw new IOException("Corrupted token registry file " + this.registryFile);
+                    }
+                } catch (EOFException eof) {
+                    // a partially written record, ignored as it was never acknowledged.
+                    break;
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        long now = currentTimeMillis();
+
+        for (Map.Entry<String, Object[]> liveToken : liveTokens.entrySet()) {
+            long expiration = (Long) liveToken.getValue()[1];
+
+            if (expiration > now) {
+                restoreToken(liveToken.getKey(), deserialize((byte[]) liveToken.getValue()[0]), expiration);
+            }
+        }
+    }
+
+    private Object deserialize(byte[] serializedToken) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serializedToken));
+
+        try {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            ois.close();
+        }
+    }
+
+    private void writeAddRecord(DataOutputStream output, String tokenID, long expiration, byte[] serializedToken)
+        throws IOException {
+        output.writeByte(ADD_RECORD);
+        output.writeUTF(tokenID);
+        output.writeLong(expiration);
+        output.writeInt(serializedToken.length);
+        output.write(serializedToken);
+    }
+}
@@ -25,8 +25,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
@@ -53,7 +54,7 @@ public class FileBasedRevocationRegistry extends FileBasedSTSOperations implemen
     protected static final String FILE_NAME = "revoked.ids";
 
     // this set contains the ids of the revoked security tokens.
-    protected static Set<String> revokedIds = new HashSet<String>();
+    protected static Set<String> revokedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     // the file that stores the revoked ids.
     protected File registryFile;
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Thread safe cache that keeps at most a given number of entries, evicting the least recently used ones once it is
+ * full. Each entry can also be given an expiration time, after which it is no longer returned.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class BoundedCache<K, V> {
+
+    private final Map<K, Entry<V>> entries;
+
+    /**
+     * @param maxSize the maximum number of entries kept
+     */
+    public BoundedCache(int maxSize) {
+        this.entries = new LRUMap<K, Entry<V>>(maxSize);
+    }
+
+    /**
+     * Get the value of a key, marking it as recently used
+     *
+     * @param key
+     *
+     * @return the value, or null if there is none or it has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = this.entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiration <= System.currentTimeMillis()) {
+            this.entries.remove(key);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    /**
+     * Put a value that never expires
+     *
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        put(key, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Put a value, evicting the least recently used entry if the cache is full
+     *
+     * @param key
+     * @param value
+     * @param expiration the time, in milliseconds since the epoch, after which the value is no longer returned
+     */
+    public synchronized void put(K key, V value, long expiration) {
+        this.entries.put(key, new Entry<V>(value, expiration));
+    }
+
+    /**
+     * Remove the value of a key
+     *
+     * @param key
+     */
+    public synchronized void remove(K key) {
+        this.entries.remove(key);
+    }
+
+    /**
+     * Remove the value of a key, only if it is still the given one
+     *
+     * @param key
+     * @param value
+     *
+     * @return true if the value was removed
+     */
+    public synchronized boolean remove(K key, V value) {
+        Entry<V> entry = this.entries.get(key);
+
+        if (entry == null || entry.value != value) {
+            return false;
+        }
+
+        this.entries.remove(key);
+
+        return true;
+    }
+
+    /**
+     * Get a copy of the entries that have not expired, without changing their order of use
+     *
+     * @return
+     */
+    public synchronized Map<K, V> getEntries() {
+        long now = System.currentTimeMillis();
+        Map<K, V> copy = new LinkedHashMap<K, V>();
+
+        for (Map.Entry<K, Entry<V>> entry : this.entries.entrySet()) {
+            if (entry.getValue().expiration > now) {
+                copy.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+
+        return copy;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Get the number of entries, including the expired ones that have not been evicted yet
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long expiration;
+
+        private Entry(V value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+
+    private static class LRUMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private LRUMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > this.maxSize;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import org.picketlink.config.federation.TokenProviderType;
 import org.picketlink.identity.federation.core.constants.PicketLinkFederationConstants;
 import org.picketlink.identity.federation.core.interfaces.IMetadataProvider;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
+import org.picketlink.identity.federation.core.saml.md.providers.IndexedMetadataProvider;
 import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
 import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
 import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
@@ -51,6 +52,7 @@ import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.PBEParameterSpec;
 import javax.servlet.ServletContext;
 import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.security.GeneralSecurityException;
 import java.security.PublicKey;
 import java.util.ArrayList;
@@ -581,8 +583,47 @@ public class CoreConfigUtil {
      *
      * @return
      */
-    @SuppressWarnings({"rawtypes", "unchecked"})
+    @SuppressWarnings("rawtypes")
     public static List<EntityDescriptorType> getMetadataConfiguration(ProviderType providerType, ServletContext servletContext) {
+        IMetadataProvider metadataProvider = getMetadataProvider(providerType, servletContext);
+
+        if (metadataProvider == null) {
+            return null;
+        }
+
+        return getMetadataConfiguration(metadataProvider);
+    }
+
+    /**
+     * Read metadata from an initialized metadata provider
+     *
+     * @param metadataProvider
+     *
+     * @return
+     */
+    @SuppressWarnings("rawtypes")
+    public static List<EntityDescriptorType> getMetadataConfiguration(IMetadataProvider metadataProvider) {
+        List<EntityDescriptorType> resultList = new ArrayList<EntityDescriptorType>();
+        if (metadataProvider.isMultiple()) {
+            EntitiesDescriptorType metadatas = (EntitiesDescriptorType) metadataProvider.getMetaData();
+            addAllEntityDescriptorsRecursively(resultList, metadatas);
+        } else {
+            EntityDescriptorType metadata = (EntityDescriptorType) metadataProvider.getMetaData();
+            resultList.add(metadata);
+        }
+        return resultList;
+    }
+
+    /**
+     * Create and initialize the metadata provider configured in the ProviderType
+     *
+     * @param providerType
+     * @param servletContext
+     *
+     * @return the provider or null if no provider is configured
+     */
+    @SuppressWarnings("rawtypes")
+    public static IMetadataProvider getMetadataProvider(ProviderType providerType, ServletContext servletContext) {
         MetadataProviderType metadataProviderType = providerType.getMetaDataProvider();
 
         if (metadataProviderType == null) {
@@ -609,17 +650,23 @@ public class CoreConfigUtil {
         String fileInjectionStr = metadataProvider.requireFileInjection();
         if (isNotNull(fileInjectionStr)) {
             metadataProvider.injectFileStream(servletContext.getResourceAsStream(fileInjectionStr));
+
+            if (metadataProvider instanceof IndexedMetadataProvider) {
+                try {
+                    // allows the metadata to be read again when it changes
+                    ((IndexedMetadataProvider) metadataProvider).injectResource(servletContext.getResource(fileInjectionStr));
+                } catch (MalformedURLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
         }
 
-        List<EntityDescriptorType> resultList = new ArrayList<EntityDescriptorType>();
-        if (metadataProvider.isMultiple()) {
-            EntitiesDescriptorType metadatas = (EntitiesDescriptorType) metadataProvider.getMetaData();
-            addAllEntityDescriptorsRecursively(resultList, metadatas);
-        } else {
-            EntityDescriptorType metadata = (EntityDescriptorType) metadataProvider.getMetaData();
-            resultList.add(metadata);
+        if (metadataProvider instanceof IndexedMetadataProvider) {
+            // indexed now rather than by the first request that looks a descriptor up
+            ((IndexedMetadataProvider) metadataProvider).load();
         }
-        return resultList;
+
+        return metadataProvider;
     }
 
     private static void addAllEntityDescriptorsRecursively(List<EntityDescriptorType> resultList,
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Runs the periodic housekeeping of the registries and caches (eg.: eviction of expired entries) on a single daemon
+ * thread, instead of a timer thread per instance. The thread is started with the first task and stopped once the
+ * last task is canceled.
+ * </p>
+ * <p>
+ * Tasks share the thread, so they should be short: a slow task delays the next executions of all the others.
+ * </p>
+ */
+public final class SharedScheduler {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static ScheduledThreadPoolExecutor executor;
+
+    private static int taskCount;
+
+    private SharedScheduler() {
+    }
+
+    /**
+     * Run a task periodically, the first time after the given period. Exceptions thrown by the task are logged and do
+     * not prevent its next executions.
+     *
+     * @param task
+     * @param period the period, in milliseconds
+     *
+     * @return the scheduled task, to be canceled once it is no longer needed
+     */
+    public static synchronized ScheduledTask scheduleAtFixedRate(final Runnable task, long period) {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "picketlink-scheduler");
+                    thread.setDaemon(true);
+                    thread.setContextClassLoader(SharedScheduler.class.getClassLoader());
+                    return thread;
+                }
+            });
+        }
+
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error(e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        taskCount++;
+
+        return new ScheduledTask(future);
+    }
+
+    private static synchronized void cancel(ScheduledFuture<?> future) {
+        if (!future.cancel(false)) {
+            return;
+        }
+
+        if (--taskCount == 0) {
+            executor.shutdown();
+            executor = null;
+        } else {
+            executor.purge();
+        }
+    }
+
+    /**
+     * A task run by the {@link SharedScheduler}.
+     */
+    public static final class ScheduledTask {
+
+        private final ScheduledFuture<?> future;
+
+        private ScheduledTask(ScheduledFuture<?> future) {
+            this.future = future;
+        }
+
+        /**
+         * Stop running the task. A running execution is not interrupted.
+         */
+        public void cancel() {
+            SharedScheduler.cancel(this.future);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.util;
+
+/**
+ * <p>
+ * Holds the current version of a value that is replaced at runtime, such as a configuration. The users of the value
+ * {@link #acquire()} the current version and release it once they are done, so that a replaced version is only
+ * disposed of when the last user that acquired it has released it.
+ * </p>
+ *
+ * @param <T> the type of the value
+ */
+public abstract class SnapshotReference<T> {
+
+    private volatile Lease<T> current;
+
+    /**
+     * Acquire the current version of the value. The returned lease must be released once the value is no longer used.
+     *
+     * @return the lease of the current version, or null if there is none
+     */
+    public Lease<T> acquire() {
+        while (true) {
+            Lease<T> lease = this.current;
+
+            if (lease == null || lease.retain()) {
+                return lease;
+            }
+
+            // the version was replaced and released in the meantime, the next one is already published
+        }
+    }
+
+    /**
+     * Get the current version of the value, without acquiring it
+     *
+     * @return
+     */
+    public T get() {
+        Lease<T> lease = this.current;
+
+        return lease == null ? null : lease.value;
+    }
+
+    /**
+     * Publish a new version of the value. The previous version is disposed of as soon as all the users that acquired it
+     * have released it.
+     *
+     * @param value the new version, or null to only release the current one
+     */
+    public synchronized void set(T value) {
+        Lease<T> previous = this.current;
+
+        this.current = value == null ? null : new Lease<T>(this, value);
+
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Release the resources of a version that is no longer used
+     *
+     * @param value
+     */
+    protected abstract void dispose(T value);
+
+    /**
+     * A version of the value, acquired by one or more users.
+     *
+     * @param <T>
+     */
+    public static final class Lease<T> {
+
+        private final SnapshotReference<T> owner;
+
+        private final T value;
+
+        // the reference held by the owner while this version is the current one
+        private int references = 1;
+
+        private Lease(SnapshotReference<T> owner, T value) {
+            this.owner = owner;
+            this.value = value;
+        }
+
+        public T get() {
+            return this.value;
+        }
+
+        /**
+         * Acquire this version once more, for instance to hand it over to another thread that will release it
+         *
+         * @return false if this version has already been disposed of
+         */
+        public synchronized boolean retain() {
+            if (this.references == 0) {
+                return false;
+            }
+
+            this.references++;
+
+            return true;
+        }
+
+        /**
+         * Release this version, disposing of it if it is not the current one and no other user holds it
+         */
+        public void release() {
+            boolean drained;
+
+            synchronized (this) {
+                drained = --this.references == 0;
+            }
+
+            if (drained) {
+                this.owner.dispose(this.value);
+            }
+        }
+    }
+}
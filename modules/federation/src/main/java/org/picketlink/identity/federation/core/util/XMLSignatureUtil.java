@@ -80,7 +80,9 @@ import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility for XML Signature <b>Note:</b> You can change the canonicalization method type by using the system property
@@ -110,6 +112,25 @@ public class XMLSignatureUtil {
 
     private static XMLSignatureFactory fac = getXMLSignatureFactory();
 
+    private static final String SIGNATURE_LOCAL_NAME = "Signature";
+
+    private static final int MAX_CACHED_KEY_INFOS = 256;
+
+    private static final BoundedCache<KeyInfoCacheKey, KeyInfo> keyInfoCache = new BoundedCache<KeyInfoCacheKey, KeyInfo>(
+            MAX_CACHED_KEY_INFOS);
+
+    /**
+     * The attributes that identify the signed SAML elements, as set up by {@code SAML2Signature}
+     */
+    private static final String[] ID_ATTRIBUTE_NAMES = {"ID", "AssertionID", "Id"};
+
+    private static final ThreadLocal<Map<String, SigningTemplate>> signingTemplates = new ThreadLocal<Map<String, SigningTemplate>>() {
+        @Override
+        protected Map<String, SigningTemplate> initialValue() {
+            return new HashMap<String, SigningTemplate>();
+        }
+    };
+
     /**
      * By default, we include the keyinfo in the signature
      */
@@ -426,7 +447,9 @@ public class XMLSignatureUtil {
     public static Document sign(Document doc, KeyPair keyPair, String digestMethod, String signatureMethod, String referenceURI,
                                 X509Certificate x509Certificate)
             throws GeneralSecurityException, MarshalException, XMLSignatureException {
-        logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
+        if (logger.isTraceEnabled()) {
+            logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
+        }
         PrivateKey signingKey = keyPair.getPrivate();
         PublicKey publicKey = keyPair.getPublic();
 
@@ -462,7 +485,9 @@ public class XMLSignatureUtil {
         String referenceURI = dto.getReferenceURI();
         String signatureMethod = dto.getSignatureMethod();
 
-        logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
+        if (logger.isTraceEnabled()) {
+            logger.trace("Document to be signed=" + DocumentUtil.asString(doc));
+        }
 
         PrivateKey signingKey = keyPair.getPrivate();
         PublicKey publicKey = keyPair.getPublic();
@@ -490,19 +515,17 @@ public class XMLSignatureUtil {
         if (signedDoc == null)
             throw logger.nullArgumentError("Signed Document");
 
-        propagateIDAttributeSetup(signedDoc.getDocumentElement(), signedDoc.getDocumentElement());
-
-        NodeList nl = signedDoc.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        List<Element> signatures = getSignatureElements(signedDoc);
 
-        if (nl == null || nl.getLength() == 0) {
+        if (signatures.isEmpty()) {
             throw logger.nullValueError("Cannot find Signature element");
         }
 
         if (publicKey == null)
             throw logger.nullValueError("Public Key");
 
-        for (int i = 0; i < nl.getLength(); i++) {
-            DOMValidateContext valContext = new DOMValidateContext(publicKey, nl.item(i));
+        for (Element signatureElement : signatures) {
+            DOMValidateContext valContext = new DOMValidateContext(publicKey, signatureElement);
             XMLSignature signature = fac.unmarshalXMLSignature(valContext);
 
             boolean coreValidity = signature.validate(valContext);
@@ -701,32 +724,89 @@ public class XMLSignatureUtil {
             throws GeneralSecurityException, MarshalException, XMLSignatureException {
         dsc.setDefaultNamespacePrefix("dsig");
 
-        DigestMethod digestMethodObj = fac.newDigestMethod(digestMethod, null);
+        SigningTemplate template = getSigningTemplate(digestMethod, signatureMethod);
+
+        // transforms and the canonicalization method bind themselves to the document they are marshalled into, so they
+        // can not be taken from the template
         Transform transform1 = fac.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null);
         Transform transform2 = fac.newTransform("http://www.w3.org/2001/10/xml-exc-c14n#", (TransformParameterSpec) null);
 
-        List<Transform> transformList = new ArrayList<Transform>();
+        List<Transform> transformList = new ArrayList<Transform>(2);
         transformList.add(transform1);
         transformList.add(transform2);
 
-        Reference ref = fac.newReference(referenceURI, digestMethodObj, transformList, null, null);
+        Reference ref = fac.newReference(referenceURI, template.digestMethod, transformList, null, null);
 
-        CanonicalizationMethod canonicalizationMethod = fac.newCanonicalizationMethod(canonicalizationMethodType,
+        CanonicalizationMethod canonicalizationMethod = fac.newCanonicalizationMethod(template.canonicalizationMethodType,
                 (C14NMethodParameterSpec) null);
 
         List<Reference> referenceList = Collections.singletonList(ref);
-        SignatureMethod signatureMethodObj = fac.newSignatureMethod(signatureMethod, null);
-        SignedInfo si = fac.newSignedInfo(canonicalizationMethod, signatureMethodObj, referenceList);
+        SignedInfo si = fac.newSignedInfo(canonicalizationMethod, template.signatureMethod, referenceList);
 
         KeyInfo ki = null;
         if (includeKeyInfoInSignature) {
-            ki = createKeyInfo(publicKey, x509Certificate);
+            ki = getKeyInfo(publicKey, x509Certificate);
         }
         XMLSignature signature = fac.newXMLSignature(si, ki);
 
         signature.sign(dsc);
     }
 
+    /**
+     * Returns the {@link SigningTemplate} for the given algorithms. Templates are confined to the calling thread because
+     * the {@link SignatureMethod} instances keep the underlying {@link java.security.Signature} between invocations.
+     *
+     * @param digestMethod
+     * @param signatureMethod
+     *
+     * @return
+     *
+     * @throws GeneralSecurityException
+     */
+    private static SigningTemplate getSigningTemplate(String digestMethod, String signatureMethod)
+            throws GeneralSecurityException {
+        String c14nMethod = canonicalizationMethodType;
+        String templateKey = digestMethod + '|' + signatureMethod + '|' + c14nMethod;
+        Map<String, SigningTemplate> templates = signingTemplates.get();
+        SigningTemplate template = templates.get(templateKey);
+
+        if (template == null) {
+            template = new SigningTemplate(fac.newDigestMethod(digestMethod, null),
+                    fac.newSignatureMethod(signatureMethod, null), c14nMethod);
+            templates.put(templateKey, template);
+        }
+
+        return template;
+    }
+
+    /**
+     * Returns the {@link KeyInfo} for the given key and certificate. {@link KeyInfo} instances are immutable, so they are
+     * built once per key/certificate and shared by all threads. The least recently used ones are evicted once
+     * {@value #MAX_CACHED_KEY_INFOS} are cached.
+     *
+     * @param publicKey
+     * @param x509Certificate
+     *
+     * @return
+     *
+     * @throws KeyException
+     */
+    private static KeyInfo getKeyInfo(PublicKey publicKey, X509Certificate x509Certificate) throws KeyException {
+        if (publicKey == null && x509Certificate == null) {
+            return null;
+        }
+
+        KeyInfoCacheKey cacheKey = new KeyInfoCacheKey(publicKey, x509Certificate);
+        KeyInfo keyInfo = keyInfoCache.get(cacheKey);
+
+        if (keyInfo == null) {
+            keyInfo = createKeyInfo(publicKey, x509Certificate);
+            keyInfoCache.put(cacheKey, keyInfo);
+        }
+
+        return keyInfo;
+    }
+
     private static KeyInfo createKeyInfo(PublicKey publicKey, X509Certificate x509Certificate) throws KeyException {
         KeyInfoFactory keyInfoFactory = fac.getKeyInfoFactory();
         KeyInfo keyInfo = null;
@@ -751,4 +831,154 @@ public class XMLSignatureUtil {
         }
         return keyInfo;
     }
-}
\ No newline at end of file
+
+    /**
+     * Collects all dsig:Signature elements of the given document in a single pass, and marks the ID attribute of the
+     * element each of them is enveloped into, so that the references can be resolved without another walk over the
+     * document. The content of a dsig:Signature is still visited, so signatures nested into other signatures are
+     * validated as well.
+     *
+     * @param signedDoc
+     *
+     * @return
+     */
+    private static List<Element> getSignatureElements(Document signedDoc) {
+        List<Element> signatures = new ArrayList<Element>(2);
+        Node current = signedDoc.getDocumentElement();
+
+        while (current != null) {
+            if (isSignatureElement(current, SIGNATURE_LOCAL_NAME)) {
+                signatures.add((Element) current);
+                setupReferencedIDAttribute((Element) current);
+            }
+
+            Node next = current.getFirstChild();
+
+            while (next == null && current != null) {
+                next = current.getNextSibling();
+
+                if (next == null) {
+                    current = current.getParentNode();
+
+                    if (current == signedDoc) {
+                        current = null;
+                    }
+                }
+            }
+
+            current = next;
+        }
+
+        return signatures;
+    }
+
+    /**
+     * Marks as ID the attribute of the parent of the given dsig:Signature whose value is referenced by the signature.
+     * Only the enveloping element and its ID, AssertionID or Id attribute are considered, so a reference can never be
+     * resolved to an element elsewhere in the document, nor through an attribute that is not meant to identify it.
+     *
+     * @param signatureElement
+     */
+    private static void setupReferencedIDAttribute(Element signatureElement) {
+        Node parent = signatureElement.getParentNode();
+
+        if (parent == null || parent.getNodeType() != Node.ELEMENT_NODE) {
+            return;
+        }
+
+        Element signedInfo = getFirstSignatureChild(signatureElement, "SignedInfo");
+
+        if (signedInfo == null) {
+            return;
+        }
+
+        for (Node child = signedInfo.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isSignatureElement(child, "Reference")) {
+                String uri = ((Element) child).getAttribute("URI");
+
+                if (uri.length() > 1 && uri.charAt(0) == '#') {
+                    setIDAttribute((Element) parent, uri.substring(1));
+                }
+            }
+        }
+    }
+
+    private static void setIDAttribute(Element element, String id) {
+        for (String name : ID_ATTRIBUTE_NAMES) {
+            Attr attr = element.getAttributeNode(name);
+
+            if (attr != null && id.equals(attr.getValue())) {
+                if (!attr.isId()) {
+                    element.setIdAttributeNode(attr, true);
+                }
+
+                return;
+            }
+        }
+    }
+
+    private static Element getFirstSignatureChild(Element element, String localName) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isSignatureElement(child, localName)) {
+                return (Element) child;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isSignatureElement(Node node, String localName) {
+        return node.getNodeType() == Node.ELEMENT_NODE && localName.equals(node.getLocalName())
+                && XMLSignature.XMLNS.equals(node.getNamespaceURI());
+    }
+
+    /**
+     * Holds the algorithm specific pieces of a signature that can be reused between signing operations.
+     */
+    private static class SigningTemplate {
+
+        private final DigestMethod digestMethod;
+        private final SignatureMethod signatureMethod;
+        private final String canonicalizationMethodType;
+
+        private SigningTemplate(DigestMethod digestMethod, SignatureMethod signatureMethod, String canonicalizationMethodType) {
+            this.digestMethod = digestMethod;
+            this.signatureMethod = signatureMethod;
+            this.canonicalizationMethodType = canonicalizationMethodType;
+        }
+    }
+
+    private static class KeyInfoCacheKey {
+
+        private final PublicKey publicKey;
+        private final X509Certificate certificate;
+
+        private KeyInfoCacheKey(PublicKey publicKey, X509Certificate certificate) {
+            this.publicKey = publicKey;
+            this.certificate = certificate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof KeyInfoCacheKey)) {
+                return false;
+            }
+
+            KeyInfoCacheKey other = (KeyInfoCacheKey) o;
+
+            return (publicKey == null ? other.publicKey == null : publicKey.equals(other.publicKey))
+                    && (certificate == null ? other.certificate == null : certificate.equals(other.certificate));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = publicKey != null ? publicKey.hashCode() : 0;
+            result = 31 * result + (certificate != null ? certificate.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.common.constants.WSTrustConstants;
+import org.picketlink.common.exceptions.fed.WSTrustException;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.common.util.SystemPropertiesUtil;
+import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityToken;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenCollection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.ws.AsyncHandler;
+import javax.xml.ws.Response;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Non-blocking WS-Trust client. Requests are sent with {@code Dispatch.invokeAsync} using the {@link javax.xml.ws.Dispatch}
+ * of a {@link STSClient}, and each method returns a {@link Future} that completes once the response of the STS has
+ * been received and parsed, so that a caller can send many requests without holding a thread for each of them.
+ * </p>
+ * <p>
+ * The number of requests sent and not yet answered is bounded. When the bound is reached, a new request blocks the
+ * calling thread until a response is received. The bound defaults to the "picketlink.sts_client.max_in_flight" system
+ * property, or 32.
+ * </p>
+ * <p>
+ * When the {@link STSClientConfig} of the client is configured for batch requests, {@link #issueTokens(List)} and
+ * {@link #validateTokens(List)} send all the requests in a single RequestSecurityTokenCollection. Otherwise the
+ * requests are sent one by one and the returned {@link Future} completes once all the responses have been received.
+ * </p>
+ */
+public class AsyncSTSClient {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    private final STSClient client;
+
+    private final Semaphore inFlight;
+
+    private final int maxInFlight;
+
+    public AsyncSTSClient(STSClient client) {
+        this(client, Integer.parseInt(SystemPropertiesUtil.getSystemProperty(GeneralConstants.STS_CLIENT_MAX_IN_FLIGHT,
+            String.valueOf(DEFAULT_MAX_IN_FLIGHT))));
+    }
+
+    /**
+     * @param client the client whose {@link javax.xml.ws.Dispatch} and configuration are used
+     * @param maxInFlight the maximum number of requests sent and not yet answered
+     */
+    public AsyncSTSClient(STSClient client, int maxInFlight) {
+        if (client == null)
+            throw logger.nullArgumentError("client");
+
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * Issue a token
+     *
+     * @param request
+     *
+     * @return a {@link Future} of the issued token
+     *
+     * @throws WSTrustException if the request could not be sent
+     */
+    public Future<Element> issueToken(RequestSecurityToken request) throws WSTrustException {
+        return invoke(this.client.prepareIssueRequest(request), new ResponseParser<Element>() {
+            public Element parse(Source response) throws WSTrustException {
+                return client.parseIssueResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Renew a token
+     *
+     * @param tokenType
+     * @param token
+     *
+     * @return a {@link Future} of the renewed token
+     *
+     * @throws WSTrustException if the request could not be sent
+     */
+    public Future<Element> renewToken(String tokenType, Element token) throws WSTrustException {
+        return invoke(this.client.createRenewRequest(tokenType, token), new ResponseParser<Element>() {
+            public Element parse(Source response) throws WSTrustException {
+                return client.parseIssueResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Validate a token
+     *
+     * @param token
+     *
+     * @return a {@link Future} of {@code true} if the STS says the token is valid
+     *
+     * @throws WSTrustException if the request could not be sent
+     */
+    public Future<Boolean> validateToken(Element token) throws WSTrustException {
+        return invoke(this.client.createValidateRequest(token), new ResponseParser<Boolean>() {
+            public Boolean parse(Source response) throws WSTrustException {
+                return client.parseValidateResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Cancel a token
+     *
+     * @param token
+     *
+     * @return a {@link Future} of {@code true} if the token has been canceled by the STS
+     *
+     * @throws WSTrustException if the request could not be sent
+     */
+    public Future<Boolean> cancelToken(Element token) throws WSTrustException {
+        return invoke(this.client.createCancelRequest(token), new ResponseParser<Boolean>() {
+            public Boolean parse(Source response) throws WSTrustException {
+                return client.parseCancelResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Issue several tokens, in a single request when the STS accepts batch requests
+     *
+     * @param requests
+     *
+     * @return a {@link Future} of the issued tokens, in the order of the requests
+     *
+     * @throws WSTrustException if the requests could not be sent
+     */
+    public Future<List<Element>> issueTokens(List<RequestSecurityToken> requests) throws WSTrustException {
+        if (!this.client.isBatch()) {
+            List<Future<Element>> responses = new ArrayList<Future<Element>>(requests.size());
+
+            for (RequestSecurityToken request : requests) {
+                responses.add(issueToken(request));
+            }
+
+            return new FutureList<Element>(responses);
+        }
+
+        RequestSecurityTokenCollection collection = new RequestSecurityTokenCollection();
+
+        for (RequestSecurityToken request : requests) {
+            // the client is configured for batch requests, so the request type defaults to BatchIssue
+            collection.addRequestSecurityToken(this.client.prepareIssueRequest(request));
+        }
+
+        final int count = requests.size();
+
+        return invoke(collection, new ResponseParser<List<Element>>() {
+            public List<Element> parse(Source response) throws WSTrustException {
+                List<Element> tokens = new ArrayList<Element>(count);
+
+                for (Element tokenResponse : getResponses(response, count)) {
+                    Element requestedToken = getChildElement(tokenResponse, WSTrustConstants.REQUESTED_TOKEN);
+
+                    if (requestedToken == null)
+                        throw new WSTrustException(logger.nullValueError("RSTR in the payload"));
+
+                    tokens.add(getChildElement(requestedToken, null));
+                }
+
+                return tokens;
+            }
+        });
+    }
+
+    /**
+     * Validate several tokens, in a single request when the STS accepts batch requests
+     *
+     * @param tokens
+     *
+     * @return a {@link Future} of the validation results, in the order of the tokens
+     *
+     * @throws WSTrustException if the requests could not be sent
+     */
+    public Future<List<Boolean>> validateTokens(List<Element> tokens) throws WSTrustException {
+        if (!this.client.isBatch()) {
+            List<Future<Boolean>> responses = new ArrayList<Future<Boolean>>(tokens.size());
+
+            for (Element token : tokens) {
+                responses.add(validateToken(token));
+            }
+
+            return new FutureList<Boolean>(responses);
+        }
+
+        RequestSecurityTokenCollection collection = new RequestSecurityTokenCollection();
+
+        for (Element token : tokens) {
+            RequestSecurityToken request = this.client.createValidateRequest(token);
+            request.setRequestType(URI.create(WSTrustConstants.BATCH_VALIDATE_REQUEST));
+            collection.addRequestSecurityToken(request);
+        }
+
+        final int count = tokens.size();
+
+        return invoke(collection, new ResponseParser<List<Boolean>>() {
+            public List<Boolean> parse(Source response) throws WSTrustException {
+                List<Boolean> results = new ArrayList<Boolean>(count);
+
+                for (Element tokenResponse : getResponses(response, count)) {
+                    Element status = getChildElement(tokenResponse, WSTrustConstants.STATUS);
+                    Element code = status != null ? getChildElement(status, WSTrustConstants.CODE) : null;
+
+                    results.add(code != null && WSTrustConstants.STATUS_CODE_VALID.equals(code.getTextContent().trim()));
+                }
+
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Get the number of requests sent and not yet answered
+     *
+     * @return
+     */
+    public int getInFlightCount() {
+        return this.maxInFlight - this.inFlight.availablePermits();
+    }
+
+    private <T> Future<T> invoke(BaseRequestSecurityToken request, ResponseParser<T> parser) throws WSTrustException {
+        this.client.validateDispatch();
+
+        DOMSource requestSource = this.client.createSourceFromRequest(request);
+
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WSTrustException(logger.processingError(e));
+        }
+
+        PendingResponse<T> pendingResponse = new PendingResponse<T>(parser);
+
+        try {
+            pendingResponse.invocation = this.client.getDispatch().invokeAsync(requestSource, pendingResponse);
+        } catch (RuntimeException e) {
+            pendingResponse.release();
+            throw new WSTrustException(logger.processingError(e));
+        }
+
+        return pendingResponse.result;
+    }
+
+    /**
+     * Get the RequestSecurityTokenResponse elements of a response, checking there is one for each request
+     */
+    private static List<Element> getResponses(Source response, int count) throws WSTrustException {
+        Element root;
+
+        try {
+            Node node = DocumentUtil.getNodeFromSource(response);
+            root = node instanceof Document ? ((Document) node).getDocumentElement() : (Element) node;
+        } catch (Exception e) {
+            throw new WSTrustException(logger.processingError(e));
+        }
+
+        List<Element> responses = new ArrayList<Element>(count);
+
+        if (WSTrustConstants.RSTR.equals(root.getLocalName())) {
+            responses.add(root);
+        } else {
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child instanceof Element && WSTrustConstants.RSTR.equals(child.getLocalName())) {
+                    responses.add((Element) child);
+                }
+            }
+        }
+
+        if (responses.size() != count)
+            throw logger.stsUnexpectedNumberOfResponses(count, responses.size());
+
+        return responses;
+    }
+
+    private static Element getChildElement(Element element, String localName) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && (localName == null || localName.equals(child.getLocalName()))) {
+                return (Element) child;
+            }
+        }
+
+        return null;
+    }
+
+    private interface ResponseParser<T> {
+
+        T parse(Source response) throws WSTrustException;
+    }
+
+    /**
+     * Receives the response of a request and parses it into the result. The permit of the request is released once
+     * the response is received, before the result is available, or when the result is canceled.
+     */
+    private class PendingResponse<T> implements AsyncHandler<Source>, Callable<T> {
+
+        private final ResponseParser<T> parser;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private volatile Response<Source> response;
+
+        private volatile Future<?> invocation;
+
+        private final FutureTask<T> result = new FutureTask<T>(this) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean canceled = super.cancel(mayInterruptIfRunning);
+
+                if (canceled) {
+                    Future<?> invocation = PendingResponse.this.invocation;
+
+                    if (invocation != null)
+                        invocation.cancel(mayInterruptIfRunning);
+
+                    release();
+                }
+
+                return canceled;
+            }
+        };
+
+        private PendingResponse(ResponseParser<T> parser) {
+            this.parser = parser;
+        }
+
+        public void handleResponse(Response<Source> response) {
+            this.response = response;
+
+            try {
+                this.result.run();
+            } finally {
+                release();
+            }
+        }
+
+        public T call() throws Exception {
+            Source source;
+
+            try {
+                source = this.response.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof Exception)
+                    throw (Exception) cause;
+
+                throw e;
+            } finally {
+                // before the result is set, so that the request is no longer counted once its result is available
+                release();
+            }
+
+            return this.parser.parse(source);
+        }
+
+        private void release() {
+            if (this.released.compareAndSet(false, true))
+                inFlight.release();
+        }
+    }
+
+    /**
+     * The results of several requests sent one by one.
+     */
+    private static class FutureList<T> implements Future<List<T>> {
+
+        private final List<Future<T>> futures;
+
+        private FutureList(List<Future<T>> futures) {
+            this.futures = futures;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean canceled = false;
+
+            for (Future<T> future : this.futures) {
+                canceled |= future.cancel(mayInterruptIfRunning);
+            }
+
+            return canceled;
+        }
+
+        public boolean isCancelled() {
+            for (Future<T> future : this.futures) {
+                if (future.isCancelled())
+                    return true;
+            }
+
+            return false;
+        }
+
+        public boolean isDone() {
+            for (Future<T> future : this.futures) {
+                if (!future.isDone())
+                    return false;
+            }
+
+            return true;
+        }
+
+        public List<T> get() throws InterruptedException, ExecutionException {
+            List<T> results = new ArrayList<T>(this.futures.size());
+
+            for (Future<T> future : this.futures) {
+                results.add(future.get());
+            }
+
+            return Collections.unmodifiableList(results);
+        }
+
+        public List<T> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            List<T> results = new ArrayList<T>(this.futures.size());
+
+            for (Future<T> future : this.futures) {
+                results.add(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+
+            return Collections.unmodifiableList(results);
+        }
+    }
+}
@@ -21,15 +21,18 @@ package org.picketlink.identity.federation.core.wstrust;
 import org.picketlink.common.ErrorCodes;
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.constants.WSTrustConstants;
 import org.picketlink.common.constants.WSTrustConstants.WSSE;
 import org.picketlink.common.exceptions.ConfigurationException;
 import org.picketlink.common.exceptions.fed.WSTrustException;
 import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.common.util.SystemPropertiesUtil;
 import org.picketlink.config.federation.STSType;
 import org.picketlink.config.federation.parsers.STSConfigParser;
 import org.picketlink.identity.federation.core.parsers.wst.WSTrustParser;
 import org.picketlink.identity.federation.core.util.SOAPUtil;
+import org.picketlink.identity.federation.core.util.SnapshotReference;
 import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenCollection;
@@ -37,10 +40,12 @@ import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityT
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponseCollection;
 import org.picketlink.identity.federation.core.wstrust.writers.WSTrustResponseWriter;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPHeader;
@@ -53,12 +58,32 @@ import javax.xml.ws.Service;
 import javax.xml.ws.ServiceMode;
 import javax.xml.ws.WebServiceContext;
 import javax.xml.ws.WebServiceProvider;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.security.Principal;
 import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -87,7 +112,22 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
     @Resource
     protected WebServiceContext context;
 
-    protected STSConfiguration config;
+    protected volatile STSConfiguration config;
+
+    /**
+     * The current configuration, acquired by each request so that a configuration replaced by a reload is only closed
+     * once the requests that use it are done.
+     */
+    private final SnapshotReference<STSConfiguration> configuration = new SnapshotReference<STSConfiguration>() {
+        @Override
+        protected void dispose(STSConfiguration configuration) {
+            closeConfiguration(configuration);
+        }
+    };
+
+    private ExecutorService batchExecutor;
+
+    private Timer reloadTimer;
 
     // If the SOAP Message contained a wsse:binaryToken, all the providers can have access to it
     public static ThreadLocal<BinaryToken> binaryToken = new InheritableThreadLocal<BinaryToken>();
@@ -151,11 +191,55 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
             Source theResponse = this.handleTokenRequest(req);
             return convert(theResponse, soap12);
         } else if (baseRequest instanceof RequestSecurityTokenCollection) {
-            return convert(this.handleTokenRequestCollection((RequestSecurityTokenCollection) baseRequest), soap12);
+            RequestSecurityTokenCollection requestCollection = (RequestSecurityTokenCollection) baseRequest;
+            try {
+                setRSTDocuments(requestCollection, (Document) payLoad);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+
+            for (RequestSecurityToken req : requestCollection.getRequestSecurityTokens()) {
+                if (binaryToken != null) {
+                    req.setBinaryToken(binaryToken);
+                }
+
+                if (valueType != null) {
+                    req.setBinaryValueType(URI.create(valueType));
+                }
+            }
+
+            return convert(this.handleTokenRequestCollection(requestCollection), soap12);
         } else
             throw logger.stsWSInvalidTokenRequestError();
     }
 
+    /**
+     * <p>
+     * Each request of a collection must have its own RST document, otherwise the lookups for the validate, renew and
+     * cancel targets would always return the elements of the first request.
+     * </p>
+     *
+     * @param requestCollection the parsed {@code RequestSecurityTokenCollection}.
+     * @param payLoad the document that contains the {@code RequestSecurityTokenCollection}.
+     */
+    private void setRSTDocuments(RequestSecurityTokenCollection requestCollection, Document payLoad)
+            throws ConfigurationException {
+        List<RequestSecurityToken> requests = requestCollection.getRequestSecurityTokens();
+        NodeList children = payLoad.getDocumentElement().getChildNodes();
+        int index = 0;
+
+        for (int i = 0; i < children.getLength() && index < requests.size(); i++) {
+            Node child = children.item(i);
+
+            if (child.getNodeType() == Node.ELEMENT_NODE && WSTrustConstants.RST.equals(child.getLocalName())
+                    && WSTrustConstants.BASE_NAMESPACE.equals(child.getNamespaceURI())) {
+                Document rstDocument = DocumentUtil.createDocument();
+                rstDocument.appendChild(rstDocument.importNode(child, true));
+                requests.get(index++).setRSTDocument(rstDocument);
+            }
+        }
+    }
+
     private SOAPMessage convert(Source theResponse, boolean wantSOAP12) {
         try {
             SOAPMessage response = null;
@@ -199,38 +283,197 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
      * @throws javax.xml.ws.WebServiceException Any exception encountered in handling token
      */
     protected Source handleTokenRequest(RequestSecurityToken request) {
-        if (context == null)
-            throw new IllegalStateException(ErrorCodes.NULL_VALUE + "WebServiceContext");
-        if (this.config == null)
-            try {
-                logger.info("Loading STS configuration");
-                this.config = this.getConfiguration();
-            } catch (ConfigurationException e) {
-                throw logger.stsWSConfigurationError(e);
+        SnapshotReference.Lease<STSConfiguration> configuration = this.acquireConfiguration();
+
+        try {
+            WSTrustRequestHandler handler = this.getRequestHandler(configuration.get());
+            return new DOMSource(this.processRequest(handler, request, this.context.getUserPrincipal()));
+        } finally {
+            configuration.release();
+        }
+    }
+
+    /**
+     * <p>
+     * Process a collection of security token requests. Each request is dispatched to the {@code WSTrustRequestHandler}
+     * using a bounded pool of threads and the responses are assembled into a single
+     * {@code RequestSecurityTokenResponseCollection}, in the same order of the requests. If any of the requests fails, the
+     * whole batch fails.
+     * </p>
+     * <p>
+     * The pool size can be changed using the system property "picketlink.wstrust.batch_threads". When all threads are
+     * busy and the queue ("picketlink.wstrust.batch_queue_size") is full, requests are processed by the calling thread.
+     * </p>
+     * <p>
+     * The pool threads run each request with the access control context (and so the JAAS {@code Subject}), the context
+     * class loader and the {@link #binaryToken} of the caller. Token providers that depend on any other state bound to
+     * the caller thread need the pool size to be set to 0, so that the requests are processed by the caller thread.
+     * </p>
+     *
+     * @param requestCollection a {@code RequestSecurityTokenCollection} containing the various requests information.
+     *
+     * @return a {@code Source} instance representing the marshalled response.
+     *
+     * @throws javax.xml.ws.WebServiceException Any exception encountered in handling the tokens
+     */
+    protected Source handleTokenRequestCollection(RequestSecurityTokenCollection requestCollection) {
+        final SnapshotReference.Lease<STSConfiguration> configuration = this.acquireConfiguration();
+
+        try {
+            return this.handleTokenRequestCollection(requestCollection, configuration);
+        } finally {
+            configuration.release();
+        }
+    }
+
+    private Source handleTokenRequestCollection(RequestSecurityTokenCollection requestCollection,
+                                                final SnapshotReference.Lease<STSConfiguration> configuration) {
+        final WSTrustRequestHandler handler = this.getRequestHandler(configuration.get());
+        final Principal callerPrincipal = this.context.getUserPrincipal();
+        List<RequestSecurityToken> requests = requestCollection.getRequestSecurityTokens();
+
+        if (requests.isEmpty()) {
+            return this.marshallResponseCollection(new RequestSecurityTokenResponseCollection());
+        }
+
+        ExecutorService executor = requests.size() > 1 ? this.getBatchExecutor() : null;
+
+        if (executor == null) {
+            List<Document> responses = new ArrayList<Document>(requests.size());
+
+            for (RequestSecurityToken request : requests) {
+                responses.add(this.processRequest(handler, request, callerPrincipal));
             }
 
-        WSTrustRequestHandler handler = this.config.getRequestHandler();
-        if (handler == null)
-            throw logger.nullValueError("WSTrustRequestHandler");
+            return new DOMSource(this.mergeResponses(responses));
+        }
 
-        String requestType = request.getRequestType().toString();
+        final ClassLoader contextClassLoader = SecurityActions.getContextClassLoader();
+        final AccessControlContext accessControlContext = AccessController.getContext();
+        final BinaryToken callerBinaryToken = binaryToken.get();
+        List<Future<Document>> responses = new ArrayList<Future<Document>>(requests.size());
+
+        try {
+            for (final RequestSecurityToken request : requests) {
+                // each request holds the configuration, as it may still run after the batch failed
+                configuration.retain();
+
+                Callable<Document> task = new Callable<Document>() {
+                    public Document call() throws Exception {
+                        ClassLoader originalClassLoader = SecurityActions.getContextClassLoader();
+                        BinaryToken originalBinaryToken = binaryToken.get();
+
+                        try {
+                            SecurityActions.setContextClassLoader(contextClassLoader);
+                            binaryToken.set(callerBinaryToken);
+
+                            return AccessController.doPrivileged(new PrivilegedExceptionAction<Document>() {
+                                public Document run() {
+                                    return processRequest(handler, request, callerPrincipal);
+                                }
+                            }, accessControlContext);
+                        } catch (PrivilegedActionException e) {
+                            throw e.getException();
+                        } finally {
+                            binaryToken.set(originalBinaryToken);
+                            SecurityActions.setContextClassLoader(originalClassLoader);
+                            configuration.release();
+                        }
+                    }
+                };
+
+                try {
+                    responses.add(executor.submit(task));
+                } catch (RuntimeException e) {
+                    configuration.release();
+                    throw e;
+                }
+            }
+
+            List<Document> documents = new ArrayList<Document>(responses.size());
+
+            for (Future<Document> response : responses) {
+                documents.add(this.getResponse(response));
+            }
+
+            return new DOMSource(this.mergeResponses(documents));
+        } finally {
+            for (Future<Document> response : responses) {
+                response.cancel(true);
+            }
+        }
+    }
+
+    private Document mergeResponses(List<Document> documents) {
+        Document responseDocument = null;
+
+        for (Document document : documents) {
+            if (responseDocument == null) {
+                // the first response is used as the RequestSecurityTokenResponseCollection of the batch
+                responseDocument = document;
+            } else {
+                Element collectionElement = responseDocument.getDocumentElement();
+                NodeList children = document.getDocumentElement().getChildNodes();
+
+                for (int i = 0; i < children.getLength(); i++) {
+                    Node child = children.item(i);
+
+                    if (child.getNodeType() == Node.ELEMENT_NODE) {
+                        collectionElement.appendChild(responseDocument.importNode(child, true));
+                    }
+                }
+            }
+        }
+
+        return responseDocument;
+    }
+
+    private Document getResponse(Future<Document> response) {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw logger.stsWSError(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw logger.stsWSError(cause);
+        }
+    }
+
+    /**
+     * <p>
+     * Process a single security token request on behalf of the given caller. The response is post processed by the
+     * handler (eg.: signing and encryption of issued and renewed tokens).
+     * </p>
+     *
+     * @param handler the {@code WSTrustRequestHandler} that handles the request.
+     * @param request a {@code RequestSecurityToken} instance that contains the request information.
+     * @param callerPrincipal the {@code Principal} of the ws-trust token requester.
+     *
+     * @return a {@code Document} with the {@code RequestSecurityTokenResponseCollection} for the given request.
+     */
+    private Document processRequest(WSTrustRequestHandler handler, RequestSecurityToken request, Principal callerPrincipal) {
+        String requestType = this.normalizeRequestType(request);
 
         logger.trace("STS received request of type " + requestType);
 
         try {
             if (requestType.equals(WSTrustConstants.ISSUE_REQUEST)) {
-                Source source = this.marshallResponse(handler.issue(request, this.context.getUserPrincipal()));
-                Document doc = handler.postProcess((Document) ((DOMSource) source).getNode(), request);
-                return new DOMSource(doc);
+                Source source = this.marshallResponse(handler.issue(request, callerPrincipal));
+                return handler.postProcess((Document) ((DOMSource) source).getNode(), request);
             } else if (requestType.equals(WSTrustConstants.RENEW_REQUEST)) {
-                Source source = this.marshallResponse(handler.renew(request, this.context.getUserPrincipal()));
+                Source source = this.marshallResponse(handler.renew(request, callerPrincipal));
                 // we need to sign/encrypt renewed tokens.
-                Document document = handler.postProcess((Document) ((DOMSource) source).getNode(), request);
-                return new DOMSource(document);
+                return handler.postProcess((Document) ((DOMSource) source).getNode(), request);
             } else if (requestType.equals(WSTrustConstants.CANCEL_REQUEST))
-                return this.marshallResponse(handler.cancel(request, this.context.getUserPrincipal()));
+                return (Document) ((DOMSource) this.marshallResponse(handler.cancel(request, callerPrincipal))).getNode();
             else if (requestType.equals(WSTrustConstants.VALIDATE_REQUEST))
-                return this.marshallResponse(handler.validate(request, this.context.getUserPrincipal()));
+                return (Document) ((DOMSource) this.marshallResponse(handler.validate(request, callerPrincipal))).getNode();
             else
                 throw logger.stsWSInvalidRequestTypeError(requestType);
         } catch (WSTrustException we) {
@@ -240,15 +483,261 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
 
     /**
      * <p>
-     * Process a collection of security token requests.
+     * Batch request types (eg.: BatchIssue) are handled in the same way of their single counterparts. The request type
+     * is changed accordingly, so handlers and token providers only have to deal with the single request types.
      * </p>
      *
-     * @param requestCollection a {@code RequestSecurityTokenCollection} containing the various requests information.
+     * @param request the {@code RequestSecurityToken} being processed.
      *
-     * @return a {@code Source} instance representing the marshalled response.
+     * @return the normalized request type.
      */
-    protected Source handleTokenRequestCollection(RequestSecurityTokenCollection requestCollection) {
-        throw new UnsupportedOperationException();
+    private String normalizeRequestType(RequestSecurityToken request) {
+        String requestType = request.getRequestType().toString();
+        String singleRequestType = null;
+
+        if (requestType.equals(WSTrustConstants.BATCH_ISSUE_REQUEST)) {
+            singleRequestType = WSTrustConstants.ISSUE_REQUEST;
+        } else if (requestType.equals(WSTrustConstants.BATCH_VALIDATE_REQUEST)) {
+            singleRequestType = WSTrustConstants.VALIDATE_REQUEST;
+        } else if (requestType.equals(WSTrustConstants.BATCH_RENEW_REQUEST)) {
+            singleRequestType = WSTrustConstants.RENEW_REQUEST;
+        } else if (requestType.equals(WSTrustConstants.BATCH_CANCEL_REQUEST)) {
+            singleRequestType = WSTrustConstants.CANCEL_REQUEST;
+        }
+
+        if (singleRequestType != null) {
+            request.setRequestType(URI.create(singleRequestType));
+            return singleRequestType;
+        }
+
+        return requestType;
+    }
+
+    private WSTrustRequestHandler getRequestHandler(STSConfiguration configuration) {
+        if (context == null)
+            throw new IllegalStateException(ErrorCodes.NULL_VALUE + "WebServiceContext");
+
+        // the handler is obtained once per request, so in-flight requests keep using the configuration snapshot they
+        // started with even if a reload happens in the meantime.
+        WSTrustRequestHandler handler = configuration.getRequestHandler();
+        if (handler == null)
+            throw logger.nullValueError("WSTrustRequestHandler");
+
+        return handler;
+    }
+
+    /**
+     * <p>
+     * Acquires the current configuration snapshot, loading it on the first invocation. The snapshot must be released
+     * once the request is processed.
+     * </p>
+     *
+     * @return the lease of the {@code STSConfiguration} in use.
+     */
+    private SnapshotReference.Lease<STSConfiguration> acquireConfiguration() {
+        SnapshotReference.Lease<STSConfiguration> lease = this.configuration.acquire();
+
+        while (lease == null) {
+            synchronized (this) {
+                if (this.configuration.get() == null) {
+                    STSConfiguration configuration;
+
+                    try {
+                        logger.info("Loading STS configuration");
+                        configuration = this.loadConfiguration();
+                    } catch (ConfigurationException e) {
+                        throw logger.stsWSConfigurationError(e);
+                    }
+
+                    this.publishConfiguration(configuration);
+                    this.scheduleConfigurationReload();
+                }
+            }
+
+            lease = this.configuration.acquire();
+        }
+
+        return lease;
+    }
+
+    private void publishConfiguration(STSConfiguration configuration) {
+        this.configuration.set(configuration);
+        this.config = configuration;
+    }
+
+    /**
+     * <p>
+     * Loads a new configuration and eagerly initializes its request handler, so the returned instance can be published
+     * to other threads without exposing a partially initialized handler or provider.
+     * </p>
+     *
+     * @return a fully initialized {@code STSConfiguration}.
+     *
+     * @throws ConfigurationException if the configuration could not be loaded.
+     */
+    private STSConfiguration loadConfiguration() throws ConfigurationException {
+        STSConfiguration configuration = this.getConfiguration();
+
+        configuration.getRequestHandler();
+
+        return configuration;
+    }
+
+    /**
+     * <p>
+     * If the "picketlink.wstrust.config_reload_interval" system property is set, periodically checks if the
+     * configuration file has changed. The new configuration is built by the timer thread and only replaces the current
+     * one when fully initialized. If the new configuration can not be loaded, the current one is kept.
+     * </p>
+     */
+    private void scheduleConfigurationReload() {
+        long reloadInterval = Long.parseLong(SystemPropertiesUtil.getSystemProperty(
+                GeneralConstants.WSTRUST_CONFIG_RELOAD_INTERVAL, "-1"));
+
+        if (reloadInterval <= 0 || this.reloadTimer != null) {
+            return;
+        }
+
+        final File configurationFile;
+
+        try {
+            configurationFile = this.getConfigurationFile(this.getConfigurationFileURL());
+        } catch (MalformedURLException e) {
+            logger.error(e);
+            return;
+        }
+
+        if (configurationFile == null) {
+            logger.debug("STS configuration is not a file, reload is disabled");
+            return;
+        }
+
+        this.reloadTimer = new Timer("picketlink-sts-config-reload", true);
+        this.reloadTimer.schedule(new TimerTask() {
+            private long lastModified = configurationFile.lastModified();
+
+            @Override
+            public void run() {
+                long currentLastModified = configurationFile.lastModified();
+
+                if (currentLastModified == this.lastModified) {
+                    return;
+                }
+
+                synchronized (PicketLinkSTS.this) {
+                    // the service was destroyed while this task was waiting.
+                    if (reloadTimer == null) {
+                        return;
+                    }
+
+                    try {
+                        logger.info("Reloading STS configuration");
+                        reloadConfiguration();
+                        // only once the new configuration is in use, so that a failed reload is tried again
+                        this.lastModified = currentLastModified;
+                    } catch (Exception e) {
+                        logger.error(e);
+                    }
+                }
+            }
+        }, reloadInterval, reloadInterval);
+    }
+
+    /**
+     * <p>
+     * Replaces the current configuration with a newly loaded one. The token providers of the previous configuration are
+     * closed once the requests that were using it are done. The registries shared by the previous and the new providers
+     * are kept open, so the issued and revoked tokens they hold survive the reload. If the new configuration can not be
+     * loaded, the current one is kept.
+     * </p>
+     *
+     * @throws ConfigurationException if the configuration could not be loaded.
+     */
+    protected synchronized void reloadConfiguration() throws ConfigurationException {
+        this.publishConfiguration(this.loadConfiguration());
+    }
+
+    private File getConfigurationFile(URL configurationFileURL) {
+        if (configurationFileURL == null || !"file".equals(configurationFileURL.getProtocol())) {
+            return null;
+        }
+
+        try {
+            return new File(configurationFileURL.toURI());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the pool of threads that process the requests of a batch, or null if the requests are processed by the
+     * caller thread.
+     * </p>
+     *
+     * @return
+     */
+    private synchronized ExecutorService getBatchExecutor() {
+        if (this.batchExecutor == null) {
+            int threads = Integer.parseInt(SystemPropertiesUtil.getSystemProperty(GeneralConstants.WSTRUST_BATCH_THREADS,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+            if (threads <= 0) {
+                return null;
+            }
+
+            int queueSize = Integer.parseInt(SystemPropertiesUtil.getSystemProperty(GeneralConstants.WSTRUST_BATCH_QUEUE_SIZE,
+                    "1024"));
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "picketlink-sts-batch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+            executor.allowCoreThreadTimeOut(true);
+
+            this.batchExecutor = executor;
+        }
+
+        return this.batchExecutor;
+    }
+
+    /**
+     * <p>
+     * Releases the resources of the service when it is undeployed: the configuration reload and the threads that
+     * process batches are stopped and the token providers of the current configuration are closed once the requests
+     * that are using it are done.
+     * </p>
+     */
+    @PreDestroy
+    public synchronized void destroy() {
+        if (this.reloadTimer != null) {
+            this.reloadTimer.cancel();
+            this.reloadTimer = null;
+        }
+
+        if (this.batchExecutor != null) {
+            this.batchExecutor.shutdownNow();
+            this.batchExecutor = null;
+        }
+
+        this.publishConfiguration(null);
+    }
+
+    private void closeConfiguration(STSConfiguration configuration) {
+        if (configuration instanceof Closeable) {
+            try {
+                ((Closeable) configuration).close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
     }
 
     /**
@@ -265,6 +754,10 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
         RequestSecurityTokenResponseCollection responseCollection = new RequestSecurityTokenResponseCollection();
         responseCollection.addRequestSecurityTokenResponse(response);
 
+        return this.marshallResponseCollection(responseCollection);
+    }
+
+    private Source marshallResponseCollection(RequestSecurityTokenResponseCollection responseCollection) {
         try {
             DOMResult result = new DOMResult(DocumentUtil.createDocument());
             WSTrustResponseWriter writer = new WSTrustResponseWriter(result);
@@ -283,22 +776,8 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
      * @return an instance of {@code STSConfiguration} containing the STS configuration properties.
      */
     protected STSConfiguration getConfiguration() throws ConfigurationException {
-        URL configurationFileURL = null;
-
         try {
-            // check the user home for a configuration file generated by the picketlink console.
-            String configurationFilePath = System.getProperty("user.home") + SEPARATOR + STS_CONFIG_DIR + STS_CONFIG_FILE;
-            File configurationFile = new File(configurationFilePath);
-            if (configurationFile.exists()) {
-                configurationFileURL = configurationFile.toURI().toURL();
-            } else {
-                configurationFileURL = SecurityActions.loadResource(getClass(), PICKETLINK_CONFIG_FILE);
-
-                // fallback to the old configuration
-                if (configurationFileURL == null) {
-                    configurationFileURL = SecurityActions.loadResource(getClass(), STS_CONFIG_FILE);
-                }
-            }
+            URL configurationFileURL = this.getConfigurationFileURL();
 
             // if no configuration file was found, log a warn message and use default configuration values.
             if (configurationFileURL == null) {
@@ -307,7 +786,14 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
             }
 
             InputStream stream = configurationFileURL.openStream();
-            STSType stsConfig = (STSType) new STSConfigParser().parse(stream);
+            STSType stsConfig;
+
+            try {
+                stsConfig = (STSType) new STSConfigParser().parse(stream);
+            } finally {
+                stream.close();
+            }
+
             STSConfiguration configuration = new PicketLinkSTSConfiguration(stsConfig);
             if (logger.isInfoEnabled())
                 logger.stsConfigurationFileLoaded(STS_CONFIG_FILE);
@@ -316,4 +802,31 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
             throw logger.stsConfigurationFileParsingError(e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Resolves the location of the STS configuration file.
+     * </p>
+     *
+     * @return the {@code URL} of the configuration file or {@code null} if no configuration file was found.
+     *
+     * @throws java.net.MalformedURLException
+     */
+    protected URL getConfigurationFileURL() throws MalformedURLException {
+        // check the user home for a configuration file generated by the picketlink console.
+        String configurationFilePath = System.getProperty("user.home") + SEPARATOR + STS_CONFIG_DIR + STS_CONFIG_FILE;
+        File configurationFile = new File(configurationFilePath);
+        if (configurationFile.exists()) {
+            return configurationFile.toURI().toURL();
+        }
+
+        URL configurationFileURL = SecurityActions.loadResource(getClass(), PICKETLINK_CONFIG_FILE);
+
+        // fallback to the old configuration
+        if (configurationFileURL == null) {
+            configurationFileURL = SecurityActions.loadResource(getClass(), STS_CONFIG_FILE);
+        }
+
+        return configurationFileURL;
+    }
+}
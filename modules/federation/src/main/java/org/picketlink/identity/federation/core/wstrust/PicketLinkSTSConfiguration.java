@@ -37,6 +37,8 @@ import org.picketlink.identity.federation.core.sts.STSCoreConfig;
 import org.picketlink.identity.federation.core.util.CoreConfigUtil;
 
 import javax.xml.namespace.QName;
+import java.io.Closeable;
+import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.PublicKey;
@@ -46,6 +48,7 @@ import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,7 +61,7 @@ import java.util.Set;
  * @author <a href="mailto:sguilhen@redhat.com">Stefan Guilhen</a>
  * @author <a href="mailto:asaldhan@redhat.com">Anil Saldhana</a>
  */
-public class PicketLinkSTSConfiguration implements STSConfiguration {
+public class PicketLinkSTSConfiguration implements STSConfiguration, Closeable {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
@@ -74,7 +77,7 @@ public class PicketLinkSTSConfiguration implements STSConfiguration {
     private final Map<String, ClaimsProcessor> claimsProcessors = new HashMap<String, ClaimsProcessor>();
 
     private TrustKeyManager trustManager;
-    private WSTrustRequestHandler handler;
+    private volatile WSTrustRequestHandler handler;
     private String certificateAlias;
 
     /**
@@ -250,9 +253,21 @@ public class PicketLinkSTSConfiguration implements STSConfiguration {
      * @see org.picketlink.identity.federation.core.wstrust.STSConfiguration#getRequestHandlerClass()
      */
     public WSTrustRequestHandler getRequestHandler() {
-        if (this.handler == null)
-            this.handler = WSTrustServiceFactory.getInstance().createRequestHandler(this.delegate.getRequestHandler(), this);
-        return this.handler;
+        WSTrustRequestHandler requestHandler = this.handler;
+
+        if (requestHandler == null) {
+            synchronized (this) {
+                requestHandler = this.handler;
+
+                if (requestHandler == null) {
+                    requestHandler = WSTrustServiceFactory.getInstance().createRequestHandler(
+                            this.delegate.getRequestHandler(), this);
+                    this.handler = requestHandler;
+                }
+            }
+        }
+
+        return requestHandler;
     }
 
     /*
@@ -514,6 +529,27 @@ public class PicketLinkSTSConfiguration implements STSConfiguration {
             throw new RuntimeException("Unknown config :" + thatConfig); // TODO: Handle other configuration
     }
 
+    /**
+     * <p>
+     * Closes the token providers of this configuration that hold resources, like the background timers of their
+     * registries. The configuration must not be used afterwards.
+     * </p>
+     */
+    public void close() {
+        // the same provider is registered under several keys.
+        Map<SecurityTokenProvider, Boolean> providers = new IdentityHashMap<SecurityTokenProvider, Boolean>();
+
+        for (SecurityTokenProvider provider : this.tokenProviders.values()) {
+            if (provider instanceof Closeable && providers.put(provider, Boolean.TRUE) == null) {
+                try {
+                    ((Closeable) provider).close();
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "PicketLinkSTSConfiguration [delegate=" + delegate + ", tokenProviders=" + tokenProviders + ", spMetadata="
@@ -24,7 +24,9 @@ import org.picketlink.common.exceptions.fed.WSTrustException;
 import org.picketlink.common.util.DocumentUtil;
 import org.picketlink.common.util.StringUtil;
 import org.picketlink.identity.federation.core.parsers.wst.WSTrustParser;
+import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenCollection;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponseCollection;
 import org.picketlink.identity.federation.core.wstrust.writers.WSTrustRequestWriter;
@@ -65,7 +67,7 @@ public class STSClient implements STSClientConfigKeyProvider {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
-    private final ThreadLocal<Dispatch<Source>> dispatchLocal = new InheritableThreadLocal<Dispatch<Source>>();
+    private volatile Dispatch<Source> dispatch;
 
     private final String targetNS = "http://org.picketlink.trust/sts/";
 
@@ -129,14 +131,28 @@ public class STSClient implements STSClientConfigKeyProvider {
         jaxwsService.addPort(portName, soapBinding, this.endPointAddress);
         Dispatch<Source> dispatch = jaxwsService.createDispatch(portName, Source.class, Mode.PAYLOAD);
 
-        Map<String, Object> reqContext = dispatch.getRequestContext();
-        String username = config.getUsername();
+        setDispatch(dispatch);
+        setCredentials(config.getUsername(), config.getPassword());
+    }
+
+    /**
+     * Sets the username and password sent to the STS, replacing the ones of the configuration the client was created
+     * with. No credentials are sent if the username is null.
+     *
+     * @param username
+     * @param password
+     */
+    public void setCredentials(String username, String password) {
+        Map<String, Object> reqContext = getDispatch().getRequestContext();
+
         if (username != null) {
             // add the username and password to the request context.
-            reqContext.put(BindingProvider.USERNAME_PROPERTY, config.getUsername());
-            reqContext.put(BindingProvider.PASSWORD_PROPERTY, config.getPassword());
+            reqContext.put(BindingProvider.USERNAME_PROPERTY, username);
+            reqContext.put(BindingProvider.PASSWORD_PROPERTY, password);
+        } else {
+            reqContext.remove(BindingProvider.USERNAME_PROPERTY);
+            reqContext.remove(BindingProvider.PASSWORD_PROPERTY);
         }
-        setDispatch(dispatch);
     }
 
     /**
@@ -148,7 +164,7 @@ public class STSClient implements STSClientConfigKeyProvider {
         if (dispatch == null)
             throw logger.nullArgumentError("dispatch");
 
-        dispatchLocal.set(dispatch);
+        this.dispatch = dispatch;
     }
 
     /**
@@ -284,52 +300,11 @@ public class STSClient implements STSClientConfigKeyProvider {
      * @throws WSTrustException
      */
     public Element issueToken(RequestSecurityToken request) throws WSTrustException {
-        if (request.getRequestType() == null) {
-            if (isBatch)
-                request.setRequestType(URI.create(WSTrustConstants.BATCH_ISSUE_REQUEST));
-            else
-                request.setRequestType(URI.create(WSTrustConstants.ISSUE_REQUEST));
-        }
-
-        if (request.getContext() == null)
-            request.setContext("default-context");
-
         validateDispatch();
-        DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
-
-        NodeList nodes;
-        try {
-            Node documentNode = DocumentUtil.getNodeFromSource(response);
-
-            Document responseDoc = documentNode instanceof Document ? (Document) documentNode : documentNode.getOwnerDocument();
-
-            nodes = null;
-            if (responseDoc instanceof SOAPPart) {
-                SOAPPart soapPart = (SOAPPart) responseDoc;
-                SOAPEnvelope env = soapPart.getEnvelope();
-                SOAPBody body = env.getBody();
-                Node data = body.getFirstChild();
-                nodes = ((Element) data).getElementsByTagNameNS(WSTrustConstants.BASE_NAMESPACE, "RequestedSecurityToken");
-                if (nodes == null || nodes.getLength() == 0)
-                    nodes = ((Element) data).getElementsByTagName("RequestedSecurityToken");
-            } else {
-                nodes = responseDoc.getElementsByTagNameNS(WSTrustConstants.BASE_NAMESPACE, "RequestedSecurityToken");
-                if (nodes == null || nodes.getLength() == 0)
-                    nodes = responseDoc.getElementsByTagName("RequestedSecurityToken");
-            }
-        } catch (Exception e) {
-            throw new WSTrustException(logger.processingError(e));
-        }
-
-        if (nodes == null)
-            throw new WSTrustException(logger.nullValueError("NodeList"));
+        DOMSource requestSource = this.createSourceFromRequest(prepareIssueRequest(request));
+        Source response = getDispatch().invoke(requestSource);
 
-        Node rstr = nodes.item(0);
-        if (rstr == null)
-            throw new WSTrustException(logger.nullValueError("RSTR in the payload"));
-
-        return (Element) rstr.getFirstChild();
+        return parseIssueResponse(response);
     }
 
     /**
@@ -344,6 +319,65 @@ public class STSClient implements STSClientConfigKeyProvider {
      */
     public Element renewToken(String tokenType, Element token) throws WSTrustException {
         validateDispatch();
+        // send the token request to JBoss STS and get the response.
+        DOMSource requestSource = this.createSourceFromRequest(createRenewRequest(tokenType, token));
+        Source response = getDispatch().invoke(requestSource);
+
+        return parseIssueResponse(response);
+    }
+
+    /**
+     * Validate a token
+     *
+     * @param token
+     *
+     * @return
+     *
+     * @throws WSTrustException
+     */
+    public boolean validateToken(Element token) throws WSTrustException {
+        validateDispatch();
+        DOMSource requestSource = this.createSourceFromRequest(createValidateRequest(token));
+
+        Source response = getDispatch().invoke(requestSource);
+
+        return parseValidateResponse(response);
+    }
+
+    /**
+     * <p>
+     * Cancels the specified security token by sending a WS-Trust cancel message to the STS.
+     * </p>
+     *
+     * @param securityToken the security token to be canceled.
+     *
+     * @return {@code true} if the token has been canceled by the STS; {@code false} otherwise.
+     *
+     * @throws WSTrustException if an error occurs while processing the cancel request.
+     */
+    public boolean cancelToken(Element securityToken) throws WSTrustException {
+        validateDispatch();
+        DOMSource requestSource = this.createSourceFromRequest(createCancelRequest(securityToken));
+        Source response = getDispatch().invoke(requestSource);
+
+        return parseCancelResponse(response);
+    }
+
+    RequestSecurityToken prepareIssueRequest(RequestSecurityToken request) {
+        if (request.getRequestType() == null) {
+            if (isBatch)
+                request.setRequestType(URI.create(WSTrustConstants.BATCH_ISSUE_REQUEST));
+            else
+                request.setRequestType(URI.create(WSTrustConstants.ISSUE_REQUEST));
+        }
+
+        if (request.getContext() == null)
+            request.setContext("default-context");
+
+        return request;
+    }
+
+    RequestSecurityToken createRenewRequest(String tokenType, Element token) {
         RequestSecurityToken request = new RequestSecurityToken();
         request.setContext("context");
 
@@ -352,13 +386,40 @@ public class STSClient implements STSClientConfigKeyProvider {
         RenewTargetType renewTarget = new RenewTargetType();
         renewTarget.add(token);
         request.setRenewTarget(renewTarget);
+        return request;
+    }
 
-        // send the token request to JBoss STS and get the response.
-        DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+    RequestSecurityToken createValidateRequest(Element token) {
+        RequestSecurityToken request = new RequestSecurityToken();
+        request.setContext("context");
+
+        request.setTokenType(URI.create(WSTrustConstants.STATUS_TYPE));
+        request.setRequestType(URI.create(WSTrustConstants.VALIDATE_REQUEST));
+        ValidateTargetType validateTarget = new ValidateTargetType();
+        validateTarget.add(token);
+        request.setValidateTarget(validateTarget);
+        return request;
+    }
+
+    RequestSecurityToken createCancelRequest(Element securityToken) {
+        // create a WS-Trust cancel request containing the specified token.
+        RequestSecurityToken request = new RequestSecurityToken();
+        request.setRequestType(URI.create(WSTrustConstants.CANCEL_REQUEST));
+        CancelTargetType cancelTarget = new CancelTargetType();
+        cancelTarget.add(securityToken);
+        request.setCancelTarget(cancelTarget);
+        request.setContext("context");
+        return request;
+    }
+
+    /**
+     * Get the token in the RequestedSecurityToken of an issue or renew response
+     */
+    Element parseIssueResponse(Source response) throws WSTrustException {
         NodeList nodes;
         try {
             Node documentNode = DocumentUtil.getNodeFromSource(response);
+
             Document responseDoc = documentNode instanceof Document ? (Document) documentNode : documentNode.getOwnerDocument();
 
             nodes = null;
@@ -383,34 +444,13 @@ public class STSClient implements STSClientConfigKeyProvider {
             throw new WSTrustException(logger.nullValueError("NodeList"));
 
         Node rstr = nodes.item(0);
+        if (rstr == null)
+            throw new WSTrustException(logger.nullValueError("RSTR in the payload"));
 
         return (Element) rstr.getFirstChild();
     }
 
-    /**
-     * Validate a token
-     *
-     * @param token
-     *
-     * @return
-     *
-     * @throws WSTrustException
-     */
-    public boolean validateToken(Element token) throws WSTrustException {
-        validateDispatch();
-        RequestSecurityToken request = new RequestSecurityToken();
-        request.setContext("context");
-
-        request.setTokenType(URI.create(WSTrustConstants.STATUS_TYPE));
-        request.setRequestType(URI.create(WSTrustConstants.VALIDATE_REQUEST));
-        ValidateTargetType validateTarget = new ValidateTargetType();
-        validateTarget.add(token);
-        request.setValidateTarget(validateTarget);
-
-        DOMSource requestSource = this.createSourceFromRequest(request);
-
-        Source response = dispatchLocal.get().invoke(requestSource);
-
+    boolean parseValidateResponse(Source response) throws WSTrustException {
         try {
             InputStream stream = DocumentUtil.getNodeAsStream(DocumentUtil.getNodeFromSource(response));
             RequestSecurityTokenResponseCollection responseCollection = (RequestSecurityTokenResponseCollection) new WSTrustParser()
@@ -428,29 +468,7 @@ public class STSClient implements STSClientConfigKeyProvider {
         }
     }
 
-    /**
-     * <p>
-     * Cancels the specified security token by sending a WS-Trust cancel message to the STS.
-     * </p>
-     *
-     * @param securityToken the security token to be canceled.
-     *
-     * @return {@code true} if the token has been canceled by the STS; {@code false} otherwise.
-     *
-     * @throws WSTrustException if an error occurs while processing the cancel request.
-     */
-    public boolean cancelToken(Element securityToken) throws WSTrustException {
-        validateDispatch();
-        // create a WS-Trust cancel request containing the specified token.
-        RequestSecurityToken request = new RequestSecurityToken();
-        request.setRequestType(URI.create(WSTrustConstants.CANCEL_REQUEST));
-        CancelTargetType cancelTarget = new CancelTargetType();
-        cancelTarget.add(securityToken);
-        request.setCancelTarget(cancelTarget);
-        request.setContext("context");
-
-        DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+    boolean parseCancelResponse(Source response) throws WSTrustException {
         // get the WS-Trust response and check for presence of the RequestTokenCanceled element.
         try {
             InputStream stream = DocumentUtil.getNodeAsStream(DocumentUtil.getNodeFromSource(response));
@@ -471,14 +489,17 @@ public class STSClient implements STSClientConfigKeyProvider {
      * @return
      */
     public Dispatch<Source> getDispatch() {
-        return dispatchLocal.get();
+        return dispatch;
     }
 
-    private DOMSource createSourceFromRequest(RequestSecurityToken request) throws WSTrustException {
+    DOMSource createSourceFromRequest(BaseRequestSecurityToken request) throws WSTrustException {
         try {
             DOMResult result = new DOMResult(DocumentUtil.createDocument());
             WSTrustRequestWriter writer = new WSTrustRequestWriter(result);
-            writer.write(request);
+            if (request instanceof RequestSecurityTokenCollection)
+                writer.write((RequestSecurityTokenCollection) request);
+            else
+                writer.write((RequestSecurityToken) request);
             return new DOMSource(result.getNode());
         } catch (Exception e) {
             throw new WSTrustException(logger.processingError(e));
@@ -488,11 +509,24 @@ public class STSClient implements STSClientConfigKeyProvider {
     /**
      * Validate that we have a {@code Dispatch} to work with
      */
-    private void validateDispatch() {
+    void validateDispatch() {
         if (getDispatch() == null)
             throw logger.injectedValueMissing("Dispatch");
     }
 
+    /**
+     * Indicates whether the STS accepts batch requests, as configured in the {@link STSClientConfig}
+     *
+     * @return
+     */
+    public boolean isBatch() {
+        return isBatch;
+    }
+
+    public void setBatch(boolean isBatch) {
+        this.isBatch = isBatch;
+    }
+
     public String getSoapBinding() {
         return soapBinding;
     }
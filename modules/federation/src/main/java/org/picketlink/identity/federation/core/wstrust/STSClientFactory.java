@@ -55,7 +55,7 @@ public final class STSClientFactory {
      */
     @Deprecated
     public STSClient create(final STSClientConfig config) {
-        return createPool(0, config);
+        return new STSClient(config);
     }
 
     /**
@@ -84,7 +84,7 @@ public final class STSClientFactory {
         if (stsClientPool.isPoolingDisabled()) {
             return new STSClient(config);
         }
-        stsClientPool.initialize(initialNumberOfClients, config);
+        stsClientPool.initializeIfAbsent(initialNumberOfClients, config);
         return stsClientPool.takeOut(config);
     }
 
@@ -103,29 +103,51 @@ public final class STSClientFactory {
         if (stsClientPool.isPoolingDisabled()) {
             return callBack.createClient();
         }
-        stsClientPool.initialize(initialNumberOfClients, callBack);
+        stsClientPool.initializeIfAbsent(initialNumberOfClients, callBack);
         return stsClientPool.takeOut(callBack.getKey());
     }
 
     /**
-     * Returns STS client back to the sub pool of clients.
+     * Returns STS client back to the sub pool of clients. Clients that were not taken out of the pool are ignored.
      *
      * @param stsClient client to return
      */
     public void returnClient(final STSClient stsClient) {
-        if (stsClientPool.isPoolingDisabled() == false) {
-            stsClientPool.putIn(stsClient);
-        }
+        stsClientPool.returnClient(stsClient);
     }
 
+    /**
+     * Returns a client from the sub pool of clients of the given configuration, initializing the sub pool if needed.
+     * When all the clients of the sub pool are in use, waits for one to be returned.
+     *
+     * When pooling is disabled it just creates client and return it.
+     *
+     * @param config to construct the pool of clients
+     * @return STSClient from the pool
+     */
     public STSClient getClient(final STSClientConfig config) {
-        if (stsClientPool.isPoolingDisabled()) {
-            return new STSClient(config);
-        }
-        return stsClientPool.takeOut(config);
+        return createPool(0, config);
     }
 
     public boolean configExists(final STSClientConfig config) {
         return stsClientPool.isConfigInitialized(config);
     }
+
+    /**
+     * Returns the counters of the sub pool of clients of the given configuration.
+     *
+     * @param config
+     * @return the counters or null if there is no sub pool for the configuration
+     */
+    public STSClientPoolStatistics getStatistics(final STSClientConfig config) {
+        return stsClientPool.getStatistics(config.getSTSClientConfigKey());
+    }
+
+    /**
+     * Stops the eviction of the idle clients and forgets all the sub pools of clients, eg.: when the application
+     * is undeployed.
+     */
+    public void shutdown() {
+        stsClientPool.shutdown();
+    }
 }
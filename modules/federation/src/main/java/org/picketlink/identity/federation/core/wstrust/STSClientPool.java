@@ -17,14 +17,41 @@
  */
 package org.picketlink.identity.federation.core.wstrust;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
-
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.common.util.SystemPropertiesUtil;
+import org.picketlink.identity.federation.core.util.SharedScheduler;
+import org.picketlink.identity.federation.core.util.SharedScheduler.ScheduledTask;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Simple pool of {@link STSClient} classes.
+ * <p>
+ * Pool of {@link STSClient} classes, with a sub pool for each STS configuration.
+ * </p>
+ * <p>
+ * Each sub pool holds up to the maximum pool size clients, starting with its initial number of clients. When all of
+ * them are taken out, callers wait in arrival order for a client to be put back, up to the acquire timeout. The
+ * clients above the initial number that stayed idle longer than the maximum idle time are discarded, until the pool
+ * is {@link #shutdown()}. The counters of each sub pool are available from {@link #getStatistics(String)}.
+ * </p>
+ * <p>
+ * The maximum pool size, acquire timeout and maximum idle time default to the "picketlink.sts_client_pool.max_size",
+ * "picketlink.sts_client_pool.acquire_timeout" and "picketlink.sts_client_pool.max_idle_time" system properties.
+ * Pooling is disabled unless a maximum pool size is set.
+ * </p>
+ * <p>
+ * The clients of a sub pool are shared by all the configurations with the same key, which does not include the
+ * password. Clients taken out for a configuration are given the credentials of that configuration.
+ * </p>
  *
  * @author Peter Skopek pskopek at (redhat.com)
  *
@@ -34,127 +61,148 @@ public class STSClientPool {
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
     static final int DEFAULT_NUM_STS_CLIENTS = 10;
 
-    private int maxPoolSize = 0;  // disable pooling by default
+    public static final int DEFAULT_MAX_POOL_SIZE = 0;
+
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 30 * 1000L;
+
+    public static final long DEFAULT_MAX_IDLE_TIME = 5 * 60 * 1000L;
+
+    private static final long MAX_EVICTION_INTERVAL = 60 * 1000L;
+
+    private volatile int maxPoolSize;
+
+    private final long acquireTimeout;
+
+    private final long maxIdleTime;
+
+    private final ConcurrentMap<String, SubPool> pools = new ConcurrentHashMap<String, SubPool>();
+
+    private final ConcurrentMap<STSClient, SubPool> inUse = new ConcurrentHashMap<STSClient, SubPool>();
 
-    private Hashtable<String, ArrayList<STSClient>> free = new Hashtable<String, ArrayList<STSClient>>();
-    private Hashtable<String, ArrayList<STSClient>> inUse = new Hashtable<String, ArrayList<STSClient>>();
-    private Hashtable<String, STSConfigData> configs = new Hashtable<String, STSConfigData>();
+    private ScheduledTask evictionTask;
 
     STSClientPool() {
+        this(Integer.parseInt(SystemPropertiesUtil.getSystemProperty(GeneralConstants.STS_CLIENT_POOL_MAX_SIZE,
+                String.valueOf(DEFAULT_MAX_POOL_SIZE))),
+            Long.parseLong(SystemPropertiesUtil.getSystemProperty(GeneralConstants.STS_CLIENT_POOL_ACQUIRE_TIMEOUT,
+                String.valueOf(DEFAULT_ACQUIRE_TIMEOUT))),
+            Long.parseLong(SystemPropertiesUtil.getSystemProperty(GeneralConstants.STS_CLIENT_POOL_MAX_IDLE_TIME,
+                String.valueOf(DEFAULT_MAX_IDLE_TIME))));
     }
 
-    synchronized void initializePool(int maxPoolSize) {
+    STSClientPool(int maxPoolSize, long acquireTimeout, long maxIdleTime) {
+        initializePool(maxPoolSize);
+        this.acquireTimeout = acquireTimeout;
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    void initializePool(int maxPoolSize) {
         if (maxPoolSize < 0) {
             throw logger.cannotSetMaxPoolSizeToNegative(String.valueOf(maxPoolSize));
         }
         this.maxPoolSize = maxPoolSize;
+
+        // the sub pools are only resized here, so that taking out a client does not contend on the size of its pool
+        for (SubPool pool : this.pools.values()) {
+            pool.resize(maxPoolSize);
+        }
     }
 
     public void initialize(int numberOfSTSClients, STSClientConfig stsClientConfig) {
-        internalInitialize(numberOfSTSClients, stsClientConfig, null);
+        internalInitialize(numberOfSTSClients, stsClientConfig, null, true);
     }
 
     public void initialize(STSClientConfig stsClientConfig) {
-        internalInitialize(0, stsClientConfig, null);
+        internalInitialize(0, stsClientConfig, null, true);
     }
 
-
     public void initialize(int numberOfSTSClients, STSClientCreationCallBack clientCreationCallBack) {
-        internalInitialize(numberOfSTSClients, null, clientCreationCallBack);
+        internalInitialize(numberOfSTSClients, null, clientCreationCallBack, true);
     }
 
-    private void internalInitialize(int numberOfSTSClients, STSClientConfig stsClientConfig, STSClientCreationCallBack clientCreationCallBack) {
+    /**
+     * Initialize the sub pool of the given configuration, unless another caller already did
+     */
+    void initializeIfAbsent(int numberOfSTSClients, STSClientConfig stsClientConfig) {
+        internalInitialize(numberOfSTSClients, stsClientConfig, null, false);
+    }
 
-        int initSTSCLients = (numberOfSTSClients > 0 ? numberOfSTSClients : DEFAULT_NUM_STS_CLIENTS);
+    /**
+     * Initialize the sub pool of the given callback, unless another caller already did
+     */
+    void initializeIfAbsent(int numberOfSTSClients, STSClientCreationCallBack clientCreationCallBack) {
+        internalInitialize(numberOfSTSClients, null, clientCreationCallBack, false);
+    }
 
-        String key = null;
+    private void internalInitialize(int numberOfSTSClients, STSClientConfig stsClientConfig,
+                                    STSClientCreationCallBack clientCreationCallBack, boolean failIfInitialized) {
+        String key;
         if (clientCreationCallBack != null) {
             key = clientCreationCallBack.getKey();
         } else {
             key = key(stsClientConfig);
         }
-        if (!free.containsKey(key)) {
-            ArrayList<STSClient> clients = new ArrayList<STSClient>(initSTSCLients);
-            if (clientCreationCallBack != null) {
-                for (int i = 0; i < initSTSCLients; i++) {
-                    clients.add(clientCreationCallBack.createClient());
-                }
-            } else {
-                for (int i = 0; i < initSTSCLients; i++) {
-                    clients.add(new STSClient(stsClientConfig));
-                }
+
+        if (this.pools.containsKey(key)) {
+            if (failIfInitialized) {
+                throw logger.freePoolAlreadyContainsGivenKey(key);
             }
-            synchronized (free) {
-                STSConfigData configData = new STSConfigData();
-                configData.initialNumberOfClients = initSTSCLients;
-                if (clientCreationCallBack != null) {
-                    configData.config = null;
-                    configData.callBack = clientCreationCallBack;
-                } else {
-                    configData.config = stsClientConfig;
-                    configData.callBack = null;
-                }
-                configs.put(key, configData);
-                free.put(key, clients);
-                inUse.put(key, new ArrayList<STSClient>(initSTSCLients));
+            return;
+        }
+
+        int initSTSClients = (numberOfSTSClients > 0 ? numberOfSTSClients : DEFAULT_NUM_STS_CLIENTS);
+        SubPool pool = new SubPool(key, stsClientConfig, clientCreationCallBack, Math.min(initSTSClients, this.maxPoolSize));
+
+        if (this.pools.putIfAbsent(key, pool) != null) {
+            if (failIfInitialized) {
+                throw logger.freePoolAlreadyContainsGivenKey(key);
             }
-        } else {
-            // free pool already contains given key:
-            throw logger.freePoolAlreadyContainsGivenKey(key);
+            return;
         }
 
+        pool.fill();
+        scheduleEviction();
     }
 
     public STSClient takeOut(STSClientConfig stsClientConfig) {
-        String key = key(stsClientConfig);
-        STSClient client = takeOutInternal(key);
-        if (client == null) {
-            STSConfigData configData = configs.get(key);
-            if (configData == null) {
-                throw logger.cannotGetSTSConfigByKey(key);
-            }
-            initialize(configData.initialNumberOfClients, stsClientConfig);
-            client = takeOutInternal(key);
+        STSClient client = takeOut(key(stsClientConfig));
+
+        try {
+            // the client may have been created, or last used, with the credentials of another configuration.
+            client.setCredentials(stsClientConfig.getUsername(), stsClientConfig.getPassword());
+        } catch (RuntimeException e) {
+            returnClient(client);
+            throw e;
         }
+
         return client;
     }
 
-
     public STSClient takeOut(String key) {
-        STSClient client = takeOutInternal(key);
-        if (client == null) {
-            STSConfigData configData = configs.get(key);
-            if (configData == null) {
-                throw logger.cannotGetSTSConfigByKey(key);
-            }
-            if (configData.callBack != null) {
-                internalInitialize(DEFAULT_NUM_STS_CLIENTS, null, configs.get(key).callBack);
-            }
-            client = takeOutInternal(key);
+        SubPool pool = this.pools.get(key);
+        if (pool == null) {
+            throw logger.cannotGetSTSConfigByKey(key);
         }
-        return client;
+        return pool.borrow();
     }
 
     public boolean isConfigInitialized(STSClientConfig stsClientConfig) {
-        if (isPoolingDisabled() == false || stsClientConfig == null) {
+        if (isPoolingDisabled() || stsClientConfig == null) {
             return false;
-         }
-        STSConfigData configData = configs.get(key(stsClientConfig));
-        return (configData != null);
+        }
+        return this.pools.containsKey(key(stsClientConfig));
     }
 
     public boolean isConfigInitialized(String key) {
-        if (isPoolingDisabled() == false || key == null) {
-           return false;
+        if (isPoolingDisabled() || key == null) {
+            return false;
         }
-        STSConfigData configData = configs.get(key);
-        return (configData != null);
+        return this.pools.containsKey(key);
     }
 
     public void putIn(STSClientConfigKeyProvider keyProvider, STSClient client) {
         if (isPoolingDisabled() == false) {
-            String key = keyProvider.getSTSClientConfigKey();
-            putInInternal(key, client);
+            putInInternal(keyProvider.getSTSClientConfigKey(), client);
         }
     }
 
@@ -170,120 +218,248 @@ public class STSClientPool {
         }
     }
 
-    private synchronized STSClient takeOutInternal(String key) {
-        ArrayList<STSClient> clients = free.get(key);
-        if (clients != null) {
-            int size = clients.size();
-            STSClient client;
-            if (size > 0) {
-                client = clients.remove(size - 1);
-            } else {
-                int allocateClients = numClientsToAllocate(key);
-                if (allocateClients > 0) {
-                    addClients(key);
-                } else {
-                    // Pool reached miximum number of clients within the pool
-                    throw logger.maximumNumberOfClientsReachedforPool(String.valueOf(this.maxPoolSize));
-                }
-                client = clients.remove(clients.size() -1);
-            }
-            markInUse(key, client);
-            return client;
+    /**
+     * Put a client back into the sub pool it was taken out of
+     *
+     * @param client
+     *
+     * @return false if the client was not taken out of this pool
+     */
+    boolean returnClient(STSClient client) {
+        SubPool pool = this.inUse.remove(client);
+
+        if (pool == null) {
+            return false;
         }
-        return null;
+
+        pool.release(client);
+
+        return true;
     }
 
-    private int numClientsToAllocate(String key) {
-        int allClients = 0;
-        ArrayList<STSClient> clients = inUse.get(key);
-        if (clients != null) {
-            allClients += clients.size();
-        }
-        clients = free.get(key);
-        if (clients != null) {
-            allClients += clients.size();
+    private void putInInternal(String key, STSClient client) {
+        if (!returnClient(client)) {
+            // removing non existing client from used clients by key:
+            throw logger.removingNonExistingClientFromUsedClientsByKey(key);
         }
+    }
 
-        int c = maxPoolSize - allClients;
+    /**
+     * Get the counters of the sub pool with the given key
+     *
+     * @param key
+     *
+     * @return the counters or null if there is no sub pool for the given key
+     */
+    public STSClientPoolStatistics getStatistics(String key) {
+        SubPool pool = this.pools.get(key);
+        return pool != null ? pool.getStatistics() : null;
+    }
 
-        int initSTSCLients;
-        STSConfigData configData = configs.get(key);
-        if (configData != null) {
-            initSTSCLients = configData.initialNumberOfClients;
-        } else {
-            initSTSCLients = DEFAULT_NUM_STS_CLIENTS;
-        }
+    private String key(STSClientConfig stsClientConfig) {
+        return stsClientConfig.getSTSClientConfigKey();
+    }
 
-        if (c > initSTSCLients) {
-            return initSTSCLients;
-        } else if (c <= 0) {
-            return 0;
-        } else {
-            return c;
+    public boolean isPoolingDisabled() {
+        return maxPoolSize == 0;
+    }
+
+    /**
+     * Stop the eviction of the idle clients and forget all the sub pools. Clients still in use are not put back.
+     */
+    public synchronized void shutdown() {
+        if (this.evictionTask != null) {
+            this.evictionTask.cancel();
+            this.evictionTask = null;
         }
+
+        this.pools.clear();
+        this.inUse.clear();
     }
 
-    private void addClients(String key) {
-        STSConfigData configData = configs.get(key);
-        if (configData != null) {
-            ArrayList<STSClient> freeClientPool = free.get(key);
-            if (freeClientPool != null) {
-                ArrayList<STSClient> clients = new ArrayList<STSClient>(configData.initialNumberOfClients);
-                if (configData.config != null) {
-                    for (int i = 0; i < configData.initialNumberOfClients; i++) {
-                        clients.add(new STSClient(configData.config));
-                    }
-                } else {
-                    for (int i = 0; i < configData.initialNumberOfClients; i++) {
-                        clients.add(configData.callBack.createClient());
+    private synchronized void scheduleEviction() {
+        if (this.evictionTask == null && this.maxIdleTime > 0) {
+            long interval = Math.min(this.maxIdleTime, MAX_EVICTION_INTERVAL);
+
+            this.evictionTask = SharedScheduler.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    long now = System.currentTimeMillis();
+
+                    for (SubPool pool : pools.values()) {
+                        pool.evict(now);
                     }
                 }
-                freeClientPool.addAll(clients);
+            }, interval);
+        }
+    }
+
+    /**
+     * The clients of one STS configuration. A permit of the fair semaphore is held by each client in use, so that
+     * waiting callers are served in order once clients are put back.
+     */
+    private class SubPool {
+
+        private final String key;
+
+        private final STSClientConfig config;
+
+        private final STSClientCreationCallBack callBack;
+
+        private final int minSize;
+
+        private final ResizableSemaphore permits;
+
+        private volatile int maxSize;
+
+        private final BlockingDeque<IdleClient> idle = new LinkedBlockingDeque<IdleClient>();
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicLong borrowCount = new AtomicLong();
+
+        private final AtomicLong timeoutCount = new AtomicLong();
+
+        private final AtomicLong totalWaitTime = new AtomicLong();
+
+        private final AtomicLong maxWaitTime = new AtomicLong();
+
+        private final AtomicLong createdCount = new AtomicLong();
+
+        private final AtomicLong destroyedCount = new AtomicLong();
+
+        private SubPool(String key, STSClientConfig config, STSClientCreationCallBack callBack, int minSize) {
+            this.key = key;
+            this.config = config;
+            this.callBack = callBack;
+            this.minSize = minSize;
+            this.maxSize = Math.max(1, maxPoolSize);
+            this.permits = new ResizableSemaphore(this.maxSize);
+        }
+
+        private void fill() {
+            long now = System.currentTimeMillis();
+
+            for (int i = 0; i < this.minSize; i++) {
+                this.idle.offerLast(new IdleClient(create(), now));
+            }
+        }
+
+        private STSClient borrow() {
+            long start = System.nanoTime();
+            boolean acquired;
+
+            try {
+                acquired = this.permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+
+            if (!acquired) {
+                this.timeoutCount.incrementAndGet();
+                throw logger.timedOutWaitingForSTSClient(this.key, acquireTimeout);
+            }
+
+            long waitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            this.totalWaitTime.addAndGet(waitTime);
+
+            long maxWaitTime = this.maxWaitTime.get();
+
+            while (waitTime > maxWaitTime && !this.maxWaitTime.compareAndSet(maxWaitTime, waitTime)) {
+                maxWaitTime = this.maxWaitTime.get();
+            }
+
+            try {
+                IdleClient idleClient = this.idle.pollFirst();
+                STSClient client = idleClient != null ? idleClient.client : create();
+
+                this.active.incrementAndGet();
+                this.borrowCount.incrementAndGet();
+                inUse.put(client, this);
+
+                return client;
+            } catch (RuntimeException e) {
+                this.permits.release();
+                throw e;
+            }
+        }
+
+        private void release(STSClient client) {
+            this.active.decrementAndGet();
+
+            if (this.idle.size() + this.active.get() < this.maxSize) {
+                this.idle.offerFirst(new IdleClient(client, System.currentTimeMillis()));
             } else {
-                // cannot get free client pool key:
-                throw logger.cannotGetFreeClientPoolKey(key);
+                // the pool was shrunk while the client was in use
+                this.destroyedCount.incrementAndGet();
             }
-        }  else {
-            // cannot get STS config by key:
-            throw logger.cannotGetSTSConfigByKey(key);
+
+            this.permits.release();
         }
-    }
 
-    private void markInUse(String key, STSClient client) {
-        ArrayList<STSClient> usedClients = inUse.get(key);
-        if (usedClients != null) {
-            usedClients.add(client);
-        } else {
-            // cannot get used clients by key:
-            logger.cannotGetUsedClientsByKey(key);
+        private void evict(long now) {
+            IdleClient idleClient;
+
+            // the least recently used clients are at the end of the deque
+            while (this.idle.size() + this.active.get() > this.minSize && (idleClient = this.idle.peekLast()) != null
+                && now - idleClient.since >= maxIdleTime) {
+                if (this.idle.removeLastOccurrence(idleClient)) {
+                    this.destroyedCount.incrementAndGet();
+                }
+            }
         }
-    }
 
-    private synchronized void putInInternal(String key, STSClient client) {
-        ArrayList<STSClient> freeClients = free.get(key);
-        ArrayList<STSClient> usedClients = inUse.get(key);
+        private synchronized void resize(int newMaxSize) {
+            if (newMaxSize > 0 && newMaxSize != this.maxSize) {
+                if (newMaxSize > this.maxSize) {
+                    this.permits.release(newMaxSize - this.maxSize);
+                } else {
+                    this.permits.reducePermits(this.maxSize - newMaxSize);
+                }
 
-        if (!usedClients.remove(client)) {
-            // removing non existing client from used clients by key:
-            throw logger.removingNonExistingClientFromUsedClientsByKey(key);
+                this.maxSize = newMaxSize;
+            }
         }
 
-        freeClients.add(client);
+        private STSClient create() {
+            STSClient client = this.config != null ? new STSClient(this.config) : this.callBack.createClient();
 
-    }
+            this.createdCount.incrementAndGet();
 
-    private String key(STSClientConfig stsClientConfig) {
-        return stsClientConfig.getSTSClientConfigKey();
+            return client;
+        }
+
+        private synchronized STSClientPoolStatistics getStatistics() {
+            return new STSClientPoolStatistics(this.maxSize, this.active.get(), this.idle.size(), this.borrowCount.get(),
+                this.timeoutCount.get(), this.totalWaitTime.get(), this.maxWaitTime.get(), this.createdCount.get(),
+                this.destroyedCount.get());
+        }
     }
 
-    public boolean isPoolingDisabled() {
-        return maxPoolSize == 0;
+    private static class IdleClient {
+
+        private final STSClient client;
+
+        private final long since;
+
+        private IdleClient(STSClient client, long since) {
+            this.client = client;
+            this.since = since;
+        }
     }
 
-}
+    private static class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
 
-class STSConfigData {
-    STSClientConfig config;
-    STSClientCreationCallBack callBack;
-    int initialNumberOfClients = STSClientPool.DEFAULT_NUM_STS_CLIENTS;
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
 }
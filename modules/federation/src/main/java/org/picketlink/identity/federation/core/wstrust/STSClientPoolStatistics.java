@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust;
+
+/**
+ * <p>
+ * A snapshot of the counters of the {@link STSClientPool} of one STS configuration.
+ * </p>
+ */
+public class STSClientPoolStatistics {
+
+    private final int maxSize;
+
+    private final int activeCount;
+
+    private final int idleCount;
+
+    private final long borrowCount;
+
+    private final long timeoutCount;
+
+    private final long totalWaitTime;
+
+    private final long maxWaitTime;
+
+    private final long createdCount;
+
+    private final long destroyedCount;
+
+    STSClientPoolStatistics(int maxSize, int activeCount, int idleCount, long borrowCount, long timeoutCount,
+                            long totalWaitTime, long maxWaitTime, long createdCount, long destroyedCount) {
+        this.maxSize = maxSize;
+        this.activeCount = activeCount;
+        this.idleCount = idleCount;
+        this.borrowCount = borrowCount;
+        this.timeoutCount = timeoutCount;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+    }
+
+    /**
+     * Maximum number of clients
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Number of clients taken out of the pool and not yet returned
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        return this.activeCount;
+    }
+
+    /**
+     * Number of clients waiting in the pool
+     *
+     * @return
+     */
+    public int getIdleCount() {
+        return this.idleCount;
+    }
+
+    /**
+     * Number of clients taken out of the pool
+     *
+     * @return
+     */
+    public long getBorrowCount() {
+        return this.borrowCount;
+    }
+
+    /**
+     * Number of callers that gave up waiting for a client
+     *
+     * @return
+     */
+    public long getTimeoutCount() {
+        return this.timeoutCount;
+    }
+
+    /**
+     * Total time, in milliseconds, callers waited for a client
+     *
+     * @return
+     */
+    public long getTotalWaitTime() {
+        return this.totalWaitTime;
+    }
+
+    /**
+     * Longest time, in milliseconds, a caller waited for a client
+     *
+     * @return
+     */
+    public long getMaxWaitTime() {
+        return this.maxWaitTime;
+    }
+
+    /**
+     * Average time, in milliseconds, callers waited for a client
+     *
+     * @return
+     */
+    public double getAverageWaitTime() {
+        return this.borrowCount == 0 ? 0 : (double) this.totalWaitTime / this.borrowCount;
+    }
+
+    /**
+     * Fraction of the maximum number of clients that is in use
+     *
+     * @return
+     */
+    public double getUtilization() {
+        return this.maxSize == 0 ? 0 : (double) this.activeCount / this.maxSize;
+    }
+
+    public long getCreatedCount() {
+        return this.createdCount;
+    }
+
+    public long getDestroyedCount() {
+        return this.destroyedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "STSClientPoolStatistics[maxSize=" + this.maxSize + ", active=" + this.activeCount + ", idle="
+                + this.idleCount + ", borrowed=" + this.borrowCount + ", timeouts=" + this.timeoutCount
+                + ", totalWaitTime=" + this.totalWaitTime + ", maxWaitTime=" + this.maxWaitTime + ", created="
+                + this.createdCount + ", destroyed=" + this.destroyedCount + "]";
+    }
+}
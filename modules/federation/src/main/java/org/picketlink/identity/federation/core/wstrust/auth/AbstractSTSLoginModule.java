@@ -180,6 +180,14 @@ import java.util.Set;
  * assertion, into the subject
  * </p>
  *
+ * <p>
+ * validationCache: set it to true to cache the results of the validation of tokens by the STS, so that a token is not
+ * sent to the STS again until the result expires. validationCacheMaxSize, validationCacheTTL and
+ * validationCacheNegativeTTL set the number of results kept and the time, in milliseconds, positive and negative results
+ * are kept. validationCacheRevocationRegistry names a RevocationRegistry class to check the cached results against.
+ * See {@link STSValidationCache}.
+ * </p>
+ *
  * @author <a href="mailto:dbevenius@jboss.com">Daniel Bevenius</a>
  * @author Anil.Saldhana@redhat.com
  */
@@ -252,6 +260,31 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
      */
     public static final String INITIAL_NUMBER_OF_CLIENTS = "initialNumberOfClients";
 
+    /**
+     * Key to specify whether the results of token validations are cached
+     */
+    public static final String VALIDATION_CACHE = "validationCache";
+
+    /**
+     * Key to specify the maximum number of cached validation results
+     */
+    public static final String VALIDATION_CACHE_MAX_SIZE = "validationCacheMaxSize";
+
+    /**
+     * Key to specify the time, in milliseconds, a positive validation result is cached
+     */
+    public static final String VALIDATION_CACHE_TTL = "validationCacheTTL";
+
+    /**
+     * Key to specify the time, in milliseconds, a negative validation result is cached
+     */
+    public static final String VALIDATION_CACHE_NEGATIVE_TTL = "validationCacheNegativeTTL";
+
+    /**
+     * Key to specify the RevocationRegistry class the cached validation results are checked against
+     */
+    public static final String VALIDATION_CACHE_REVOCATION_REGISTRY = "validationCacheRevocationRegistry";
+
     /**
      * The subject to be populated.
      */
@@ -318,15 +351,20 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
     protected boolean isBatch = false;
 
     /**
-     * Maximal number of clients in the STS Client Pool.
+     * Maximal number of clients in the STS Client Pool. When negative, the size of the pool is left unchanged.
      */
-    protected int maxClientsInPool = 0;
+    protected int maxClientsInPool = -1;
 
     /**
      * Number of clients initialized for in case pool is out of free clients.
      */
     protected int initialNumberOfClients = 0;
 
+    /**
+     * Cache of the token validation results, or null if the results are not cached.
+     */
+    protected STSValidationCache validationCache;
+
     /**
      * Initialized this login module. Simple stores the passed in fields and also validates the options.
      *
@@ -391,6 +429,31 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
             }
         }
 
+        if (Boolean.parseBoolean((String) options.get(VALIDATION_CACHE))) {
+            int maxSize = (int) getLongOption(VALIDATION_CACHE_MAX_SIZE, STSValidationCache.DEFAULT_MAX_SIZE);
+            long ttl = getLongOption(VALIDATION_CACHE_TTL, STSValidationCache.DEFAULT_TTL);
+            long negativeTtl = getLongOption(VALIDATION_CACHE_NEGATIVE_TTL, 0);
+
+            // login modules validating with the same STS share their cache
+            String cacheName = (String) options.get(STS_CONFIG_FILE);
+            if (cacheName == null)
+                cacheName = String.valueOf(options.get(ENDPOINT_ADDRESS));
+
+            this.validationCache = STSValidationCache.getInstance(cacheName, maxSize, ttl, negativeTtl,
+                (String) options.get(VALIDATION_CACHE_REVOCATION_REGISTRY));
+        }
+    }
+
+    private long getLongOption(String optionName, long defaultValue) {
+        String value = (String) options.get(optionName);
+        if (StringUtil.isNotNull(value)) {
+            try {
+                return Long.parseLong(value);
+            } catch (Exception e) {
+                logger.cannotParseParameterValue(optionName, e);
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -403,6 +466,14 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
      * @throws LoginException If an error occurs while trying to perform the authentication.
      */
     public boolean login() throws LoginException {
+        final Element cachedToken = getCachedToken();
+        if (cachedToken != null) {
+            setSuccess(true);
+            setSamlToken(cachedToken);
+            setSharedToken(cachedToken);
+            return true;
+        }
+
         STSClient stsClient = null;
         try {
             final Builder builder = createBuilder();
@@ -434,13 +505,24 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
             throw logger.authLoginError(e);
         } finally {
             if (stsClient != null) {
-                STSClientFactory.getInstance(maxClientsInPool).returnClient(stsClient);
+                getSTSClientFactory().returnClient(stsClient);
             }
         }
     }
 
     public abstract Element invokeSTS(final STSClient stsclient) throws WSTrustException, LoginException;
 
+    /**
+     * Subclasses can override to authenticate with a token whose validation by the STS is still cached, without
+     * creating a {@link STSClient}.
+     *
+     * @return Element The cached token, or null if the STS has to be invoked.
+     * @throws LoginException If the cached result says that the token is not valid.
+     */
+    protected Element getCachedToken() throws LoginException {
+        return null;
+    }
+
     /**
      * Commit will package the samlToken set by the login method in a new {@link SamlCredential}. This new SamlCredential will
      * be put into the Subject public credentials set.
@@ -571,17 +653,19 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
 
     protected STSClient createWSTrustClient(final STSClientConfig config) {
         try {
-            STSClientFactory factory = STSClientFactory.getInstance(maxClientsInPool);
-            if (factory.configExists(config)) {
-                return factory.getClient(config);
-            } else {
-                return STSClientFactory.getInstance(maxClientsInPool).createPool(initialNumberOfClients, config);
-            }
+            return getSTSClientFactory().createPool(initialNumberOfClients, config);
         } catch (final Exception e) {
             throw logger.authCouldNotCreateWSTrustClient(e);
         }
     }
 
+    private STSClientFactory getSTSClientFactory() {
+        if (maxClientsInPool < 0) {
+            return STSClientFactory.getInstance();
+        }
+        return STSClientFactory.getInstance(maxClientsInPool);
+    }
+
     protected String getRequiredOption(final Map<String, ?> options, final String optionName) {
         final String option = (String) options.get(optionName);
         if (option == null)
@@ -46,10 +46,58 @@ import java.io.IOException;
  * }
  * </pre>
  *
+ * With the validationCache option set to true, the result of the validation is cached, and a token already validated is
+ * accepted without invoking the STS until the result expires. See {@link STSValidationCache}.
+ *
  * @author <a href="mailto:dbevenius@jboss.com">Daniel Bevenius</a>
  */
 public class STSValidatingLoginModule extends AbstractSTSLoginModule {
 
+    /**
+     * The token being validated, read once when the validation results are cached.
+     */
+    private Element token;
+
+    /**
+     * The key of the token in the validation cache.
+     */
+    private String tokenDigest;
+
+    /**
+     * Look the token up in the validation cache.
+     *
+     * @return Element The token if it was already validated by the STS, or null.
+     *
+     * @throws LoginException If the token is known to be invalid.
+     */
+    @Override
+    protected Element getCachedToken() throws LoginException {
+        if (validationCache == null)
+            return null;
+
+        try {
+            token = getToken();
+        } catch (final IOException e) {
+            throw logger.authLoginError(e);
+        } catch (final UnsupportedCallbackException e) {
+            throw logger.authLoginError(e);
+        }
+
+        tokenDigest = STSValidationCache.digest(token);
+
+        final Boolean result = validationCache.getResult(tokenDigest);
+
+        if (result == null)
+            return null;
+
+        logger.debug("Cached SAML Token Validation result: " + result);
+
+        if (result == false)
+            throw logger.authCouldNotValidateSAMLToken(token);
+
+        return token;
+    }
+
     /**
      * This method will validate the token with the configured STS.
      *
@@ -59,16 +107,17 @@ public class STSValidatingLoginModule extends AbstractSTSLoginModule {
      */
     public Element invokeSTS(final STSClient stsClient) throws WSTrustException, LoginException {
         try {
-            // See if a previous stacked login module stored the token.
-            Element token = (Element) getSharedToken();
-
-            if (token == null)
-                token = getSamlTokenFromCaller();
+            final Element token = this.token != null ? this.token : getToken();
 
             final boolean result = stsClient.validateToken(token);
 
             logger.debug("SAML Token Validation result: " + result);
 
+            if (validationCache != null) {
+                validationCache.putResult(tokenDigest != null ? tokenDigest : STSValidationCache.digest(token), token,
+                    result);
+            }
+
             if (result == false) {
                 // Throw an exception as returing false only says that this login module should be ignored.
                 throw logger.authCouldNotValidateSAMLToken(token);
@@ -82,6 +131,16 @@ public class STSValidatingLoginModule extends AbstractSTSLoginModule {
         }
     }
 
+    private Element getToken() throws UnsupportedCallbackException, LoginException, IOException {
+        // See if a previous stacked login module stored the token.
+        final Element token = (Element) getSharedToken();
+
+        if (token != null)
+            return token;
+
+        return getSamlTokenFromCaller();
+    }
+
     private Element getSamlTokenFromCaller() throws UnsupportedCallbackException, LoginException, IOException {
         final TokenCallback callback = new TokenCallback();
 
@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust.auth;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.common.util.Base64;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.RevocationRegistry;
+import org.picketlink.identity.federation.core.util.BoundedCache;
+import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Bounded cache of the results of the validation of security tokens by the STS, used by the
+ * {@link STSValidatingLoginModule} to avoid a WS-Trust round trip for a token it has already validated.
+ * </p>
+ * <p>
+ * Results are keyed by the SHA-256 digest of the serialized token, so that a token that differs in any way from the
+ * validated one is sent to the STS again. A positive result is kept for the configured time to live, but never after
+ * the NotOnOrAfter of the assertion. Negative results are only kept when a negative time to live is configured. The
+ * least recently used results are evicted once the cache is full.
+ * </p>
+ * <p>
+ * When a {@link RevocationRegistry} is given, every cached positive result is checked against it, so that a token
+ * canceled at the STS is validated again as soon as the registry knows about it. Tokens can also be evicted with
+ * {@link #invalidate(String)}.
+ * </p>
+ */
+public class STSValidationCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+
+    private static final Map<String, STSValidationCache> instances = new HashMap<String, STSValidationCache>();
+
+    private final long ttl;
+
+    private final long negativeTtl;
+
+    private final RevocationRegistry revocationRegistry;
+
+    private final BoundedCache<String, CachedResult> results;
+
+    /**
+     * @param maxSize the maximum number of results kept
+     * @param ttl the time, in milliseconds, a positive result is kept
+     * @param negativeTtl the time, in milliseconds, a negative result is kept. Negative results are not cached when
+     * zero or less.
+     * @param revocationRegistry the registry of the tokens canceled at the STS, or null
+     */
+    public STSValidationCache(int maxSize, long ttl, long negativeTtl, RevocationRegistry revocationRegistry) {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.revocationRegistry = revocationRegistry;
+        this.results = new BoundedCache<String, CachedResult>(maxSize);
+    }
+
+    /**
+     * <p>
+     * Get the cache with the given name, creating it with the given settings the first time. Login modules that
+     * validate tokens with the same STS share a cache, as a new login module is created for every login.
+     * </p>
+     *
+     * @param name
+     * @param maxSize
+     * @param ttl
+     * @param negativeTtl
+     * @param revocationRegistryClass the name of the {@link RevocationRegistry} class to check the cached results
+     * against, or null
+     *
+     * @return
+     */
+    public static STSValidationCache getInstance(String name, int maxSize, long ttl, long negativeTtl,
+                                                 String revocationRegistryClass) {
+        synchronized (instances) {
+            STSValidationCache cache = instances.get(name);
+
+            if (cache == null) {
+                cache = new STSValidationCache(maxSize, ttl, negativeTtl, createRevocationRegistry(revocationRegistryClass));
+                instances.put(name, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * <p>
+     * Compute the key of a token in the cache.
+     * </p>
+     *
+     * @param token
+     *
+     * @return the Base64 encoded SHA-256 digest of the serialized token
+     */
+    public static String digest(Element token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+
+            return Base64.encodeBytes(messageDigest.digest(DocumentUtil.getNodeAsString(token).getBytes("UTF-8")));
+        } catch (Exception e) {
+            throw logger.runtimeException("Could not compute the digest of the token", e);
+        }
+    }
+
+    /**
+     * Get the cached validation result of a token
+     *
+     * @param digest the key of the token, as computed by {@link #digest(Element)}
+     *
+     * @return the result, or null if the token has to be validated by the STS
+     */
+    public Boolean getResult(String digest) {
+        CachedResult result = this.results.get(digest);
+
+        if (result == null) {
+            return null;
+        }
+
+        // the registry is checked outside the lock of the cache, as it may have to query a database
+        if (result.valid && this.revocationRegistry != null && result.assertionId != null
+                && this.revocationRegistry.isRevoked(result.tokenType, result.assertionId)) {
+            this.results.remove(digest, result);
+
+            return null;
+        }
+
+        return result.valid;
+    }
+
+    /**
+     * Cache the result of the validation of a token by the STS
+     *
+     * @param digest the key of the token, as computed by {@link #digest(Element)}
+     * @param token
+     * @param valid
+     */
+    public void putResult(String digest, Element token, boolean valid) {
+        long now = System.currentTimeMillis();
+        long expiration = now + (valid ? this.ttl : this.negativeTtl);
+
+        if (expiration <= now) {
+            return;
+        }
+
+        String tokenType = SAMLUtil.SAML2_TOKEN_TYPE;
+        String assertionId = token.getAttribute("ID");
+
+        if (JBossSAMLURIConstants.SAML_11_NS.get().equals(token.getNamespaceURI())) {
+            tokenType = SAMLUtil.SAML11_TOKEN_TYPE;
+            assertionId = token.getAttribute("AssertionID");
+        }
+
+        if (valid) {
+            long notOnOrAfter = getNotOnOrAfter(token);
+
+            if (notOnOrAfter > 0) {
+                expiration = Math.min(expiration, notOnOrAfter);
+            }
+
+            if (expiration <= now) {
+                return;
+            }
+        }
+
+        CachedResult result = new CachedResult(valid, tokenType, assertionId.length() > 0 ? assertionId : null);
+
+        this.results.put(digest, result, expiration);
+    }
+
+    /**
+     * Forget the results of the token with the given assertion id
+     *
+     * @param assertionId
+     */
+    public void invalidate(String assertionId) {
+        for (Map.Entry<String, CachedResult> entry : this.results.getEntries().entrySet()) {
+            if (assertionId.equals(entry.getValue().assertionId)) {
+                this.results.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        this.results.clear();
+    }
+
+    public int size() {
+        return this.results.size();
+    }
+
+    private static long getNotOnOrAfter(Element token) {
+        for (Node child = token.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && "Conditions".equals(child.getLocalName())) {
+                String notOnOrAfter = ((Element) child).getAttribute("NotOnOrAfter");
+
+                if (notOnOrAfter.length() > 0) {
+                    try {
+                        return XMLTimeUtil.parse(notOnOrAfter).toGregorianCalendar().getTimeInMillis();
+                    } catch (Exception e) {
+                        logger.debug("Could not parse NotOnOrAfter of the token: " + e.getMessage());
+                    }
+                }
+
+                break;
+            }
+        }
+
+        return 0;
+    }
+
+    private static RevocationRegistry createRevocationRegistry(String revocationRegistryClass) {
+        if (revocationRegistryClass == null) {
+            return null;
+        }
+
+        try {
+            Class<?> clazz = SecurityActions.loadClass(STSValidationCache.class, revocationRegistryClass);
+
+            if (clazz != null) {
+                Object object = clazz.newInstance();
+
+                if (object instanceof RevocationRegistry)
+                    return (RevocationRegistry) object;
+
+                logger.stsRevocationRegistryInvalidType(revocationRegistryClass);
+            } else {
+                logger.stsRevocationRegistryInstantiationError();
+            }
+        } catch (Exception e) {
+            logger.stsRevocationRegistryInstantiationError();
+        }
+
+        return null;
+    }
+
+    private static class CachedResult {
+
+        private final boolean valid;
+
+        private final String tokenType;
+
+        private final String assertionId;
+
+        private CachedResult(boolean valid, String tokenType, String assertionId) {
+            this.valid = valid;
+            this.tokenType = tokenType;
+            this.assertionId = assertionId;
+        }
+    }
+}
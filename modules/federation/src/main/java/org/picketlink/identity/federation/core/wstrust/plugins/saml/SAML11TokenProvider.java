@@ -81,7 +81,7 @@ public class SAML11TokenProvider extends AbstractSecurityTokenProvider {
 
         // get the assertion ID and add it to the canceled assertions set.
         String assertionId = assertionElement.getAttribute("AssertionID");
-        this.revocationRegistry.revokeToken(SAMLUtil.SAML11_TOKEN_TYPE, assertionId);
+        this.revokeAssertion(SAMLUtil.SAML11_TOKEN_TYPE, assertionId, assertionElement);
 
         String absoluteKI = this.properties.get(USE_ABSOLUTE_KEYIDENTIFIER);
         if (absoluteKI != null && "true".equalsIgnoreCase(absoluteKI)) {
@@ -21,15 +21,19 @@ import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
 import org.picketlink.common.constants.JBossSAMLConstants;
 import org.picketlink.common.constants.WSTrustConstants;
+import org.picketlink.common.exceptions.ConfigurationException;
 import org.picketlink.common.exceptions.ProcessingException;
 import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.common.util.StaxUtil;
 import org.picketlink.identity.federation.core.interfaces.ProtocolContext;
 import org.picketlink.identity.federation.core.interfaces.SecurityTokenProvider;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.saml.v2.factories.SAMLAssertionFactory;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.StatementUtil;
+import org.picketlink.identity.federation.core.saml.v2.writers.SAMLAssertionWriter;
 import org.picketlink.identity.federation.core.sts.AbstractSecurityTokenProvider;
+import org.picketlink.identity.federation.core.util.BoundedCache;
 import org.picketlink.identity.federation.core.wstrust.SecurityToken;
 import org.picketlink.identity.federation.core.wstrust.StandardSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.WSTrustRequestContext;
@@ -48,9 +52,12 @@ import org.picketlink.identity.federation.ws.policy.AppliesTo;
 import org.picketlink.identity.federation.ws.trust.RequestedReferenceType;
 import org.picketlink.identity.federation.ws.trust.StatusType;
 import org.picketlink.identity.federation.ws.wss.secext.KeyIdentifierType;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import javax.xml.namespace.QName;
+import javax.xml.transform.dom.DOMResult;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -72,6 +79,14 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
 
     private boolean useAbsoluteKeyIdentifier = false;
 
+    /**
+     * Maximum number of relying parties whose assertion template is kept.
+     */
+    private static final int MAX_ASSERTION_TEMPLATES = 256;
+
+    private final BoundedCache<String, Element> assertionTemplates =
+            new BoundedCache<String, Element>(MAX_ASSERTION_TEMPLATES);
+
     /*
      * (non-Javadoc)
      *
@@ -126,7 +141,7 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
 
         // get the assertion ID and add it to the canceled assertions set.
         String assertionId = assertionElement.getAttribute("ID");
-        this.revocationRegistry.revokeToken(SAMLUtil.SAML2_TOKEN_TYPE, assertionId);
+        this.revokeAssertion(SAMLUtil.SAML2_TOKEN_TYPE, assertionId, assertionElement);
     }
 
     /*
@@ -145,12 +160,10 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
 
         // lifetime and audience restrictions.
         Lifetime lifetime = context.getRequestSecurityToken().getLifetime();
-        AudienceRestrictionType restriction = null;
+        String audience = null;
         AppliesTo appliesTo = context.getRequestSecurityToken().getAppliesTo();
         if (appliesTo != null)
-            restriction = SAMLAssertionFactory.createAudienceRestriction(WSTrustUtil.parseAppliesTo(appliesTo));
-        ConditionsType conditions = SAMLAssertionFactory.createConditions(lifetime.getCreated(), lifetime.getExpires(),
-                restriction);
+            audience = WSTrustUtil.parseAppliesTo(appliesTo);
 
         // the assertion principal (default is caller principal)
         Principal principal = context.getCallerPrincipal();
@@ -169,19 +182,75 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
         } else
             confirmationMethod = SAMLUtil.SAML2_BEARER_URI;
 
+        String subjectName = principal == null ? "ANONYMOUS" : principal.getName();
+
+        Element assertionElement = null;
+        if (keyInfoDataType == null) {
+            // only the per-request fields of the assertion template of the relying party have to be filled in.
+            assertionElement = createAssertionFromTemplate(context, assertionID, lifetime, audience, confirmationMethod,
+                    subjectName);
+        } else {
+            // the key info of a holder of key assertion is specific to each request.
+            AssertionType assertion = createAssertion(context, assertionID, lifetime, audience, confirmationMethod,
+                    keyInfoDataType, subjectName, context.getClaimedAttributes());
+
+            if (this.attributeProvider != null) {
+                AttributeStatementType attributeStatement = this.attributeProvider.getAttributeStatement();
+                if (attributeStatement != null) {
+                    assertion.addStatement(attributeStatement);
+                }
+            }
+
+            // convert the constructed assertion to element.
+            try {
+                assertionElement = SAMLUtil.toElement(assertion);
+            } catch (Exception e) {
+                throw logger.samlAssertionMarshallError(e);
+            }
+        }
+
+        SecurityToken token = new StandardSecurityToken(context.getRequestSecurityToken().getTokenType().toString(),
+                assertionElement, assertionID);
+        context.setSecurityToken(token);
+
+        // set the SAML assertion attached reference.
+        String keyIdentifierValue = assertionID;
+        if (!useAbsoluteKeyIdentifier) {
+            keyIdentifierValue = "#" + keyIdentifierValue;
+        }
+        KeyIdentifierType keyIdentifier = WSTrustUtil.createKeyIdentifier(SAMLUtil.SAML2_VALUE_TYPE, keyIdentifierValue);
+        Map<QName, String> attributes = new HashMap<QName, String>();
+        attributes.put(new QName(WSTrustConstants.WSSE11_NS, "TokenType", WSTrustConstants.WSSE.PREFIX_11),
+                SAMLUtil.SAML2_TOKEN_TYPE);
+        RequestedReferenceType attachedReference = WSTrustUtil.createRequestedReference(keyIdentifier, attributes);
+        context.setAttachedReference(attachedReference);
+    }
+
+    /**
+     * <p>
+     * Create the assertion object graph, with an attribute statement for the claimed attributes if they are given.
+     * </p>
+     */
+    private AssertionType createAssertion(WSTrustRequestContext context, String assertionID, Lifetime lifetime,
+                                          String audience, String confirmationMethod,
+                                          KeyInfoConfirmationDataType keyInfoDataType, String subjectName,
+                                          Map<String, Object> claimedAttributes) {
+        AudienceRestrictionType restriction = null;
+        if (audience != null)
+            restriction = SAMLAssertionFactory.createAudienceRestriction(audience);
+        ConditionsType conditions = SAMLAssertionFactory.createConditions(lifetime.getCreated(), lifetime.getExpires(),
+                restriction);
+
         SubjectConfirmationType subjectConfirmation = SAMLAssertionFactory.createSubjectConfirmation(null, confirmationMethod,
                 keyInfoDataType);
 
         // create a subject using the caller principal or on-behalf-of principal.
-        String subjectName = principal == null ? "ANONYMOUS" : principal.getName();
         NameIDType nameID = SAMLAssertionFactory.createNameID(null, "urn:picketlink:identity-federation", subjectName);
         SubjectType subject = SAMLAssertionFactory.createSubject(nameID, subjectConfirmation);
 
-
         List<StatementAbstractType> statements = new ArrayList<StatementAbstractType>();
 
         // create the attribute statements if necessary.
-        Map<String, Object> claimedAttributes = context.getClaimedAttributes();
         if (claimedAttributes != null) {
             statements.add(StatementUtil.createAttributeStatement(claimedAttributes));
         }
@@ -191,39 +260,125 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
 
         // create the SAML assertion.
         NameIDType issuerID = SAMLAssertionFactory.createNameID(null, null, context.getTokenIssuer());
-        AssertionType assertion = SAMLAssertionFactory.createAssertion(assertionID, issuerID, lifetime.getCreated(),
-                conditions, subject, statements);
+        return SAMLAssertionFactory.createAssertion(assertionID, issuerID, lifetime.getCreated(), conditions, subject,
+                statements);
+    }
+
+    /**
+     * <p>
+     * Create the assertion from the template of the relying party. The template is copied into a new document, the
+     * ID, instants, conditions and subject name are set and the attribute statements are written directly into the
+     * copy, so that the assertion is ready for signing without being serialized and parsed again.
+     * </p>
+     */
+    private Element createAssertionFromTemplate(WSTrustRequestContext context, String assertionID, Lifetime lifetime,
+                                                String audience, String confirmationMethod, String subjectName)
+            throws ProcessingException {
+        Element template = getAssertionTemplate(context, lifetime, audience, confirmationMethod);
+        Element assertionElement;
+
+        try {
+            Document document = DocumentUtil.createDocument();
+
+            // reading a DOM may expand its deferred nodes, so the template is only copied by one thread at a time.
+            synchronized (template) {
+                assertionElement = (Element) document.importNode(template, true);
+            }
+
+            document.appendChild(assertionElement);
+        } catch (ConfigurationException e) {
+            throw logger.samlAssertionMarshallError(e);
+        }
+
+        String created = lifetime.getCreated().toXMLFormat();
+        Element authnStatement = null;
+
+        assertionElement.setAttribute(JBossSAMLConstants.ID.get(), assertionID);
+        assertionElement.setAttribute(JBossSAMLConstants.ISSUE_INSTANT.get(), created);
+
+        for (Node child = assertionElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!(child instanceof Element))
+                continue;
+
+            Element element = (Element) child;
+
+            if (JBossSAMLConstants.SUBJECT.get().equals(element.getLocalName())) {
+                Node nameID = element.getElementsByTagNameNS(WSTrustConstants.SAML2_ASSERTION_NS,
+                        JBossSAMLConstants.NAMEID.get()).item(0);
+                nameID.setTextContent(subjectName);
+            } else if (JBossSAMLConstants.CONDITIONS.get().equals(element.getLocalName())) {
+                element.setAttribute(JBossSAMLConstants.NOT_BEFORE.get(), created);
+                element.setAttribute(JBossSAMLConstants.NOT_ON_OR_AFTER.get(), lifetime.getExpires().toXMLFormat());
+            } else if (JBossSAMLConstants.AUTHN_STATEMENT.get().equals(element.getLocalName())) {
+                element.setAttribute(JBossSAMLConstants.AUTHN_INSTANT.get(), created);
+                authnStatement = element;
+            }
+        }
+
+        // the claimed attributes go before the AuthnStatement and the provided attributes after it.
+        Map<String, Object> claimedAttributes = context.getClaimedAttributes();
+        if (claimedAttributes != null) {
+            AttributeStatementType attributeStatement = StatementUtil.createAttributeStatement(claimedAttributes);
+            if (attributeStatement != null) {
+                writeAttributeStatement(assertionElement, attributeStatement, authnStatement);
+            }
+        }
 
         if (this.attributeProvider != null) {
             AttributeStatementType attributeStatement = this.attributeProvider.getAttributeStatement();
             if (attributeStatement != null) {
-                assertion.addStatement(attributeStatement);
+                writeAttributeStatement(assertionElement, attributeStatement, null);
             }
         }
 
-        // convert the constructed assertion to element.
-        Element assertionElement = null;
-        try {
-            assertionElement = SAMLUtil.toElement(assertion);
-        } catch (Exception e) {
-            throw logger.samlAssertionMarshallError(e);
+        if (logger.isTraceEnabled()) {
+            logger.samlAssertion(DocumentUtil.asString(assertionElement.getOwnerDocument()));
         }
 
-        SecurityToken token = new StandardSecurityToken(context.getRequestSecurityToken().getTokenType().toString(),
-                assertionElement, assertionID);
-        context.setSecurityToken(token);
+        return assertionElement;
+    }
 
-        // set the SAML assertion attached reference.
-        String keyIdentifierValue = assertionID;
-        if (!useAbsoluteKeyIdentifier) {
-            keyIdentifierValue = "#" + keyIdentifierValue;
+    /**
+     * <p>
+     * Get the assertion template for the given relying party, issuer and confirmation method. Templates are created
+     * from the first request, and the template of the least recently used relying party is evicted once the templates
+     * of a bounded number of relying parties are kept.
+     * </p>
+     */
+    private Element getAssertionTemplate(WSTrustRequestContext context, Lifetime lifetime, String audience,
+                                         String confirmationMethod) throws ProcessingException {
+        String key = confirmationMethod + '\n' + context.getTokenIssuer() + '\n' + audience;
+        Element template = this.assertionTemplates.get(key);
+
+        if (template == null) {
+            AssertionType assertion = createAssertion(context, "ID_TEMPLATE", lifetime, audience, confirmationMethod,
+                    null, "ANONYMOUS", null);
+
+            try {
+                template = SAMLUtil.toElement(assertion);
+            } catch (Exception e) {
+                throw logger.samlAssertionMarshallError(e);
+            }
+
+            // a template created concurrently for the same key is equivalent, so either one can be kept.
+            this.assertionTemplates.put(key, template);
+        }
+
+        return template;
+    }
+
+    private void writeAttributeStatement(Element assertionElement, AttributeStatementType attributeStatement,
+                                         Node nextSibling) throws ProcessingException {
+        Node lastChild = assertionElement.getLastChild();
+
+        // the statement is appended to the assertion by the writer, then moved to its place.
+        SAMLAssertionWriter writer = new SAMLAssertionWriter(StaxUtil.getXMLStreamWriter(new DOMResult(assertionElement)));
+        writer.write(attributeStatement);
+
+        Node statement = assertionElement.getLastChild();
+        if (nextSibling != null && statement != lastChild) {
+            assertionElement.insertBefore(statement, nextSibling);
         }
-        KeyIdentifierType keyIdentifier = WSTrustUtil.createKeyIdentifier(SAMLUtil.SAML2_VALUE_TYPE, keyIdentifierValue);
-        Map<QName, String> attributes = new HashMap<QName, String>();
-        attributes.put(new QName(WSTrustConstants.WSSE11_NS, "TokenType", WSTrustConstants.WSSE.PREFIX_11),
-                SAMLUtil.SAML2_TOKEN_TYPE);
-        RequestedReferenceType attachedReference = WSTrustUtil.createRequestedReference(keyIdentifier, attributes);
-        context.setAttachedReference(attachedReference);
     }
 
     /*
@@ -0,0 +1,35 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.web.core;
+
+/**
+ * An {@link IdentityParticipantStack} that discards the participants of a session once the session expires, even if
+ * it is never explicitly removed.
+ */
+public interface ExpiringIdentityParticipantStack extends IdentityParticipantStack {
+
+    /**
+     * Create a session that expires after being inactive for the given time. Any access to the participants of the
+     * session resets the inactivity period.
+     *
+     * @param id
+     * @param maxInactiveInterval the maximum inactivity period in milliseconds, zero or a negative value if the session
+     * should never expire.
+     */
+    void createSession(String id, long maxInactiveInterval);
+}
@@ -27,10 +27,15 @@ import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EmptyStackException;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents an Identity Server
@@ -50,25 +55,37 @@ public class IdentityServer implements HttpSessionListener {
         }
     });
 
-    private static int activeSessionCount = 0;
+    private static final AtomicInteger activeSessionCount = new AtomicInteger();
 
-    private IdentityParticipantStack stack = new STACK();
+    private volatile IdentityParticipantStack stack = new STACK();
 
-    public static class STACK implements IdentityParticipantStack {
+    /**
+     * <p>
+     * The default, in-memory {@link IdentityParticipantStack}. The participants of each session are kept in a lock-free
+     * stack and sessions that were not removed through {@link #removeSession(String)} are discarded once they expire.
+     * Expired sessions are purged, at most once per purge interval, by the threads accessing the stack.
+     * </p>
+     */
+    public static class STACK implements ExpiringIdentityParticipantStack {
 
-        private final ConcurrentHashMap<String, Stack<String>> sessionParticipantsMap = new ConcurrentHashMap<String, Stack<String>>();
+        // sessions created implicitly, by registering participants, expire after this inactivity period.
+        private static final long DEFAULT_MAX_INACTIVE_INTERVAL = 30 * 60 * 1000L;
 
-        private final ConcurrentHashMap<String, Set<String>> inTransitMap = new ConcurrentHashMap<String, Set<String>>();
+        private static final long PURGE_INTERVAL = 60 * 1000L;
+
+        private final ConcurrentMap<String, ParticipantSession> sessions = new ConcurrentHashMap<String, ParticipantSession>();
 
         private final ConcurrentHashMap<String, Boolean> postBindingMap = new ConcurrentHashMap<String, Boolean>();
 
+        private final AtomicLong nextPurge = new AtomicLong(System.currentTimeMillis() + PURGE_INTERVAL);
+
         /**
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#peek(java.lang.String)
          */
         public String peek(String sessionID) {
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack != null)
-                return stack.peek();
+            ParticipantSession session = getSession(sessionID);
+            if (session != null)
+                return session.peek();
             return "";
         }
 
@@ -76,12 +93,10 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#pop(java.lang.String)
          */
         public String pop(String sessionID) {
-            String result = null;
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack != null && stack.isEmpty() == false) {
-                result = stack.pop();
-            }
-            return result;
+            ParticipantSession session = getSession(sessionID);
+            if (session != null)
+                return session.pop();
+            return null;
         }
 
         /**
@@ -89,13 +104,7 @@ public class IdentityServer implements HttpSessionListener {
          *      java.lang.String, boolean)
          */
         public void register(String sessionID, String participant, boolean postBinding) {
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack == null) {
-                stack = new Stack<String>();
-                sessionParticipantsMap.put(sessionID, stack);
-            }
-            if (stack.contains(participant) == false) {
-                stack.push(participant);
+            if (getOrCreateSession(sessionID).push(participant)) {
                 postBindingMap.put(participant, Boolean.valueOf(postBinding));
             }
         }
@@ -104,9 +113,9 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getParticipants(java.lang.String)
          */
         public int getParticipants(String sessionID) {
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack != null)
-                return stack.size();
+            ParticipantSession session = getSession(sessionID);
+            if (session != null)
+                return session.size();
 
             return 0;
         }
@@ -116,12 +125,7 @@ public class IdentityServer implements HttpSessionListener {
          *      java.lang.String)
          */
         public boolean registerTransitParticipant(String sessionID, String participant) {
-            Set<String> transitSet = inTransitMap.get(sessionID);
-            if (transitSet == null) {
-                transitSet = new HashSet<String>();
-                inTransitMap.put(sessionID, transitSet);
-            }
-            return transitSet.add(participant);
+            return getOrCreateSession(sessionID).inTransit.add(participant);
         }
 
         /**
@@ -129,10 +133,10 @@ public class IdentityServer implements HttpSessionListener {
          *      java.lang.String)
          */
         public boolean deRegisterTransitParticipant(String sessionID, String participant) {
-            Set<String> transitSet = inTransitMap.get(sessionID);
-            if (transitSet != null) {
+            ParticipantSession session = getSession(sessionID);
+            if (session != null) {
                 postBindingMap.remove(participant);
-                return transitSet.remove(participant);
+                return session.inTransit.remove(participant);
             }
             return false;
         }
@@ -141,9 +145,9 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getNumOfParticipantsInTransit(java.lang.String)
          */
         public int getNumOfParticipantsInTransit(String sessionID) {
-            Set<String> transitSet = inTransitMap.get(sessionID);
-            if (transitSet != null)
-                return transitSet.size();
+            ParticipantSession session = getSession(sessionID);
+            if (session != null)
+                return session.inTransit.size();
             return 0;
         }
 
@@ -158,23 +162,153 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#totalSessions()
          */
         public int totalSessions() {
-            return sessionParticipantsMap.keySet().size();
+            return sessions.size();
         }
 
         /**
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#createSession(java.lang.String)
          */
         public void createSession(String id) {
-            sessionParticipantsMap.put(id, new Stack<String>());
-            inTransitMap.put(id, new HashSet<String>());
+            createSession(id, 0);
+        }
+
+        /**
+         * @see org.picketlink.identity.federation.web.core.ExpiringIdentityParticipantStack#createSession(java.lang.String,
+         *      long)
+         */
+        public void createSession(String id, long maxInactiveInterval) {
+            sessions.put(id, new ParticipantSession(maxInactiveInterval));
+            purgeExpiredSessions();
         }
 
         /**
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#removeSession(java.lang.String)
          */
         public void removeSession(String id) {
-            sessionParticipantsMap.remove(id);
-            inTransitMap.remove(id);
+            sessions.remove(id);
+        }
+
+        private ParticipantSession getSession(String sessionID) {
+            ParticipantSession session = sessions.get(sessionID);
+            if (session != null)
+                session.touch();
+            return session;
+        }
+
+        private ParticipantSession getOrCreateSession(String sessionID) {
+            ParticipantSession session = getSession(sessionID);
+
+            if (session == null) {
+                ParticipantSession newSession = new ParticipantSession(DEFAULT_MAX_INACTIVE_INTERVAL);
+
+                session = sessions.putIfAbsent(sessionID, newSession);
+
+                if (session == null) {
+                    session = newSession;
+                    purgeExpiredSessions();
+                }
+            }
+
+            return session;
+        }
+
+        private void purgeExpiredSessions() {
+            long now = System.currentTimeMillis();
+            long purgeTime = nextPurge.get();
+
+            // only one of the threads that find the purge overdue does it.
+            if (now < purgeTime || !nextPurge.compareAndSet(purgeTime, now + PURGE_INTERVAL)) {
+                return;
+            }
+
+            for (Map.Entry<String, ParticipantSession> entry : sessions.entrySet()) {
+                if (entry.getValue().isExpired(now)) {
+                    sessions.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * The participants of a session, kept in an immutable linked list that is replaced atomically.
+     */
+    private static class ParticipantSession {
+
+        private final AtomicReference<ParticipantNode> top = new AtomicReference<ParticipantNode>();
+
+        private final Set<String> inTransit = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private final long maxInactiveInterval;
+
+        private volatile long expiration;
+
+        ParticipantSession(long maxInactiveInterval) {
+            this.maxInactiveInterval = maxInactiveInterval;
+            touch();
+        }
+
+        String peek() {
+            ParticipantNode node = top.get();
+            if (node == null)
+                throw new EmptyStackException();
+            return node.participant;
+        }
+
+        String pop() {
+            while (true) {
+                ParticipantNode node = top.get();
+                if (node == null)
+                    return null;
+                if (top.compareAndSet(node, node.next))
+                    return node.participant;
+            }
+        }
+
+        boolean push(String participant) {
+            while (true) {
+                ParticipantNode node = top.get();
+                if (node != null && node.contains(participant))
+                    return false;
+                if (top.compareAndSet(node, new ParticipantNode(participant, node)))
+                    return true;
+            }
+        }
+
+        int size() {
+            ParticipantNode node = top.get();
+            return node != null ? node.size : 0;
+        }
+
+        void touch() {
+            if (maxInactiveInterval > 0)
+                expiration = System.currentTimeMillis() + maxInactiveInterval;
+        }
+
+        boolean isExpired(long now) {
+            return maxInactiveInterval > 0 && expiration < now;
+        }
+    }
+
+    private static class ParticipantNode {
+
+        private final String participant;
+
+        private final ParticipantNode next;
+
+        private final int size;
+
+        ParticipantNode(String participant, ParticipantNode next) {
+            this.participant = participant;
+            this.next = next;
+            this.size = next != null ? next.size + 1 : 1;
+        }
+
+        boolean contains(String participant) {
+            for (ParticipantNode node = this; node != null; node = node.next) {
+                if (node.participant.equals(participant))
+                    return true;
+            }
+            return false;
         }
     }
 
@@ -184,7 +318,7 @@ public class IdentityServer implements HttpSessionListener {
      * @return
      */
     public int getActiveSessionCount() {
-        return activeSessionCount;
+        return activeSessionCount.get();
     }
 
     /**
@@ -209,14 +343,14 @@ public class IdentityServer implements HttpSessionListener {
      * @see HttpSessionListener#sessionCreated(HttpSessionEvent)
      */
     public void sessionCreated(HttpSessionEvent sessionEvent) {
-        activeSessionCount++;
+        int activeSessions = activeSessionCount.incrementAndGet();
 
-        if (activeSessionCount % count == 0)
-            logger.samlIdentityServerActiveSessionCount(activeSessionCount);
+        if (activeSessions % count == 0)
+            logger.samlIdentityServerActiveSessionCount(activeSessions);
 
         HttpSession session = sessionEvent.getSession();
 
-        logger.samlIdentityServerSessionCreated(session.getId(), activeSessionCount);
+        logger.samlIdentityServerSessionCreated(session.getId(), activeSessions);
 
         // Ensure that the IdentityServer instance is set on the servlet context
         ServletContext servletContext = session.getServletContext();
@@ -232,18 +366,24 @@ public class IdentityServer implements HttpSessionListener {
             throw logger.notEqualError(idserver.toString(), this.toString());
 
         String id = sessionEvent.getSession().getId();
-        stack.createSession(id);
+
+        if (stack instanceof ExpiringIdentityParticipantStack) {
+            // sessions with a negative interval never expire.
+            ((ExpiringIdentityParticipantStack) stack).createSession(id, session.getMaxInactiveInterval() * 1000L);
+        } else {
+            stack.createSession(id);
+        }
     }
 
     /**
      * @see HttpSessionListener#sessionDestroyed(HttpSessionEvent)
      */
     public void sessionDestroyed(HttpSessionEvent sessionEvent) {
-        --activeSessionCount;
+        int activeSessions = activeSessionCount.decrementAndGet();
 
         String id = sessionEvent.getSession().getId();
 
-        logger.samlIdentityServerSessionDestroyed(id, activeSessionCount);
+        logger.samlIdentityServerSessionDestroyed(id, activeSessions);
 
         stack.removeSession(id);
     }
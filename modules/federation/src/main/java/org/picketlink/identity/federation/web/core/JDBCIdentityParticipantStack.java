@@ -0,0 +1,524 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.web.core;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An {@link IdentityParticipantStack} backed by a database, so that all the nodes of a horizontally scaled IdP share
+ * the participants of each session and single logout works without sticky sessions. Expired sessions are deleted, at
+ * most once per purge interval, when sessions are created.
+ * </p>
+ * <p>
+ * The data source is looked up from {@code java:comp/env/jdbc/picketlink-idp} by default, or from the name in the
+ * "picketlink.identity_participant_stack.datasource" system property, and requires the following tables:
+ * </p>
+ *
+ * <pre>
+ * CREATE TABLE IDP_SESSION (SESSION_ID VARCHAR(255) NOT NULL PRIMARY KEY, MAX_INACTIVE_INTERVAL BIGINT NOT NULL,
+ *     EXPIRATION BIGINT NOT NULL, LAST_SEQUENCE BIGINT NOT NULL);
+ * CREATE TABLE IDP_SESSION_PARTICIPANT (SESSION_ID VARCHAR(255) NOT NULL, PARTICIPANT_HASH CHAR(64) NOT NULL,
+ *     PARTICIPANT VARCHAR(1024) NOT NULL, SEQUENCE BIGINT NOT NULL, PRIMARY KEY (SESSION_ID, PARTICIPANT_HASH));
+ * CREATE TABLE IDP_TRANSIT_PARTICIPANT (SESSION_ID VARCHAR(255) NOT NULL, PARTICIPANT_HASH CHAR(64) NOT NULL,
+ *     PARTICIPANT VARCHAR(1024) NOT NULL, PRIMARY KEY (SESSION_ID, PARTICIPANT_HASH));
+ * CREATE TABLE IDP_PARTICIPANT_BINDING (PARTICIPANT_HASH CHAR(64) NOT NULL PRIMARY KEY,
+ *     PARTICIPANT VARCHAR(1024) NOT NULL, POST_BINDING SMALLINT NOT NULL);
+ * </pre>
+ *
+ * <p>
+ * The participants are keyed by the hex encoded SHA-256 digest of their URL, so that the keys stay within the index
+ * length limits of the databases whatever the length of the URL. The participants of a session are ordered by a
+ * sequence taken from the session row, which is locked while the participant is inserted, so concurrent registrations
+ * never share a position. The binding of a participant is a property of the participant and not of a session, so it
+ * is kept once registered.
+ * </p>
+ */
+public class JDBCIdentityParticipantStack implements ExpiringIdentityParticipantStack {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final String DEFAULT_DATASOURCE_JNDI_NAME = "jdbc/picketlink-idp";
+
+    // sessions created implicitly, by registering participants, expire after this inactivity period.
+    private static final long DEFAULT_MAX_INACTIVE_INTERVAL = 30 * 60 * 1000L;
+
+    private static final long PURGE_INTERVAL = 60 * 1000L;
+
+    private static final String INSERT_SESSION = "INSERT INTO IDP_SESSION (SESSION_ID, MAX_INACTIVE_INTERVAL, "
+        + "EXPIRATION, LAST_SEQUENCE) VALUES (?, ?, ?, ?)";
+
+    private static final String TOP_PARTICIPANT = "SELECT PARTICIPANT_HASH, PARTICIPANT FROM IDP_SESSION_PARTICIPANT "
+        + "WHERE SESSION_ID = ? ORDER BY SEQUENCE DESC";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final DataSource dataSource;
+
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    public JDBCIdentityParticipantStack() {
+        this(SecurityActions.getSystemProperty(GeneralConstants.IDENTITY_PARTICIPANT_STACK_DATASOURCE,
+            DEFAULT_DATASOURCE_JNDI_NAME));
+    }
+
+    public JDBCIdentityParticipantStack(String jndiName) {
+        try {
+            Context initContext = new InitialContext();
+            Context envContext = (Context) initContext.lookup("java:comp/env");
+            this.dataSource = (DataSource) envContext.lookup(jndiName);
+            if (this.dataSource == null) {
+                throw logger.datasourceIsNull();
+            }
+        } catch (NamingException e) {
+            throw logger.jbdcInitializationError(e);
+        }
+    }
+
+    public JDBCIdentityParticipantStack(DataSource dataSource) {
+        if (dataSource == null) {
+            throw logger.datasourceIsNull();
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#peek(java.lang.String)
+     */
+    public String peek(String sessionID) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            touch(conn, sessionID);
+
+            String[] participant = queryRow(conn, TOP_PARTICIPANT, sessionID);
+            return participant != null ? participant[1] : "";
+        } catch (SQLException e) {
+            throw logger.runtimeException(TOP_PARTICIPANT, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#pop(java.lang.String)
+     */
+    public String pop(String sessionID) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            touch(conn, sessionID);
+
+            while (true) {
+                String[] participant = queryRow(conn, TOP_PARTICIPANT, sessionID);
+
+                if (participant == null) {
+                    return null;
+                }
+
+                // another node may have popped the same participant, in which case the next one is tried.
+                if (update(conn, "DELETE FROM IDP_SESSION_PARTICIPANT WHERE SESSION_ID = ? AND PARTICIPANT_HASH = ?",
+                    sessionID, participant[0]) > 0) {
+                    return participant[1];
+                }
+            }
+        } catch (SQLException e) {
+            throw logger.runtimeException(TOP_PARTICIPANT, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#register(java.lang.String,
+     *      java.lang.String, boolean)
+     */
+    public void register(String sessionID, String participant, boolean postBinding) {
+        String participantHash = hash(participant);
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            conn.setAutoCommit(false);
+
+            try {
+                // a duplicate key means that the session or the binding was created concurrently, which a retry sees.
+                while (!register(conn, sessionID, participant, participantHash, postBinding)) {
+                }
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw logger.runtimeException("Could not register participant " + participant, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getParticipants(java.lang.String)
+     */
+    public int getParticipants(String sessionID) {
+        return queryInt("SELECT COUNT(*) FROM IDP_SESSION_PARTICIPANT WHERE SESSION_ID = ?", sessionID);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#registerTransitParticipant(java.lang.String,
+     *      java.lang.String)
+     */
+    public boolean registerTransitParticipant(String sessionID, String participant) {
+        String sql = "INSERT INTO IDP_TRANSIT_PARTICIPANT (SESSION_ID, PARTICIPANT_HASH, PARTICIPANT) VALUES (?, ?, ?)";
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            ensureSession(conn, sessionID);
+
+            // false when the participant is already in transit.
+            return insertIfAbsent(conn, sql, sessionID, hash(participant), participant);
+        } catch (SQLException e) {
+            throw logger.runtimeException(sql, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#deRegisterTransitParticipant(java.lang.String,
+     *      java.lang.String)
+     */
+    public boolean deRegisterTransitParticipant(String sessionID, String participant) {
+        return executeUpdate("DELETE FROM IDP_TRANSIT_PARTICIPANT WHERE SESSION_ID = ? AND PARTICIPANT_HASH = ?",
+            sessionID, hash(participant)) > 0;
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getNumOfParticipantsInTransit(java.lang.String)
+     */
+    public int getNumOfParticipantsInTransit(String sessionID) {
+        return queryInt("SELECT COUNT(*) FROM IDP_TRANSIT_PARTICIPANT WHERE SESSION_ID = ?", sessionID);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getBinding(java.lang.String)
+     */
+    public Boolean getBinding(String participant) {
+        String binding = queryString("SELECT POST_BINDING FROM IDP_PARTICIPANT_BINDING WHERE PARTICIPANT_HASH = ?",
+            hash(participant));
+        if (binding == null)
+            return null;
+        return Boolean.valueOf(Integer.parseInt(binding.trim()) != 0);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#totalSessions()
+     */
+    public int totalSessions() {
+        return queryInt("SELECT COUNT(*) FROM IDP_SESSION");
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#createSession(java.lang.String)
+     */
+    public void createSession(String id) {
+        createSession(id, 0);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.ExpiringIdentityParticipantStack#createSession(java.lang.String,
+     *      long)
+     */
+    public void createSession(String id, long maxInactiveInterval) {
+        long interval = Math.max(0, maxInactiveInterval);
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            conn.setAutoCommit(false);
+
+            try {
+                deleteSession(conn, id);
+                update(conn, INSERT_SESSION, id, interval, System.currentTimeMillis() + interval, 0L);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw logger.runtimeException(INSERT_SESSION, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+
+        purgeExpiredSessions();
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#removeSession(java.lang.String)
+     */
+    public void removeSession(String id) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            deleteSession(conn, id);
+        } catch (SQLException e) {
+            throw logger.runtimeException("Could not remove session " + id, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    /**
+     * Registers a participant within the transaction of the given connection.
+     *
+     * @return false if the transaction was rolled back because of a row inserted concurrently, and has to be retried.
+     */
+    private boolean register(Connection conn, String sessionID, String participant, String participantHash,
+        boolean postBinding) throws SQLException {
+        long now = System.currentTimeMillis();
+
+        try {
+            // taking the next sequence locks the session row until the commit, so the sequence read back is the one
+            // just taken and the concurrent registrations of the session are serialized.
+            if (update(conn, "UPDATE IDP_SESSION SET LAST_SEQUENCE = LAST_SEQUENCE + 1, EXPIRATION = CASE WHEN "
+                + "MAX_INACTIVE_INTERVAL > 0 THEN ? + MAX_INACTIVE_INTERVAL ELSE EXPIRATION END WHERE SESSION_ID = ?",
+                now, sessionID) == 0) {
+                update(conn, INSERT_SESSION, sessionID, DEFAULT_MAX_INACTIVE_INTERVAL,
+                    now + DEFAULT_MAX_INACTIVE_INTERVAL, 1L);
+            }
+
+            if (Integer.parseInt(query(conn, "SELECT COUNT(*) FROM IDP_SESSION_PARTICIPANT WHERE SESSION_ID = ? "
+                + "AND PARTICIPANT_HASH = ?", sessionID, participantHash).trim()) == 0) {
+                String sequence = query(conn, "SELECT LAST_SEQUENCE FROM IDP_SESSION WHERE SESSION_ID = ?", sessionID);
+
+                update(conn, "INSERT INTO IDP_SESSION_PARTICIPANT (SESSION_ID, PARTICIPANT_HASH, PARTICIPANT, "
+                    + "SEQUENCE) VALUES (?, ?, ?, ?)", sessionID, participantHash, participant,
+                    Long.valueOf(sequence.trim()));
+
+                Integer binding = postBinding ? 1 : 0;
+
+                if (update(conn, "UPDATE IDP_PARTICIPANT_BINDING SET POST_BINDING = ? WHERE PARTICIPANT_HASH = ?",
+                    binding, participantHash) == 0) {
+                    update(conn, "INSERT INTO IDP_PARTICIPANT_BINDING (PARTICIPANT_HASH, PARTICIPANT, POST_BINDING) "
+                        + "VALUES (?, ?, ?)", participantHash, participant, binding);
+                }
+            }
+
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            conn.rollback();
+
+            if (isDuplicateKey(e)) {
+                return false;
+            }
+
+            throw e;
+        }
+    }
+
+    private void ensureSession(Connection conn, String sessionID) throws SQLException {
+        if (touch(conn, sessionID) > 0) {
+            return;
+        }
+
+        if (query(conn, "SELECT SESSION_ID FROM IDP_SESSION WHERE SESSION_ID = ?", sessionID) != null) {
+            return;
+        }
+
+        // a duplicate key means that the session was created concurrently by another request.
+        long now = System.currentTimeMillis();
+        insertIfAbsent(conn, INSERT_SESSION, sessionID, DEFAULT_MAX_INACTIVE_INTERVAL,
+            now + DEFAULT_MAX_INACTIVE_INTERVAL, 0L);
+    }
+
+    private void deleteSession(Connection conn, String id) throws SQLException {
+        update(conn, "DELETE FROM IDP_SESSION_PARTICIPANT WHERE SESSION_ID = ?", id);
+        update(conn, "DELETE FROM IDP_TRANSIT_PARTICIPANT WHERE SESSION_ID = ?", id);
+        update(conn, "DELETE FROM IDP_SESSION WHERE SESSION_ID = ?", id);
+    }
+
+    /**
+     * Executes an insert, returning false instead of failing if the row already exists.
+     */
+    private boolean insertIfAbsent(Connection conn, String sql, Object... parameters) throws SQLException {
+        try {
+            return update(conn, sql, parameters) > 0;
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // the SQL state class 23 is an integrity constraint violation, which is how the drivers report a duplicate key.
+    private boolean isDuplicateKey(SQLException e) {
+        String sqlState = e.getSQLState();
+        return e instanceof SQLIntegrityConstraintViolationException || (sqlState != null && sqlState.startsWith("23"));
+    }
+
+    private int touch(Connection conn, String sessionID) throws SQLException {
+        return update(conn, "UPDATE IDP_SESSION SET EXPIRATION = ? + MAX_INACTIVE_INTERVAL WHERE SESSION_ID = ? "
+            + "AND MAX_INACTIVE_INTERVAL > 0", System.currentTimeMillis(), sessionID);
+    }
+
+    private void purgeExpiredSessions() {
+        long now = System.currentTimeMillis();
+        long purgeTime = nextPurge.get();
+
+        // only one of the threads that find the purge overdue does it.
+        if (now < purgeTime || !nextPurge.compareAndSet(purgeTime, now + PURGE_INTERVAL)) {
+            return;
+        }
+
+        String expiredSessions = "SELECT SESSION_ID FROM IDP_SESSION WHERE MAX_INACTIVE_INTERVAL > 0 AND EXPIRATION < ?";
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            update(conn, "DELETE FROM IDP_SESSION_PARTICIPANT WHERE SESSION_ID IN (" + expiredSessions + ")", now);
+            update(conn, "DELETE FROM IDP_TRANSIT_PARTICIPANT WHERE SESSION_ID IN (" + expiredSessions + ")", now);
+            update(conn, "DELETE FROM IDP_SESSION WHERE MAX_INACTIVE_INTERVAL > 0 AND EXPIRATION < ?", now);
+        } catch (SQLException e) {
+            throw logger.runtimeException(expiredSessions, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    private static String hash(String participant) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(participant.getBytes("UTF-8"));
+            char[] hex = new char[digest.length * 2];
+
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+
+            return new String(hex);
+        } catch (Exception e) {
+            throw logger.runtimeException("Could not compute the digest of participant " + participant, e);
+        }
+    }
+
+    private int executeUpdate(String sql, Object... parameters) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            return update(conn, sql, parameters);
+        } catch (SQLException e) {
+            throw logger.runtimeException(sql, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    private int queryInt(String sql, Object... parameters) {
+        String value = queryString(sql, parameters);
+        return value != null ? Integer.parseInt(value.trim()) : 0;
+    }
+
+    private String queryString(String sql, Object... parameters) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            return query(conn, sql, parameters);
+        } catch (SQLException e) {
+            throw logger.runtimeException(sql, e);
+        } finally {
+            safeClose(null, null, conn);
+        }
+    }
+
+    private int update(Connection conn, String sql, Object... parameters) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = prepare(conn, sql, parameters);
+            return preparedStatement.executeUpdate();
+        } finally {
+            safeClose(null, preparedStatement, null);
+        }
+    }
+
+    private String query(Connection conn, String sql, Object... parameters) throws SQLException {
+        String[] row = queryRow(conn, sql, parameters);
+        return row != null ? row[0] : null;
+    }
+
+    private String[] queryRow(Connection conn, String sql, Object... parameters) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = prepare(conn, sql, parameters);
+            preparedStatement.setMaxRows(1);
+            resultSet = preparedStatement.executeQuery();
+
+            if (!resultSet.next()) {
+                return null;
+            }
+
+            String[] row = new String[resultSet.getMetaData().getColumnCount()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = resultSet.getString(i + 1);
+            }
+            return row;
+        } finally {
+            safeClose(resultSet, preparedStatement, null);
+        }
+    }
+
+    private PreparedStatement prepare(Connection conn, String sql, Object... parameters) throws SQLException {
+        PreparedStatement preparedStatement = conn.prepareStatement(sql);
+        for (int i = 0; i < parameters.length; i++) {
+            preparedStatement.setObject(i + 1, parameters[i]);
+        }
+        return preparedStatement;
+    }
+
+    private void safeClose(ResultSet resultSet, PreparedStatement preparedStatement, Connection conn) {
+        try {
+            if (resultSet != null)
+                resultSet.close();
+        } catch (SQLException e) {
+        }
+        try {
+            if (preparedStatement != null)
+                preparedStatement.close();
+        } catch (SQLException e) {
+        }
+        try {
+            if (conn != null)
+                conn.close();
+        } catch (SQLException e) {
+        }
+    }
+}
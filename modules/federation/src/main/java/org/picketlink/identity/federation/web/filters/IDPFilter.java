@@ -45,8 +45,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -83,9 +86,11 @@ import org.picketlink.identity.federation.core.audit.PicketLinkAuditEventType;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
 import org.picketlink.identity.federation.core.impl.DelegatedAttributeManager;
 import org.picketlink.identity.federation.core.interfaces.AttributeManager;
+import org.picketlink.identity.federation.core.interfaces.IMetadataProvider;
 import org.picketlink.identity.federation.core.interfaces.ProtocolContext;
 import org.picketlink.identity.federation.core.interfaces.RoleGenerator;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
+import org.picketlink.identity.federation.core.saml.md.providers.IndexedMetadataProvider;
 import org.picketlink.identity.federation.core.saml.v1.SAML11ProtocolContext;
 import org.picketlink.identity.federation.core.saml.v1.writers.SAML11ResponseWriter;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
@@ -100,11 +105,13 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerCh
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerChainConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 import org.picketlink.identity.federation.core.util.CoreConfigUtil;
+import org.picketlink.identity.federation.core.util.SnapshotReference;
 import org.picketlink.identity.federation.core.util.XMLSignatureUtil;
 import org.picketlink.identity.federation.core.wstrust.PicketLinkSTSConfiguration;
 import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
@@ -140,6 +147,8 @@ public class IDPFilter implements Filter {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
+    private static final int MAX_ISSUER_HOSTS = 1024;
+
     protected ServletContext servletContext;
 
     protected boolean enableAudit = false;
@@ -177,13 +186,47 @@ public class IDPFilter implements Filter {
     private String configFile;
 
     /**
-     * A Lock for Handler operations in the chain
+     * A Lock for Handler operations in the chain. It is only used when some handler is not a
+     * {@link StatelessSAML2Handler}.
      */
     private final Lock chainLock = new ReentrantLock();
 
     private Map<String, SPSSODescriptorType> spSSOMetadataMap = new HashMap<String, SPSSODescriptorType>();
+
+    /**
+     * The provider of the SP metadata, if it refreshes the metadata by itself.
+     */
+    private IndexedMetadataProvider metadataProvider;
+
     private Handlers handlers;
 
+    /**
+     * <p>The configuration used by requests. The fields above are only used to build it, and it is replaced as a whole
+     * once a new configuration is completely built. The handlers and metadata provider of a replaced configuration are
+     * closed once the last request that uses it is done.</p>
+     */
+    private final SnapshotReference<ConfigurationSnapshot> snapshots = new SnapshotReference<ConfigurationSnapshot>() {
+        @Override
+        protected void dispose(ConfigurationSnapshot snapshot) {
+            snapshot.close();
+        }
+    };
+
+    /**
+     * <p>The configuration acquired by the request being handled by the current thread.</p>
+     */
+    private final ThreadLocal<ConfigurationSnapshot> requestSnapshot = new ThreadLocal<ConfigurationSnapshot>();
+
+    /**
+     * <p>The checksum of the configuration files used to build the current snapshot.</p>
+     */
+    private String configurationChecksum;
+
+    /**
+     * <p>The hosts of the issuers of the received messages, used to look up their validating keys.</p>
+     */
+    private final ConcurrentMap<String, String> issuerHosts = new ConcurrentHashMap<String, String>();
+
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         servletContext = filterConfig.getServletContext();
@@ -198,25 +241,59 @@ public class IDPFilter implements Filter {
         HttpServletRequest httpServletRequest = (HttpServletRequest) request;
         HttpServletResponse httpServletResponse = (HttpServletResponse) response;
 
-        // Look for unauthorized status
-        if (isUnauthorized(httpServletResponse)) {
-            handleUnauthorizedResponse(httpServletRequest, httpServletResponse);
+        // the whole request is handled with the configuration current when it started, even if it is reloaded meanwhile
+        SnapshotReference.Lease<ConfigurationSnapshot> lease = this.snapshots.acquire();
+
+        if (lease == null) {
+            httpServletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             return;
         }
 
-        // get an authenticated user or tries to authenticate if this is a authentication request
-        Principal userPrincipal = httpServletRequest.getUserPrincipal();
+        ConfigurationSnapshot outerSnapshot = this.requestSnapshot.get();
 
-        // we only handle SAML messages for authenticated users.
-        if (userPrincipal != null) {
-            handleSAMLMessage(httpServletRequest, httpServletResponse, chain);
-        }else {
-            chain.doFilter(request,response);
+        this.requestSnapshot.set(lease.get());
+
+        try {
+            // Look for unauthorized status
+            if (isUnauthorized(httpServletResponse)) {
+                handleUnauthorizedResponse(httpServletRequest, httpServletResponse);
+                return;
+            }
+
+            // get an authenticated user or tries to authenticate if this is a authentication request
+            Principal userPrincipal = httpServletRequest.getUserPrincipal();
+
+            // we only handle SAML messages for authenticated users.
+            if (userPrincipal != null) {
+                handleSAMLMessage(httpServletRequest, httpServletResponse, chain);
+            }else {
+                chain.doFilter(request,response);
+            }
+        } finally {
+            if (outerSnapshot == null) {
+                this.requestSnapshot.remove();
+            } else {
+                this.requestSnapshot.set(outerSnapshot);
+            }
+
+            lease.release();
         }
     }
 
     @Override
     public void destroy() {
+        if (timer != null) {
+            timer.cancel();
+        }
+
+        if (this.auditHelper != null) {
+            this.auditHelper.close();
+        }
+
+        // the handlers and the metadata provider are closed once the requests still running are done.
+        synchronized (this) {
+            this.snapshots.set(null);
+        }
     }
 
     /**
@@ -289,9 +366,11 @@ public class IDPFilter implements Filter {
     }
 
     private void forwardHosted(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ConfigurationSnapshot snapshot = getSnapshot();
+
         logger.trace("SAML 1.1::Proceeding to IDP index page");
         RequestDispatcher dispatch = servletContext
-                .getRequestDispatcher(this.idpConfiguration.getHostedURI());
+                .getRequestDispatcher(snapshot.idpConfiguration.getHostedURI());
 
         recycle(response);
 
@@ -333,14 +412,16 @@ public class IDPFilter implements Filter {
      * @throws ServletException
      */
     private void handleUnauthorizedResponse(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-        IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, idpConfiguration, keyManager);
+        ConfigurationSnapshot snapshot = getSnapshot();
+
+        IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, snapshot.idpConfiguration, snapshot.keyManager);
         Document samlErrorResponse = null;
         String referer = request.getHeader("Referer");
         String relayState = request.getParameter(GeneralConstants.RELAY_STATE);
 
         try {
             samlErrorResponse = webRequestUtil.getErrorResponse(referer, JBossSAMLURIConstants.STATUS_AUTHNFAILED.get(),
-                    getIdentityURL(), this.idpConfiguration.isSupportsSignature());
+                    getIdentityURL(), snapshot.idpConfiguration.isSupportsSignature());
 
             IDPWebRequestUtil.WebRequestUtilHolder holder = webRequestUtil.getHolder();
             holder.setResponseDoc(samlErrorResponse).setDestination(referer).setRelayState(relayState)
@@ -348,11 +429,11 @@ public class IDPFilter implements Filter {
                     .setErrorResponse(true);
             holder.setPostBindingRequested(webRequestUtil.hasSAMLRequestInPostProfile());
 
-            if (this.idpConfiguration.isSupportsSignature()) {
-                holder.setSupportSignature(true).setPrivateKey(keyManager.getSigningKey());
+            if (snapshot.idpConfiguration.isSupportsSignature()) {
+                holder.setSupportSignature(true).setPrivateKey(snapshot.keyManager.getSigningKey());
             }
 
-            holder.setStrictPostBinding(this.idpConfiguration.isStrictPostBinding());
+            holder.setStrictPostBinding(snapshot.idpConfiguration.isStrictPostBinding());
 
             webRequestUtil.send(holder);
         } catch (GeneralSecurityException e) {
@@ -365,8 +446,10 @@ public class IDPFilter implements Filter {
     }
 
     protected void handleSAML11(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ConfigurationSnapshot snapshot = getSnapshot();
+
         try {
-            IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, idpConfiguration, keyManager);
+            IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, snapshot.idpConfiguration, snapshot.keyManager);
 
             Principal userPrincipal = request.getUserPrincipal();
             String contextPath = servletContext.getContextPath();
@@ -396,7 +479,7 @@ public class IDPFilter implements Filter {
                 }
             }
 
-            List<String> roles = this.roleGenerator.generateRoles(userPrincipal);
+            List<String> roles = snapshot.roleGenerator.generateRoles(userPrincipal);
             SAML11AttributeStatementType attributeStatement = this.createAttributeStatement(roles);
 
             if (attributeStatement != null) {
@@ -420,7 +503,7 @@ public class IDPFilter implements Filter {
             holder.setResponseDoc(samlResponse).setDestination(target).setRelayState("").setAreWeSendingRequest(false)
                     .setPrivateKey(null).setSupportSignature(false).setServletResponse(response);
 
-            if (enableAudit) {
+            if (snapshot.enableAudit) {
                 PicketLinkAuditEvent auditEvent = new PicketLinkAuditEvent(AuditLevel.INFO);
                 auditEvent.setType(PicketLinkAuditEventType.RESPONSE_TO_SP);
                 auditEvent.setDestination(target);
@@ -438,6 +521,8 @@ public class IDPFilter implements Filter {
     }
 
     protected void processSAMLRequestMessage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ConfigurationSnapshot snapshot = getSnapshot();
+
         Principal userPrincipal = request.getUserPrincipal();
         HttpSession session = request.getSession();
         SAMLDocumentHolder samlDocumentHolder = null;
@@ -466,7 +551,7 @@ public class IDPFilter implements Filter {
         boolean isSecure = request.isSecure();
         String loginType = determineLoginType(isSecure);
 
-        IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, idpConfiguration, keyManager);
+        IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, snapshot.idpConfiguration, snapshot.keyManager);
 
         try {
             samlDocumentHolder = webRequestUtil.getSAMLDocumentHolder(samlRequestMessage);
@@ -498,28 +583,28 @@ public class IDPFilter implements Filter {
             // Set the options on the handler request
             Map<String, Object> requestOptions = new HashMap<String, Object>();
 
-            requestOptions.put(GeneralConstants.IGNORE_SIGNATURES, willIgnoreSignatureOfCurrentRequest(issuer));
-            requestOptions.put(GeneralConstants.SP_SSO_METADATA_DESCRIPTOR, spSSOMetadataMap.get(issuer));
-            requestOptions.put(GeneralConstants.ROLE_GENERATOR, roleGenerator);
-            requestOptions.put(GeneralConstants.CONFIGURATION, this.idpConfiguration);
-            requestOptions.put(GeneralConstants.SAML_IDP_STRICT_POST_BINDING, this.idpConfiguration.isStrictPostBinding());
-            requestOptions.put(GeneralConstants.SUPPORTS_SIGNATURES, this.idpConfiguration.isSupportsSignature());
+            requestOptions.put(GeneralConstants.IGNORE_SIGNATURES, willIgnoreSignatureOfCurrentRequest(snapshot, issuer));
+            requestOptions.put(GeneralConstants.SP_SSO_METADATA_DESCRIPTOR, snapshot.spSSOMetadataMap.get(issuer));
+            requestOptions.put(GeneralConstants.ROLE_GENERATOR, snapshot.roleGenerator);
+            requestOptions.put(GeneralConstants.CONFIGURATION, snapshot.idpConfiguration);
+            requestOptions.put(GeneralConstants.SAML_IDP_STRICT_POST_BINDING, snapshot.idpConfiguration.isStrictPostBinding());
+            requestOptions.put(GeneralConstants.SUPPORTS_SIGNATURES, snapshot.idpConfiguration.isSupportsSignature());
 
             if (assertionID != null)
                 requestOptions.put(GeneralConstants.ASSERTION_ID, assertionID);
 
-            if (this.keyManager != null) {
-                PublicKey validatingKey = getIssuerPublicKey(request, issuer);
+            if (snapshot.keyManager != null) {
+                PublicKey validatingKey = getIssuerPublicKey(snapshot, request, issuer);
                 requestOptions.put(GeneralConstants.SENDER_PUBLIC_KEY, validatingKey);
-                requestOptions.put(GeneralConstants.DECRYPTING_KEY, keyManager.getSigningKey());
+                requestOptions.put(GeneralConstants.DECRYPTING_KEY, snapshot.keyManager.getSigningKey());
             }
 
             // if this is a SAML AuthnRequest load the roles using the generator.
             if (requestAbstractType instanceof AuthnRequestType) {
-                List<String> roles = roleGenerator.generateRoles(userPrincipal);
+                List<String> roles = snapshot.roleGenerator.generateRoles(userPrincipal);
                 session.setAttribute(GeneralConstants.ROLES_ID, roles);
 
-                Map<String, Object> attribs = this.attribManager.getAttributes(userPrincipal, attributeKeys);
+                Map<String, Object> attribs = snapshot.attribManager.getAttributes(userPrincipal, attributeKeys);
                 requestOptions.put(GeneralConstants.ATTRIBUTES, attribs);
             }
 
@@ -532,13 +617,16 @@ public class IDPFilter implements Filter {
 
             SAML2HandlerResponse saml2HandlerResponse = new DefaultSAML2HandlerResponse();
 
-            Set<SAML2Handler> handlers = chain.handlers();
+            Set<SAML2Handler> handlers = snapshot.chain.handlers();
 
             logger.trace("Handlers are=" + handlers);
 
             if (handlers != null) {
+                // chains of stateless handlers run concurrently.
+                boolean locking = HandlerUtil.requiresLocking(snapshot.picketLinkConfiguration.getHandlers(), handlers);
+
                 try {
-                    if (getConfiguration().getHandlers().isLocking()) {
+                    if (locking) {
                         chainLock.lock();
                     }
                     for (SAML2Handler handler : handlers) {
@@ -546,7 +634,7 @@ public class IDPFilter implements Filter {
                         willSendRequest = saml2HandlerResponse.getSendRequest();
                     }
                 } finally {
-                    if (getConfiguration().getHandlers().isLocking()) {
+                    if (locking) {
                         chainLock.unlock();
                     }
                 }
@@ -566,7 +654,7 @@ public class IDPFilter implements Filter {
             }
             logger.samlIDPRequestProcessingError(e);
             samlResponse = webRequestUtil.getErrorResponse(referer, status, getIdentityURL(),
-                    this.idpConfiguration.isSupportsSignature());
+                    snapshot.idpConfiguration.isSupportsSignature());
             isErrorResponse = true;
         } finally {
             try {
@@ -589,21 +677,21 @@ public class IDPFilter implements Filter {
                             .setErrorResponse(isErrorResponse).setServletResponse(response)
                             .setDestinationQueryStringWithSignature(destinationQueryStringWithSignature);
 
-                    holder.setStrictPostBinding(this.idpConfiguration.isStrictPostBinding());
+                    holder.setStrictPostBinding(snapshot.idpConfiguration.isStrictPostBinding());
 
                     if (requestedPostProfile != null)
                         holder.setPostBindingRequested(requestedPostProfile);
                     else
                         holder.setPostBindingRequested(webRequestUtil.hasSAMLRequestInPostProfile());
 
-                    if (this.idpConfiguration.isSupportsSignature()) {
-                        holder.setPrivateKey(keyManager.getSigningKey()).setSupportSignature(true);
+                    if (snapshot.idpConfiguration.isSupportsSignature()) {
+                        holder.setPrivateKey(snapshot.keyManager.getSigningKey()).setSupportSignature(true);
                     }
 
                     if (holder.isPostBinding())
                         recycle(response);
 
-                    if (enableAudit) {
+                    if (snapshot.enableAudit) {
                         PicketLinkAuditEvent auditEvent = new PicketLinkAuditEvent(AuditLevel.INFO);
                         auditEvent.setType(PicketLinkAuditEventType.RESPONSE_TO_SP);
                         auditEvent.setDestination(destination);
@@ -628,26 +716,35 @@ public class IDPFilter implements Filter {
      * Returns the PublicKey to be used for the token's signature verification. This key is related with the issuer of the SAML
      * message received by the IDP.
      *
+     * @param snapshot
      * @param request
      * @param issuer
      * @return
      * @throws org.picketlink.common.exceptions.ProcessingException
      * @throws org.picketlink.common.exceptions.ConfigurationException
      */
-    private PublicKey getIssuerPublicKey(HttpServletRequest request, String issuer) throws ConfigurationException, ProcessingException {
-        String issuerHost = null;
+    private PublicKey getIssuerPublicKey(ConfigurationSnapshot snapshot, HttpServletRequest request, String issuer)
+            throws ConfigurationException, ProcessingException {
+        String issuerHost = issuerHosts.get(issuer);
         PublicKey issuerPublicKey = null;
 
-        try {
-            issuerHost = new URL(issuer).getHost();
-        } catch (MalformedURLException e) {
-            logger.trace("Token issuer is not a valid URL: " + issuer, e);
-            issuerHost = issuer;
+        if (issuerHost == null) {
+            try {
+                issuerHost = new URL(issuer).getHost();
+            } catch (MalformedURLException e) {
+                logger.trace("Token issuer is not a valid URL: " + issuer, e);
+                issuerHost = issuer;
+            }
+
+            // the issuers are not trusted yet, so only a bounded number of them is cached
+            if (issuerHosts.size() < MAX_ISSUER_HOSTS) {
+                issuerHosts.putIfAbsent(issuer, issuerHost);
+            }
         }
 
         logger.trace("Trying to find a PK for issuer: " + issuerHost);
         try {
-            issuerPublicKey = CoreConfigUtil.getValidatingKey(keyManager, issuerHost);
+            issuerPublicKey = CoreConfigUtil.getValidatingKey(snapshot.keyManager, issuerHost);
         } catch (IllegalStateException ise) {
             logger.trace("Token issuer is not found for: " + issuer, ise);
         }
@@ -656,7 +753,7 @@ public class IDPFilter implements Filter {
             issuerHost = request.getRemoteAddr();
 
             logger.trace("Trying to find a PK for issuer " + issuerHost);
-            issuerPublicKey = CoreConfigUtil.getValidatingKey(keyManager, issuerHost);
+            issuerPublicKey = CoreConfigUtil.getValidatingKey(snapshot.keyManager, issuerHost);
         }
 
         logger.trace("Using Validating Alias=" + issuerHost + " to check signatures.");
@@ -665,6 +762,8 @@ public class IDPFilter implements Filter {
     }
 
     protected void processSAMLResponseMessage(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ConfigurationSnapshot snapshot = getSnapshot();
+
         HttpSession session = request.getSession();
         SAMLDocumentHolder samlDocumentHolder = null;
         SAML2Object samlObject = null;
@@ -689,7 +788,7 @@ public class IDPFilter implements Filter {
 
         //cleanUpSessionNote(request);
 
-        IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, idpConfiguration, keyManager);
+        IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, snapshot.idpConfiguration, snapshot.keyManager);
 
         try {
             samlDocumentHolder = webRequestUtil.getSAMLDocumentHolder(samlResponseMessage);
@@ -714,13 +813,13 @@ public class IDPFilter implements Filter {
                     samlDocumentHolder, SAML2Handler.HANDLER_TYPE.IDP);
             Map<String, Object> options = new HashMap<String, Object>();
 
-            if (this.idpConfiguration.isSupportsSignature() || this.idpConfiguration.isEncrypt()) {
-                PublicKey publicKey = getIssuerPublicKey(request, issuer);
+            if (snapshot.idpConfiguration.isSupportsSignature() || snapshot.idpConfiguration.isEncrypt()) {
+                PublicKey publicKey = getIssuerPublicKey(snapshot, request, issuer);
                 options.put(GeneralConstants.SENDER_PUBLIC_KEY, publicKey);
             }
 
-            options.put(GeneralConstants.SAML_IDP_STRICT_POST_BINDING, this.idpConfiguration.isStrictPostBinding());
-            options.put(GeneralConstants.SUPPORTS_SIGNATURES, this.idpConfiguration.isSupportsSignature());
+            options.put(GeneralConstants.SAML_IDP_STRICT_POST_BINDING, snapshot.idpConfiguration.isStrictPostBinding());
+            options.put(GeneralConstants.SUPPORTS_SIGNATURES, snapshot.idpConfiguration.isSupportsSignature());
             if (auditHelper != null) {
                 options.put(GeneralConstants.AUDIT_HELPER, auditHelper);
                 options.put(GeneralConstants.CONTEXT_PATH, contextPath);
@@ -731,21 +830,30 @@ public class IDPFilter implements Filter {
 
             SAML2HandlerResponse saml2HandlerResponse = new DefaultSAML2HandlerResponse();
 
-            Set<SAML2Handler> handlers = chain.handlers();
+            Set<SAML2Handler> handlers = snapshot.chain.handlers();
 
             // the trusted domains is done by a handler
             // webRequestUtil.isTrusted(issuer);
 
             if (handlers != null) {
+                // handlers that keep per-request state are always reset and serialized when processing responses.
+                boolean locking = !HandlerUtil.isStateless(handlers);
+
                 try {
-                    chainLock.lock();
+                    if (locking) {
+                        chainLock.lock();
+                    }
                     for (SAML2Handler handler : handlers) {
-                        handler.reset();
+                        if (!HandlerUtil.isStateless(handler)) {
+                            handler.reset();
+                        }
                         handler.handleStatusResponseType(saml2HandlerRequest, saml2HandlerResponse);
                         willSendRequest = saml2HandlerResponse.getSendRequest();
                     }
                 } finally {
-                    chainLock.unlock();
+                    if (locking) {
+                        chainLock.unlock();
+                    }
                 }
             }
 
@@ -762,7 +870,7 @@ public class IDPFilter implements Filter {
             }
             logger.samlIDPRequestProcessingError(e);
             samlResponse = webRequestUtil.getErrorResponse(referer, status, getIdentityURL(),
-                    this.idpConfiguration.isSupportsSignature());
+                    snapshot.idpConfiguration.isSupportsSignature());
             isErrorResponse = true;
         } finally {
             try {
@@ -780,16 +888,16 @@ public class IDPFilter implements Filter {
                  * holder.setPostBindingRequested(postProfile);
                  */
 
-                if (this.idpConfiguration.isSupportsSignature()) {
-                    holder.setPrivateKey(keyManager.getSigningKey()).setSupportSignature(true);
+                if (snapshot.idpConfiguration.isSupportsSignature()) {
+                    holder.setPrivateKey(snapshot.keyManager.getSigningKey()).setSupportSignature(true);
                 }
 
-                holder.setStrictPostBinding(this.idpConfiguration.isStrictPostBinding());
+                holder.setStrictPostBinding(snapshot.idpConfiguration.isStrictPostBinding());
 
                 if (holder.isPostBinding())
                     recycle(response);
 
-                if (enableAudit) {
+                if (snapshot.enableAudit) {
                     PicketLinkAuditEvent auditEvent = new PicketLinkAuditEvent(AuditLevel.INFO);
                     auditEvent.setType(PicketLinkAuditEventType.RESPONSE_TO_SP);
                     auditEvent.setWhoIsAuditing(contextPath);
@@ -846,13 +954,15 @@ public class IDPFilter implements Filter {
 
     protected void sendErrorResponseToSP(String referrer, HttpServletResponse response, String relayState, IDPWebRequestUtil webRequestUtil)
             throws ServletException, IOException, ConfigurationException {
+        ConfigurationSnapshot snapshot = getSnapshot();
+
 
         logger.trace("About to send error response to SP:" + referrer);
 
         String contextPath = servletContext.getContextPath();
 
         Document samlResponse = webRequestUtil.getErrorResponse(referrer, JBossSAMLURIConstants.STATUS_RESPONDER.get(),
-                getIdentityURL(), this.idpConfiguration.isSupportsSignature());
+                getIdentityURL(), snapshot.idpConfiguration.isSupportsSignature());
         try {
 
             IDPWebRequestUtil.WebRequestUtilHolder holder = webRequestUtil.getHolder();
@@ -860,16 +970,16 @@ public class IDPFilter implements Filter {
                     .setAreWeSendingRequest(false).setPrivateKey(null).setSupportSignature(false).setServletResponse(response);
             holder.setPostBindingRequested(webRequestUtil.hasSAMLRequestInPostProfile());
 
-            if (this.idpConfiguration.isSupportsSignature()) {
-                holder.setPrivateKey(keyManager.getSigningKey()).setSupportSignature(true);
+            if (snapshot.idpConfiguration.isSupportsSignature()) {
+                holder.setPrivateKey(snapshot.keyManager.getSigningKey()).setSupportSignature(true);
             }
 
-            holder.setStrictPostBinding(this.idpConfiguration.isStrictPostBinding());
+            holder.setStrictPostBinding(snapshot.idpConfiguration.isStrictPostBinding());
 
             if (holder.isPostBinding())
                 recycle(response);
 
-            if (enableAudit) {
+            if (snapshot.enableAudit) {
                 PicketLinkAuditEvent auditEvent = new PicketLinkAuditEvent(AuditLevel.INFO);
                 auditEvent.setType(PicketLinkAuditEventType.ERROR_RESPONSE_TO_SP);
                 auditEvent.setWhoIsAuditing(contextPath);
@@ -1087,7 +1197,7 @@ public class IDPFilter implements Filter {
                 }
             }
 
-            logger.trace("Identity Provider URL=" + getIdentityURL());
+            logger.trace("Identity Provider URL=" + idpConfiguration.getIdentityURL());
 
             // Get the attribute manager
             String attributeManager = idpConfiguration.getAttributeManager();
@@ -1110,9 +1220,16 @@ public class IDPFilter implements Filter {
             }
 
             // Read SP Metadata if provided
-            List<EntityDescriptorType> entityDescriptors = CoreConfigUtil.getMetadataConfiguration(idpConfiguration,
-                    servletContext);
-            if (entityDescriptors != null) {
+            IMetadataProvider<?> spMetadataProvider = CoreConfigUtil.getMetadataProvider(idpConfiguration, servletContext);
+
+            if (spMetadataProvider instanceof IndexedMetadataProvider) {
+                // the descriptors are parsed when they are first used, and refreshed by the provider. The provider is
+                // closed with the configuration snapshot, once the requests that use it are done.
+                this.metadataProvider = (IndexedMetadataProvider) spMetadataProvider;
+                this.spSSOMetadataMap = this.metadataProvider.getSPDescriptors();
+            } else if (spMetadataProvider != null) {
+                List<EntityDescriptorType> entityDescriptors = CoreConfigUtil.getMetadataConfiguration(spMetadataProvider);
+
                 for (EntityDescriptorType entityDescriptorType : entityDescriptors) {
                     SPSSODescriptorType spSSODescriptor = CoreConfigUtil.getSPDescriptor(entityDescriptorType);
                     if (spSSODescriptor != null) {
@@ -1153,7 +1270,13 @@ public class IDPFilter implements Filter {
     }
 
     protected String getIdentityURL() {
-        return this.idpConfiguration.getIdentityURL();
+        ConfigurationSnapshot snapshot = getSnapshot();
+
+        if (snapshot == null) {
+            return this.idpConfiguration.getIdentityURL();
+        }
+
+        return snapshot.idpConfiguration.getIdentityURL();
     }
 
     protected String determineLoginType(boolean isSecure) {
@@ -1172,43 +1295,176 @@ public class IDPFilter implements Filter {
     protected void startPicketLink() {
         SystemPropertiesUtil.ensure();
 
+        this.configurationChecksum = getConfigurationChecksum();
+
+        initIDPConfiguration();
+        initSTSConfiguration();
+        initKeyManager();
+        initHandlersChain();
+        initIdentityServer();
+
+        // Add some keys to the attibutes
+        String[] ak = new String[] { "mail", "cn", "commonname", "givenname", "surname", "employeeType", "employeeNumber",
+                "facsimileTelephoneNumber" };
+
+        this.attributeKeys.addAll(Arrays.asList(ak));
+
+        publishConfiguration();
+
         //Introduce a timer to reload configuration if desired
         if(timerInterval > 0 ){
             if(timer == null){
-                timer = new Timer();
+                timer = new Timer("picketlink-idp-configuration-reload", true);
             }
             timer.scheduleAtFixedRate(new TimerTask() {
                 @Override
                 public void run() {
-                    // Clear the configuration
-                    picketLinkConfiguration = null;
-                    idpConfiguration = null;
-
-                    initIDPConfiguration();
-                    initKeyManager();
-                    initHandlersChain();
+                    reloadConfiguration();
                 }
             }, timerInterval, timerInterval);
         }
+    }
 
-        initIDPConfiguration();
-        initSTSConfiguration();
-        initKeyManager();
-        initHandlersChain();
-        initIdentityServer();
+    /**
+     * <p>
+     * Reloads the configuration if its files have changed. The configuration, key manager, handler chain and SP metadata
+     * are built by the calling thread and published at once, so requests keep using the current configuration while the
+     * new one is built, or if it can not be built. The handlers and metadata provider of the previous configuration are
+     * closed once the requests that use it are done.
+     * </p>
+     * <p>
+     * A configuration read from a {@link SAMLConfigurationProvider} is not reloaded, as there is no way to tell whether
+     * it has changed.
+     * </p>
+     */
+    protected synchronized void reloadConfiguration() {
+        String checksum = getConfigurationChecksum();
 
-        // Add some keys to the attibutes
-        String[] ak = new String[] { "mail", "cn", "commonname", "givenname", "surname", "employeeType", "employeeNumber",
-                "facsimileTelephoneNumber" };
+        if (checksum == null || checksum.equals(this.configurationChecksum)) {
+            return;
+        }
 
-        this.attributeKeys.addAll(Arrays.asList(ak));
+        ConfigurationSnapshot current = this.snapshots.get();
+
+        if (current == null) {
+            // destroyed
+            return;
+        }
+
+        try {
+            // Clear the configuration being built, the current snapshot is not affected
+            this.metadataProvider = null;
+            this.picketLinkConfiguration = null;
+            this.idpConfiguration = null;
+            this.keyManager = null;
+            this.roleGenerator = null;
+            this.attribManager = new DelegatedAttributeManager();
+            this.spSSOMetadataMap = new HashMap<String, SPSSODescriptorType>();
+
+            initIDPConfiguration();
+            initKeyManager();
+            initHandlersChain();
+
+            // the handlers of the new chain already share the resources, like replay caches, of the previous one.
+            publishConfiguration();
+
+            this.configurationChecksum = checksum;
+        } catch (Exception e) {
+            logger.error(e);
+
+            if (this.metadataProvider != null) {
+                this.metadataProvider.close();
+            }
+
+            if (this.chain != null && this.chain != current.chain) {
+                HandlerUtil.closeHandlers(this.chain.handlers());
+            }
+
+            // keep the fields consistent with the configuration that is still in use
+            this.picketLinkConfiguration = current.picketLinkConfiguration;
+            this.idpConfiguration = current.idpConfiguration;
+            this.keyManager = current.keyManager;
+            this.roleGenerator = current.roleGenerator;
+            this.attribManager = current.attribManager;
+            this.spSSOMetadataMap = current.spSSOMetadataMap;
+            this.metadataProvider = current.metadataProvider;
+            this.chain = current.chain;
+            this.handlers = current.picketLinkConfiguration.getHandlers();
+        }
+    }
 
+    private void publishConfiguration() {
         if (this.picketLinkConfiguration == null) {
             this.picketLinkConfiguration = new PicketLinkType();
 
             this.picketLinkConfiguration.setIdpOrSP(this.idpConfiguration);
             this.picketLinkConfiguration.setHandlers(this.handlers);
         }
+
+        this.snapshots.set(new ConfigurationSnapshot(this.picketLinkConfiguration, this.idpConfiguration,
+                this.keyManager, this.chain, this.roleGenerator, this.attribManager, this.spSSOMetadataMap,
+                this.metadataProvider, this.enableAudit));
+    }
+
+    /**
+     * <p>
+     * Returns the configuration acquired by the request being handled, or the current one outside of a request.
+     * </p>
+     *
+     * @return
+     */
+    private ConfigurationSnapshot getSnapshot() {
+        ConfigurationSnapshot snapshot = this.requestSnapshot.get();
+
+        return snapshot != null ? snapshot : this.snapshots.get();
+    }
+
+    /**
+     * <p>
+     * Returns a checksum of the configuration files, or null if the configuration is not only read from them.
+     * </p>
+     *
+     * @return
+     */
+    private String getConfigurationChecksum() {
+        if (this.configProvider != null) {
+            // the provider may read the configuration from anywhere, so there is no way to tell whether it changed
+            return null;
+        }
+
+        CRC32 checksum = new CRC32();
+
+        try {
+            if (isNullOrEmpty(this.configFile)) {
+                updateChecksum(checksum, servletContext.getResourceAsStream(CONFIG_FILE_LOCATION));
+                updateChecksum(checksum, servletContext.getResourceAsStream(DEPRECATED_CONFIG_FILE_LOCATION));
+                updateChecksum(checksum, servletContext.getResourceAsStream(GeneralConstants.HANDLER_CONFIG_FILE_LOCATION));
+            } else {
+                updateChecksum(checksum, new FileInputStream(this.configFile));
+            }
+        } catch (IOException e) {
+            logger.trace("Could not read the configuration files", e);
+            return null;
+        }
+
+        return Long.toHexString(checksum.getValue());
+    }
+
+    private void updateChecksum(CRC32 checksum, InputStream is) throws IOException {
+        if (is == null) {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = is.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
     }
 
     /**
@@ -1234,11 +1490,12 @@ public class IDPFilter implements Filter {
      * We will ignore signatures of current SAMLRequest if SP Metadata are provided for current SP and if metadata specifies
      * that SAMLRequest is not signed for this SP.
      *
+     * @param snapshot
      * @param spIssuer
      * @return true if signature is not expected in SAMLRequest and so signature validation should be ignored
      */
-    private Boolean willIgnoreSignatureOfCurrentRequest(String spIssuer) {
-        SPSSODescriptorType currentSPMetadata = spSSOMetadataMap.get(spIssuer);
+    private Boolean willIgnoreSignatureOfCurrentRequest(ConfigurationSnapshot snapshot, String spIssuer) {
+        SPSSODescriptorType currentSPMetadata = snapshot.spSSOMetadataMap.get(spIssuer);
 
         if (currentSPMetadata == null) {
             return false;
@@ -1284,7 +1541,13 @@ public class IDPFilter implements Filter {
      * @return
      */
     protected PicketLinkType getConfiguration() {
-        return this.picketLinkConfiguration;
+        ConfigurationSnapshot snapshot = getSnapshot();
+
+        if (snapshot == null) {
+            return this.picketLinkConfiguration;
+        }
+
+        return snapshot.picketLinkConfiguration;
     }
 
     private void configureAuditHelper() throws ServletException {
@@ -1324,4 +1587,56 @@ public class IDPFilter implements Filter {
     public SAMLConfigurationProvider getConfigProvider() {
         return this.configProvider;
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * The configuration of the filter and the objects created from it. Requests read the current snapshot once, so they
+     * never see a partially loaded configuration.
+     * </p>
+     */
+    private static final class ConfigurationSnapshot {
+
+        private final PicketLinkType picketLinkConfiguration;
+
+        private final IDPType idpConfiguration;
+
+        private final TrustKeyManager keyManager;
+
+        private final SAML2HandlerChain chain;
+
+        private final RoleGenerator roleGenerator;
+
+        private final DelegatedAttributeManager attribManager;
+
+        private final Map<String, SPSSODescriptorType> spSSOMetadataMap;
+
+        private final IndexedMetadataProvider metadataProvider;
+
+        private final boolean enableAudit;
+
+        private ConfigurationSnapshot(PicketLinkType picketLinkConfiguration, IDPType idpConfiguration,
+                TrustKeyManager keyManager, SAML2HandlerChain chain, RoleGenerator roleGenerator,
+                DelegatedAttributeManager attribManager, Map<String, SPSSODescriptorType> spSSOMetadataMap,
+                IndexedMetadataProvider metadataProvider, boolean enableAudit) {
+            this.picketLinkConfiguration = picketLinkConfiguration;
+            this.idpConfiguration = idpConfiguration;
+            this.keyManager = keyManager;
+            this.chain = chain;
+            this.roleGenerator = roleGenerator;
+            this.attribManager = attribManager;
+            this.spSSOMetadataMap = spSSOMetadataMap;
+            this.metadataProvider = metadataProvider;
+            this.enableAudit = enableAudit;
+        }
+
+        private void close() {
+            if (this.metadataProvider != null) {
+                this.metadataProvider.close();
+            }
+
+            if (this.chain != null) {
+                HandlerUtil.closeHandlers(this.chain.handlers());
+            }
+        }
+    }
+}
@@ -28,7 +28,6 @@ import org.picketlink.common.exceptions.TrustKeyConfigurationException;
 import org.picketlink.common.exceptions.TrustKeyProcessingException;
 import org.picketlink.common.exceptions.fed.AssertionExpiredException;
 import org.picketlink.common.exceptions.fed.IssuerNotTrustedException;
-import org.picketlink.common.util.DocumentUtil;
 import org.picketlink.common.util.StringUtil;
 import org.picketlink.config.federation.AuthPropertyType;
 import org.picketlink.config.federation.KeyProviderType;
@@ -150,6 +149,9 @@ public class SPFilter implements Filter {
     protected String canonicalizationMethod = CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS;
 
     public void destroy() {
+        if (chain != null) {
+            HandlerUtil.closeHandlers(chain.handlers());
+        }
     }
 
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
@@ -559,8 +561,7 @@ public class SPFilter implements Filter {
             KeyPair keypair = keyManager.getSigningKeyPair();
             samlSignature.signSAMLDocument(samlDocument, keypair);
         }
-        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getDocumentAsString(samlDocument));
-        PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlMessage, relayState), response, request);
+        PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlDocument, relayState), response, request);
     }
 
     protected boolean validate(HttpServletRequest request) throws IOException, GeneralSecurityException {
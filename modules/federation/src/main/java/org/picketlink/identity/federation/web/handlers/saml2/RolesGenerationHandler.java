@@ -31,6 +31,7 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerCh
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.saml.v2.protocol.LogoutRequestType;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 
@@ -46,6 +47,7 @@ import java.util.Map;
  * @author Anil.Saldhana@redhat.com
  * @since Oct 7, 2009
  */
+@StatelessSAML2Handler
 public class RolesGenerationHandler extends BaseSAML2Handler {
 
     private transient RoleGenerator roleGenerator = new EmptyRoleGenerator();
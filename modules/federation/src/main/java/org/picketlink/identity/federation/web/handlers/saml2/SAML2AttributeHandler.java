@@ -28,6 +28,7 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerCh
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
 import org.picketlink.identity.federation.saml.v2.assertion.AttributeStatementType;
 import org.picketlink.identity.federation.saml.v2.assertion.AttributeStatementType.ASTChoiceType;
@@ -65,6 +66,7 @@ import java.util.Set;
  * @author Anil.Saldhana@redhat.com
  * @since Oct 12, 2009
  */
+@StatelessSAML2Handler
 public class SAML2AttributeHandler extends BaseSAML2Handler {
 
     protected AttributeManager attribManager = new EmptyAttributeManager();
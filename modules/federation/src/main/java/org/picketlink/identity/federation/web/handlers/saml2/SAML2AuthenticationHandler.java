@@ -45,9 +45,16 @@ import org.picketlink.identity.federation.core.saml.v2.holders.IDPInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.IssuerInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.SPInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerChainConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
+import org.picketlink.identity.federation.core.saml.v2.replay.DefaultReplayCache;
+import org.picketlink.identity.federation.core.saml.v2.replay.FileReplayCacheStore;
+import org.picketlink.identity.federation.core.saml.v2.replay.ReplayCache;
+import org.picketlink.identity.federation.core.saml.v2.replay.ReplayCacheStore;
+import org.picketlink.identity.federation.core.saml.v2.replay.SharedReplayCaches;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.StatementUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
@@ -58,8 +65,11 @@ import org.picketlink.identity.federation.saml.v2.assertion.AttributeStatementTy
 import org.picketlink.identity.federation.saml.v2.assertion.AttributeStatementType.ASTChoiceType;
 import org.picketlink.identity.federation.saml.v2.assertion.AttributeType;
 import org.picketlink.identity.federation.saml.v2.assertion.AuthnStatementType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionAbstractType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
 import org.picketlink.identity.federation.saml.v2.assertion.EncryptedAssertionType;
 import org.picketlink.identity.federation.saml.v2.assertion.NameIDType;
+import org.picketlink.identity.federation.saml.v2.assertion.OneTimeUseType;
 import org.picketlink.identity.federation.saml.v2.assertion.StatementAbstractType;
 import org.picketlink.identity.federation.saml.v2.assertion.SubjectType;
 import org.picketlink.identity.federation.saml.v2.assertion.SubjectType.STSubType;
@@ -80,7 +90,9 @@ import org.w3c.dom.Node;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSession;
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
+import java.io.Closeable;
 import java.net.URI;
 import java.security.Principal;
 import java.security.PrivateKey;
@@ -109,15 +121,61 @@ import static org.picketlink.common.util.StringUtil.isNotNull;
  * @see SAML2Handler#DISABLE_ROLE_PICKING Setting to true will disable picking IDP attribute statements (SP Setting)
  * @see SAML2Handler#ROLE_KEY a csv list of strings that represent the roles coming from IDP (SP Setting)
  * @see GeneralConstants#NAMEID_FORMAT Setting to a value will provide the nameid format to be sent to IDP (SP Setting)
- * @see SAML2Handler#ASSERTION_CONSUMER_URL: the url to be used for assertionConsumerURL (SP Setting) </p>
+ * @see SAML2Handler#ASSERTION_CONSUMER_URL: the url to be used for assertionConsumerURL (SP Setting)
+ * @see SAML2Handler#ASSERTION_REPLAY_CHECK ONE_TIME_USE (default) rejects replayed assertions with a OneTimeUse
+ *      condition, ALL rejects any replayed assertion or response and NONE disables the check (SP Setting)
+ * @see SAML2Handler#REPLAY_CACHE_FILE a file where the ids of the accepted assertions are kept across restarts (SP
+ *      Setting)
+ * @see SAML2Handler#REPLAY_CACHE_STORE the class name of a custom ReplayCacheStore (SP Setting) </p>
  * @since Oct 8, 2009
  */
-public class SAML2AuthenticationHandler extends BaseSAML2Handler {
+@StatelessSAML2Handler
+public class SAML2AuthenticationHandler extends BaseSAML2Handler implements Closeable {
 
     private final IDPAuthenticationHandler idp = new IDPAuthenticationHandler();
 
     private final SPAuthenticationHandler sp = new SPAuthenticationHandler();
 
+    // ids of assertions without expiration are remembered for this period.
+    private static final long DEFAULT_REPLAY_CACHE_TIME_TO_LIVE = 60 * 60 * 1000L;
+
+    private volatile ReplayCache replayCache;
+
+    private boolean closed;
+
+    @Override
+    public void initChainConfig(SAML2HandlerChainConfig handlerChainConfig) throws ConfigurationException {
+        super.initChainConfig(handlerChainConfig);
+
+        if (handlerConfig == null || getType() != HANDLER_TYPE.SP) {
+            return;
+        }
+
+        // acquired eagerly, so a rebuilt chain holds the cache before the previous chain is closed.
+        if (!"NONE".equalsIgnoreCase((String) handlerConfig.getParameter(ASSERTION_REPLAY_CHECK))) {
+            try {
+                getReplayCache();
+            } catch (ProcessingException e) {
+                throw logger.configurationError(e);
+            }
+        }
+    }
+
+    /**
+     * Releases the replay cache when the handler chain is torn down. The cache is only closed once no other chain of
+     * the same SP holds it. A closed handler does not acquire the cache again.
+     */
+    public synchronized void close() {
+        ReplayCache cache = this.replayCache;
+
+        this.closed = true;
+
+        if (cache != null) {
+            this.replayCache = null;
+            SharedReplayCaches.release(cache);
+        }
+    }
+
     public void handleRequestType(SAML2HandlerRequest request, SAML2HandlerResponse response) throws ProcessingException {
         if (request.getSAML2Object() instanceof AuthnRequestType == false)
             return;
@@ -526,6 +584,8 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
                 throw logger.assertionExpiredError(aee);
             }
 
+            checkReplay(responseType, assertion);
+
             SubjectType subject = assertion.getSubject();
             /*
              * JAXBElement<NameIDType> jnameID = (JAXBElement<NameIDType>) subject.getContent().get(0); NameIDType nameID =
@@ -575,6 +635,63 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
             return principal;
         }
 
+        /**
+         * Rejects assertions, and responses, that were already accepted by this SP.
+         *
+         * @param responseType
+         * @param assertion
+         *
+         * @throws ProcessingException
+         */
+        private void checkReplay(ResponseType responseType, AssertionType assertion) throws ProcessingException {
+            String replayCheck = (String) handlerConfig.getParameter(ASSERTION_REPLAY_CHECK);
+            boolean checkAll = "ALL".equalsIgnoreCase(replayCheck);
+
+            if (assertion.getID() == null || "NONE".equalsIgnoreCase(replayCheck)
+                || (!checkAll && !isOneTimeUse(assertion))) {
+                return;
+            }
+
+            long expiration = System.currentTimeMillis() + DEFAULT_REPLAY_CACHE_TIME_TO_LIVE;
+            ConditionsType conditions = assertion.getConditions();
+
+            if (conditions != null && conditions.getNotOnOrAfter() != null) {
+                XMLGregorianCalendar notOnOrAfter = conditions.getNotOnOrAfter();
+                String skew = (String) handlerConfig.getParameter(SAML2Handler.CLOCK_SKEW_MILIS);
+
+                expiration = notOnOrAfter.toGregorianCalendar().getTimeInMillis();
+
+                // the assertion is still accepted during the clock skew, so it must be remembered until then.
+                if (isNotNull(skew)) {
+                    expiration += Long.parseLong(skew);
+                }
+            }
+
+            ReplayCache cache = getReplayCache();
+
+            if (!cache.checkAndStore(assertion.getID(), expiration)) {
+                throw logger.samlAssertionReplayedError(assertion.getID());
+            }
+
+            if (checkAll && responseType.getID() != null && !cache.checkAndStore(responseType.getID(), expiration)) {
+                throw logger.samlAssertionReplayedError(responseType.getID());
+            }
+        }
+
+        private boolean isOneTimeUse(AssertionType assertion) {
+            ConditionsType conditions = assertion.getConditions();
+
+            if (conditions != null) {
+                for (ConditionAbstractType condition : conditions.getConditions()) {
+                    if (condition instanceof OneTimeUseType) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
         /**
          * Get the roles from the attribute statement
          *
@@ -636,6 +753,71 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
         }
     }
 
+    /**
+     * Returns the cache of the assertions already accepted by the SP. The cache is shared by all the handler chains
+     * built from the same SP configuration.
+     *
+     * @return
+     *
+     * @throws ProcessingException
+     */
+    private ReplayCache getReplayCache() throws ProcessingException {
+        ReplayCache cache = this.replayCache;
+
+        if (cache == null) {
+            synchronized (this) {
+                cache = this.replayCache;
+
+                if (cache == null) {
+                    // a reference taken after close() would never be released.
+                    if (this.closed) {
+                        throw logger.samlHandlerClosedError(getClass().getName());
+                    }
+
+                    final String storeClassName = (String) handlerConfig.getParameter(REPLAY_CACHE_STORE);
+                    final String fileName = (String) handlerConfig.getParameter(REPLAY_CACHE_FILE);
+                    String serviceURL = null;
+
+                    if (getProviderconfig() instanceof SPType) {
+                        serviceURL = ((SPType) getProviderconfig()).getServiceURL();
+                    }
+
+                    cache = SharedReplayCaches.acquire(serviceURL + '\n' + storeClassName + '\n' + fileName,
+                        new SharedReplayCaches.Factory() {
+                            public ReplayCache create() throws ProcessingException {
+                                return createReplayCache(storeClassName, fileName);
+                            }
+                        });
+                    this.replayCache = cache;
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    private ReplayCache createReplayCache(String storeClassName, String fileName) throws ProcessingException {
+        ReplayCacheStore store = null;
+
+        if (isNotNull(storeClassName)) {
+            Class<?> storeClass = SecurityActions.loadClass(getClass(), storeClassName);
+
+            if (storeClass == null)
+                throw logger.classNotLoadedError(storeClassName);
+
+            try {
+                store = (ReplayCacheStore) storeClass.newInstance();
+            } catch (Exception e) {
+                throw logger.processingError(e);
+            }
+        } else if (isNotNull(fileName)) {
+            store = new FileReplayCacheStore(fileName);
+        }
+
+        return new DefaultReplayCache(DefaultReplayCache.DEFAULT_MAX_ENTRIES, DefaultReplayCache.DEFAULT_BUCKET_DURATION,
+            store);
+    }
+
     private void createRequestedAuthnContext(final AuthnRequestType authn) {
         String authnContextClasses = (String) handlerConfig.getParameter(GeneralConstants.AUTHN_CONTEXT_CLASSES);
 
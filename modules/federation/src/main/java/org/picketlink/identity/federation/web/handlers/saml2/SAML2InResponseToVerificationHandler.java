@@ -22,6 +22,7 @@ import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.exceptions.ProcessingException;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
 
 import javax.servlet.http.HttpSession;
@@ -33,6 +34,7 @@ import javax.servlet.http.HttpSession;
  *
  * @author <a href="mailto:mposolda@redhat.com">Marek Posolda</a>
  */
+@StatelessSAML2Handler
 public class SAML2InResponseToVerificationHandler extends BaseSAML2Handler {
 
     @Override
@@ -28,6 +28,7 @@ import org.picketlink.identity.federation.core.audit.PicketLinkAuditEventType;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
 
 import java.io.IOException;
@@ -45,6 +46,7 @@ import java.util.StringTokenizer;
  * @author Anil.Saldhana@redhat.com
  * @since Oct 8, 2009
  */
+@StatelessSAML2Handler
 public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
 
     private final IDPTrustHandler idp = new IDPTrustHandler();
@@ -39,6 +39,7 @@ import org.picketlink.identity.federation.core.saml.v2.common.SAMLProtocolContex
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
@@ -73,6 +74,7 @@ import java.util.Set;
  * @author Anil.Saldhana@redhat.com
  * @since Sep 17, 2009
  */
+@StatelessSAML2Handler
 public class SAML2LogOutHandler extends BaseSAML2Handler {
 
     private final IDPLogOutHandler idp = new IDPLogOutHandler();
@@ -28,6 +28,7 @@ import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerErrorCodes;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.StatelessSAML2Handler;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 import org.picketlink.identity.federation.web.util.RedirectBindingSignatureUtil;
 import org.w3c.dom.Document;
@@ -41,6 +42,7 @@ import java.util.Map;
  * @author Anil.Saldhana@redhat.com
  * @since Nov 13, 2009
  */
+@StatelessSAML2Handler
 public class SAML2SignatureValidationHandler extends AbstractSignatureHandler {
 
     private SAML2Signature saml2Signature = new SAML2Signature();
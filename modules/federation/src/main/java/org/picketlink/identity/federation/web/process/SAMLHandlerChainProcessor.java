@@ -22,12 +22,12 @@ import org.picketlink.config.federation.PicketLinkType;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil;
 import org.picketlink.identity.federation.saml.v2.SAML2Object;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 
 import java.io.IOException;
-import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 
@@ -39,19 +39,27 @@ import java.util.concurrent.locks.Lock;
  */
 public class SAMLHandlerChainProcessor {
 
-    private final Set<SAML2Handler> handlers = new LinkedHashSet<SAML2Handler>();
+    private final Set<SAML2Handler> handlers;
     private final PicketLinkType configuration;
 
+    /**
+     * @param handlers the handlers of the chain, which are not copied as they are not changed once the chain is
+     * initialized.
+     * @param configuration
+     */
     public SAMLHandlerChainProcessor(Set<SAML2Handler> handlers, PicketLinkType configuration) {
-        this.handlers.addAll(handlers);
+        this.handlers = handlers;
         this.configuration = configuration;
     }
 
     public void callHandlerChain(SAML2Object samlObject, SAML2HandlerRequest saml2HandlerRequest,
                                  SAML2HandlerResponse saml2HandlerResponse, HTTPContext httpContext, Lock chainLock) throws ProcessingException,
             IOException {
+        // chains of stateless handlers run concurrently.
+        boolean locking = chainLock != null && HandlerUtil.requiresLocking(this.configuration.getHandlers(), handlers);
+
         try {
-            if (this.configuration.getHandlers().isLocking()) {
+            if (locking) {
                 chainLock.lock();
             }
 
@@ -68,7 +76,7 @@ public class SAMLHandlerChainProcessor {
                 }
             }
         } finally {
-            if (this.configuration.getHandlers().isLocking()) {
+            if (locking) {
                 chainLock.unlock();
             }
         }
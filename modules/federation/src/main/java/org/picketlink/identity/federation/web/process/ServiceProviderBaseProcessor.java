@@ -39,6 +39,7 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler.H
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 
 import javax.servlet.http.HttpServletRequest;
@@ -157,13 +158,18 @@ public class ServiceProviderBaseProcessor {
         }
 
         // Reset the state
+        // chains of stateless handlers run concurrently.
+        boolean locking = chainLock != null && HandlerUtil.requiresLocking(this.configuration.getHandlers(), handlers);
+
         try {
-            if (this.configuration.getHandlers().isLocking()) {
+            if (locking) {
                 chainLock.lock();
             }
 
             for (SAML2Handler handler : handlers) {
-                handler.reset();
+                if (!HandlerUtil.isStateless(handler)) {
+                    handler.reset();
+                }
 
                 if (saml2HandlerResponse.isInError()) {
                     httpContext.getResponse().sendError(saml2HandlerResponse.getErrorCode());
@@ -183,7 +189,7 @@ public class ServiceProviderBaseProcessor {
             logger.error(pe);
             throw logger.samlHandlerChainProcessingError(pe);
         } finally {
-            if (this.configuration.getHandlers().isLocking()) {
+            if (locking) {
                 chainLock.unlock();
             }
         }
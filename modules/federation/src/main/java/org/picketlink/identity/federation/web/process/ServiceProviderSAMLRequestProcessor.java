@@ -67,7 +67,8 @@ public class ServiceProviderSAMLRequestProcessor extends ServiceProviderBaseProc
      * @param samlRequest
      * @param httpContext
      * @param handlers
-     * @param chainLock A Lock on the chain of handlers that needs to be used for locking
+     * @param chainLock A Lock on the chain of handlers that needs to be used for locking. It is only acquired if locking
+     * is enabled and some handler is not stateless, and it can be null.
      *
      * @return
      *
@@ -157,8 +158,6 @@ public class ServiceProviderSAMLRequestProcessor extends ServiceProviderBaseProc
      */
     protected void sendRequestToIDP(String destination, Document samlDocument, String relayState, HttpServletResponse response,
                                     boolean willSendRequest) throws ProcessingException, ConfigurationException, IOException {
-        String samlMessage = DocumentUtil.getDocumentAsString(samlDocument);
-        samlMessage = PostBindingUtil.base64Encode(samlMessage);
-        PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlMessage, relayState), response, willSendRequest);
+        PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlDocument, relayState), response, willSendRequest);
     }
 }
\ No newline at end of file
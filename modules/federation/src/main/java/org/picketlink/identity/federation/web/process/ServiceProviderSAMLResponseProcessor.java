@@ -67,7 +67,8 @@ public class ServiceProviderSAMLResponseProcessor extends ServiceProviderBasePro
      * @param samlResponse
      * @param httpContext
      * @param handlers
-     * @param chainLock a lock that needs to be used to process the chain of handlers
+     * @param chainLock a lock that needs to be used to process the chain of handlers. It is only acquired if locking is
+     * enabled and some handler is not stateless, and it can be null.
      *
      * @return
      *
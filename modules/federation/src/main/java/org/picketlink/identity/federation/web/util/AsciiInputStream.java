@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.web.util;
+
+import java.io.InputStream;
+
+/**
+ * Reads the characters of an ASCII string, like a base64 encoded message, as bytes without copying the string. The
+ * string can optionally be URL decoded while it is read.
+ */
+class AsciiInputStream extends InputStream {
+
+    private final String value;
+
+    private final boolean urlDecode;
+
+    private int position;
+
+    AsciiInputStream(String value, boolean urlDecode) {
+        this.value = value;
+        this.urlDecode = urlDecode;
+    }
+
+    @Override
+    public int read() {
+        if (this.position >= this.value.length()) {
+            return -1;
+        }
+
+        char c = this.value.charAt(this.position++);
+
+        if (this.urlDecode) {
+            if (c == '+') {
+                return ' ';
+            }
+
+            if (c == '%' && this.position + 2 <= this.value.length()) {
+                int decoded = Integer.parseInt(this.value.substring(this.position, this.position + 2), 16);
+
+                this.position += 2;
+
+                return decoded;
+            }
+        }
+
+        return c & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int count = 0;
+
+        while (count < len) {
+            int c = read();
+
+            if (c == -1) {
+                break;
+            }
+
+            b[off + count++] = (byte) c;
+        }
+
+        return count == 0 && len > 0 ? -1 : count;
+    }
+}
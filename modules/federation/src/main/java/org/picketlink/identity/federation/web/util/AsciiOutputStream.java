@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.web.util;
+
+import java.io.OutputStream;
+
+/**
+ * Appends the bytes of an ASCII message, like a base64 encoded message, to a {@link StringBuilder}. The message can
+ * optionally be URL encoded while it is written, the same way as {@link java.net.URLEncoder} does.
+ */
+class AsciiOutputStream extends OutputStream {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final StringBuilder builder;
+
+    private final boolean urlEncode;
+
+    AsciiOutputStream(StringBuilder builder, boolean urlEncode) {
+        this.builder = builder;
+        this.urlEncode = urlEncode;
+    }
+
+    @Override
+    public void write(int b) {
+        char c = (char) (b & 0xff);
+
+        if (!this.urlEncode || isUnreserved(c)) {
+            this.builder.append(c);
+        } else if (c == ' ') {
+            this.builder.append('+');
+        } else {
+            this.builder.append('%').append(HEX[c >> 4]).append(HEX[c & 0xf]);
+        }
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-'
+                || c == '*' || c == '_';
+    }
+}
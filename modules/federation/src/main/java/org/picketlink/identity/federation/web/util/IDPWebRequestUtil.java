@@ -225,11 +225,7 @@ public class IDPWebRequestUtil {
                 logger.trace("SAML Response Document: " + DocumentUtil.asString(responseDoc));
             }
 
-            byte[] responseBytes = DocumentUtil.getDocumentAsString(responseDoc).getBytes("UTF-8");
-
-            String samlResponse = PostBindingUtil.base64Encode(new String(responseBytes));
-
-            PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlResponse, relayState), response, sendRequest);
+            PostBindingUtil.sendPost(new DestinationInfoHolder(destination, responseDoc, relayState), response, sendRequest);
         }
     }
 
@@ -349,11 +345,13 @@ public class IDPWebRequestUtil {
     }
 
     private InputStream parseSAMLRequestPostBinding(String samlMessage) {
-        InputStream is;
-        byte[] samlBytes = PostBindingUtil.base64Decode(samlMessage);
-        logger.trace("SAML Request Document: " + new String(samlBytes));
-        is = new ByteArrayInputStream(samlBytes);
-        return is;
+        if (logger.isTraceEnabled()) {
+            byte[] samlBytes = PostBindingUtil.base64Decode(samlMessage);
+            logger.trace("SAML Request Document: " + new String(samlBytes));
+            return new ByteArrayInputStream(samlBytes);
+        }
+
+        return PostBindingUtil.base64DecodeAsStream(samlMessage);
     }
 
     private InputStream parseSAMLRequestRedirectBinding(String samlMessage) {
@@ -25,13 +25,19 @@ import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
 import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.util.Base64;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.common.util.TransformerUtil;
 import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHolder;
+import org.w3c.dom.Document;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import static org.picketlink.common.util.StringUtil.isNotNull;
 
@@ -45,6 +51,8 @@ public class PostBindingUtil {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
+    private static final int BUFFER_SIZE = 8192;
+
     /**
      * Apply base64 encoding on the message
      *
@@ -71,7 +79,7 @@ public class PostBindingUtil {
     }
 
     /**
-     * Apply base64 decoding on the message and return the stream
+     * Apply base64 decoding on the message and return the stream. The message is decoded while the stream is read.
      *
      * @param encodedString
      *
@@ -81,15 +89,20 @@ public class PostBindingUtil {
         if (encodedString == null)
             throw logger.nullArgumentError("encodedString");
 
-        return new ByteArrayInputStream(base64Decode(encodedString));
+        return new Base64.InputStream(new AsciiInputStream(encodedString, false), Base64.DECODE);
     }
 
     /**
+     * <p>
      * Send the response to the redirected destination while adding the character encoding of "UTF-8" as well as adding
-     * headers
-     * for cache-control and Pragma
+     * headers for cache-control and Pragma.
+     * </p>
+     * <p>
+     * If the holder has a SAML document, the document is serialized and base64 encoded directly into the response, so
+     * no encoded copy of the message is kept in memory.
+     * </p>
      *
-     * @param destination Destination URI where the response needs to redirect
+     * @param holder Holds the destination URI where the response needs to redirect, and the message
      * @param response HttpServletResponse
      *
      * @throws IOException
@@ -99,7 +112,7 @@ public class PostBindingUtil {
 
         String relayState = holder.getRelayState();
         String destination = holder.getDestination();
-        String samlMessage = holder.getSamlMessage();
+        Document samlDocument = holder.getSamlDocument();
 
         if (destination == null) {
             throw logger.nullValueError("Destination is null");
@@ -107,6 +120,7 @@ public class PostBindingUtil {
 
         response.setContentType("text/html");
         common(holder.getDestination(), response);
+
         StringBuilder builder = new StringBuilder();
 
         builder.append("<HTML>");
@@ -121,7 +135,12 @@ public class PostBindingUtil {
         builder.append("<BODY Onload=\"document.forms[0].submit()\">");
 
         builder.append("<FORM METHOD=\"POST\" ACTION=\"" + destination + "\">");
-        builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"" + key + "\"" + " VALUE=\"" + samlMessage + "\"/>");
+        builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"" + key + "\"" + " VALUE=\"");
+
+        byte[] header = builder.toString().getBytes("UTF-8");
+
+        builder.setLength(0);
+        builder.append("\"/>");
 
         if (isNotNull(relayState)) {
             builder.append("<INPUT TYPE=\"HIDDEN\" NAME=\"RelayState\" " + "VALUE=\"" + relayState + "\"/>");
@@ -134,24 +153,80 @@ public class PostBindingUtil {
 
         builder.append("</FORM></BODY></HTML>");
 
-        String str = builder.toString();
-
-        logger.trace(str);
+        byte[] footer = builder.toString().getBytes("UTF-8");
 
         ServletOutputStream outputStream = response.getOutputStream();
 
         // we need to re-configure the content length, because Tomcat may have written some content.
         response.resetBuffer();
 
-        outputStream.print(str);
+        OutputStream bufferedStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+
+        if (samlDocument != null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("SAML Document: " + DocumentUtil.asString(samlDocument));
+            }
+
+            // the length of the message is only known once it is written
+            bufferedStream.write(header);
+            writeBase64(samlDocument, bufferedStream);
+            bufferedStream.write(footer);
+        } else {
+            String samlMessage = holder.getSamlMessage();
 
-        response.setContentLength(str.length());
+            if (logger.isTraceEnabled()) {
+                logger.trace(new String(header, "UTF-8") + samlMessage + new String(footer, "UTF-8"));
+            }
+
+            response.setContentLength(header.length + samlMessage.length() + footer.length);
+
+            bufferedStream.write(header);
+            writeAscii(samlMessage, bufferedStream);
+            bufferedStream.write(footer);
+        }
+
+        bufferedStream.flush();
         outputStream.close();
     }
 
+    /**
+     * Serialize the document and base64 encode it into the given stream, which is not closed.
+     *
+     * @param samlDocument
+     * @param outputStream
+     *
+     * @throws IOException
+     */
+    public static void writeBase64(Document samlDocument, OutputStream outputStream) throws IOException {
+        Base64.OutputStream base64Stream = new Base64.OutputStream(outputStream, Base64.ENCODE | Base64.DONT_BREAK_LINES);
+
+        try {
+            TransformerUtil.getTransformer().transform(new DOMSource(samlDocument), new StreamResult(base64Stream));
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        // pads the last block without closing the stream
+        base64Stream.flushBase64();
+    }
+
+    private static void writeAscii(String value, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[Math.min(BUFFER_SIZE, value.length())];
+
+        for (int offset = 0; offset < value.length(); offset += buffer.length) {
+            int length = Math.min(buffer.length, value.length() - offset);
+
+            for (int i = 0; i < length; i++) {
+                buffer[i] = (byte) value.charAt(offset + i);
+            }
+
+            outputStream.write(buffer, 0, length);
+        }
+    }
+
     private static void common(String destination, HttpServletResponse response) {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Pragma", "no-cache");
         response.setHeader("Cache-Control", "no-cache, no-store");
     }
-}
\ No newline at end of file
+}
@@ -71,8 +71,14 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static String base64URLEncode(byte[] stringToEncode) throws IOException {
-        String base64Request = Base64.encodeBytes(stringToEncode, Base64.DONT_BREAK_LINES);
-        return urlEncode(base64Request);
+        StringBuilder builder = new StringBuilder(stringToEncode.length * 3 / 2);
+        Base64.OutputStream base64Stream = new Base64.OutputStream(new AsciiOutputStream(builder, true), Base64.ENCODE
+                | Base64.DONT_BREAK_LINES);
+
+        base64Stream.write(stringToEncode);
+        base64Stream.close();
+
+        return builder.toString();
     }
 
     /**
@@ -112,8 +118,7 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static String deflateBase64URLEncode(byte[] stringToEncode) throws IOException {
-        byte[] deflatedMsg = DeflateUtil.encode(stringToEncode);
-        return base64URLEncode(deflatedMsg);
+        return deflateBase64Encode(stringToEncode, Base64.ENCODE | Base64.DONT_BREAK_LINES, true);
     }
 
     /**
@@ -126,8 +131,7 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static String deflateBase64Encode(byte[] stringToEncode) throws IOException {
-        byte[] deflatedMsg = DeflateUtil.encode(stringToEncode);
-        return Base64.encodeBytes(deflatedMsg);
+        return deflateBase64Encode(stringToEncode, Base64.ENCODE, false);
     }
 
     /**
@@ -140,8 +144,7 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static InputStream urlBase64DeflateDecode(String encodedString) throws IOException {
-        byte[] deflatedString = urlBase64Decode(encodedString);
-        return DeflateUtil.decode(deflatedString);
+        return DeflateUtil.decode(new Base64.InputStream(new AsciiInputStream(encodedString, true), Base64.DECODE));
     }
 
     /**
@@ -152,8 +155,28 @@ public class RedirectBindingUtil {
      * @return
      */
     public static InputStream base64DeflateDecode(String encodedString) {
-        byte[] base64decodedMsg = Base64.decode(encodedString);
-        return DeflateUtil.decode(base64decodedMsg);
+        return DeflateUtil.decode(new Base64.InputStream(new AsciiInputStream(encodedString, false), Base64.DECODE));
+    }
+
+    /**
+     * Deflate the message straight into a base64 encoder, which appends the encoded message to the result
+     *
+     * @param message
+     * @param base64Options
+     * @param urlEncode
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    private static String deflateBase64Encode(byte[] message, int base64Options, boolean urlEncode) throws IOException {
+        StringBuilder builder = new StringBuilder(message.length);
+        Base64.OutputStream base64Stream = new Base64.OutputStream(new AsciiOutputStream(builder, urlEncode), base64Options);
+
+        DeflateUtil.encode(message, base64Stream);
+        base64Stream.close();
+
+        return builder.toString();
     }
 
     /**
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust;
+
+import junit.framework.TestCase;
+
+import javax.xml.transform.Source;
+import javax.xml.ws.Dispatch;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for the {@link STSClientPool}
+ */
+public class STSClientPoolTestCase extends TestCase {
+
+    private static final String KEY = "sts-client-pool-test";
+
+    public void testCallersWaitForReturnedClients() throws Exception {
+        final STSClientPool pool = new STSClientPool(2, 5000, 0);
+
+        pool.initialize(1, new TestCallBack());
+
+        STSClient first = pool.takeOut(KEY);
+        STSClient second = pool.takeOut(KEY);
+
+        assertNotSame(first, second);
+        assertEquals(1.0, pool.getStatistics(KEY).getUtilization());
+
+        final AtomicReference<STSClient> third = new AtomicReference<STSClient>();
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                started.countDown();
+                third.set(pool.takeOut(KEY));
+            }
+        };
+
+        waiting.start();
+        started.await();
+        Thread.sleep(100);
+
+        assertNull(third.get());
+
+        pool.putIn(KEY, first);
+        waiting.join(5000);
+
+        assertSame(first, third.get());
+
+        STSClientPoolStatistics statistics = pool.getStatistics(KEY);
+
+        assertEquals(3, statistics.getBorrowCount());
+        assertEquals(2, statistics.getActiveCount());
+        assertEquals(2, statistics.getCreatedCount());
+        assertTrue(statistics.getMaxWaitTime() > 0);
+    }
+
+    public void testAcquisitionTimesOut() {
+        STSClientPool pool = new STSClientPool(1, 50, 0);
+
+        pool.initialize(1, new TestCallBack());
+        pool.takeOut(KEY);
+
+        try {
+            pool.takeOut(KEY);
+            fail("the pool is exhausted");
+        } catch (RuntimeException expected) {
+        }
+
+        assertEquals(1, pool.getStatistics(KEY).getTimeoutCount());
+    }
+
+    public void testPoolsAreResizedWhenTheMaxSizeChanges() {
+        STSClientPool pool = new STSClientPool(1, 50, 0);
+
+        pool.initialize(1, new TestCallBack());
+        pool.takeOut(KEY);
+        pool.initializePool(2);
+
+        assertEquals(2, pool.getStatistics(KEY).getMaxSize());
+        assertNotNull(pool.takeOut(KEY));
+    }
+
+    public void testIdleClientsAreEvicted() throws Exception {
+        STSClientPool pool = new STSClientPool(3, 5000, 20);
+
+        pool.initialize(1, new TestCallBack());
+
+        STSClient first = pool.takeOut(KEY);
+        STSClient second = pool.takeOut(KEY);
+
+        pool.putIn(KEY, first);
+        pool.putIn(KEY, second);
+
+        assertEquals(2, pool.getStatistics(KEY).getIdleCount());
+
+        Thread.sleep(300);
+
+        // the initial number of clients is kept
+        assertEquals(1, pool.getStatistics(KEY).getIdleCount());
+
+        pool.shutdown();
+
+        assertNull(pool.getStatistics(KEY));
+    }
+
+    public void testUnknownClientsAreNotPutIn() {
+        STSClientPool pool = new STSClientPool(1, 5000, 0);
+
+        pool.initialize(1, new TestCallBack());
+
+        assertFalse(pool.returnClient(new STSClient()));
+
+        try {
+            pool.putIn(KEY, new STSClient());
+            fail("the client was not taken out of the pool");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    private class TestCallBack extends STSClientCreationCallBack {
+
+        public STSClient createClient() {
+            STSClient client = new STSClient();
+
+            client.setDispatch(createDispatch());
+
+            return client;
+        }
+
+        public String getKey() {
+            return KEY;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Dispatch<Source> createDispatch() {
+        return (Dispatch<Source>) Proxy.newProxyInstance(STSClientPoolTestCase.class.getClassLoader(),
+            new Class<?>[]{Dispatch.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
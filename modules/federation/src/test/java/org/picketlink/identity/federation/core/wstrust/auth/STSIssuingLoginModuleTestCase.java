@@ -18,6 +18,7 @@
 package org.picketlink.identity.federation.core.wstrust.auth;
 
 import junit.framework.TestCase;
+import org.picketlink.common.exceptions.fed.WSTrustException;
 import org.picketlink.identity.federation.core.wstrust.STSClient;
 import org.picketlink.identity.federation.core.wstrust.STSClientConfig;
 import org.picketlink.identity.federation.core.wstrust.SamlCredential;
@@ -25,6 +26,8 @@ import org.w3c.dom.Element;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.login.LoginException;
+import javax.xml.ws.BindingProvider;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -91,6 +94,30 @@ public class STSIssuingLoginModuleTestCase extends TestCase {
         assertEquals(password, new String(loginModule.getSharedPassword()));
     }
 
+    public void testPooledClientsUseTheCallerPassword() throws Exception {
+        final Map<String, String> options = allOptions();
+        options.put(AbstractSTSLoginModule.MAX_CLIENTS_IN_POOL, "1");
+
+        // a failed login first creates the pooled client with the wrong password.
+        assertFalse(login("admin", "wrong", options));
+        assertTrue(login("admin", "admin", options));
+        assertFalse(login("admin", "wrong", options));
+        assertTrue(login("admin", "admin", options));
+    }
+
+    private boolean login(final String username, final String password, final Map<String, String> options) {
+        final STSIssuingLoginModule loginModule = new PasswordCheckingSTSIssuingLoginModule("admin");
+
+        loginModule.initialize(new Subject(), new TestCallbackHandler(username, password),
+            new HashMap<String, Object>(), options);
+
+        try {
+            return loginModule.login();
+        } catch (LoginException e) {
+            return false;
+        }
+    }
+
     private Map<String, String> allOptions() {
         final Map<String, String> options = Util.allOptions();
         options.put(STSIssuingLoginModule.ENDPOINT_OPTION, "someUrl");
@@ -98,6 +125,33 @@ public class STSIssuingLoginModuleTestCase extends TestCase {
         return options;
     }
 
+    /**
+     * Issues a token only if the client sends the expected password, as the STS would.
+     */
+    private static class PasswordCheckingSTSIssuingLoginModule extends STSIssuingLoginModule {
+
+        private final String validPassword;
+
+        public PasswordCheckingSTSIssuingLoginModule(final String validPassword) {
+            this.validPassword = validPassword;
+        }
+
+        @Override
+        public Element invokeSTS(final STSClient stsClient) throws WSTrustException {
+            Object password = stsClient.getDispatch().getRequestContext().get(BindingProvider.PASSWORD_PROPERTY);
+
+            if (!validPassword.equals(password)) {
+                throw new WSTrustException("Invalid password");
+            }
+
+            try {
+                return Util.createSamlToken();
+            } catch (Exception e) {
+                throw new WSTrustException(e.getMessage(), e);
+            }
+        }
+    }
+
     private class FakeSTSIssuingLoginModule extends STSIssuingLoginModule {
 
         private STSClient client;
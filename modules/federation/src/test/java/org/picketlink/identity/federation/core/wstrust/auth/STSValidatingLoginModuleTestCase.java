@@ -35,6 +35,8 @@ import java.util.Set;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -113,6 +115,29 @@ public class STSValidatingLoginModuleTestCase extends TestCase {
         assertEquals(1, samlCredentials.size());
     }
 
+    public void testValidationResultIsCached() throws Exception {
+        // Make the validateToken() method return true.
+        when(stsClient.validateToken(any(Element.class))).thenReturn(true);
+
+        final Element token = Util.createSamlToken();
+        final Map<String, String> options = getAllOptions();
+        options.put(AbstractSTSLoginModule.VALIDATION_CACHE, "true");
+
+        for (int i = 0; i < 2; i++) {
+            final STSValidatingLoginModule loginModule = new FakeSTSValidatingLoginModule(stsClient);
+            final Subject subject = new Subject();
+
+            loginModule.initialize(subject, new TestCallbackHandler(token), null, options);
+
+            assertTrue(loginModule.login());
+            assertTrue(loginModule.commit());
+            assertEquals(1, subject.getPublicCredentials(SamlCredential.class).size());
+        }
+
+        // The second login is served from the cache.
+        verify(stsClient, times(1)).validateToken(token);
+    }
+
     private Map<String, String> getAllOptions() {
         Map<String, String> options = Util.allOptions();
         options.put("useOptionsCredentials", "true");
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust.auth;
+
+import junit.framework.TestCase;
+import org.picketlink.identity.federation.core.saml.v2.factories.JBossSAMLBaseFactory;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.DefaultRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.RevocationRegistry;
+import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
+import org.w3c.dom.Element;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Unit test for {@link STSValidationCache}.
+ */
+public class STSValidationCacheTestCase extends TestCase {
+
+    public void testResultsAreCachedByDigest() throws Exception {
+        STSValidationCache cache = new STSValidationCache(10, 60000, 0, null);
+        Element token = Util.createSamlToken();
+        Element otherToken = Util.createSamlToken();
+        String digest = STSValidationCache.digest(token);
+
+        assertEquals(digest, STSValidationCache.digest(token));
+        assertFalse(digest.equals(STSValidationCache.digest(otherToken)));
+        assertNull(cache.getResult(digest));
+
+        cache.putResult(digest, token, true);
+
+        assertEquals(Boolean.TRUE, cache.getResult(digest));
+        assertNull(cache.getResult(STSValidationCache.digest(otherToken)));
+
+        // negative results are not cached without a negative time to live
+        cache.putResult(STSValidationCache.digest(otherToken), otherToken, false);
+
+        assertNull(cache.getResult(STSValidationCache.digest(otherToken)));
+
+        cache = new STSValidationCache(1, 60000, 60000, null);
+        cache.putResult(digest, token, false);
+
+        assertEquals(Boolean.FALSE, cache.getResult(digest));
+
+        // the least recently used result is evicted
+        cache.putResult(STSValidationCache.digest(otherToken), otherToken, true);
+
+        assertNull(cache.getResult(digest));
+        assertEquals(1, cache.size());
+    }
+
+    public void testResultDoesNotOutliveAssertion() throws Exception {
+        STSValidationCache cache = new STSValidationCache(10, 60000, 0, null);
+        Element expiredToken = createSamlToken(-1000);
+        Element expiringToken = createSamlToken(200);
+
+        cache.putResult(STSValidationCache.digest(expiredToken), expiredToken, true);
+        cache.putResult(STSValidationCache.digest(expiringToken), expiringToken, true);
+
+        assertNull(cache.getResult(STSValidationCache.digest(expiredToken)));
+        assertEquals(Boolean.TRUE, cache.getResult(STSValidationCache.digest(expiringToken)));
+
+        Thread.sleep(300);
+
+        assertNull(cache.getResult(STSValidationCache.digest(expiringToken)));
+    }
+
+    public void testRevokedTokensAreValidatedAgain() throws Exception {
+        RevocationRegistry revocationRegistry = new DefaultRevocationRegistry();
+        STSValidationCache cache = new STSValidationCache(10, 60000, 0, revocationRegistry);
+        Element token = Util.createSamlToken();
+        Element otherToken = Util.createSamlToken();
+        String digest = STSValidationCache.digest(token);
+        String otherDigest = STSValidationCache.digest(otherToken);
+
+        cache.putResult(digest, token, true);
+        cache.putResult(otherDigest, otherToken, true);
+
+        revocationRegistry.revokeToken(SAMLUtil.SAML2_TOKEN_TYPE, token.getAttribute("ID"));
+
+        assertNull(cache.getResult(digest));
+        assertEquals(Boolean.TRUE, cache.getResult(otherDigest));
+
+        cache.invalidate(otherToken.getAttribute("ID"));
+
+        assertNull(cache.getResult(otherDigest));
+        assertEquals(0, cache.size());
+    }
+
+    private Element createSamlToken(long expiresIn) throws Exception {
+        XMLGregorianCalendar issueInstant = XMLTimeUtil.getIssueInstant();
+        AssertionType assertionType = new AssertionType("ID+" + JBossSAMLBaseFactory.createUUID(), issueInstant);
+        ConditionsType conditions = new ConditionsType();
+
+        conditions.setNotBefore(issueInstant);
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(issueInstant, expiresIn));
+        assertionType.setConditions(conditions);
+
+        return SAMLUtil.toElement(assertionType);
+    }
+}
@@ -23,7 +23,10 @@ import org.picketlink.identity.federation.api.saml.v2.request.SAML2Request;
 import org.picketlink.identity.federation.api.util.DeflateUtil;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.saml.v2.protocol.AuthnRequestType;
+import org.picketlink.identity.federation.web.util.RedirectBindingUtil;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URLDecoder;
@@ -58,4 +61,76 @@ public class DeflateEncodingDecodingUnitTestCase extends TestCase {
 
         assertNotNull(decodedRequestType);
     }
-}
\ No newline at end of file
+
+    public void testStreamingRedirectBindingCodec() throws Exception {
+        String authnRequest = "<samlp:AuthnRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"ID_1\" "
+                + "Version=\"2.0\" IssueInstant=\"2013-01-01T00:00:00Z\" AssertionConsumerServiceURL=\"http://sp\">"
+                + "<saml:Issuer xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">http://sp</saml:Issuer>"
+                + "</samlp:AuthnRequest>";
+        byte[] message = authnRequest.getBytes("UTF-8");
+
+        // the streamed stages produce the same encoding as the individual ones
+        String urlEncoded = RedirectBindingUtil.deflateBase64URLEncode(message);
+        String encoded = RedirectBindingUtil.deflateBase64Encode(message);
+
+        assertEquals(URLEncoder.encode(Base64.encodeBytes(DeflateUtil.encode(message), Base64.DONT_BREAK_LINES), "UTF-8"),
+                urlEncoded);
+        assertEquals(Base64.encodeBytes(DeflateUtil.encode(message)), encoded);
+        assertEquals(URLEncoder.encode(Base64.encodeBytes(message, Base64.DONT_BREAK_LINES), "UTF-8"),
+                RedirectBindingUtil.base64URLEncode(message));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(authnRequest, readFully(RedirectBindingUtil.urlBase64DeflateDecode(urlEncoded)));
+            assertEquals(authnRequest, readFully(RedirectBindingUtil.base64DeflateDecode(encoded)));
+        }
+    }
+
+    public void testInflatedSizeIsLimited() throws Exception {
+        byte[] message = new byte[(int) DeflateUtil.DEFAULT_INFLATE_MAX_SIZE + 1];
+        String encoded = RedirectBindingUtil.deflateBase64Encode(message);
+
+        assertTrue(encoded.length() < message.length / 100);
+
+        try {
+            readFully(RedirectBindingUtil.base64DeflateDecode(encoded));
+            fail("Messages larger than the maximum size are not inflated");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testInvalidMessageFailsWhenRead() throws Exception {
+        // a reserved block type
+        InputStream is = DeflateUtil.decode(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff });
+
+        try {
+            readFully(is);
+            fail("Invalid messages are not decoded");
+        } catch (IOException expected) {
+        }
+
+        // the decoder is still usable, whether the previous streams were read or not
+        byte[] encoded = DeflateUtil.encode("message");
+
+        for (int i = 0; i < 100; i++) {
+            DeflateUtil.decode(encoded);
+        }
+
+        assertEquals("message", readFully(DeflateUtil.decode(encoded)));
+    }
+
+    private String readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+
+        try {
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        return new String(baos.toByteArray(), "UTF-8");
+    }
+}
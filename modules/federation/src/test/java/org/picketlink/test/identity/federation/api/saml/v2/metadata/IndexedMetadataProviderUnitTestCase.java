@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.api.saml.v2.metadata;
+
+import junit.framework.TestCase;
+import org.picketlink.identity.federation.core.saml.md.providers.AbstractFileBasedMetadataProvider;
+import org.picketlink.identity.federation.core.saml.md.providers.IndexedEntityDescriptor;
+import org.picketlink.identity.federation.core.saml.md.providers.IndexedMetadataProvider;
+import org.picketlink.identity.federation.core.saml.md.providers.MetadataIndex;
+import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
+import org.picketlink.identity.federation.saml.v2.metadata.SPSSODescriptorType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit test for the {@link IndexedMetadataProvider}
+ */
+public class IndexedMetadataProviderUnitTestCase extends TestCase {
+
+    public void testServiceProvidersAreIndexed() {
+        IndexedMetadataProvider metadataProvider = createProvider("saml2/metadata/sp-two-salesforce-googleapps.xml");
+        MetadataIndex index = metadataProvider.getIndex();
+
+        assertEquals(2, index.size());
+        assertNull(index.getEntity("unknown"));
+
+        IndexedEntityDescriptor salesforce = index.getEntity("https://saml.salesforce.com");
+
+        assertTrue(salesforce.isServiceProvider());
+        assertFalse(salesforce.isIdentityProvider());
+        assertEquals(1, salesforce.getAssertionConsumerServices().size());
+        assertEquals(1, salesforce.getSPSingleLogoutServices().size());
+        assertTrue(salesforce.getEncryptionCertificates().isEmpty());
+
+        EndpointType endpoint = salesforce.getSPSingleLogoutServices().get(0);
+
+        assertEquals("urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST", endpoint.getBinding().toASCIIString());
+
+        // the descriptor is parsed on demand from the indexed copy
+        SPSSODescriptorType spDescriptor = salesforce.getSPDescriptor();
+
+        assertTrue(spDescriptor.isAuthnRequestsSigned());
+        assertEquals(endpoint.getLocation(), spDescriptor.getSingleLogoutService().get(0).getLocation());
+        assertSame(salesforce.getEntityDescriptor(), salesforce.getEntityDescriptor());
+
+        Map<String, SPSSODescriptorType> spDescriptors = metadataProvider.getSPDescriptors();
+
+        assertFalse(spDescriptors.get("google.com/a/somedomain.com").isAuthnRequestsSigned());
+        assertNull(spDescriptors.get("unknown"));
+        assertEquals(2, spDescriptors.size());
+        assertEquals(2, metadataProvider.getMetaData().getEntityDescriptor().size());
+    }
+
+    public void testIdentityProvidersAreIndexed() {
+        MetadataIndex index = createProvider("saml2/metadata/seam-entities.xml").getIndex();
+        IndexedEntityDescriptor ssoCircle = index.getEntity("http://idp.ssocircle.com");
+
+        assertTrue(ssoCircle.isIdentityProvider());
+        assertNull(ssoCircle.getSPDescriptor());
+        assertFalse(ssoCircle.getIDPSingleSignOnServices().isEmpty());
+        assertEquals(1, ssoCircle.getSigningCertificates().size());
+        assertEquals(1, ssoCircle.getEncryptionCertificates().size());
+        assertEquals(ssoCircle.getIDPSingleSignOnServices().size(), ssoCircle.getIDPDescriptor().getSingleSignOnService()
+                .size());
+    }
+
+    public void testChangedMetadataIsRefreshed() throws Exception {
+        File metadataFile = File.createTempFile("metadata", ".xml");
+        metadataFile.deleteOnExit();
+
+        copy("saml2/metadata/sp-two-salesforce-googleapps.xml", metadataFile);
+
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(AbstractFileBasedMetadataProvider.FILENAME_KEY, metadataFile.getPath());
+        options.put(IndexedMetadataProvider.REFRESH_INTERVAL_KEY, "0");
+
+        IndexedMetadataProvider metadataProvider = new IndexedMetadataProvider();
+        metadataProvider.init(options);
+
+        Map<String, SPSSODescriptorType> spDescriptors = metadataProvider.getSPDescriptors();
+        MetadataIndex index = metadataProvider.getIndex();
+
+        assertTrue(spDescriptors.containsKey("https://saml.salesforce.com"));
+
+        metadataProvider.refresh();
+
+        assertSame(index, metadataProvider.getIndex());
+
+        copy("saml2/metadata/seam-entities.xml", metadataFile);
+        metadataFile.setLastModified(System.currentTimeMillis() + 10000);
+
+        metadataProvider.refresh();
+
+        assertNotSame(index, metadataProvider.getIndex());
+        assertFalse(spDescriptors.containsKey("https://saml.salesforce.com"));
+        assertNotNull(metadataProvider.getIndex().getEntity("http://idp.ssocircle.com"));
+    }
+
+    public void testClosedProviderIsNotLoaded() {
+        IndexedMetadataProvider metadataProvider = createProvider("saml2/metadata/sp-two-salesforce-googleapps.xml");
+
+        metadataProvider.close();
+
+        try {
+            metadataProvider.load();
+            fail("Expected the closed provider to refuse to load");
+        } catch (IllegalStateException expected) {
+        }
+
+        // an index loaded before the provider was closed is still available.
+        IndexedMetadataProvider loadedProvider = createProvider("saml2/metadata/sp-two-salesforce-googleapps.xml");
+        MetadataIndex index = loadedProvider.load();
+
+        loadedProvider.close();
+
+        assertSame(index, loadedProvider.getIndex());
+    }
+
+    private IndexedMetadataProvider createProvider(String filePath) {
+        IndexedMetadataProvider metadataProvider = new IndexedMetadataProvider();
+        Map<String, String> options = new HashMap<String, String>();
+
+        options.put(AbstractFileBasedMetadataProvider.FILENAME_KEY, filePath);
+        metadataProvider.init(options);
+        metadataProvider.injectFileStream(Thread.currentThread().getContextClassLoader().getResourceAsStream(filePath));
+
+        return metadataProvider;
+    }
+
+    private void copy(String resource, File file) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        OutputStream os = new FileOutputStream(file);
+
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.audit;
+
+import junit.framework.TestCase;
+import org.jboss.security.audit.AuditEvent;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.identity.federation.core.audit.AsyncAuditDispatcher;
+import org.picketlink.identity.federation.core.audit.AuditSink;
+import org.picketlink.identity.federation.core.audit.PicketLinkAuditEvent;
+import org.picketlink.identity.federation.core.audit.PicketLinkAuditEventType;
+import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
+import org.picketlink.identity.federation.core.audit.RollingFileAuditSink;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for the asynchronous audit pipeline
+ */
+public class AsyncAuditUnitTestCase extends TestCase {
+
+    public void testEventsAreWrittenInBatches() throws Exception {
+        RecordingSink sink = new RecordingSink(null);
+        AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(sink, 100, 10, AsyncAuditDispatcher.OverflowPolicy.BLOCK,
+                1);
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(dispatcher.dispatch(new AuditEvent(String.valueOf(i))));
+        }
+
+        dispatcher.close();
+
+        assertTrue(sink.closed);
+        assertFalse(dispatcher.dispatch(new AuditEvent("closed")));
+        assertEquals(50, sink.events.size());
+        assertEquals(0, dispatcher.getDroppedCount());
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(String.valueOf(i), sink.events.get(i).getAuditLevel());
+        }
+
+        for (Integer size : sink.batchSizes) {
+            assertTrue(size <= 10);
+        }
+    }
+
+    public void testEventsAreDroppedWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink(release);
+        AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(sink, 4, 1, AsyncAuditDispatcher.OverflowPolicy.DROP, 1);
+
+        // the first event keeps the sink busy until released
+        dispatcher.dispatch(new AuditEvent("first"));
+        sink.started.await();
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(new AuditEvent(String.valueOf(i)));
+        }
+
+        release.countDown();
+        dispatcher.close();
+
+        assertEquals(6, dispatcher.getDroppedCount());
+        assertEquals(5, sink.events.size());
+    }
+
+    public void testEventsAcceptedBeforeCloseAreWritten() throws Exception {
+        RecordingSink sink = new RecordingSink(null);
+        final AsyncAuditDispatcher dispatcher = new AsyncAuditDispatcher(sink, 2, 1,
+                AsyncAuditDispatcher.OverflowPolicy.BLOCK, 1);
+        final AtomicInteger accepted = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    started.countDown();
+
+                    while (dispatcher.dispatch(new AuditEvent("event"))) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        started.await();
+        Thread.sleep(50);
+        dispatcher.close();
+
+        for (Thread thread : threads) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertTrue(sink.closed);
+        assertEquals(accepted.get(), sink.events.size());
+    }
+
+    public void testAuditFileIsRolledOver() throws Exception {
+        File directory = createTempDirectory();
+        File auditFile = new File(directory, "audit.log");
+
+        System.setProperty(GeneralConstants.AUDIT_FILE, auditFile.getPath());
+        System.setProperty(GeneralConstants.AUDIT_FILE_MAX_SIZE, "100");
+        System.setProperty(GeneralConstants.AUDIT_FILE_MAX_BACKUPS, "2");
+
+        try {
+            PicketLinkAuditHelper auditHelper = new PicketLinkAuditHelper(null);
+
+            for (int i = 0; i < 10; i++) {
+                PicketLinkAuditEvent auditEvent = new PicketLinkAuditEvent("Info");
+
+                auditEvent.setType(PicketLinkAuditEventType.LOGIN_COMPLETE);
+                auditEvent.setSubjectName("user" + i);
+                auditHelper.audit(auditEvent);
+            }
+
+            auditHelper.close();
+        } finally {
+            System.clearProperty(GeneralConstants.AUDIT_FILE);
+            System.clearProperty(GeneralConstants.AUDIT_FILE_MAX_SIZE);
+            System.clearProperty(GeneralConstants.AUDIT_FILE_MAX_BACKUPS);
+        }
+
+        assertTrue(new File(directory, "audit.log.1").isFile());
+        assertTrue(new File(directory, "audit.log.2").isFile());
+        assertFalse(new File(directory, "audit.log.3").exists());
+
+        List<String> lines = readLines(auditFile);
+
+        assertFalse(lines.isEmpty());
+        assertTrue(lines.get(lines.size() - 1).endsWith("LOGIN_COMPLETE user9 [Info]"));
+    }
+
+    private File createTempDirectory() throws Exception {
+        File directory = File.createTempFile("audit", "");
+
+        directory.delete();
+        directory.mkdirs();
+
+        for (String name : new String[]{"audit.log", "audit.log.1", "audit.log.2", "audit.log.3"}) {
+            new File(directory, name).deleteOnExit();
+        }
+
+        directory.deleteOnExit();
+
+        return directory;
+    }
+
+    private List<String> readLines(File file) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        List<String> lines = new ArrayList<String>();
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    private static class RecordingSink implements AuditSink {
+
+        private final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<AuditEvent>());
+
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release;
+
+        private volatile boolean closed;
+
+        private RecordingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        public void write(List<AuditEvent> events) {
+            this.started.countDown();
+
+            if (this.release != null) {
+                try {
+                    this.release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            this.batchSizes.add(events.size());
+            this.events.addAll(events);
+        }
+
+        public void close() {
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.saml.v2;
+
+import org.junit.Test;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.saml.v2.replay.DefaultReplayCache;
+import org.picketlink.identity.federation.core.saml.v2.replay.FileReplayCacheStore;
+import org.picketlink.identity.federation.core.saml.v2.replay.ReplayCache;
+import org.picketlink.identity.federation.core.saml.v2.replay.ReplayCacheStore;
+import org.picketlink.identity.federation.core.saml.v2.replay.SharedReplayCaches;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the {@link DefaultReplayCache}.
+ */
+public class ReplayCacheUnitTestCase {
+
+    @Test
+    public void testReplayIsDetected() throws Exception {
+        DefaultReplayCache cache = new DefaultReplayCache();
+
+        try {
+            long expiration = System.currentTimeMillis() + 60000;
+
+            assertTrue(cache.checkAndStore("ID_1", expiration));
+            assertFalse(cache.checkAndStore("ID_1", expiration));
+            assertTrue(cache.checkAndStore("ID_2", expiration));
+            assertEquals(1, cache.getReplayCount());
+            assertEquals(2, cache.getSize());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testExpiredIdsArePurged() throws Exception {
+        ManualClockReplayCache cache = new ManualClockReplayCache(10, 20);
+
+        try {
+            assertTrue(cache.checkAndStore("ID_1", cache.currentTimeMillis() + 50));
+            assertTrue(cache.checkAndStore("ID_2", cache.currentTimeMillis() + 500));
+
+            cache.advance(100);
+            cache.purge();
+
+            assertEquals(1, cache.getSize());
+
+            // an expired id can be accepted again, the assertion that carries it is rejected as expired.
+            assertTrue(cache.checkAndStore("ID_1", cache.currentTimeMillis() + 50));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testFullCacheRejectsNewIds() throws Exception {
+        ManualClockReplayCache cache = new ManualClockReplayCache(10, 1000);
+
+        try {
+            long now = cache.currentTimeMillis();
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(cache.checkAndStore("ID_" + i, now + 5000 + i * 1000));
+            }
+
+            try {
+                cache.checkAndStore("ID_10", now + 60000);
+                fail("A full cache must not accept new ids");
+            } catch (ProcessingException expected) {
+            }
+
+            assertEquals(1, cache.getRejectionCount());
+
+            // the ids held are never evicted to make room, so replays are still detected.
+            assertFalse(cache.checkAndStore("ID_0", now + 5000));
+            assertEquals(10, cache.getSize());
+
+            // once some ids expire there is room again.
+            cache.advance(7000);
+            assertTrue(cache.checkAndStore("ID_10", now + 60000));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        SharedReplayCaches.Factory factory = new SharedReplayCaches.Factory() {
+            public ReplayCache create() {
+                return new DefaultReplayCache();
+            }
+        };
+
+        ReplayCache cache = SharedReplayCaches.acquire("http://localhost:8080/sales/", factory);
+        long expiration = System.currentTimeMillis() + 60000;
+
+        assertTrue(cache.checkAndStore("ID_1", expiration));
+
+        // a rebuilt chain acquires the cache before the previous chain releases it.
+        ReplayCache rebuiltCache = SharedReplayCaches.acquire("http://localhost:8080/sales/", factory);
+
+        assertSame(cache, rebuiltCache);
+        SharedReplayCaches.release(cache);
+        assertFalse(rebuiltCache.checkAndStore("ID_1", expiration));
+
+        SharedReplayCaches.release(rebuiltCache);
+
+        ReplayCache newCache = SharedReplayCaches.acquire("http://localhost:8080/sales/", factory);
+
+        try {
+            assertNotSame(cache, newCache);
+        } finally {
+            SharedReplayCaches.release(newCache);
+        }
+    }
+
+    @Test
+    public void testFileStore() throws Exception {
+        File file = File.createTempFile("replay-cache", ".log");
+        file.deleteOnExit();
+
+        DefaultReplayCache cache = new DefaultReplayCache(10, 1000, new FileReplayCacheStore(file.getPath()));
+
+        assertTrue(cache.checkAndStore("ID_1", System.currentTimeMillis() + 60000));
+        cache.close();
+
+        cache = new DefaultReplayCache(10, 1000, new FileReplayCacheStore(file.getPath()));
+
+        try {
+            assertFalse(cache.checkAndStore("ID_1", System.currentTimeMillis() + 60000));
+            assertTrue(cache.checkAndStore("ID_2", System.currentTimeMillis() + 60000));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testStoreFailureRejectsId() throws Exception {
+        DefaultReplayCache cache = new DefaultReplayCache(10, 1000, new ReplayCacheStore() {
+            public Map<String, Long> load(long now) {
+                return Collections.emptyMap();
+            }
+
+            public void store(String id, long expiration) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            public void purge(long now) {
+            }
+
+            public void close() {
+            }
+        });
+
+        try {
+            try {
+                cache.checkAndStore("ID_1", System.currentTimeMillis() + 60000);
+                fail("An id that can not be stored must not be accepted");
+            } catch (ProcessingException expected) {
+            }
+
+            assertEquals(0, cache.getSize());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentPurgeKeepsSizeConsistent() throws Exception {
+        final ManualClockReplayCache cache = new ManualClockReplayCache(100000, 1);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] threads = new Thread[4];
+
+        try {
+            for (int i = 0; i < threads.length; i++) {
+                final int thread = i;
+
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 5000; j++) {
+                                cache.checkAndStore("ID_" + thread + "_" + j, cache.currentTimeMillis() + 1);
+                            }
+                        } catch (ProcessingException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+
+            Thread purger = new Thread() {
+                @Override
+                public void run() {
+                    while (!done.get()) {
+                        cache.advance(1);
+                        cache.purge();
+                    }
+                }
+            };
+
+            purger.start();
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            done.set(true);
+            purger.join();
+
+            cache.advance(10);
+            cache.purge();
+
+            // every id has expired, none may be left behind in a bucket that was already dropped
+            assertEquals(0, cache.getSize());
+        } finally {
+            cache.close();
+        }
+    }
+
+    /**
+     * A cache whose time is advanced by the test.
+     */
+    private static class ManualClockReplayCache extends DefaultReplayCache {
+
+        private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+
+        ManualClockReplayCache(int maxEntries, long bucketDuration) {
+            super(maxEntries, bucketDuration, null);
+        }
+
+        void advance(long millis) {
+            this.time.addAndGet(millis);
+        }
+
+        @Override
+        protected void purge() {
+            super.purge();
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.time.get();
+        }
+    }
+}
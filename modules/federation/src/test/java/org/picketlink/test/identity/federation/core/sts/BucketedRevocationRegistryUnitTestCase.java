@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.sts;
+
+import org.junit.Test;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.sts.registry.BucketedRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.FileBasedBucketedRevocationRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the {@link BucketedRevocationRegistry} and {@link FileBasedBucketedRevocationRegistry}.
+ */
+public class BucketedRevocationRegistryUnitTestCase {
+
+    private static final String TOKEN_TYPE = "urn:picketlink:test:token";
+
+    @Test
+    public void testRevokeToken() throws Exception {
+        BucketedRevocationRegistry registry = new BucketedRevocationRegistry();
+
+        try {
+            for (int i = 0; i < 1000; i++) {
+                registry.revokeToken(TOKEN_TYPE, "revoked-" + i, System.currentTimeMillis() + 60000);
+            }
+
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(registry.isRevoked(TOKEN_TYPE, "revoked-" + i));
+                assertFalse(registry.isRevoked(TOKEN_TYPE, "valid-" + i));
+            }
+
+            assertFalse(registry.isRevoked("urn:picketlink:test:other", "revoked-0"));
+            assertEquals(1000, registry.getRevocationCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testExpiredBucketsArePurged() throws Exception {
+        ManualClockRevocationRegistry registry = new ManualClockRevocationRegistry(20, 60000, 16);
+
+        try {
+            registry.revokeToken(TOKEN_TYPE, "short-lived", registry.currentTimeMillis() + 50);
+            registry.revokeToken(TOKEN_TYPE, "long-lived");
+
+            assertTrue(registry.isRevoked(TOKEN_TYPE, "short-lived"));
+
+            registry.advance(100);
+            registry.purge();
+
+            assertFalse(registry.isRevoked(TOKEN_TYPE, "short-lived"));
+            assertTrue(registry.isRevoked(TOKEN_TYPE, "long-lived"));
+            assertEquals(1, registry.getRevocationCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testFileBasedRegistryReload() throws Exception {
+        File file = File.createTempFile("revocation-registry", ".log");
+        file.deleteOnExit();
+
+        FileBasedBucketedRevocationRegistry registry = new FileBasedBucketedRevocationRegistry(file.getPath());
+
+        registry.revokeToken(TOKEN_TYPE, "revoked", System.currentTimeMillis() + 60000);
+        registry.close();
+
+        registry = new FileBasedBucketedRevocationRegistry(file.getPath());
+
+        try {
+            assertTrue(registry.isRevoked(TOKEN_TYPE, "revoked"));
+            assertFalse(registry.isRevoked(TOKEN_TYPE, "valid"));
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testClosedRegistry() throws Exception {
+        BucketedRevocationRegistry registry = new BucketedRevocationRegistry();
+
+        registry.revokeToken(TOKEN_TYPE, "revoked");
+        registry.close();
+
+        assertTrue(registry.isClosed());
+        assertTrue(registry.isRevoked(TOKEN_TYPE, "revoked"));
+
+        try {
+            registry.revokeToken(TOKEN_TYPE, "other", System.currentTimeMillis() + 60000);
+            fail("Tokens can not be revoked by a closed registry");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testStoreFailureIsPropagated() throws Exception {
+        BucketedRevocationRegistry registry = new BucketedRevocationRegistry() {
+            @Override
+            protected void storeRevocation(String tokenType, String id, long expiration) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+
+        try {
+            try {
+                registry.revokeToken(TOKEN_TYPE, "revoked", System.currentTimeMillis() + 60000);
+                fail("The store failure must be reported");
+            } catch (ProcessingException expected) {
+                assertTrue(expected.getCause() instanceof IOException);
+            }
+
+            try {
+                registry.revokeToken(TOKEN_TYPE, "revoked-without-expiration", ExpiringRevocationRegistry.NO_EXPIRATION);
+                fail("The store failure must be reported");
+            } catch (ProcessingException expected) {
+                assertTrue(expected.getCause() instanceof IOException);
+            }
+
+            // RevocationRegistry.revokeToken can not report it, the failure is only logged
+            registry.revokeToken(TOKEN_TYPE, "revoked-unchecked");
+
+            // the ids are still rejected until the registry is restarted.
+            assertTrue(registry.isRevoked(TOKEN_TYPE, "revoked"));
+            assertTrue(registry.isRevoked(TOKEN_TYPE, "revoked-without-expiration"));
+            assertTrue(registry.isRevoked(TOKEN_TYPE, "revoked-unchecked"));
+        } finally {
+            registry.close();
+        }
+    }
+
+    /**
+     * A registry whose time is advanced by the test.
+     */
+    private static class ManualClockRevocationRegistry extends BucketedRevocationRegistry {
+
+        private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+
+        ManualClockRevocationRegistry(long bucketDuration, long retention, int expectedRevocations) {
+            super(bucketDuration, retention, expectedRevocations);
+        }
+
+        void advance(long millis) {
+            this.time.addAndGet(millis);
+        }
+
+        @Override
+        protected void purge() {
+            super.purge();
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.time.get();
+        }
+    }
+}
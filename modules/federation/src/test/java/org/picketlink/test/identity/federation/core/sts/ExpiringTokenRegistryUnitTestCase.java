@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.sts;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringTokenRegistry;
+import org.picketlink.identity.federation.core.sts.registry.FileBasedExpiringTokenRegistry;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the {@link ExpiringTokenRegistry} and {@link FileBasedExpiringTokenRegistry}.
+ */
+public class ExpiringTokenRegistryUnitTestCase {
+
+    @Test
+    public void testExpiredTokensAreEvicted() throws Exception {
+        ManualClockTokenRegistry registry = new ManualClockTokenRegistry(10, 50, 10);
+
+        try {
+            registry.addToken("token-1", "value");
+            registry.addToken("token-2", "value");
+            assertEquals("value", registry.getToken("token-1"));
+
+            registry.advance(30);
+            registry.removeToken("token-2");
+            registry.evict();
+
+            assertEquals("value", registry.getToken("token-1"));
+            assertEquals(0, registry.getExpiredEvictionCount());
+
+            registry.advance(30);
+
+            // expired tokens are not returned even before they are evicted.
+            assertNull(registry.getToken("token-1"));
+
+            registry.evict();
+
+            assertEquals(0, registry.getTokenCount());
+            assertEquals(1, registry.getExpiredEvictionCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testEvictionAfterFullRotation() throws Exception {
+        ManualClockTokenRegistry registry = new ManualClockTokenRegistry(10, 60000, 10);
+
+        try {
+            registry.addToken("token-1", "value");
+
+            // the token expires several rotations of the wheel later, so it is kept when its slot is first processed.
+            registry.advance(10000);
+            registry.evict();
+
+            assertEquals("value", registry.getToken("token-1"));
+
+            registry.advance(50000);
+            registry.evict();
+
+            assertEquals(0, registry.getTokenCount());
+            assertEquals(1, registry.getExpiredEvictionCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testAssertionExpiration() throws Exception {
+        ExpiringTokenRegistry registry = new ExpiringTokenRegistry();
+
+        try {
+            XMLGregorianCalendar now = XMLTimeUtil.getIssueInstant();
+
+            registry.addToken("expired", createAssertion("expired", XMLTimeUtil.subtract(now, 1000)));
+            registry.addToken("valid", createAssertion("valid", XMLTimeUtil.add(now, 60000)));
+
+            assertNull(registry.getToken("expired"));
+            assertNotNull(registry.getToken("valid"));
+            assertEquals(1, registry.getTokenCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        ExpiringTokenRegistry registry = new ExpiringTokenRegistry(2, 60000, 1000);
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                registry.addToken("token-" + i, "value-" + i);
+            }
+
+            assertEquals(2, registry.getTokenCount());
+            assertEquals(3, registry.getCapacityEvictionCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testFileBasedRegistryReplay() throws Exception {
+        File file = File.createTempFile("token-registry", ".log");
+        file.deleteOnExit();
+
+        FileBasedExpiringTokenRegistry registry = new FileBasedExpiringTokenRegistry(file.getPath());
+
+        registry.addToken("token-1", "value-1");
+        registry.addToken("token-2", "value-2");
+        registry.removeToken("token-1");
+        registry.close();
+
+        registry = new FileBasedExpiringTokenRegistry(file.getPath());
+
+        try {
+            assertNull(registry.getToken("token-1"));
+            assertEquals("value-2", registry.getToken("token-2"));
+            assertEquals(1, registry.getTokenCount());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testClosedRegistry() throws Exception {
+        ExpiringTokenRegistry registry = new ExpiringTokenRegistry();
+
+        registry.addToken("token-1", "value-1");
+        registry.close();
+
+        assertTrue(registry.isClosed());
+
+        try {
+            registry.addToken("token-2", "value-2");
+            fail("Tokens can not be added to a closed registry");
+        } catch (IllegalStateException expected) {
+        }
+
+        try {
+            registry.removeToken("token-1");
+            fail("Tokens can not be removed from a closed registry");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testClosedFileBasedRegistry() throws Exception {
+        File file = File.createTempFile("token-registry", ".log");
+        file.deleteOnExit();
+
+        FileBasedExpiringTokenRegistry registry = new FileBasedExpiringTokenRegistry(file.getPath());
+
+        registry.addToken("token-1", "value-1");
+        registry.close();
+
+        try {
+            registry.addToken("token-2", "value-2");
+            fail("Tokens can not be added to a closed registry");
+        } catch (IllegalStateException expected) {
+        }
+
+        registry = new FileBasedExpiringTokenRegistry(file.getPath());
+
+        try {
+            assertEquals("value-1", registry.getToken("token-1"));
+            assertNull(registry.getToken("token-2"));
+        } finally {
+            registry.close();
+        }
+    }
+
+    private AssertionType createAssertion(String id, XMLGregorianCalendar notOnOrAfter) throws Exception {
+        AssertionType assertion = new AssertionType(id, XMLTimeUtil.getIssueInstant());
+        ConditionsType conditions = new ConditionsType();
+
+        conditions.setNotOnOrAfter(notOnOrAfter);
+        assertion.setConditions(conditions);
+
+        return assertion;
+    }
+
+    /**
+     * A registry whose time is advanced by the test. The eviction is triggered by the test as well, the background
+     * timer only runs with the same clock.
+     */
+    private static class ManualClockTokenRegistry extends ExpiringTokenRegistry {
+
+        private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+
+        ManualClockTokenRegistry(int maxSize, long defaultTimeToLive, long tickDuration) {
+            super(maxSize, defaultTimeToLive, tickDuration);
+        }
+
+        void advance(long millis) {
+            this.time.addAndGet(millis);
+        }
+
+        void evict() {
+            evictExpired();
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            // invoked by the super constructor, before the clock is initialized.
+            return this.time != null ? this.time.get() : System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.util.BoundedCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test the {@link BoundedCache}
+ */
+public class BoundedCacheUnitTestCase {
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(2);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        // "a" is now used more recently than "b"
+        assertEquals("1", cache.get("a"));
+
+        cache.put("c", "3");
+
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void testExpiredValueIsNotReturned() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10);
+
+        cache.put("expired", "1", System.currentTimeMillis() - 1);
+        cache.put("live", "2", System.currentTimeMillis() + 60000);
+
+        assertEquals(1, cache.getEntries().size());
+        assertNull(cache.get("expired"));
+        assertEquals("2", cache.get("live"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRemoveOnlyTheGivenValue() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10);
+        String value = new String("1");
+
+        cache.put("a", value);
+
+        assertFalse(cache.remove("a", new String("1")));
+        assertTrue(cache.remove("a", value));
+        assertNull(cache.get("a"));
+    }
+}
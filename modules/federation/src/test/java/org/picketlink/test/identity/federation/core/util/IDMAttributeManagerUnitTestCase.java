@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import junit.framework.TestCase;
+import org.picketlink.identity.federation.core.constants.AttributeConstants;
+import org.picketlink.identity.federation.core.impl.IDMAttributeManager;
+import org.picketlink.identity.federation.core.impl.IDMPrincipalCache;
+import org.picketlink.identity.federation.core.impl.IDMRoleGenerator;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.model.basic.GroupRole;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.RelationshipQuery;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for the {@link IDMAttributeManager} and {@link IDMRoleGenerator}
+ */
+public class IDMAttributeManagerUnitTestCase extends TestCase {
+
+    private User user;
+
+    private List<Relationship> relationships;
+
+    private List<Relationship> groupGrants;
+
+    private int relationshipQueries;
+
+    private int partitionQueries;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.user = new User("alice");
+        this.user.setId("1");
+        this.user.setEmail("alice@picketlink.org");
+        this.user.setAttribute(new Attribute<String>("department", "sales"));
+
+        User other = new User("bob");
+        other.setId("2");
+
+        Group group = new Group("sales");
+        group.setId("3");
+
+        this.relationships = Arrays.<Relationship>asList(
+                new Grant(this.user, new Role("manager")),
+                new GroupRole(this.user, group, new Role("admin")),
+                new GroupMembership(this.user, group),
+                new Grant(other, new Role("guest")));
+
+        this.groupGrants = Arrays.<Relationship>asList(
+                new Grant(group, new Role("seller")),
+                new Grant(other, new Role("guest")));
+    }
+
+    public void testAttributesAndRolesAreLoadedOnce() {
+        IDMPrincipalCache cache = new IDMPrincipalCache(createPartitionManager(), Realm.DEFAULT_REALM, 10, 60000);
+        IDMAttributeManager attributeManager = new IDMAttributeManager(cache);
+        IDMRoleGenerator roleGenerator = new IDMRoleGenerator(cache);
+
+        Map<String, Object> attributes = attributeManager.getAttributes(principal("alice"),
+                Arrays.asList("email", "department", AttributeConstants.ROLES, AttributeConstants.GROUPS, "unknown"));
+
+        assertEquals(4, attributes.size());
+        assertEquals("alice@picketlink.org", attributes.get("email"));
+        assertEquals("sales", attributes.get("department"));
+        assertEquals(Arrays.asList("manager", "admin", "seller"), attributes.get(AttributeConstants.ROLES));
+        assertEquals("/sales", attributes.get(AttributeConstants.GROUPS));
+
+        assertEquals(Arrays.asList("manager", "admin", "seller"), roleGenerator.generateRoles(principal("alice")));
+        assertEquals("alice", attributeManager.getAttributes(principal("alice"), null).get("loginName"));
+
+        // one query for the relationships of the user, and one for the roles granted to its groups
+        assertEquals(2, this.relationshipQueries);
+    }
+
+    public void testRolesOfParentGroupsAreInherited() {
+        Group company = new Group("company");
+        company.setId("4");
+
+        Group emea = new Group("emea", company);
+        emea.setId("5");
+
+        this.relationships = Arrays.<Relationship>asList(new GroupMembership(this.user, emea));
+        this.groupGrants = Arrays.<Relationship>asList(new Grant(company, new Role("employee")));
+
+        IDMPrincipalCache cache = new IDMPrincipalCache(createPartitionManager(), Realm.DEFAULT_REALM, 10, 60000);
+
+        assertEquals(Arrays.asList("employee"), cache.getRoles("alice"));
+        assertEquals(Arrays.asList("/company/emea"), cache.getGroups("alice"));
+    }
+
+    public void testUsersWithoutGroupsNeedOneRelationshipQuery() {
+        this.relationships = Arrays.<Relationship>asList(new Grant(this.user, new Role("manager")));
+
+        IDMPrincipalCache cache = new IDMPrincipalCache(createPartitionManager(), Realm.DEFAULT_REALM, 10, 0);
+
+        assertEquals(Arrays.asList("manager"), cache.getRoles("alice"));
+        assertEquals(Arrays.asList("manager"), cache.getRoles("alice"));
+        assertEquals(2, this.relationshipQueries);
+
+        // the realm is only looked up once
+        assertEquals(1, this.partitionQueries);
+    }
+
+    public void testUnknownPrincipal() {
+        IDMPrincipalCache cache = new IDMPrincipalCache(createPartitionManager(), Realm.DEFAULT_REALM, 10, 60000);
+
+        assertTrue(new IDMAttributeManager(cache).getAttributes(principal("unknown"), null).isEmpty());
+        assertTrue(new IDMRoleGenerator(cache).generateRoles(principal("unknown")).isEmpty());
+        assertEquals(0, this.relationshipQueries);
+    }
+
+    public void testExpiredPrincipalsAreLoadedAgain() {
+        IDMRoleGenerator roleGenerator = new IDMRoleGenerator(new IDMPrincipalCache(createPartitionManager(),
+                Realm.DEFAULT_REALM, 10, 0));
+
+        roleGenerator.generateRoles(principal("alice"));
+        roleGenerator.generateRoles(principal("alice"));
+
+        assertEquals(4, this.relationshipQueries);
+
+        IDMPrincipalCache cache = new IDMPrincipalCache(createPartitionManager(), Realm.DEFAULT_REALM, 10, 60000);
+
+        roleGenerator = new IDMRoleGenerator(cache);
+        roleGenerator.generateRoles(principal("alice"));
+        cache.invalidate("alice");
+        roleGenerator.generateRoles(principal("alice"));
+
+        assertEquals(8, this.relationshipQueries);
+    }
+
+    private Principal principal(final String name) {
+        return new Principal() {
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    private PartitionManager createPartitionManager() {
+        return proxy(PartitionManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getPartition".equals(method.getName())) {
+                    partitionQueries++;
+                    return new Realm((String) args[1]);
+                } else if ("createIdentityManager".equals(method.getName())) {
+                    return createIdentityManager();
+                } else if ("createRelationshipManager".equals(method.getName())) {
+                    return createRelationshipManager();
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private IdentityManager createIdentityManager() {
+        return proxy(IdentityManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return proxy(IdentityQuery.class, new InvocationHandler() {
+                    private String loginName;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("setParameter".equals(method.getName())) {
+                            this.loginName = (String) ((Object[]) args[1])[0];
+                            return proxy;
+                        }
+
+                        return user.getLoginName().equals(this.loginName) ? Collections.singletonList(user)
+                                : Collections.emptyList();
+                    }
+                });
+            }
+        });
+    }
+
+    private RelationshipManager createRelationshipManager() {
+        return proxy(RelationshipManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return proxy(RelationshipQuery.class, new InvocationHandler() {
+                    private List<Object> values;
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("setParameter".equals(method.getName())) {
+                            this.values = Arrays.asList((Object[]) args[1]);
+                            return proxy;
+                        }
+
+                        relationshipQueries++;
+
+                        if (this.values.size() == 1 && this.values.get(0) == user) {
+                            return relationships;
+                        }
+
+                        // the grants of the groups, that are looked up all at once
+                        List<Relationship> result = new ArrayList<Relationship>();
+
+                        for (Relationship grant : groupGrants) {
+                            for (Object group : this.values) {
+                                if (((Group) group).getId().equals(((Grant) grant).getAssignee().getId())) {
+                                    result.add(grant);
+                                }
+                            }
+                        }
+
+                        return result;
+                    }
+                });
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(IDMAttributeManagerUnitTestCase.class.getClassLoader(), new Class<?>[]{type},
+                handler);
+    }
+}
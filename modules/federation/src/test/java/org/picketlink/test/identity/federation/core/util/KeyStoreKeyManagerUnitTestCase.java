@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import junit.framework.TestCase;
+import org.picketlink.config.federation.AuthPropertyType;
+import org.picketlink.config.federation.KeyValueType;
+import org.picketlink.identity.federation.core.impl.KeyStoreKeyManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test the caching and reloading of keys by the {@link KeyStoreKeyManager}
+ */
+public class KeyStoreKeyManagerUnitTestCase extends TestCase {
+
+    private static final String KEYSTORE_PASS = "store123";
+
+    private File keyStoreFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        KeyStore keyStore = loadTestKeyStore();
+
+        this.keyStoreFile = File.createTempFile("keystore", ".jks");
+        this.keyStoreFile.deleteOnExit();
+
+        store(keyStore);
+    }
+
+    public void testKeysAreCached() throws Exception {
+        KeyStoreKeyManager keyManager = createKeyManager("0");
+
+        assertNotNull(keyManager.getSigningKey());
+        assertSame(keyManager.getSigningKey(), keyManager.getSigningKey());
+        assertSame(keyManager.getSigningKeyPair(), keyManager.getSigningKeyPair());
+        assertEquals(keyManager.getSigningKeyPair().getPublic(), keyManager.getValidatingKey("localhost"));
+        assertEquals(keyManager.getValidatingKey("localhost"), keyManager.getValidatingKey("[localhost]"));
+        assertNotNull(keyManager.getCertificate("servercert"));
+        assertNull(keyManager.getPublicKey("unknown"));
+
+        try {
+            keyManager.getValidatingKey("unknown.host");
+            fail("Domains without an alias are rejected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testChangedKeyStoreIsReloaded() throws Exception {
+        KeyStoreKeyManager keyManager = createKeyManager("1");
+
+        assertNull(keyManager.getCertificate("rotated"));
+
+        KeyStore keyStore = loadTestKeyStore();
+        keyStore.setCertificateEntry("rotated", keyStore.getCertificate("servercert"));
+        store(keyStore);
+        this.keyStoreFile.setLastModified(System.currentTimeMillis() + 10000);
+
+        for (int i = 0; i < 100 && keyManager.getCertificate("rotated") == null; i++) {
+            Thread.sleep(20);
+        }
+
+        assertNotNull(keyManager.getCertificate("rotated"));
+        assertNotNull(keyManager.getSigningKey());
+    }
+
+    private KeyStoreKeyManager createKeyManager(String reloadInterval) throws Exception {
+        List<AuthPropertyType> authProperties = new ArrayList<AuthPropertyType>();
+
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.KEYSTORE_URL, this.keyStoreFile.getPath()));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.KEYSTORE_PASS, KEYSTORE_PASS));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.SIGNING_KEY_ALIAS, "servercert"));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.SIGNING_KEY_PASS, "test123"));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.KEYSTORE_RELOAD_INTERVAL, reloadInterval));
+
+        KeyStoreKeyManager keyManager = new KeyStoreKeyManager();
+
+        keyManager.setAuthProperties(authProperties);
+        keyManager.setValidatingAlias(Collections.singletonList(KeyValueType.create("localhost", "servercert")));
+
+        return keyManager;
+    }
+
+    private AuthPropertyType createAuthProperty(String key, String value) {
+        AuthPropertyType authProperty = new AuthPropertyType();
+
+        authProperty.setKey(key);
+        authProperty.setValue(value);
+
+        return authProperty;
+    }
+
+    private KeyStore loadTestKeyStore() throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("keystore/jbid_test_keystore.jks");
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+
+        try {
+            keyStore.load(is, KEYSTORE_PASS.toCharArray());
+        } finally {
+            is.close();
+        }
+
+        return keyStore;
+    }
+
+    private void store(KeyStore keyStore) throws Exception {
+        OutputStream os = new FileOutputStream(this.keyStoreFile);
+
+        try {
+            keyStore.store(os, KEYSTORE_PASS.toCharArray());
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.util.SnapshotReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test the {@link SnapshotReference}
+ */
+public class SnapshotReferenceUnitTestCase {
+
+    private final List<String> disposed = new ArrayList<String>();
+
+    private final SnapshotReference<String> reference = new SnapshotReference<String>() {
+        @Override
+        protected void dispose(String value) {
+            disposed.add(value);
+        }
+    };
+
+    @Test
+    public void testReplacedVersionIsDisposedOnceReleased() {
+        this.reference.set("first");
+
+        SnapshotReference.Lease<String> first = this.reference.acquire();
+
+        this.reference.set("second");
+
+        // still in use
+        assertTrue(this.disposed.isEmpty());
+        assertEquals("first", first.get());
+        assertEquals("second", this.reference.get());
+
+        first.release();
+
+        assertEquals(1, this.disposed.size());
+        assertEquals("first", this.disposed.get(0));
+    }
+
+    @Test
+    public void testUnusedVersionIsDisposedWhenReplaced() {
+        this.reference.set("first");
+        this.reference.set("second");
+
+        assertEquals(1, this.disposed.size());
+        assertEquals("first", this.disposed.get(0));
+    }
+
+    @Test
+    public void testRetainedVersionIsDisposedAfterLastRelease() {
+        this.reference.set("first");
+
+        SnapshotReference.Lease<String> lease = this.reference.acquire();
+
+        assertTrue(lease.retain());
+
+        this.reference.set(null);
+        lease.release();
+
+        assertTrue(this.disposed.isEmpty());
+
+        lease.release();
+
+        assertEquals(1, this.disposed.size());
+        assertFalse(lease.retain());
+        assertNull(this.reference.acquire());
+    }
+
+    @Test
+    public void testAcquireReturnsCurrentVersion() {
+        assertNull(this.reference.acquire());
+
+        this.reference.set("first");
+
+        SnapshotReference.Lease<String> lease = this.reference.acquire();
+
+        assertSame("first", lease.get());
+
+        lease.release();
+
+        assertTrue(this.disposed.isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import org.jboss.security.xacml.core.model.context.RequestType;
+import org.jboss.security.xacml.core.model.context.ResultType;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
+import org.picketlink.identity.federation.core.pdp.XACMLDecisionCache;
+import org.picketlink.identity.federation.saml.v2.protocol.XACMLAuthzDecisionQueryType;
+
+import java.io.InputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit test for the {@link XACMLDecisionCache}
+ */
+public class XACMLDecisionCacheUnitTestCase {
+
+    @Test
+    public void testKeyIsNormalized() throws Exception {
+        RequestType request = getRequest("saml-xacml/saml-xacml-request.xml");
+        String key = XACMLDecisionCache.getKey(request);
+
+        assertNotNull(key);
+        assertEquals(key, XACMLDecisionCache.getKey(getRequest("saml-xacml/saml-xacml-request.xml")));
+
+        // the order of the attributes does not matter
+        Collections.reverse(request.getResource().get(0).getAttribute());
+        assertEquals(key, XACMLDecisionCache.getKey(request));
+
+        // but their values do
+        request.getEnvironment().getAttribute().get(0).getAttributeValue().get(0).getContent().set(0, "Facility B");
+        assertFalse(key.equals(XACMLDecisionCache.getKey(request)));
+    }
+
+    @Test
+    public void testDecisionsAreCached() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache(1, 60000);
+        ResultType result = new ResultType();
+
+        cache.putDecision("first", result, cache.getGeneration());
+        assertSame(result, cache.getDecision("first"));
+
+        // the least recently used decision is evicted
+        cache.putDecision("second", new ResultType(), cache.getGeneration());
+        assertNull(cache.getDecision("first"));
+        assertEquals(1, cache.size());
+
+        long generation = cache.getGeneration();
+        cache.invalidateAll();
+        assertNull(cache.getDecision("second"));
+
+        // a decision evaluated with the previous policies is not cached
+        cache.putDecision("first", result, generation);
+        assertNull(cache.getDecision("first"));
+    }
+
+    @Test
+    public void testExpiredDecisionsAreEvicted() throws Exception {
+        XACMLDecisionCache cache = new XACMLDecisionCache(10, 1);
+
+        cache.putDecision("first", new ResultType(), cache.getGeneration());
+        Thread.sleep(10);
+
+        assertNull(cache.getDecision("first"));
+        assertEquals(0, cache.size());
+    }
+
+    private RequestType getRequest(String resourceName) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resourceName);
+        XACMLAuthzDecisionQueryType query = (XACMLAuthzDecisionQueryType) new SAMLParser().parse(is);
+
+        return query.getRequest();
+    }
+}
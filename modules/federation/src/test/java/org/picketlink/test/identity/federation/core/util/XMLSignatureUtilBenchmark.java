@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import org.jboss.logging.Logger;
+import org.picketlink.common.constants.JBossSAMLConstants;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.KeyStoreUtil;
+import org.picketlink.identity.federation.core.util.XMLSignatureUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.SignatureMethod;
+import java.io.InputStream;
+import java.security.KeyPair;
+
+/**
+ * <p>
+ * Measures the throughput of {@link XMLSignatureUtil} when signing and validating SAML v2.0 assertions. The number of
+ * iterations can be changed using the system property "picketlink.benchmark.iterations".
+ * </p>
+ * <p>
+ * This is not a test case, so it is not run with the unit tests: run its main method to get the numbers.
+ * </p>
+ */
+public class XMLSignatureUtilBenchmark {
+
+    private static final Logger logger = Logger.getLogger(XMLSignatureUtilBenchmark.class);
+
+    private static final int ITERATIONS = Integer.getInteger("picketlink.benchmark.iterations", 200);
+
+    private static final int WARM_UP_ITERATIONS = Math.max(1, ITERATIONS / 10);
+
+    private final KeyPair keyPair;
+
+    public XMLSignatureUtilBenchmark() throws Exception {
+        this.keyPair = KeyStoreUtil.generateKeyPair("RSA");
+    }
+
+    public static void main(String[] args) throws Exception {
+        XMLSignatureUtilBenchmark benchmark = new XMLSignatureUtilBenchmark();
+
+        benchmark.signThroughput();
+        benchmark.validateThroughput();
+    }
+
+    public void signThroughput() throws Exception {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            signAssertion();
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            signAssertion();
+        }
+
+        report("sign", ITERATIONS, System.nanoTime() - start);
+    }
+
+    public void validateThroughput() throws Exception {
+        Document[] signedDocuments = new Document[ITERATIONS];
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            signedDocuments[i] = signAssertion();
+        }
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            validate(signedDocuments[i]);
+        }
+
+        long start = System.nanoTime();
+
+        for (Document signedDocument : signedDocuments) {
+            validate(signedDocument);
+        }
+
+        report("validate", ITERATIONS, System.nanoTime() - start);
+    }
+
+    private Document signAssertion() throws Exception {
+        ClassLoader tcl = Thread.currentThread().getContextClassLoader();
+        InputStream is = tcl.getResourceAsStream("signatures/saml20assertion.xml");
+
+        Document document = DocumentUtil.getDocument(is);
+
+        Element assertionElement = (Element) document.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ASSERTION.get()).item(0);
+        String referenceURI = "#" + assertionElement.getAttribute("ID");
+        assertionElement.setIdAttribute("ID", true);
+        Node nextSibling = assertionElement.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ISSUER.get()).item(0).getNextSibling();
+
+        XMLSignatureUtil.sign(assertionElement, nextSibling, keyPair, DigestMethod.SHA1, SignatureMethod.RSA_SHA1,
+                referenceURI);
+
+        return document;
+    }
+
+    private void validate(Document signedDocument) throws Exception {
+        if (!XMLSignatureUtil.validate(signedDocument, keyPair.getPublic())) {
+            throw new IllegalStateException("Invalid signature.");
+        }
+    }
+
+    private void report(String operation, int iterations, long elapsedNanos) {
+        double elapsedMillis = elapsedNanos / 1000000d;
+        double throughput = iterations / (elapsedMillis / 1000d);
+
+        logger.infof("XMLSignatureUtil %s: %d operations in %.2f ms (%.2f ops/s)", operation, iterations, elapsedMillis,
+                throughput);
+    }
+}
@@ -43,6 +43,7 @@ import java.security.KeyPair;
 import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.RSAPublicKey;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -239,4 +240,61 @@ public class XMLSignatureUtilUnitTestCase {
         RSAPublicKey publicKey = rsa.convertToPublicKey();
         assertNotNull(publicKey);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testValidateLocatesReferencedID() throws Exception {
+        KeyPair keyPair = KeyStoreUtil.generateKeyPair("RSA");
+
+        // the ID attribute of a parsed document is not known until the signature reference is resolved
+        Document signedDocument = DocumentUtil.getDocument(DocumentUtil.asString(signSAML2Assertion(keyPair)));
+
+        assertTrue(XMLSignatureUtil.validate(signedDocument, keyPair.getPublic()));
+        assertFalse(XMLSignatureUtil.validate(signedDocument, KeyStoreUtil.generateKeyPair("RSA").getPublic()));
+    }
+
+    @Test
+    public void testValidateChangedAssertion() throws Exception {
+        KeyPair keyPair = KeyStoreUtil.generateKeyPair("RSA");
+        Document signedDocument = DocumentUtil.getDocument(DocumentUtil.asString(signSAML2Assertion(keyPair)));
+        Element assertion = (Element) signedDocument.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ASSERTION.get()).item(0);
+        Node issuer = assertion.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ISSUER.get()).item(0);
+
+        issuer.setTextContent("urn:changed");
+
+        assertFalse(XMLSignatureUtil.validate(signedDocument, keyPair.getPublic()));
+    }
+
+    @Test
+    public void testValidateOnlyRegistersIDAttributes() throws Exception {
+        KeyPair keyPair = KeyStoreUtil.generateKeyPair("RSA");
+        Document signedDocument = DocumentUtil.getDocument(DocumentUtil.asString(signSAML2Assertion(keyPair)));
+        Element assertion = (Element) signedDocument.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ASSERTION.get()).item(0);
+
+        // an attribute that is not an identifier but has the same value as the referenced ID
+        assertion.setAttribute("Destination", assertion.getAttribute("ID"));
+
+        XMLSignatureUtil.validate(signedDocument, keyPair.getPublic());
+
+        assertFalse(assertion.getAttributeNode("Destination").isId());
+        assertTrue(assertion.getAttributeNode("ID").isId());
+    }
+
+    private Document signSAML2Assertion(KeyPair keyPair) throws Exception {
+        ClassLoader tcl = Thread.currentThread().getContextClassLoader();
+        Document document = DocumentUtil.getDocument(tcl.getResourceAsStream("signatures/saml20assertion.xml"));
+        Element assertionElement = (Element) document.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ASSERTION.get()).item(0);
+        String referenceURI = "#" + assertionElement.getAttribute("ID");
+        assertionElement.setIdAttribute("ID", true);
+        Node nextSibling = assertionElement.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ISSUER.get()).item(0).getNextSibling();
+
+        XMLSignatureUtil.sign(assertionElement, nextSibling, keyPair, DigestMethod.SHA1, SignatureMethod.RSA_SHA1,
+                referenceURI);
+
+        return document;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.wstrust;
+
+import junit.framework.TestCase;
+import org.picketlink.config.federation.STSType;
+import org.picketlink.config.federation.parsers.STSConfigParser;
+import org.picketlink.identity.federation.core.util.SOAPUtil;
+import org.picketlink.identity.federation.core.wstrust.AsyncSTSClient;
+import org.picketlink.identity.federation.core.wstrust.PicketLinkSTS;
+import org.picketlink.identity.federation.core.wstrust.PicketLinkSTSConfiguration;
+import org.picketlink.identity.federation.core.wstrust.STSClient;
+import org.picketlink.identity.federation.core.wstrust.STSConfiguration;
+import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.w3c.dom.Element;
+
+import javax.xml.soap.SOAPMessage;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.ws.AsyncHandler;
+import javax.xml.ws.Dispatch;
+import javax.xml.ws.Response;
+import javax.xml.ws.WebServiceContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Unit test for the {@link AsyncSTSClient}. The requests are sent to a {@link PicketLinkSTS} running in the same JVM,
+ * through a {@link Dispatch} that answers asynchronous invocations from a pool of threads.
+ * </p>
+ */
+public class AsyncSTSClientUnitTestCase extends TestCase {
+
+    private LocalSTS tokenService;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tokenService = new LocalSTS();
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.executor.shutdownNow();
+    }
+
+    public void testIssueValidateAndCancel() throws Exception {
+        AsyncSTSClient client = new AsyncSTSClient(createClient(false, null), 4);
+
+        Element token = client.issueToken(createIssueRequest()).get(10, TimeUnit.SECONDS);
+
+        assertEquals("Assertion", token.getLocalName());
+        assertTrue(client.validateToken(token).get(10, TimeUnit.SECONDS));
+        assertTrue(client.cancelToken(token).get(10, TimeUnit.SECONDS));
+        assertFalse(client.validateToken(token).get(10, TimeUnit.SECONDS));
+        assertEquals(0, client.getInFlightCount());
+    }
+
+    public void testBatchRequests() throws Exception {
+        AsyncSTSClient client = new AsyncSTSClient(createClient(true, null), 4);
+
+        List<Element> tokens = client.issueTokens(Arrays.asList(createIssueRequest(), createIssueRequest())).get(10,
+                TimeUnit.SECONDS);
+
+        assertEquals(2, tokens.size());
+        assertFalse(tokens.get(0).getAttribute("ID").equals(tokens.get(1).getAttribute("ID")));
+
+        assertTrue(client.cancelToken(tokens.get(1)).get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(true, false), client.validateTokens(tokens).get(10, TimeUnit.SECONDS));
+
+        // without batch support the tokens are validated one by one
+        client = new AsyncSTSClient(createClient(false, null), 4);
+
+        assertEquals(Arrays.asList(true, false), client.validateTokens(tokens).get(10, TimeUnit.SECONDS));
+        assertEquals(0, client.getInFlightCount());
+    }
+
+    public void testInFlightRequestsAreBounded() throws Exception {
+        Element token = new AsyncSTSClient(createClient(false, null), 1).issueToken(createIssueRequest()).get(10,
+                TimeUnit.SECONDS);
+        CountDownLatch gate = new CountDownLatch(1);
+        final AsyncSTSClient client = new AsyncSTSClient(createClient(false, gate), 1);
+
+        Future<Boolean> first = client.validateToken(token);
+
+        assertEquals(1, client.getInFlightCount());
+
+        final Element sameToken = token;
+        FutureTask<Future<Boolean>> second = new FutureTask<Future<Boolean>>(new Callable<Future<Boolean>>() {
+            public Future<Boolean> call() throws Exception {
+                return client.validateToken(sameToken);
+            }
+        });
+
+        new Thread(second).start();
+        Thread.sleep(200);
+
+        // the second request waits for the response of the first one
+        assertFalse(second.isDone());
+        assertFalse(first.isDone());
+
+        gate.countDown();
+
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+        assertEquals(0, client.getInFlightCount());
+    }
+
+    private RequestSecurityToken createIssueRequest() {
+        RequestSecurityToken request = new RequestSecurityToken();
+        request.setContext("testcontext");
+        request.setTokenType(URI.create(SAMLUtil.SAML2_TOKEN_TYPE));
+        return request;
+    }
+
+    private STSClient createClient(boolean batch, CountDownLatch gate) {
+        STSClient client = new STSClient();
+        client.setDispatch(createDispatch(gate));
+        client.setBatch(batch);
+        return client;
+    }
+
+    /**
+     * Create a {@link Dispatch} that sends the requests to the local STS. Asynchronous requests are held until the gate
+     * is opened.
+     */
+    @SuppressWarnings("unchecked")
+    private Dispatch<Source> createDispatch(final CountDownLatch gate) {
+        return (Dispatch<Source>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Dispatch.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("invoke".equals(method.getName())) {
+                            return tokenService.invoke((Source) args[0]);
+                        } else if ("invokeAsync".equals(method.getName()) && args.length == 2) {
+                            final Source request = (Source) args[0];
+                            final AsyncHandler<Source> handler = (AsyncHandler<Source>) args[1];
+                            final LocalResponse response = new LocalResponse(new Callable<Source>() {
+                                public Source call() throws Exception {
+                                    if (gate != null)
+                                        gate.await();
+
+                                    return tokenService.invoke(request);
+                                }
+                            });
+
+                            executor.execute(new Runnable() {
+                                public void run() {
+                                    response.run();
+                                    handler.handleResponse(response);
+                                }
+                            });
+
+                            return response;
+                        } else if ("getRequestContext".equals(method.getName())) {
+                            return new HashMap<String, Object>();
+                        }
+
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static class LocalResponse extends FutureTask<Source> implements Response<Source> {
+
+        private LocalResponse(Callable<Source> callable) {
+            super(callable);
+        }
+
+        public Map<String, Object> getContext() {
+            return new HashMap<String, Object>();
+        }
+    }
+
+    /**
+     * The STS, configured with the sts/picketlink-sts.xml file and invoked by the user "jduke".
+     */
+    private static class LocalSTS extends PicketLinkSTS {
+
+        private LocalSTS() {
+            super.context = (WebServiceContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{WebServiceContext.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if ("getUserPrincipal".equals(method.getName()))
+                                return new TestPrincipal("jduke");
+
+                            return null;
+                        }
+                    });
+        }
+
+        public Source invoke(Source source) {
+            try {
+                SOAPMessage request = SOAPUtil.create();
+                SOAPUtil.addData(source, request);
+                SOAPMessage response = super.invoke(request);
+                return new DOMSource(SOAPUtil.getSOAPData(response));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        protected STSConfiguration getConfiguration() {
+            try {
+                STSType stsConfig = (STSType) new STSConfigParser().parse(Thread.currentThread().getContextClassLoader()
+                        .getResourceAsStream("sts/picketlink-sts.xml"));
+                return new PicketLinkSTSConfiguration(stsConfig);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -17,9 +17,11 @@
  */
 package org.picketlink.test.identity.federation.core.wstrust;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.picketlink.common.ErrorCodes;
+import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.constants.JBossSAMLConstants;
 import org.picketlink.common.constants.JBossSAMLURIConstants;
 import org.picketlink.common.constants.WSTrustConstants;
@@ -47,6 +49,7 @@ import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
 import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.Lifetime;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenCollection;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponseCollection;
 import org.picketlink.identity.federation.core.wstrust.writers.WSTrustRequestWriter;
@@ -144,6 +147,11 @@ public class PicketLinkSTSUnitTestCase {
         this.tokenService.setContext(context);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        this.tokenService.destroy();
+    }
+
     /**
      * <p>
      * This test verifies that the STS service can read and load all configuration parameters correctly. The
@@ -1064,6 +1072,150 @@ public class PicketLinkSTSUnitTestCase {
         assertEquals("Unexpected status reason", "Validation failure: digital signature is invalid", status.getReason());
     }
 
+    /**
+     * <p>
+     * This test verifies that the STS configuration is loaded only once, no matter how many requests are processed.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testConfigurationLoadedOnce() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            RequestSecurityToken request = this.createRequest("testcontext", WSTrustConstants.ISSUE_REQUEST,
+                    SAMLUtil.SAML2_TOKEN_TYPE, null);
+            assertNotNull(this.tokenService.invoke(this.createSourceFromRequest(request)));
+        }
+
+        assertEquals("Unexpected number of configuration loads", 1, this.tokenService.getConfigurationLoads());
+    }
+
+    /**
+     * <p>
+     * This test case cancels a SAMLV2.0 assertion and then reloads the STS configuration. The reloaded token provider
+     * must keep using the revocation registry of the previous configuration, so the canceled assertion is still
+     * rejected.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testCanceledAssertionRejectedAfterReload() throws Exception {
+        this.tokenService.destroy();
+        this.tokenService = new TestSTS("sts/picketlink-sts-expiring-registries.xml");
+        TestContext context = new TestContext();
+        context.setUserPrincipal(new TestPrincipal("jduke"));
+        this.tokenService.setContext(context);
+
+        WSTrustParser parser = new WSTrustParser();
+        RequestSecurityToken request = this.createRequest("testcontext", WSTrustConstants.ISSUE_REQUEST,
+                SAMLUtil.SAML2_TOKEN_TYPE, null);
+        Source responseMessage = this.tokenService.invoke(this.createSourceFromRequest(request));
+        RequestSecurityTokenResponseCollection collection = (RequestSecurityTokenResponseCollection) parser
+                .parse(DocumentUtil.getSourceAsStream(responseMessage));
+        Element assertion = (Element) collection.getRequestSecurityTokenResponses().get(0).getRequestedSecurityToken()
+                .getAny().get(0);
+
+        request = this.createRequest("cancelcontext", WSTrustConstants.CANCEL_REQUEST, null, null);
+        CancelTargetType cancelTarget = new CancelTargetType();
+        cancelTarget.add(assertion);
+        request.setCancelTarget(cancelTarget);
+        this.tokenService.invoke(this.createSourceFromRequest(request));
+
+        this.tokenService.reloadConfiguration();
+        assertEquals("Unexpected number of configuration loads", 2, this.tokenService.getConfigurationLoads());
+
+        request = this.createRequest("validatecontext", WSTrustConstants.VALIDATE_REQUEST, null, null);
+        ValidateTargetType validateTarget = new ValidateTargetType();
+        validateTarget.add(assertion);
+        request.setValidateTarget(validateTarget);
+
+        responseMessage = this.tokenService.invoke(this.createSourceFromRequest(request));
+        collection = (RequestSecurityTokenResponseCollection) parser.parse(DocumentUtil.getSourceAsStream(responseMessage));
+        StatusType status = collection.getRequestSecurityTokenResponses().get(0).getStatus();
+        assertNotNull("Unexpected null status", status);
+        assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_INVALID, status.getCode());
+        assertEquals("Unexpected status reason", "Validation failure: assertion with id " + assertion.getAttribute("ID")
+                + " has been canceled", status.getReason());
+    }
+
+    /**
+     * <p>
+     * This test case generates two SAMLV2.0 assertions and then sends a single WS-Trust batch validate message to the STS
+     * with both assertions, checking that each request gets its own response in the resulting collection.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeSAML20BatchValidate() throws Exception {
+        this.assertSAML20BatchValidate();
+    }
+
+    /**
+     * <p>
+     * This test case sends a WS-Trust batch validate message to an STS that processes the batch requests on the caller
+     * thread.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeSAML20BatchValidateOnCallerThread() throws Exception {
+        System.setProperty(GeneralConstants.WSTRUST_BATCH_THREADS, "0");
+
+        try {
+            this.assertSAML20BatchValidate();
+        } finally {
+            System.clearProperty(GeneralConstants.WSTRUST_BATCH_THREADS);
+        }
+    }
+
+    private void assertSAML20BatchValidate() throws Exception {
+        WSTrustParser parser = new WSTrustParser();
+        RequestSecurityTokenCollection requestCollection = new RequestSecurityTokenCollection();
+        Element[] assertions = new Element[2];
+
+        for (int i = 0; i < assertions.length; i++) {
+            RequestSecurityToken request = this.createRequest("testcontext" + i, WSTrustConstants.ISSUE_REQUEST,
+                    SAMLUtil.SAML2_TOKEN_TYPE, null);
+            Source responseMessage = this.tokenService.invoke(this.createSourceFromRequest(request));
+            RequestSecurityTokenResponseCollection collection = (RequestSecurityTokenResponseCollection) parser
+                    .parse(DocumentUtil.getSourceAsStream(responseMessage));
+            assertions[i] = (Element) collection.getRequestSecurityTokenResponses().get(0).getRequestedSecurityToken()
+                    .getAny().get(0);
+
+            request = this.createRequest("validatecontext" + i, WSTrustConstants.BATCH_VALIDATE_REQUEST,
+                    WSTrustConstants.STATUS_TYPE, null);
+            ValidateTargetType validateTarget = new ValidateTargetType();
+            validateTarget.add(assertions[i]);
+            request.setValidateTarget(validateTarget);
+            requestCollection.addRequestSecurityToken(request);
+        }
+
+        // temper the second assertion, only its validation should fail.
+        assertions[1].setAttribute("Version", "X");
+
+        DOMResult result = new DOMResult(DocumentUtil.createDocument());
+        new WSTrustRequestWriter(result).write(requestCollection);
+        Source responseMessage = this.tokenService.invoke(new DOMSource(result.getNode()));
+        BaseRequestSecurityTokenResponse baseResponse = (BaseRequestSecurityTokenResponse) parser.parse(DocumentUtil
+                .getSourceAsStream(responseMessage));
+
+        assertNotNull("Unexpected null response", baseResponse);
+        assertTrue("Unexpected response type", baseResponse instanceof RequestSecurityTokenResponseCollection);
+        RequestSecurityTokenResponseCollection collection = (RequestSecurityTokenResponseCollection) baseResponse;
+        assertEquals("Unexpected number of responses", 2, collection.getRequestSecurityTokenResponses().size());
+
+        RequestSecurityTokenResponse response = collection.getRequestSecurityTokenResponses().get(0);
+        assertEquals("Unexpected response context", "validatecontext0", response.getContext());
+        assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_VALID, response.getStatus().getCode());
+
+        response = collection.getRequestSecurityTokenResponses().get(1);
+        assertEquals("Unexpected response context", "validatecontext1", response.getContext());
+        assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_INVALID, response.getStatus().getCode());
+    }
+
     /**
      * <p>
      * This test case first generates a SAMLV1.1 assertion and then sends a WS-Trust renew message to the STS to get
@@ -2009,6 +2161,7 @@ public class PicketLinkSTSUnitTestCase {
 
         private String configFileName = "sts/picketlink-sts.xml";
         private boolean soap12 = false;
+        private int configurationLoads = 0;
 
         TestSTS() {
         }
@@ -2041,6 +2194,7 @@ public class PicketLinkSTSUnitTestCase {
         @Override
         public STSConfiguration getConfiguration() throws ConfigurationException {
             InputStream stream;
+            configurationLoads++;
             try {
                 URL configURL = Thread.currentThread().getContextClassLoader().getResource(configFileName);
                 stream = configURL.openStream();
@@ -2059,6 +2213,15 @@ public class PicketLinkSTSUnitTestCase {
         public void setSoap12(boolean soap12) {
             this.soap12 = soap12;
         }
+
+        public int getConfigurationLoads() {
+            return this.configurationLoads;
+        }
+
+        @Override
+        public synchronized void reloadConfiguration() throws ConfigurationException {
+            super.reloadConfiguration();
+        }
     }
 
     /**
@@ -47,6 +47,7 @@ import org.picketlink.identity.xmlsec.w3.xmldsig.X509CertificateType;
 import org.picketlink.identity.xmlsec.w3.xmldsig.X509DataType;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
@@ -57,9 +58,12 @@ import java.net.URI;
 import java.security.KeyStore;
 import java.security.PublicKey;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -157,6 +161,74 @@ public class SAML20TokenProviderUnitTestCase {
         assertEquals(assertion.getID(), keyId.getValue().substring(1));
     }
 
+    /**
+     * <p>
+     * Tests that assertions issued from the same template for a relying party only share the fields of the template, and
+     * that the claimed attributes are written before the authentication statement.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testIssueSAMLV20TokensFromTemplate() throws Exception {
+        this.provider = new SAML20TokenProvider();
+        provider.initialize(new HashMap<String, String>());
+
+        SAMLAssertionParser assertionParser = new SAMLAssertionParser();
+        AssertionType[] assertions = new AssertionType[2];
+        String[] principals = new String[] {"sguilhen", "jduke"};
+
+        for (int i = 0; i < assertions.length; i++) {
+            RequestSecurityToken request = new RequestSecurityToken();
+            request.setLifetime(WSTrustUtil.createDefaultLifetime(3600000));
+            request.setAppliesTo(WSTrustUtil.createAppliesTo("http://services.testcorp.org/provider2"));
+            request.setTokenType(URI.create(SAMLUtil.SAML2_TOKEN_TYPE));
+
+            WSTrustRequestContext context = new WSTrustRequestContext(request, new TestPrincipal(principals[i]));
+            context.setTokenIssuer("PicketLinkSTS");
+
+            Map<String, Object> claimedAttributes = new HashMap<String, Object>();
+            claimedAttributes.put("email", principals[i] + "@testcorp.org");
+            context.setClaimedAttributes(claimedAttributes);
+
+            this.provider.issueToken(context);
+
+            Element token = (Element) context.getSecurityToken().getTokenValue();
+            assertions[i] = assertionParser.fromElement(token);
+
+            assertEquals("Unexpected token id", context.getSecurityToken().getTokenID(), assertions[i].getID());
+            assertEquals("Unexpected token issuer", "PicketLinkSTS", assertions[i].getIssuer().getValue());
+
+            NameIDType nameID = (NameIDType) assertions[i].getSubject().getSubType().getBaseID();
+            assertEquals("Unexpected name id", principals[i], nameID.getValue());
+
+            ConditionsType conditions = assertions[i].getConditions();
+            assertEquals("Unexpected NotBefore value", request.getLifetime().getCreated().toString(), conditions
+                    .getNotBefore().toString());
+            assertEquals("Unexpected NotOnOrAfter value", request.getLifetime().getExpires().toString(), conditions
+                    .getNotOnOrAfter().toString());
+
+            AudienceRestrictionType restrictionType = (AudienceRestrictionType) conditions.getConditions().get(0);
+            assertEquals("Unexpected audience value", "http://services.testcorp.org/provider2", restrictionType
+                    .getAudience().get(0).toString());
+
+            // the attribute statement must precede the authentication statement.
+            List<String> statements = new ArrayList<String>();
+            for (Node node = token.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element) {
+                    statements.add(node.getLocalName());
+                }
+            }
+            int attributeStatement = statements.indexOf("AttributeStatement");
+            assertTrue("Missing attribute statement", attributeStatement >= 0);
+            assertTrue("Unexpected statement order", attributeStatement < statements.indexOf("AuthnStatement"));
+            assertTrue("Unexpected claimed attribute", DocumentUtil.getNodeAsString(token).contains(
+                    principals[i] + "@testcorp.org"));
+        }
+
+        assertTrue("Assertions must have different ids", !assertions[0].getID().equals(assertions[1].getID()));
+    }
+
     /**
      * <p>
      * This method tests the creation of SAMLV.20 assertions that contain a proof-of-possession token - that is,
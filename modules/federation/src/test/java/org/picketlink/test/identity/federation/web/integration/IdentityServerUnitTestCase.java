@@ -55,4 +55,32 @@ public class IdentityServerUnitTestCase extends TestCase {
         server.sessionDestroyed(event);
         assertEquals(5, server.getActiveSessionCount());
     }
-}
\ No newline at end of file
+
+    public void testParticipantStack() {
+        IdentityServer.STACK stack = new IdentityServer.STACK();
+
+        stack.createSession("session", 60000);
+        stack.register("session", "sp1", true);
+        stack.register("session", "sp2", false);
+        stack.register("session", "sp1", true);
+
+        assertEquals(1, stack.totalSessions());
+        assertEquals(2, stack.getParticipants("session"));
+        assertEquals("sp2", stack.peek("session"));
+        assertEquals(Boolean.FALSE, stack.getBinding("sp2"));
+
+        assertTrue(stack.registerTransitParticipant("session", "sp2"));
+        assertFalse(stack.registerTransitParticipant("session", "sp2"));
+        assertEquals(1, stack.getNumOfParticipantsInTransit("session"));
+
+        assertEquals("sp2", stack.pop("session"));
+        assertEquals("sp1", stack.pop("session"));
+        assertNull(stack.pop("session"));
+
+        assertTrue(stack.deRegisterTransitParticipant("session", "sp2"));
+        assertEquals(0, stack.getNumOfParticipantsInTransit("session"));
+
+        stack.removeSession("session");
+        assertEquals(0, stack.totalSessions());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.web.integration;
+
+import junit.framework.TestCase;
+import org.h2.jdbcx.JdbcDataSource;
+import org.picketlink.identity.federation.web.core.JDBCIdentityParticipantStack;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test the {@link JDBCIdentityParticipantStack} against an in-memory H2 database
+ */
+public class JDBCIdentityParticipantStackUnitTestCase extends TestCase {
+
+    private JdbcDataSource dataSource;
+
+    private Connection connection;
+
+    @Override
+    protected void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + getName() + ";LOCK_TIMEOUT=10000");
+
+        // keeps the in-memory database open during the test.
+        connection = dataSource.getConnection();
+
+        execute("CREATE TABLE IDP_SESSION (SESSION_ID VARCHAR(255) NOT NULL PRIMARY KEY, "
+            + "MAX_INACTIVE_INTERVAL BIGINT NOT NULL, EXPIRATION BIGINT NOT NULL, LAST_SEQUENCE BIGINT NOT NULL)");
+        execute("CREATE TABLE IDP_SESSION_PARTICIPANT (SESSION_ID VARCHAR(255) NOT NULL, "
+            + "PARTICIPANT_HASH CHAR(64) NOT NULL, PARTICIPANT VARCHAR(1024) NOT NULL, SEQUENCE BIGINT NOT NULL, "
+            + "PRIMARY KEY (SESSION_ID, PARTICIPANT_HASH))");
+        execute("CREATE TABLE IDP_TRANSIT_PARTICIPANT (SESSION_ID VARCHAR(255) NOT NULL, "
+            + "PARTICIPANT_HASH CHAR(64) NOT NULL, PARTICIPANT VARCHAR(1024) NOT NULL, "
+            + "PRIMARY KEY (SESSION_ID, PARTICIPANT_HASH))");
+        execute("CREATE TABLE IDP_PARTICIPANT_BINDING (PARTICIPANT_HASH CHAR(64) NOT NULL PRIMARY KEY, "
+            + "PARTICIPANT VARCHAR(1024) NOT NULL, POST_BINDING SMALLINT NOT NULL)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+    }
+
+    public void testParticipantStack() {
+        JDBCIdentityParticipantStack stack = new JDBCIdentityParticipantStack(dataSource);
+
+        stack.createSession("session", 60000);
+        stack.register("session", "sp1", true);
+        stack.register("session", "sp2", false);
+        stack.register("session", "sp1", true);
+
+        assertEquals(1, stack.totalSessions());
+        assertEquals(2, stack.getParticipants("session"));
+        assertEquals("sp2", stack.peek("session"));
+        assertEquals(Boolean.FALSE, stack.getBinding("sp2"));
+
+        assertTrue(stack.registerTransitParticipant("session", "sp2"));
+        assertFalse(stack.registerTransitParticipant("session", "sp2"));
+        assertEquals(1, stack.getNumOfParticipantsInTransit("session"));
+
+        assertEquals("sp2", stack.pop("session"));
+        assertEquals("sp1", stack.pop("session"));
+        assertNull(stack.pop("session"));
+
+        assertTrue(stack.deRegisterTransitParticipant("session", "sp2"));
+        assertEquals(0, stack.getNumOfParticipantsInTransit("session"));
+
+        stack.removeSession("session");
+        assertEquals(0, stack.totalSessions());
+    }
+
+    public void testRegisterCreatesSession() {
+        JDBCIdentityParticipantStack stack = new JDBCIdentityParticipantStack(dataSource);
+
+        stack.register("session", "sp1", true);
+        stack.register("session", "sp2", true);
+
+        assertEquals(1, stack.totalSessions());
+        assertEquals("sp2", stack.peek("session"));
+        assertEquals(Boolean.TRUE, stack.getBinding("sp1"));
+    }
+
+    public void testLongParticipantURLs() {
+        JDBCIdentityParticipantStack stack = new JDBCIdentityParticipantStack(dataSource);
+        StringBuilder participant = new StringBuilder("https://sp.example.com/");
+
+        while (participant.length() < 1000) {
+            participant.append("path/");
+        }
+
+        stack.register("session", participant.toString(), true);
+        stack.register("session", participant.toString() + "other", false);
+
+        assertEquals(2, stack.getParticipants("session"));
+        assertEquals(Boolean.TRUE, stack.getBinding(participant.toString()));
+        assertTrue(stack.registerTransitParticipant("session", participant.toString()));
+        assertTrue(stack.deRegisterTransitParticipant("session", participant.toString()));
+        assertEquals(participant.toString() + "other", stack.pop("session"));
+        assertEquals(participant.toString(), stack.pop("session"));
+    }
+
+    public void testPeekRefreshesSession() throws Exception {
+        JDBCIdentityParticipantStack stack = new JDBCIdentityParticipantStack(dataSource);
+
+        stack.createSession("session", 60000);
+        stack.register("session", "sp1", true);
+        execute("UPDATE IDP_SESSION SET EXPIRATION = 0");
+
+        assertEquals("sp1", stack.peek("session"));
+        assertTrue(queryInt("SELECT COUNT(*) FROM IDP_SESSION WHERE EXPIRATION > 0") > 0);
+    }
+
+    public void testConcurrentRegistrationsAreOrdered() throws Exception {
+        final JDBCIdentityParticipantStack stack = new JDBCIdentityParticipantStack(dataSource);
+        int participants = 50;
+
+        stack.createSession("session", 60000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+
+        try {
+            for (int i = 0; i < participants; i++) {
+                final String participant = "sp" + i;
+
+                // every participant is registered twice, concurrently.
+                for (int j = 0; j < 2; j++) {
+                    results.add(executor.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            stack.register("session", participant, true);
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(participants, stack.getParticipants("session"));
+        assertEquals(participants, queryInt("SELECT COUNT(DISTINCT SEQUENCE) FROM IDP_SESSION_PARTICIPANT"));
+
+        Set<String> popped = new HashSet<String>();
+        String participant;
+
+        while ((participant = stack.pop("session")) != null) {
+            assertTrue(popped.add(participant));
+        }
+
+        assertEquals(participants, popped.size());
+    }
+
+    public void testStoreFailureIsPropagated() throws Exception {
+        JDBCIdentityParticipantStack stack = new JDBCIdentityParticipantStack(dataSource);
+
+        stack.createSession("session", 60000);
+        execute("DROP TABLE IDP_TRANSIT_PARTICIPANT");
+
+        try {
+            stack.registerTransitParticipant("session", "sp1");
+            fail("Expected the missing table to be reported");
+        } catch (RuntimeException expected) {
+        }
+
+        execute("DROP TABLE IDP_SESSION_PARTICIPANT");
+
+        try {
+            stack.register("session", "sp1", true);
+            fail("Expected the missing table to be reported");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(sql);
+            resultSet.next();
+            return resultSet.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+}
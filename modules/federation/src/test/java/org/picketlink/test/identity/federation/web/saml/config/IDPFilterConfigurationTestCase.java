@@ -28,13 +28,35 @@ import org.picketlink.common.exceptions.ProcessingException;
 import org.picketlink.config.federation.IDPType;
 import org.picketlink.config.federation.PicketLinkType;
 import org.picketlink.config.federation.SPType;
+import org.picketlink.config.federation.handler.Handler;
+import org.picketlink.config.federation.handler.Handlers;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
+import org.picketlink.identity.federation.core.impl.EmptyAttributeManager;
+import org.picketlink.identity.federation.core.impl.EmptyRoleGenerator;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
 import org.picketlink.identity.federation.web.filters.IDPFilter;
+import org.picketlink.identity.federation.web.handlers.saml2.BaseSAML2Handler;
 import org.picketlink.identity.federation.web.util.SAMLConfigurationProvider;
 import org.picketlink.test.identity.federation.web.mock.MockFilterConfig;
+import org.picketlink.test.identity.federation.web.mock.MockHttpServletRequest;
+import org.picketlink.test.identity.federation.web.mock.MockHttpServletResponse;
 import org.picketlink.test.identity.federation.web.mock.MockServletContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Pedro Igor
@@ -73,6 +95,260 @@ public class IDPFilterConfigurationTestCase {
         filter.init(new MockFilterConfig(servletContext));
     }
 
+    @Test
+    public void testReloadPublishesNewConfiguration() throws Exception {
+        ConfigurationServletContext servletContext = new ConfigurationServletContext("http://localhost:8080/idp/");
+        ReloadableIDPFilter filter = createFilter(servletContext);
+
+        assertEquals("http://localhost:8080/idp/", filter.getIdentityURL());
+        assertEquals(1, ClosingHandler.instances.size());
+
+        servletContext.setIdentityURL("http://localhost:8080/idp-new/");
+        filter.reloadConfiguration();
+
+        assertEquals("http://localhost:8080/idp-new/", filter.getIdentityURL());
+
+        // the handlers of the replaced chain are closed, the ones of the new chain are in use.
+        assertEquals(2, ClosingHandler.instances.size());
+        assertTrue(ClosingHandler.instances.get(0).closed);
+        assertFalse(ClosingHandler.instances.get(1).closed);
+
+        filter.destroy();
+
+        assertTrue(ClosingHandler.instances.get(1).closed);
+    }
+
+    @Test
+    public void testFailedReloadKeepsCurrentConfiguration() throws Exception {
+        ConfigurationServletContext servletContext = new ConfigurationServletContext("http://localhost:8080/idp/");
+        ReloadableIDPFilter filter = createFilter(servletContext);
+
+        servletContext.setIdentityURL("http://localhost:8080/idp-new/");
+        servletContext.setHandlerClass("org.picketlink.test.MissingHandler");
+        filter.reloadConfiguration();
+
+        assertEquals("http://localhost:8080/idp/", filter.getIdentityURL());
+        assertEquals(1, ClosingHandler.instances.size());
+        assertFalse(ClosingHandler.instances.get(0).closed);
+
+        // the next successful reload starts from the configuration still in use.
+        servletContext.setHandlerClass(ClosingHandler.class.getName());
+        filter.reloadConfiguration();
+
+        assertEquals("http://localhost:8080/idp-new/", filter.getIdentityURL());
+        assertTrue(ClosingHandler.instances.get(0).closed);
+
+        filter.destroy();
+    }
+
+    @Test
+    public void testUnchangedConfigurationIsNotRebuilt() throws Exception {
+        ConfigurationServletContext servletContext = new ConfigurationServletContext("http://localhost:8080/idp/");
+        ReloadableIDPFilter filter = createFilter(servletContext);
+
+        filter.reloadConfiguration();
+        filter.reloadConfiguration();
+
+        assertEquals(1, ClosingHandler.instances.size());
+        assertFalse(ClosingHandler.instances.get(0).closed);
+
+        filter.destroy();
+    }
+
+    @Test
+    public void testConfigurationProviderIsNotReloaded() throws Exception {
+        ReloadableConfigProvider configProvider = new ReloadableConfigProvider("http://localhost:8080/idp/");
+        MockServletContext servletContext = new MockServletContext();
+
+        servletContext.setAttribute(GeneralConstants.CONFIG_PROVIDER, configProvider);
+
+        ReloadableIDPFilter filter = createFilter(servletContext);
+
+        configProvider.setIdentityURL("http://localhost:8080/idp-new/");
+        filter.reloadConfiguration();
+
+        assertEquals("http://localhost:8080/idp/", filter.getIdentityURL());
+        assertEquals(1, ClosingHandler.instances.size());
+        assertFalse(ClosingHandler.instances.get(0).closed);
+
+        filter.destroy();
+    }
+
+    @Test
+    public void testReplacedConfigurationIsClosedAfterRequests() throws Exception {
+        final ConfigurationServletContext servletContext = new ConfigurationServletContext(
+            "http://localhost:8080/idp/");
+        final ReloadableIDPFilter filter = createFilter(servletContext);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET") {
+            @Override
+            public String getContextPath() {
+                return "/idp";
+            }
+
+            @Override
+            public String getRequestURI() {
+                return "/idp/resource";
+            }
+        };
+
+        // the configuration is reloaded while a request is being handled.
+        filter.doFilter(request, new MockHttpServletResponse(), new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                servletContext.setIdentityURL("http://localhost:8080/idp-new/");
+                filter.reloadConfiguration();
+
+                assertEquals("http://localhost:8080/idp/", filter.getIdentityURL());
+                assertFalse(ClosingHandler.instances.get(0).closed);
+            }
+        });
+
+        assertEquals("http://localhost:8080/idp-new/", filter.getIdentityURL());
+        assertTrue(ClosingHandler.instances.get(0).closed);
+        assertFalse(ClosingHandler.instances.get(1).closed);
+
+        filter.destroy();
+    }
+
+    private ReloadableIDPFilter createFilter(MockServletContext servletContext) throws Exception {
+        ClosingHandler.instances.clear();
+
+        ReloadableIDPFilter filter = new ReloadableIDPFilter();
+
+        filter.init(new MockFilterConfig(servletContext));
+
+        return filter;
+    }
+
+    public static class ReloadableIDPFilter extends IDPFilter {
+
+        @Override
+        public String getIdentityURL() {
+            return super.getIdentityURL();
+        }
+
+        @Override
+        public synchronized void reloadConfiguration() {
+            super.reloadConfiguration();
+        }
+    }
+
+    /**
+     * Serves a picketlink.xml that can be changed between reloads.
+     */
+    public static class ConfigurationServletContext extends MockServletContext {
+
+        private volatile String identityURL;
+
+        private volatile String handlerClass = ClosingHandler.class.getName();
+
+        public ConfigurationServletContext(String identityURL) {
+            this.identityURL = identityURL;
+        }
+
+        public void setIdentityURL(String identityURL) {
+            this.identityURL = identityURL;
+        }
+
+        public void setHandlerClass(String handlerClass) {
+            this.handlerClass = handlerClass;
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String path) {
+            if (!GeneralConstants.CONFIG_FILE_LOCATION.equals(path)) {
+                return null;
+            }
+
+            String configuration = "<PicketLink xmlns=\"urn:picketlink:identity-federation:config:2.1\">"
+                + "<PicketLinkIDP xmlns=\"urn:picketlink:identity-federation:config:2.1\" "
+                + "AttributeManager=\"" + EmptyAttributeManager.class.getName() + "\" "
+                + "RoleGenerator=\"" + EmptyRoleGenerator.class.getName() + "\">"
+                + "<IdentityURL>" + this.identityURL + "</IdentityURL></PicketLinkIDP>"
+                + "<Handlers xmlns=\"urn:picketlink:identity-federation:handler:config:2.1\">"
+                + "<Handler class=\"" + this.handlerClass + "\"/></Handlers></PicketLink>";
+
+            try {
+                return new ByteArrayInputStream(configuration.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static class ReloadableConfigProvider implements SAMLConfigurationProvider {
+
+        private String identityURL;
+
+        private String handlerClass = ClosingHandler.class.getName();
+
+        public ReloadableConfigProvider(String identityURL) {
+            this.identityURL = identityURL;
+        }
+
+        public void setIdentityURL(String identityURL) {
+            this.identityURL = identityURL;
+        }
+
+        public void setHandlerClass(String handlerClass) {
+            this.handlerClass = handlerClass;
+        }
+
+        @Override
+        public IDPType getIDPConfiguration() throws ProcessingException {
+            IDPType idpType = new IDPType();
+
+            idpType.setIdentityURL(this.identityURL);
+            idpType.setAttributeManager(EmptyAttributeManager.class.getName());
+            idpType.setRoleGenerator(EmptyRoleGenerator.class.getName());
+
+            return idpType;
+        }
+
+        @Override
+        public SPType getSPConfiguration() throws ProcessingException {
+            return null;
+        }
+
+        @Override
+        public PicketLinkType getPicketLinkConfiguration() throws ProcessingException {
+            Handler handler = new Handler();
+
+            handler.setClazz(this.handlerClass);
+
+            Handlers handlers = new Handlers();
+
+            handlers.add(handler);
+
+            PicketLinkType picketLinkType = new PicketLinkType();
+
+            picketLinkType.setIdpOrSP(getIDPConfiguration());
+            picketLinkType.setHandlers(handlers);
+
+            return picketLinkType;
+        }
+    }
+
+    public static class ClosingHandler extends BaseSAML2Handler implements Closeable {
+
+        private static final List<ClosingHandler> instances = new ArrayList<ClosingHandler>();
+
+        private volatile boolean closed;
+
+        public ClosingHandler() {
+            instances.add(this);
+        }
+
+        @Override
+        public void handleRequestType(SAML2HandlerRequest request, SAML2HandlerResponse response) throws ProcessingException {
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
     public static class CustomConfigProvider implements SAMLConfigurationProvider {
 
         @Override
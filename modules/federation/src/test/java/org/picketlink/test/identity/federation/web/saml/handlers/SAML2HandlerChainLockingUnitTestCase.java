@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.web.saml.handlers;
+
+import junit.framework.TestCase;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.config.federation.handler.Handlers;
+import org.picketlink.identity.federation.core.saml.v2.impl.DefaultSAML2HandlerChain;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.util.HandlerUtil;
+import org.picketlink.identity.federation.web.handlers.saml2.BaseSAML2Handler;
+import org.picketlink.identity.federation.web.handlers.saml2.SAML2AuthenticationHandler;
+import org.picketlink.identity.federation.web.handlers.saml2.SAML2SignatureValidationHandler;
+
+import java.util.Set;
+
+/**
+ * Unit test the locking of SAML2 handler chains
+ */
+public class SAML2HandlerChainLockingUnitTestCase extends TestCase {
+
+    public void testStatelessChainIsNotLocked() {
+        DefaultSAML2HandlerChain chain = new DefaultSAML2HandlerChain();
+
+        chain.add(new SAML2AuthenticationHandler());
+        chain.add(new SAML2SignatureValidationHandler());
+
+        Handlers handlers = new Handlers();
+        handlers.setLocking(true);
+
+        assertTrue(HandlerUtil.isStateless(chain.handlers()));
+        assertFalse(HandlerUtil.requiresLocking(handlers, chain.handlers()));
+
+        chain.add(new StatefulHandler());
+
+        assertTrue(HandlerUtil.requiresLocking(handlers, chain.handlers()));
+
+        handlers.setLocking(false);
+
+        assertFalse(HandlerUtil.requiresLocking(handlers, chain.handlers()));
+    }
+
+    public void testSubclassOfStatelessHandlerIsLocked() {
+        DefaultSAML2HandlerChain chain = new DefaultSAML2HandlerChain();
+
+        chain.add(new SAML2AuthenticationHandler());
+        chain.add(new CustomAuthenticationHandler());
+
+        Handlers handlers = new Handlers();
+        handlers.setLocking(true);
+
+        assertTrue(HandlerUtil.isStateless(new SAML2AuthenticationHandler()));
+        assertFalse(HandlerUtil.isStateless(new CustomAuthenticationHandler()));
+        assertTrue(HandlerUtil.requiresLocking(handlers, chain.handlers()));
+    }
+
+    public void testHandlersAreASnapshot() {
+        DefaultSAML2HandlerChain chain = new DefaultSAML2HandlerChain();
+        StatefulHandler handler = new StatefulHandler();
+
+        chain.add(handler);
+
+        Set<SAML2Handler> handlers = chain.handlers();
+
+        chain.add(new SAML2AuthenticationHandler());
+
+        assertEquals(1, handlers.size());
+        assertEquals(2, chain.size());
+
+        assertTrue(chain.remove(handler));
+        assertEquals(1, chain.size());
+        assertFalse(chain.handlers().contains(handler));
+        assertTrue(handlers.contains(handler));
+    }
+
+    // keeps per-request state without being annotated, as a custom handler written against the previous versions.
+    private static class CustomAuthenticationHandler extends SAML2AuthenticationHandler {
+
+        private SAML2HandlerRequest currentRequest;
+
+        @Override
+        public void handleRequestType(SAML2HandlerRequest request, SAML2HandlerResponse response) throws ProcessingException {
+            this.currentRequest = request;
+            super.handleRequestType(request, response);
+        }
+
+        @Override
+        public void reset() throws ProcessingException {
+            this.currentRequest = null;
+        }
+    }
+
+    private static class StatefulHandler extends BaseSAML2Handler {
+
+        public void handleRequestType(SAML2HandlerRequest request, SAML2HandlerResponse response) throws ProcessingException {
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.web.util;
+
+import junit.framework.TestCase;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHolder;
+import org.picketlink.identity.federation.web.util.PostBindingUtil;
+import org.picketlink.test.identity.federation.web.mock.MockHttpServletResponse;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Unit test the streaming of SAML messages by the {@link PostBindingUtil}
+ */
+public class PostBindingUtilUnitTestCase extends TestCase {
+
+    private static final String SAML_RESPONSE = "<samlp:Response xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
+            + "ID=\"ID_1\" Version=\"2.0\" IssueInstant=\"2013-01-01T00:00:00Z\" Destination=\"http://sp/\">"
+            + "<saml:Issuer xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">http://idp/\u00e9</saml:Issuer>"
+            + "</samlp:Response>";
+
+    public void testDocumentIsStreamed() throws Exception {
+        Document samlDocument = DocumentUtil.getDocument(SAML_RESPONSE);
+        NodeList inputs = sendPost(new DestinationInfoHolder("http://sp/", samlDocument, "relay"));
+
+        String samlMessage = ((Element) inputs.item(0)).getAttribute("VALUE");
+
+        assertEquals("SAMLResponse", ((Element) inputs.item(0)).getAttribute("NAME"));
+        assertEquals("relay", ((Element) inputs.item(1)).getAttribute("VALUE"));
+        assertEquals(new DestinationInfoHolder("http://sp/", samlDocument, null).getSamlMessage(), samlMessage);
+
+        Document decoded = DocumentUtil.getDocument(PostBindingUtil.base64DecodeAsStream(samlMessage));
+
+        assertEquals("ID_1", decoded.getDocumentElement().getAttribute("ID"));
+        assertEquals("http://idp/\u00e9", decoded.getDocumentElement().getFirstChild().getTextContent());
+    }
+
+    public void testEncodedMessageIsSent() throws Exception {
+        String samlMessage = PostBindingUtil.base64Encode(SAML_RESPONSE);
+        NodeList inputs = sendPost(new DestinationInfoHolder("http://sp/", samlMessage, null));
+
+        assertEquals(samlMessage, ((Element) inputs.item(0)).getAttribute("VALUE"));
+        assertEquals("SUBMIT", ((Element) inputs.item(1)).getAttribute("TYPE"));
+    }
+
+    public void testMessageIsDecodedAsStream() throws Exception {
+        String samlMessage = PostBindingUtil.base64Encode(SAML_RESPONSE);
+        InputStream is = PostBindingUtil.base64DecodeAsStream(samlMessage);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+
+        while ((read = is.read(buffer)) != -1) {
+            decoded.write(buffer, 0, read);
+        }
+
+        assertEquals(SAML_RESPONSE, new String(decoded.toByteArray(), "UTF-8"));
+        assertEquals(SAML_RESPONSE, new String(PostBindingUtil.base64Decode(samlMessage), "UTF-8"));
+    }
+
+    private NodeList sendPost(DestinationInfoHolder holder) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        response.setOutputStream(baos);
+
+        PostBindingUtil.sendPost(holder, response, false);
+
+        Document page = DocumentUtil.getDocument(new String(baos.toByteArray(), "UTF-8"));
+
+        return page.getElementsByTagName("INPUT");
+    }
+}
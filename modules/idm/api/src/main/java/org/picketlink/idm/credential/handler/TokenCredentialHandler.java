@@ -28,6 +28,7 @@ import org.picketlink.idm.credential.TokenCredential;
 import org.picketlink.idm.credential.handler.annotations.SupportsCredentials;
 import org.picketlink.idm.credential.storage.CredentialStorage;
 import org.picketlink.idm.credential.storage.TokenCredentialStorage;
+import org.picketlink.idm.credential.token.StatelessTokenProvider;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
@@ -88,6 +89,11 @@ public class TokenCredentialHandler<S extends CredentialStore<?>, V extends Toke
 
     @Override
     protected CredentialStorage getCredentialStorage(IdentityContext context, Account account, V credentials, S store) {
+        // self-contained tokens are validated by the provider alone
+        if (StatelessTokenProvider.class.isInstance(getTokenProvider(credentials.getToken()))) {
+            return null;
+        }
+
         return store.retrieveCurrentCredential(context, account, TokenCredentialStorage.class);
     }
 
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.token;
+
+import org.picketlink.idm.credential.Token;
+import org.picketlink.json.jose.JWS;
+
+/**
+ * <p>A {@link org.picketlink.idm.credential.Token} holding a signed JSON Web Token in its compact serialization.</p>
+ *
+ * <p>Once the signature is verified by a {@link JWTTokenProvider}, the parsed token is kept by this instance so that
+ * the same provider does not verify it again.</p>
+ *
+ * @see JWTTokenProvider
+ */
+public class JWTToken extends Token {
+
+    private volatile Verification verification;
+
+    public JWTToken(String token) {
+        super(token);
+    }
+
+    JWS getVerifiedToken(JWTTokenProvider provider) {
+        Verification verification = this.verification;
+
+        if (verification != null && verification.provider == provider) {
+            return verification.token;
+        }
+
+        return null;
+    }
+
+    void setVerifiedToken(JWTTokenProvider provider, JWS token) {
+        this.verification = new Verification(provider, token);
+    }
+
+    private static class Verification {
+
+        private final JWTTokenProvider provider;
+        private final JWS token;
+
+        Verification(JWTTokenProvider provider, JWS token) {
+            this.provider = provider;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.token;
+
+import org.picketlink.common.properties.Property;
+import org.picketlink.common.properties.query.AnnotatedPropertyCriteria;
+import org.picketlink.common.properties.query.PropertyQueries;
+import org.picketlink.common.reflection.Reflections;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.config.SecurityConfigurationException;
+import org.picketlink.idm.credential.Token;
+import org.picketlink.idm.credential.storage.TokenCredentialStorage;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.annotation.StereotypeProperty;
+import org.picketlink.json.jose.JWK;
+import org.picketlink.json.jose.JWS;
+import org.picketlink.json.jose.JWSBuilder;
+import org.picketlink.json.jose.crypto.Algorithm;
+
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.UUID;
+
+import static org.picketlink.idm.IDMMessages.MESSAGES;
+import static org.picketlink.json.JsonConstants.JWK.KEY_TYPE_OCT;
+import static org.picketlink.json.JsonConstants.JWT.CLAIM_EXPIRATION;
+import static org.picketlink.json.JsonConstants.JWT.CLAIM_ID;
+import static org.picketlink.json.JsonConstants.JWT.CLAIM_ISSUED_AT;
+import static org.picketlink.json.JsonConstants.JWT.CLAIM_ISSUER;
+import static org.picketlink.json.JsonConstants.JWT.CLAIM_NOT_BEFORE;
+import static org.picketlink.json.JsonConstants.JWT.CLAIM_SUBJECT;
+import static org.picketlink.json.JsonConstants.RSA;
+
+/**
+ * <p>A {@link org.picketlink.idm.credential.Token.Provider} that issues signed JSON Web Tokens.</p>
+ *
+ * <p>The tokens are self-contained: they carry the identifier, login name and partition of the account they were
+ * issued to, and they are validated by checking their signature and claims only. Neither validating a token nor
+ * getting its account reads the identity store, which means that changes to an account, like disabling it, are not
+ * seen by tokens issued before the change. Use {@link #invalidate(org.picketlink.idm.model.Account)} to revoke them.</p>
+ *
+ * <p>Revoked tokens are kept in a local {@link TokenDenyList} until they expire. The deny list is not shared between
+ * nodes, unless the same instance is given to the providers of each node.</p>
+ *
+ * <p>The key is a {@link org.picketlink.json.jose.JWK}. A symmetric key signs tokens with HMAC, and a RSA key with
+ * RSA, using the algorithm of the key if it has one or SHA-256 otherwise. A provider with a RSA public key only
+ * validates tokens.</p>
+ */
+public class JWTTokenProvider implements StatelessTokenProvider {
+
+    public static final String CLAIM_ACCOUNT_TYPE = "account_type";
+    public static final String CLAIM_LOGIN_NAME = "login_name";
+    public static final String CLAIM_PARTITION_TYPE = "partition_type";
+    public static final String CLAIM_PARTITION_NAME = "partition_name";
+    public static final String CLAIM_PARTITION_ID = "partition_id";
+
+    /**
+     * <p>The default lifetime of a token, in seconds.</p>
+     */
+    public static final int DEFAULT_EXPIRATION = 30 * 60;
+
+    /**
+     * <p>The default difference allowed between the clock of the issuer and the one of this provider, in seconds.</p>
+     */
+    public static final int DEFAULT_CLOCK_SKEW = 30;
+
+    private final String issuer;
+    private final JWK key;
+    private final Algorithm algorithm;
+    private final TokenDenyList denyList;
+    private int expiration = DEFAULT_EXPIRATION;
+    private int clockSkew = DEFAULT_CLOCK_SKEW;
+
+    public JWTTokenProvider(String issuer, JWK key) {
+        this(issuer, key, new TokenDenyList());
+    }
+
+    public JWTTokenProvider(String issuer, JWK key, TokenDenyList denyList) {
+        if (issuer == null) {
+            throw new SecurityConfigurationException("You must provide the issuer of the tokens.");
+        }
+
+        if (key == null) {
+            throw new SecurityConfigurationException("You must provide the key of the tokens.");
+        }
+
+        this.issuer = issuer;
+        this.key = key;
+        this.algorithm = resolveAlgorithm(key);
+        this.denyList = denyList;
+    }
+
+    @Override
+    public Account getAccount(Token token) {
+        JWS jws = getValidToken(token);
+
+        if (jws == null) {
+            return null;
+        }
+
+        return createAccount(jws);
+    }
+
+    @Override
+    public Token create(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        String token = value.toString();
+        int firstPeriod = token.indexOf('.');
+
+        // a signed token has three parts
+        if (firstPeriod == -1 || token.indexOf('.', firstPeriod + 1) == -1) {
+            return null;
+        }
+
+        return new JWTToken(token);
+    }
+
+    @Override
+    public Token issue(Account account) {
+        if (account == null) {
+            throw MESSAGES.nullArgument("Account");
+        }
+
+        if (account.getId() == null) {
+            throw new IdentityManagementException("Tokens can only be issued to stored accounts.");
+        }
+
+        int now = currentTime();
+        JWSBuilder builder = new JWSBuilder()
+            .id(UUID.randomUUID().toString())
+            .issuer(this.issuer)
+            .subject(account.getId())
+            .issuedAt(now)
+            .notBefore(now)
+            .expiration(now + this.expiration)
+            .claim(CLAIM_ACCOUNT_TYPE, account.getClass().getName());
+
+        Property<Object> loginNameProperty = getLoginNameProperty(account.getClass());
+
+        if (loginNameProperty != null && loginNameProperty.getValue(account) != null) {
+            builder.claim(CLAIM_LOGIN_NAME, loginNameProperty.getValue(account).toString());
+        }
+
+        Partition partition = account.getPartition();
+
+        if (partition != null) {
+            builder.claim(CLAIM_PARTITION_TYPE, partition.getClass().getName());
+            builder.claim(CLAIM_PARTITION_NAME, partition.getName());
+
+            if (partition.getId() != null) {
+                builder.claim(CLAIM_PARTITION_ID, partition.getId());
+            }
+        }
+
+        if (this.key.getKeyId() != null) {
+            builder.keyId(this.key.getKeyId());
+        }
+
+        return new JWTToken(sign(builder).encode());
+    }
+
+    /**
+     * <p>Issues a new token for the account of the given token, which is revoked. Returns null if the given token is
+     * not valid.</p>
+     *
+     * @param currentToken
+     * @return
+     */
+    @Override
+    public Token renew(Token currentToken) {
+        JWS jws = getValidToken(currentToken);
+
+        if (jws == null) {
+            return null;
+        }
+
+        Account account = createAccount(jws);
+
+        if (account == null) {
+            return null;
+        }
+
+        revoke(jws);
+
+        return issue(account);
+    }
+
+    @Override
+    public boolean validate(Token token) {
+        return getValidToken(token) != null;
+    }
+
+    /**
+     * <p>Revokes all the tokens issued to the given {@link org.picketlink.idm.model.Account} so far.</p>
+     *
+     * @param account
+     */
+    @Override
+    public void invalidate(Account account) {
+        int now = currentTime();
+
+        // tokens issued up to now are all expired once the lifetime of a token has elapsed
+        this.denyList.denySubject(account.getId(), now, now + this.expiration + this.clockSkew);
+    }
+
+    /**
+     * <p>Revokes the given token.</p>
+     *
+     * @param token
+     */
+    public void revoke(Token token) {
+        JWS jws = getValidToken(token);
+
+        if (jws != null) {
+            revoke(jws);
+        }
+    }
+
+    @Override
+    public boolean supports(Token token) {
+        return JWTToken.class.isInstance(token);
+    }
+
+    /**
+     * <p>Tokens are not stored.</p>
+     */
+    @Override
+    public <T extends TokenCredentialStorage> T getTokenStorage(Account account, Token token) {
+        return null;
+    }
+
+    public String getIssuer() {
+        return this.issuer;
+    }
+
+    public int getExpiration() {
+        return this.expiration;
+    }
+
+    /**
+     * <p>Sets the lifetime of the tokens issued from now on, in seconds.</p>
+     *
+     * @param expiration
+     */
+    public void setExpiration(int expiration) {
+        this.expiration = expiration;
+    }
+
+    public int getClockSkew() {
+        return this.clockSkew;
+    }
+
+    /**
+     * <p>Sets the difference allowed between the clock of the issuer and the one of this provider when checking the
+     * expiration and not-before time of a token, in seconds.</p>
+     *
+     * @param clockSkew
+     */
+    public void setClockSkew(int clockSkew) {
+        this.clockSkew = clockSkew;
+    }
+
+    /**
+     * <p>Creates the {@link org.picketlink.idm.model.Account} of a valid token from its claims. The account is enabled
+     * and has the identifier, login name and partition of the account the token was issued to.</p>
+     *
+     * <p>Subclasses can override this method in order to provide any additional state from the claims of their tokens.</p>
+     *
+     * @param token
+     * @return The account, or null if it can not be created.
+     */
+    protected Account createAccount(JWS token) {
+        try {
+            Class<?> accountType = Reflections.classForName(getClaim(token, CLAIM_ACCOUNT_TYPE), getClass().getClassLoader());
+
+            if (!Account.class.isAssignableFrom(accountType)) {
+                return null;
+            }
+
+            Account account = (Account) accountType.newInstance();
+
+            account.setId(token.getSubject());
+            account.setEnabled(true);
+
+            String loginName = getClaim(token, CLAIM_LOGIN_NAME);
+            Property<Object> loginNameProperty = getLoginNameProperty(accountType);
+
+            if (loginName != null && loginNameProperty != null) {
+                loginNameProperty.setValue(account, loginName);
+            }
+
+            String partitionType = getClaim(token, CLAIM_PARTITION_TYPE);
+
+            if (partitionType != null) {
+                Class<?> partitionClass = Reflections.classForName(partitionType, getClass().getClassLoader());
+
+                if (!Partition.class.isAssignableFrom(partitionClass)) {
+                    return null;
+                }
+
+                Partition partition = (Partition) partitionClass.getConstructor(String.class)
+                    .newInstance(getClaim(token, CLAIM_PARTITION_NAME));
+
+                partition.setId(getClaim(token, CLAIM_PARTITION_ID));
+                account.setPartition(partition);
+            }
+
+            return account;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private JWS getValidToken(Token token) {
+        if (!supports(token)) {
+            return null;
+        }
+
+        JWTToken jwtToken = (JWTToken) token;
+        JWS jws = jwtToken.getVerifiedToken(this);
+
+        if (jws == null) {
+            jws = verify(jwtToken);
+
+            if (jws == null) {
+                return null;
+            }
+
+            jwtToken.setVerifiedToken(this, jws);
+        }
+
+        return isValid(jws, currentTime()) ? jws : null;
+    }
+
+    private JWS verify(JWTToken token) {
+        try {
+            JWS jws = new JWSBuilder().build(token.getToken(), this.key.getKey());
+
+            // the algorithm is chosen by the token, so a token signed with any other algorithm, or not signed at all,
+            // is refused even if it was verified
+            if (!this.algorithm.name().equals(jws.getAlgorithm())) {
+                return null;
+            }
+
+            return jws;
+        } catch (RuntimeException invalidToken) {
+            return null;
+        }
+    }
+
+    private boolean isValid(JWS token, int now) {
+        if (!this.issuer.equals(getClaim(token, CLAIM_ISSUER))) {
+            return false;
+        }
+
+        Long expiration = getTimeClaim(token, CLAIM_EXPIRATION);
+        Long issuedAt = getTimeClaim(token, CLAIM_ISSUED_AT);
+
+        if (expiration == null || issuedAt == null || now >= expiration + this.clockSkew) {
+            return false;
+        }
+
+        Long notBefore = getTimeClaim(token, CLAIM_NOT_BEFORE);
+
+        if (notBefore != null && now + this.clockSkew < notBefore) {
+            return false;
+        }
+
+        return !this.denyList.isDenied(getClaim(token, CLAIM_ID), getClaim(token, CLAIM_SUBJECT), issuedAt, now);
+    }
+
+    private void revoke(JWS token) {
+        String id = getClaim(token, CLAIM_ID);
+
+        if (id != null) {
+            this.denyList.denyToken(id, getTimeClaim(token, CLAIM_EXPIRATION) + this.clockSkew);
+        }
+    }
+
+    private JWS sign(JWSBuilder builder) {
+        switch (this.algorithm) {
+            case HS256:
+                return builder.hmac256(this.key.getKey()).build();
+            case HS384:
+                return builder.hmac384(this.key.getKey()).build();
+            case HS512:
+                return builder.hmac512(this.key.getKey()).build();
+            case RS256:
+                return builder.rsa256(getPrivateKey()).build();
+            case RS384:
+                return builder.rsa384(getPrivateKey()).build();
+            case RS512:
+                return builder.rsa512(getPrivateKey()).build();
+            default:
+                throw new SecurityConfigurationException("Tokens can not be signed with algorithm [" + this.algorithm + "].");
+        }
+    }
+
+    private PrivateKey getPrivateKey() {
+        if (this.key.getPrivateKey() == null) {
+            throw new SecurityConfigurationException("Key [" + this.key.getKeyId() + "] has no private key to sign tokens.");
+        }
+
+        return this.key.getPrivateKey();
+    }
+
+    private static Algorithm resolveAlgorithm(JWK key) {
+        if (key.getAlgorithm() != null) {
+            Algorithm algorithm = Algorithm.resolve(key.getAlgorithm());
+
+            if (algorithm.isNone()) {
+                throw new SecurityConfigurationException("Tokens must be signed.");
+            }
+
+            return algorithm;
+        }
+
+        if (KEY_TYPE_OCT.equals(key.getKeyType())) {
+            return Algorithm.HS256;
+        }
+
+        if (RSA.equals(key.getKeyType())) {
+            return Algorithm.RS256;
+        }
+
+        throw new SecurityConfigurationException("Unsupported key type [" + key.getKeyType() + "].");
+    }
+
+    private static Property<Object> getLoginNameProperty(Class<?> accountType) {
+        List<Property<Object>> properties = PropertyQueries
+            .createQuery(accountType)
+            .addCriteria(new AnnotatedPropertyCriteria(StereotypeProperty.class)).getResultList();
+
+        for (Property<Object> property : properties) {
+            StereotypeProperty stereotypeProperty = property.getAnnotatedElement().getAnnotation(StereotypeProperty.class);
+
+            if (StereotypeProperty.Property.IDENTITY_USER_NAME.equals(stereotypeProperty.value())) {
+                return property;
+            }
+        }
+
+        return null;
+    }
+
+    private static String getClaim(JWS token, String name) {
+        if (token.getClaims().get(name) == null) {
+            return null;
+        }
+
+        return token.getClaim(name);
+    }
+
+    private static Long getTimeClaim(JWS token, String name) {
+        String value = getClaim(token, name);
+
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    private static int currentTime() {
+        return (int) (System.currentTimeMillis() / 1000);
+    }
+}
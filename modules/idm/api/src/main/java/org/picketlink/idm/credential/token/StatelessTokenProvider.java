@@ -0,0 +1,32 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.token;
+
+import org.picketlink.idm.credential.Token;
+
+/**
+ * <p>A {@link org.picketlink.idm.credential.Token.Provider} for self-contained tokens, which are validated without
+ * reading the credentials stored for the account.</p>
+ *
+ * <p>The {@link org.picketlink.idm.credential.handler.TokenCredentialHandler} does not look up the current
+ * {@link org.picketlink.idm.credential.storage.TokenCredentialStorage} when validating tokens supported by these
+ * providers, so that validation does not need any access to the identity store.</p>
+ */
+public interface StatelessTokenProvider extends Token.Provider {
+
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.token;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A local list of revoked self-contained tokens.</p>
+ *
+ * <p>Tokens are revoked either by their identifier or by subject, in which case every token issued to the subject up to
+ * the revocation is denied. An entry is only kept until the tokens it denies expire by themselves, so the list holds no
+ * more than the tokens revoked during the lifetime of a token. Lookups do not lock.</p>
+ *
+ * <p>All times are in seconds since the epoch, like the time claims of a JWT.</p>
+ */
+public class TokenDenyList {
+
+    private static final int MIN_PURGE_THRESHOLD = 64;
+
+    private final ConcurrentMap<String, Entry> deniedIds = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, Entry> deniedSubjects = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger purgeThreshold = new AtomicInteger(MIN_PURGE_THRESHOLD);
+
+    /**
+     * <p>Denies the token with the given identifier until it expires.</p>
+     *
+     * @param tokenId
+     * @param expiration The expiration of the token.
+     */
+    public void denyToken(String tokenId, long expiration) {
+        this.deniedIds.put(tokenId, new Entry(0, expiration));
+        purgeIfNeeded();
+    }
+
+    /**
+     * <p>Denies the tokens issued to the given subject on or before <code>issuedBefore</code>, until they have all
+     * expired.</p>
+     *
+     * @param subject
+     * @param issuedBefore
+     * @param expiration The time on which all the tokens issued to the subject up to <code>issuedBefore</code> are expired.
+     */
+    public void denySubject(String subject, long issuedBefore, long expiration) {
+        this.deniedSubjects.put(subject, new Entry(issuedBefore, expiration));
+        purgeIfNeeded();
+    }
+
+    /**
+     * <p>Checks if a token is denied.</p>
+     *
+     * @param tokenId The identifier of the token, or null if it has none.
+     * @param subject The subject of the token, or null if it has none.
+     * @param issuedAt The time the token was issued.
+     * @param now The current time.
+     *
+     * @return
+     */
+    public boolean isDenied(String tokenId, String subject, long issuedAt, long now) {
+        if (tokenId != null) {
+            Entry entry = this.deniedIds.get(tokenId);
+
+            if (entry != null && entry.expiration >= now) {
+                return true;
+            }
+        }
+
+        if (subject != null) {
+            Entry entry = this.deniedSubjects.get(subject);
+
+            if (entry != null && entry.expiration >= now && issuedAt <= entry.issuedBefore) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Removes the entries whose tokens have expired.</p>
+     *
+     * @param now The current time.
+     */
+    public void purge(long now) {
+        purge(this.deniedIds, now);
+        purge(this.deniedSubjects, now);
+    }
+
+    public int size() {
+        return this.deniedIds.size() + this.deniedSubjects.size();
+    }
+
+    private void purgeIfNeeded() {
+        int threshold = this.purgeThreshold.get();
+
+        // expired entries are dropped once the list has doubled since the last purge
+        if (size() > threshold && this.purgeThreshold.compareAndSet(threshold, Integer.MAX_VALUE)) {
+            purge(System.currentTimeMillis() / 1000);
+            this.purgeThreshold.set(Math.max(MIN_PURGE_THRESHOLD, size() * 2));
+        }
+    }
+
+    private void purge(Map<String, Entry> entries, long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().expiration < now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final long issuedBefore;
+        private final long expiration;
+
+        Entry(long issuedBefore, long expiration) {
+            this.issuedBefore = issuedBefore;
+            this.expiration = expiration;
+        }
+    }
+}
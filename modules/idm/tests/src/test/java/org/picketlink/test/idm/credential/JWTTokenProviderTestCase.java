@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.idm.credential;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.credential.Credentials.Status;
+import org.picketlink.idm.credential.Token;
+import org.picketlink.idm.credential.TokenCredential;
+import org.picketlink.idm.credential.handler.TokenCredentialHandler;
+import org.picketlink.idm.credential.storage.TokenCredentialStorage;
+import org.picketlink.idm.credential.token.JWTToken;
+import org.picketlink.idm.credential.token.JWTTokenProvider;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.json.jose.JWK;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for {@link org.picketlink.idm.credential.token.JWTTokenProvider}.</p>
+ */
+public class JWTTokenProviderTestCase {
+
+    private JWTTokenProvider tokenProvider;
+    private IdentityManager identityManager;
+    private User user;
+
+    @Before
+    public void onSetup() {
+        byte[] secret = new byte[32];
+
+        new SecureRandom().nextBytes(secret);
+
+        this.tokenProvider = new JWTTokenProvider("picketlink", JWK.create("key-1", new SecretKeySpec(secret, "HmacSHA256")));
+
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                    .preserveState(false)
+                    .setCredentialHandlerProperty(TokenCredentialHandler.TOKEN_PROVIDER, this.tokenProvider)
+                    .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        this.identityManager = partitionManager.createIdentityManager();
+        this.user = new User("john");
+
+        this.identityManager.add(this.user);
+    }
+
+    @Test
+    public void testValidationWithoutStoredCredential() {
+        Token token = this.tokenProvider.issue(this.user);
+
+        assertTrue(JWTToken.class.isInstance(token));
+
+        TokenCredential credential = new TokenCredential(this.tokenProvider.create(token.getToken()));
+
+        this.identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+
+        User account = (User) credential.getValidatedAccount();
+
+        assertEquals(this.user.getId(), account.getId());
+        assertEquals("john", account.getLoginName());
+        assertEquals(Realm.DEFAULT_REALM, account.getPartition().getName());
+        assertEquals(this.user.getPartition().getId(), account.getPartition().getId());
+
+        // the token was not stored
+        assertNull(this.identityManager.retrieveCurrentCredential(this.user, TokenCredentialStorage.class));
+    }
+
+    @Test
+    public void testTamperedToken() {
+        String token = this.tokenProvider.issue(this.user).getToken();
+        String[] parts = token.split("\\.");
+        User other = new User("mary");
+
+        this.identityManager.add(other);
+
+        String otherClaims = this.tokenProvider.issue(other).getToken().split("\\.")[1];
+        TokenCredential credential = new TokenCredential(new JWTToken(parts[0] + "." + otherClaims + "." + parts[2]));
+
+        this.identityManager.validateCredentials(credential);
+
+        assertEquals(Status.INVALID, credential.getStatus());
+        assertNull(this.tokenProvider.create("not a token"));
+        assertFalse(this.tokenProvider.validate(new JWTToken(parts[0] + "." + parts[1] + ".")));
+    }
+
+    @Test
+    public void testRevocation() {
+        Token firstToken = this.tokenProvider.issue(this.user);
+        Token secondToken = this.tokenProvider.issue(this.user);
+
+        this.tokenProvider.revoke(firstToken);
+
+        assertFalse(this.tokenProvider.validate(firstToken));
+        assertTrue(this.tokenProvider.validate(secondToken));
+
+        Token renewedToken = this.tokenProvider.renew(secondToken);
+
+        assertFalse(this.tokenProvider.validate(secondToken));
+        assertTrue(this.tokenProvider.validate(renewedToken));
+        assertNull(this.tokenProvider.renew(secondToken));
+
+        this.tokenProvider.invalidate(this.user);
+
+        TokenCredential credential = new TokenCredential(renewedToken);
+
+        this.identityManager.validateCredentials(credential);
+
+        assertEquals(Status.INVALID, credential.getStatus());
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        this.tokenProvider.setExpiration(1);
+        this.tokenProvider.setClockSkew(0);
+
+        Token token = this.tokenProvider.issue(this.user);
+
+        assertTrue(this.tokenProvider.validate(token));
+
+        Thread.sleep(2000);
+
+        assertFalse(this.tokenProvider.validate(token));
+        assertNull(this.tokenProvider.getAccount(token));
+    }
+
+    @Test
+    public void testValidationWithPublicKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+
+        generator.initialize(2048);
+
+        KeyPair keyPair = generator.generateKeyPair();
+        JWTTokenProvider issuer = new JWTTokenProvider("picketlink", JWK.create("key-2", keyPair.getPrivate()));
+        JWTTokenProvider verifier = new JWTTokenProvider("picketlink", JWK.create("key-2", keyPair.getPublic()));
+        Token token = verifier.create(issuer.issue(this.user).getToken());
+
+        assertTrue(verifier.validate(token));
+
+        Account account = verifier.getAccount(token);
+
+        assertNotNull(account);
+        assertEquals(this.user.getId(), account.getId());
+
+        // tokens signed with another algorithm are refused
+        assertFalse(verifier.validate(this.tokenProvider.issue(this.user)));
+        assertFalse(new JWTTokenProvider("another issuer", JWK.create("key-2", keyPair.getPublic())).validate(token));
+    }
+}
@@ -66,6 +66,17 @@ public interface JsonConstants {
         String SIGN_ALG_RS512 = "RS512";
     }
 
+    interface JWK {
+        String KEY_TYPE = "kty";
+        String KEY_TYPE_OCT = "oct";
+        String KEY_USE = "use";
+        String KEY_ALGORITHM = "alg";
+        String RSA_MODULUS = "n";
+        String RSA_PUBLIC_EXPONENT = "e";
+        String RSA_PRIVATE_EXPONENT = "d";
+        String SYMMETRIC_KEY = "k";
+    }
+
     interface JWE {
         String AES = "AES";
         String AES_CBC_128 = "A128CBC";
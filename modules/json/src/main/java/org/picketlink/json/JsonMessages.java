@@ -47,6 +47,12 @@ public interface JsonMessages {
     @Message(id = 4, value = "Missing header [%s].")
     JsonException missingHeader(String header);
 
+    @Message(id = 5, value = "Invalid base64url encoding at position [%s].")
+    JsonException invalidBase64Url(long position);
+
+    @Message(id = 6, value = "The given content does not have the %s parts of the compact serialization.")
+    JsonException invalidCompactSerialization(int parts);
+
     // crypto messages: 20-39
     @Message(id = 20, value = "No such algorithm [%s].")
     JsonException cryptoNoSuchAlgorithm(String name, @Cause Throwable throwable);
@@ -66,6 +72,40 @@ public interface JsonMessages {
     @Message(id = 25, value = "Signature not present: [%s].")
     JsonException cryptoSignatureNotPresent(String json);
 
+    @Message(id = 26, value = "No key found with key id [%s].")
+    JsonException cryptoNoSuchKey(String keyId);
+
+    @Message(id = 27, value = "Key [%s] can not be used with algorithm [%s].")
+    JsonException cryptoKeyAlgorithmMismatch(String keyId, String algorithm);
+
+    @Message(id = 28, value = "Unsupported encryption algorithm [%s].")
+    JsonException cryptoUnsupportedEncryptionAlgorithm(String name);
+
+    @Message(id = 29, value = "Invalid key for encryption algorithm [%s].")
+    JsonException cryptoInvalidEncryptionKey(String algorithm);
+
+    @Message(id = 30, value = "Could not encrypt content using algorithm [%s].")
+    JsonException cryptoEncryptionFailed(String algorithm, @Cause Throwable throwable);
+
+    @Message(id = 31, value = "Could not decrypt content using algorithm [%s].")
+    JsonException cryptoDecryptionFailed(String algorithm, @Cause Throwable throwable);
+
+    @Message(id = 32, value = "Invalid authentication tag. The content was modified or the key does not match.")
+    JsonException cryptoInvalidAuthenticationTag();
+
+    // key messages: 40-59
+    @Message(id = 40, value = "Unsupported key type [%s].")
+    JsonException keyUnsupportedType(String keyType);
+
+    @Message(id = 41, value = "Missing key parameter [%s].")
+    JsonException keyMissingParameter(String name);
+
+    @Message(id = 42, value = "Could not create key [%s].")
+    JsonException keyCreationFailed(String keyId, @Cause Throwable throwable);
+
+    @Message(id = 43, value = "Could not read key set from [%s].")
+    JsonException keySetReadFailed(String location, @Cause Throwable throwable);
+
 
 //FIXME: need to review JWE and support JSR-353
 //    @Message(id = 1, value = "keydatalen should be a multiple of 8")
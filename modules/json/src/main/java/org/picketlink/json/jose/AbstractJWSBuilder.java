@@ -22,21 +22,23 @@
 package org.picketlink.json.jose;
 
 import org.picketlink.json.jose.crypto.Algorithm;
+import org.picketlink.json.jwt.CompactSerialization;
 import org.picketlink.json.jwt.JWTBuilder;
 
 import javax.json.JsonObject;
 import java.lang.reflect.Constructor;
+import java.security.Key;
+import java.security.PrivateKey;
 
 import static org.picketlink.json.JsonMessages.MESSAGES;
 import static org.picketlink.json.JsonConstants.COMMON.ALG;
-import static org.picketlink.json.JsonConstants.COMMON.PERIOD;
+import static org.picketlink.json.JsonConstants.KID;
 import static org.picketlink.json.jose.crypto.Algorithm.HS256;
 import static org.picketlink.json.jose.crypto.Algorithm.HS384;
 import static org.picketlink.json.jose.crypto.Algorithm.HS512;
 import static org.picketlink.json.jose.crypto.Algorithm.RS256;
 import static org.picketlink.json.jose.crypto.Algorithm.RS384;
 import static org.picketlink.json.jose.crypto.Algorithm.RS512;
-import static org.picketlink.json.util.JsonUtil.b64Decode;
 
 /**
  * @author Pedro Igor
@@ -44,51 +46,119 @@ import static org.picketlink.json.util.JsonUtil.b64Decode;
 public abstract class AbstractJWSBuilder<T extends JWS, B extends AbstractJWSBuilder<T, B>> extends JWTBuilder<T, B> {
 
     private byte[] key;
+    private Key signingKey;
 
     protected AbstractJWSBuilder(Class<T> tokenType) {
         super(tokenType);
         header(ALG, Algorithm.NONE.getAlgorithm());
     }
 
+    /**
+     * <p>Sets the id of the key that secures the token, so that the key can be selected from a {@link JWKSet}.</p>
+     *
+     * @param keyId
+     * @return
+     */
+    public B keyId(String keyId) {
+        header(KID, keyId);
+        return (B) this;
+    }
+
     public B hmac256(byte[] key) {
         header(ALG, HS256.name());
         this.key = key;
+        this.signingKey = null;
+        return (B) this;
+    }
+
+    public B hmac256(Key key) {
+        header(ALG, HS256.name());
+        this.key = null;
+        this.signingKey = key;
         return (B) this;
     }
 
     public B hmac384(byte[] key) {
         header(ALG, HS384.name());
         this.key = key;
+        this.signingKey = null;
+        return (B) this;
+    }
+
+    public B hmac384(Key key) {
+        header(ALG, HS384.name());
+        this.key = null;
+        this.signingKey = key;
         return (B) this;
     }
 
     public B hmac512(byte[] key) {
         header(ALG, HS512.name());
         this.key = key;
+        this.signingKey = null;
+        return (B) this;
+    }
+
+    public B hmac512(Key key) {
+        header(ALG, HS512.name());
+        this.key = null;
+        this.signingKey = key;
         return (B) this;
     }
 
     public B rsa256(byte[] key) {
         header(ALG, RS256.name());
         this.key = key;
+        this.signingKey = null;
+        return (B) this;
+    }
+
+    public B rsa256(PrivateKey key) {
+        header(ALG, RS256.name());
+        this.key = null;
+        this.signingKey = key;
         return (B) this;
     }
 
     public B rsa384(byte[] key) {
         header(ALG, RS384.name());
         this.key = key;
+        this.signingKey = null;
+        return (B) this;
+    }
+
+    public B rsa384(PrivateKey key) {
+        header(ALG, RS384.name());
+        this.key = null;
+        this.signingKey = key;
         return (B) this;
     }
 
     public B rsa512(byte[] key) {
         header(ALG, RS512.name());
         this.key = key;
+        this.signingKey = null;
+        return (B) this;
+    }
+
+    public B rsa512(PrivateKey key) {
+        header(ALG, RS512.name());
+        this.key = null;
+        this.signingKey = key;
         return (B) this;
     }
 
     @Override
     protected T build(JsonObject headersObject, JsonObject claimsObject) {
         try {
+            if (this.signingKey != null) {
+                Constructor<T> constructor = getTokenType().getDeclaredConstructor(JsonObject.class, JsonObject.class, Key.class);
+
+                constructor.setAccessible(true);
+
+                return (T) constructor.newInstance(headersObject, claimsObject, this.signingKey);
+            }
+
             Constructor<T> constructor = getTokenType().getDeclaredConstructor(JsonObject.class, JsonObject.class, byte[].class);
 
             constructor.setAccessible(true);
@@ -101,6 +171,10 @@ public abstract class AbstractJWSBuilder<T extends JWS, B extends AbstractJWSBui
 
     @Override
     public T build(String json) {
+        if (this.signingKey != null) {
+            return build(json, this.signingKey);
+        }
+
         return build(json, this.key);
     }
 
@@ -112,23 +186,115 @@ public abstract class AbstractJWSBuilder<T extends JWS, B extends AbstractJWSBui
      * @return
      */
     public T build(String json, byte[] key) {
-        T token = super.build(json);
+        CompactSerialization compactToken = CompactSerialization.parse(json);
+
+        return verify(json, compactToken, build(compactToken), key, null);
+    }
+
+    /**
+     * <p>Builds a {@link JWS} with the given key, which is already decoded. For the RSA algorithms, the key is the
+     * public key that verifies the signature.</p>
+     *
+     * @param json
+     * @param key
+     * @return
+     */
+    public T build(String json, Key key) {
+        CompactSerialization compactToken = CompactSerialization.parse(json);
+
+        return verify(json, compactToken, build(compactToken), null, key);
+    }
+
+    /**
+     * <p>Builds a {@link JWS} with the key of the given {@link JWKSet} that is identified by the key id in the header
+     * of the token. If the token has no key id, the key set must have a single key.</p>
+     *
+     * @param json
+     * @param keySet
+     * @return
+     */
+    public T build(String json, JWKSet keySet) {
+        CompactSerialization compactToken = CompactSerialization.parse(json);
+        T token = build(compactToken);
+        String keyId = getKeyId(token);
+        JWK key;
+
+        if (keyId == null && keySet.size() == 1) {
+            key = keySet.getKeys().get(0);
+        } else {
+            key = keySet.getKey(keyId);
+        }
+
+        return verify(json, compactToken, token, null, getVerificationKey(token, keyId, key));
+    }
+
+    /**
+     * <p>Builds a {@link JWS} with the key of the given {@link JWKSetStore} that is identified by the key id in the
+     * header of the token.</p>
+     *
+     * @param json
+     * @param keySetStore
+     * @return
+     */
+    public T build(String json, JWKSetStore keySetStore) {
+        CompactSerialization compactToken = CompactSerialization.parse(json);
+        T token = build(compactToken);
+        String keyId = getKeyId(token);
+
+        if (keyId == null) {
+            return build(json, keySetStore.getKeySet());
+        }
+
+        return verify(json, compactToken, token, null, getVerificationKey(token, keyId, keySetStore.getKey(keyId)));
+    }
+
+    private String getKeyId(T token) {
+        if (!token.getHeaders().containsKey(KID)) {
+            return null;
+        }
+
+        return token.getHeader(KID);
+    }
+
+    private Key getVerificationKey(T token, String keyId, JWK key) {
+        if (key == null) {
+            throw MESSAGES.cryptoNoSuchKey(keyId);
+        }
+
+        Algorithm algorithm = Algorithm.resolve(token.getAlgorithm().toUpperCase());
+
+        // the keys of a key set verify signatures, so an unsigned token is never accepted. A key intended for an
+        // algorithm, or of another type, can not be used with another one.
+        if (algorithm.isNone() || !algorithm.getKeyType().equals(key.getKeyType())
+            || (key.getAlgorithm() != null && !key.getAlgorithm().equals(token.getAlgorithm()))) {
+            throw MESSAGES.cryptoKeyAlgorithmMismatch(keyId, token.getAlgorithm());
+        }
+
+        return key.getKey();
+    }
+
+    private T verify(String json, CompactSerialization compactToken, T token, byte[] key, Key verificationKey) {
         Algorithm algorithm = Algorithm.resolve(token.getAlgorithm().toUpperCase());
 
         if (!algorithm.isNone()) {
-            if (key == null) {
+            if (key == null && verificationKey == null) {
                 throw MESSAGES.invalidNullArgument("Signature Key");
             }
 
-            String[] portions = json.split("\\" + PERIOD);
-
-            if (portions.length < 2) {
+            if (!compactToken.hasSignature()) {
                 throw MESSAGES.cryptoSignatureNotPresent(json);
             }
 
-            byte[] payload = json.substring(0, json.lastIndexOf(PERIOD)).getBytes();
-            byte[] signature = b64Decode(portions[2]);
-            boolean validSignature = algorithm.getSignatureProvider().verify(payload, algorithm, signature, key);
+            // the signature is verified over the bytes of the token as they were received
+            byte[] payload = compactToken.getSigningInput();
+            byte[] signature = compactToken.getSignature();
+            boolean validSignature;
+
+            if (verificationKey != null) {
+                validSignature = algorithm.getSignatureProvider().verify(payload, algorithm, signature, verificationKey);
+            } else {
+                validSignature = algorithm.getSignatureProvider().verify(payload, algorithm, signature, key);
+            }
 
             if (!validSignature) {
                 throw MESSAGES.cryptoInvalidSignature(json);
@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose;
+
+import org.picketlink.json.JsonException;
+import org.picketlink.json.jose.crypto.Algorithm;
+import org.picketlink.json.util.Base64Url;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+
+import static org.picketlink.json.JsonConstants.JWK.KEY_ALGORITHM;
+import static org.picketlink.json.JsonConstants.JWK.KEY_TYPE;
+import static org.picketlink.json.JsonConstants.JWK.KEY_TYPE_OCT;
+import static org.picketlink.json.JsonConstants.JWK.KEY_USE;
+import static org.picketlink.json.JsonConstants.JWK.RSA_MODULUS;
+import static org.picketlink.json.JsonConstants.JWK.RSA_PRIVATE_EXPONENT;
+import static org.picketlink.json.JsonConstants.JWK.RSA_PUBLIC_EXPONENT;
+import static org.picketlink.json.JsonConstants.JWK.SYMMETRIC_KEY;
+import static org.picketlink.json.JsonConstants.KID;
+import static org.picketlink.json.JsonConstants.RSA;
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>This class represents a JSON Web Key. RSA keys, public or private, and symmetric keys are supported.</p>
+ *
+ * <p>The {@link java.security.Key} is created when the instance is created, so that it can be used for any number of
+ * cryptographic operations without being decoded again. Once created, instances are immutable.</p>
+ */
+public class JWK {
+
+    private final JsonObject parameters;
+    private final Key key;
+    private final PrivateKey privateKey;
+
+    /**
+     * <p>Creates a new instance from the given key parameters.</p>
+     *
+     * @param parameters
+     * @throws JsonException if the key type is not supported or the key parameters are not valid
+     */
+    public JWK(JsonObject parameters) {
+        this.parameters = parameters;
+
+        String keyType = getRequiredParameter(KEY_TYPE);
+        Key key;
+        PrivateKey privateKey = null;
+
+        try {
+            if (RSA.equals(keyType)) {
+                BigInteger modulus = toBigInteger(getRequiredParameter(RSA_MODULUS));
+                BigInteger publicExponent = toBigInteger(getRequiredParameter(RSA_PUBLIC_EXPONENT));
+                KeyFactory keyFactory = KeyFactory.getInstance(RSA);
+
+                key = keyFactory.generatePublic(new RSAPublicKeySpec(modulus, publicExponent));
+
+                if (parameters.containsKey(RSA_PRIVATE_EXPONENT)) {
+                    BigInteger privateExponent = toBigInteger(getRequiredParameter(RSA_PRIVATE_EXPONENT));
+
+                    privateKey = keyFactory.generatePrivate(new RSAPrivateKeySpec(modulus, privateExponent));
+                }
+            } else if (KEY_TYPE_OCT.equals(keyType)) {
+                String algorithm = "HMAC";
+
+                if (getAlgorithm() != null && getAlgorithm().startsWith("HS")) {
+                    algorithm = Algorithm.resolve(getAlgorithm()).getAlgorithm();
+                }
+
+                key = new SecretKeySpec(Base64Url.decode(getRequiredParameter(SYMMETRIC_KEY)), algorithm);
+            } else {
+                throw MESSAGES.keyUnsupportedType(keyType);
+            }
+        } catch (JsonException e) {
+            throw e;
+        } catch (Exception e) {
+            throw MESSAGES.keyCreationFailed(getKeyId(), e);
+        }
+
+        this.key = key;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * <p>Creates a new instance from the given key. RSA public and private keys and secret keys are supported. The
+     * public key is also published for a RSA private key.</p>
+     *
+     * @param keyId
+     * @param key
+     * @return
+     */
+    public static JWK create(String keyId, Key key) {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+
+        if (keyId != null) {
+            builder.add(KID, keyId);
+        }
+
+        if (key instanceof RSAPublicKey) {
+            RSAPublicKey publicKey = (RSAPublicKey) key;
+
+            builder.add(KEY_TYPE, RSA)
+                .add(RSA_MODULUS, toString(publicKey.getModulus()))
+                .add(RSA_PUBLIC_EXPONENT, toString(publicKey.getPublicExponent()));
+        } else if (key instanceof RSAPrivateCrtKey) {
+            RSAPrivateCrtKey privateKey = (RSAPrivateCrtKey) key;
+
+            builder.add(KEY_TYPE, RSA)
+                .add(RSA_MODULUS, toString(privateKey.getModulus()))
+                .add(RSA_PUBLIC_EXPONENT, toString(privateKey.getPublicExponent()))
+                .add(RSA_PRIVATE_EXPONENT, toString(privateKey.getPrivateExponent()));
+        } else if (key instanceof SecretKey) {
+            builder.add(KEY_TYPE, KEY_TYPE_OCT).add(SYMMETRIC_KEY, Base64Url.encode(key.getEncoded()));
+        } else {
+            throw MESSAGES.keyUnsupportedType(key == null ? null : key.getAlgorithm());
+        }
+
+        return new JWK(builder.build());
+    }
+
+    /**
+     * <p>Creates a new instance from its JSON representation.</p>
+     *
+     * @param json
+     * @return
+     */
+    public static JWK parse(String json) {
+        return new JWK(Json.createReader(new StringReader(json)).readObject());
+    }
+
+    /**
+     * <p>The identifier of the key, which selects the key of a {@link JWKSet} that secures a token.</p>
+     *
+     * @return
+     */
+    public String getKeyId() {
+        return getParameter(KID);
+    }
+
+    public String getKeyType() {
+        return getParameter(KEY_TYPE);
+    }
+
+    public String getKeyUse() {
+        return getParameter(KEY_USE);
+    }
+
+    /**
+     * <p>The algorithm the key is intended to be used with, if any.</p>
+     *
+     * @return
+     */
+    public String getAlgorithm() {
+        return getParameter(KEY_ALGORITHM);
+    }
+
+    /**
+     * <p>Returns the key that verifies signatures: the public key of a RSA key, or the secret key.</p>
+     *
+     * @return
+     */
+    public Key getKey() {
+        return this.key;
+    }
+
+    /**
+     * <p>Returns the private key of a RSA key, if the key parameters contain it.</p>
+     *
+     * @return
+     */
+    public PrivateKey getPrivateKey() {
+        return this.privateKey;
+    }
+
+    public JsonObject getParameters() {
+        return this.parameters;
+    }
+
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+
+        Json.createWriter(writer).writeObject(this.parameters);
+
+        return writer.getBuffer().toString();
+    }
+
+    private String getParameter(String name) {
+        if (!this.parameters.containsKey(name)) {
+            return null;
+        }
+
+        return this.parameters.getString(name);
+    }
+
+    private String getRequiredParameter(String name) {
+        String value = getParameter(name);
+
+        if (value == null) {
+            throw MESSAGES.keyMissingParameter(name);
+        }
+
+        return value;
+    }
+
+    private static BigInteger toBigInteger(String value) {
+        return new BigInteger(1, Base64Url.decode(value));
+    }
+
+    private static String toString(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+
+        // the sign byte is not part of the unsigned representation
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] unsigned = new byte[bytes.length - 1];
+
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            bytes = unsigned;
+        }
+
+        return Base64Url.encode(bytes);
+    }
+}
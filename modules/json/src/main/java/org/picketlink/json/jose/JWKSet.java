@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose;
+
+import org.picketlink.json.JsonException;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.picketlink.json.JsonConstants.KEYS;
+
+/**
+ * <p>This class represents a JSON Web Key Set. The keys are indexed by their key id when the instance is created, so
+ * that the key that secures a token is selected from the key id in its header without searching the set.</p>
+ *
+ * <p>Keys of a type that is not supported, or whose parameters are not valid, are ignored when a key set is parsed.
+ * Once created, instances are immutable.</p>
+ */
+public class JWKSet {
+
+    private final List<JWK> keys;
+    private final Map<String, JWK> keysById;
+
+    public JWKSet(List<JWK> keys) {
+        Map<String, JWK> keysById = new HashMap<String, JWK>();
+
+        for (JWK key : keys) {
+            String keyId = key.getKeyId();
+
+            // the first key with a given id is used
+            if (keyId != null && !keysById.containsKey(keyId)) {
+                keysById.put(keyId, key);
+            }
+        }
+
+        this.keys = Collections.unmodifiableList(new ArrayList<JWK>(keys));
+        this.keysById = keysById;
+    }
+
+    /**
+     * <p>Creates a new instance from its JSON representation.</p>
+     *
+     * @param json
+     * @return
+     */
+    public static JWKSet parse(String json) {
+        return parse(Json.createReader(new StringReader(json)).readObject());
+    }
+
+    /**
+     * <p>Creates a new instance from its JSON representation.</p>
+     *
+     * @param inputStream
+     * @return
+     */
+    public static JWKSet parse(InputStream inputStream) {
+        return parse(Json.createReader(inputStream).readObject());
+    }
+
+    private static JWKSet parse(JsonObject keySet) {
+        List<JWK> keys = new ArrayList<JWK>();
+        JsonArray keysArray = keySet.getJsonArray(KEYS);
+
+        if (keysArray != null) {
+            for (JsonObject parameters : keysArray.getValuesAs(JsonObject.class)) {
+                JWK key;
+
+                try {
+                    key = new JWK(parameters);
+                } catch (JsonException e) {
+                    // keys that can not be used are skipped, so that the other keys of the set can still be used
+                    continue;
+                }
+
+                keys.add(key);
+            }
+        }
+
+        return new JWKSet(keys);
+    }
+
+    /**
+     * <p>Returns the key with the given key id.</p>
+     *
+     * @param keyId
+     * @return the key, or null if the set has no key with the given id
+     */
+    public JWK getKey(String keyId) {
+        if (keyId == null) {
+            return null;
+        }
+
+        return this.keysById.get(keyId);
+    }
+
+    public List<JWK> getKeys() {
+        return this.keys;
+    }
+
+    public int size() {
+        return this.keys.size();
+    }
+
+    @Override
+    public String toString() {
+        JsonArrayBuilder keysArray = Json.createArrayBuilder();
+
+        for (JWK key : this.keys) {
+            keysArray.add(key.getParameters());
+        }
+
+        StringWriter writer = new StringWriter();
+
+        Json.createWriter(writer).writeObject(Json.createObjectBuilder().add(KEYS, keysArray).build());
+
+        return writer.getBuffer().toString();
+    }
+}
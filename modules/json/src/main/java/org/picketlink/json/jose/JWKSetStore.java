@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose;
+
+import org.picketlink.json.JsonException;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>Provides the {@link JWKSet} published at a URL, or stored in a local file.</p>
+ *
+ * <p>The key set is read the first time it is used, and read again by {@link #refresh()} if it has changed. The key set
+ * is read without holding any lock, within the connect and read timeouts, and the new key set then replaces the
+ * current one at once, so that lookups are neither blocked by a slow location nor see a partially read key set. When a
+ * token is secured by a key that is not in the current key set, for instance because the keys have been rotated, the
+ * key set is read again, but not more often than the minimum refresh interval.</p>
+ */
+public class JWKSetStore {
+
+    public static final long DEFAULT_MIN_REFRESH_INTERVAL = 60 * 1000L;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 10 * 1000;
+
+    private final URL location;
+    private final long minRefreshInterval;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private volatile JWKSet keySet;
+    private long lastModified;
+    private long lastRefresh;
+
+    public JWKSetStore(URL location) {
+        this(location, DEFAULT_MIN_REFRESH_INTERVAL);
+    }
+
+    /**
+     * @param location
+     * @param minRefreshInterval the minimum time, in milliseconds, between two reads of the key set caused by a
+     * missing key
+     */
+    public JWKSetStore(URL location, long minRefreshInterval) {
+        this(location, minRefreshInterval, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param location
+     * @param minRefreshInterval the minimum time, in milliseconds, between two reads of the key set caused by a
+     * missing key
+     * @param connectTimeout the time, in milliseconds, to wait for the connection to the location. Zero waits forever.
+     * @param readTimeout the time, in milliseconds, to wait for the data of the key set. Zero waits forever.
+     */
+    public JWKSetStore(URL location, long minRefreshInterval, int connectTimeout, int readTimeout) {
+        if (location == null) {
+            throw MESSAGES.invalidNullArgument("Key Set Location");
+        }
+
+        this.location = location;
+        this.minRefreshInterval = minRefreshInterval;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public JWKSetStore(File file) {
+        this(toURL(file));
+    }
+
+    /**
+     * <p>Returns the current key set, reading it the first time. Callers that find no key set at the same time may
+     * each read it.</p>
+     *
+     * @return
+     */
+    public JWKSet getKeySet() {
+        JWKSet keySet = this.keySet;
+
+        if (keySet == null) {
+            refresh();
+            keySet = this.keySet;
+        }
+
+        return keySet;
+    }
+
+    /**
+     * <p>Returns the key with the given key id, reading the key set again if it does not have the key.</p>
+     *
+     * @param keyId
+     * @return the key, or null if the key set has no key with the given id
+     */
+    public JWK getKey(String keyId) {
+        JWK key = getKeySet().getKey(keyId);
+
+        if (key == null && keyId != null) {
+            boolean refreshDue;
+
+            // only one of the callers missing a key reads the key set again, the others use the current one
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+
+                refreshDue = now - this.lastRefresh >= this.minRefreshInterval;
+
+                if (refreshDue) {
+                    this.lastRefresh = now;
+                }
+            }
+
+            if (refreshDue) {
+                try {
+                    read();
+                } catch (JsonException ignore) {
+                    // the current key set is kept
+                }
+            }
+
+            key = this.keySet.getKey(keyId);
+        }
+
+        return key;
+    }
+
+    /**
+     * <p>Reads the key set again if it has changed since it was last read.</p>
+     *
+     * @throws JsonException if the key set could not be read. The current key set is kept.
+     */
+    public void refresh() {
+        synchronized (this) {
+            this.lastRefresh = System.currentTimeMillis();
+        }
+
+        read();
+    }
+
+    private void read() {
+        long currentLastModified;
+
+        synchronized (this) {
+            currentLastModified = this.keySet != null ? this.lastModified : 0;
+        }
+
+        JWKSet keySet;
+        long lastModified;
+
+        try {
+            URLConnection connection = this.location.openConnection();
+
+            connection.setConnectTimeout(this.connectTimeout);
+            connection.setReadTimeout(this.readTimeout);
+
+            lastModified = connection.getLastModified();
+
+            InputStream inputStream = connection.getInputStream();
+
+            try {
+                if (lastModified != 0 && lastModified == currentLastModified) {
+                    return;
+                }
+
+                keySet = JWKSet.parse(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (Exception e) {
+            throw MESSAGES.keySetReadFailed(this.location.toString(), e);
+        }
+
+        synchronized (this) {
+            // a concurrent read may already have replaced the key set with a more recent one
+            if (this.keySet == null || lastModified == 0 || lastModified >= this.lastModified) {
+                this.keySet = keySet;
+                this.lastModified = lastModified;
+            }
+        }
+    }
+
+    public URL getLocation() {
+        return this.location;
+    }
+
+    private static URL toURL(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw MESSAGES.keySetReadFailed(file.getPath(), e);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.picketlink.json.jose.crypto.SignatureProvider;
 import org.picketlink.json.jwt.JWT;
 
 import javax.json.JsonObject;
+import java.security.Key;
 
 import static org.picketlink.json.JsonConstants.COMMON.ALG;
 import static org.picketlink.json.JsonConstants.COMMON.PERIOD;
@@ -40,6 +41,7 @@ import static org.picketlink.json.util.JsonUtil.b64Encode;
 public class JWS extends JWT {
 
     private final byte[] key;
+    private final Key signingKey;
 
     /**
      * <p>Creates a new instance using the claims set and values from the given {@link javax.json.JsonObject}.</p>
@@ -50,6 +52,20 @@ public class JWS extends JWT {
     protected JWS(JsonObject headers, JsonObject claims, byte[] key) {
         super(headers, claims);
         this.key = key;
+        this.signingKey = null;
+    }
+
+    /**
+     * <p>Creates a new instance that is signed with a key that is already decoded.</p>
+     *
+     * @param headers
+     * @param claims The claims set and their respective values.
+     * @param signingKey
+     */
+    protected JWS(JsonObject headers, JsonObject claims, Key signingKey) {
+        super(headers, claims);
+        this.key = null;
+        this.signingKey = signingKey;
     }
 
     /**
@@ -71,12 +87,18 @@ public class JWS extends JWT {
         Algorithm algorithm = Algorithm.resolve(getAlgorithm().toUpperCase());
 
         if (!algorithm.isNone()) {
-            if (this.key == null) {
+            if (this.key == null && this.signingKey == null) {
                 throw MESSAGES.invalidNullArgument("Secret Key");
             }
 
             SignatureProvider signatureProvider = algorithm.getSignatureProvider();
-            byte[] signature = signatureProvider.sign(token.getBytes(), algorithm, this.key);
+            byte[] signature;
+
+            if (this.signingKey != null) {
+                signature = signatureProvider.sign(token.getBytes(), algorithm, this.signingKey);
+            } else {
+                signature = signatureProvider.sign(token.getBytes(), algorithm, this.key);
+            }
 
             token = new StringBuilder(token).append(PERIOD).append(b64Encode(signature)).toString();
         }
@@ -17,332 +17,485 @@
  */
 package org.picketlink.json.jose;
 
+import org.picketlink.json.jose.crypto.AESGCMCipher;
+import org.picketlink.json.jose.crypto.EncryptionAlgorithm;
+import org.picketlink.json.jose.crypto.KeyManagementAlgorithm;
+import org.picketlink.json.util.Base64Url;
+
+import javax.crypto.Cipher;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
 /**
- * Represents JSON Web Encryption http://tools.ietf.org/html/draft-jones-json-web-encryption
+ * <p>Represents JSON Web Encryption http://tools.ietf.org/html/draft-ietf-jose-json-web-encryption, in the compact
+ * serialization, with AES GCM content encryption.</p>
+ *
+ * <p>The content can be encrypted and decrypted from streams. Decrypted content is only written once its
+ * authentication tag is verified: the ciphertext is kept until then, in memory or, above
+ * {@link #MAX_BUFFERED_CONTENT_LENGTH} bytes, in a temporary file.</p>
  *
  * @author anil saldhana
  * @since Jul 27, 2012
  */
 public class JsonWebEncryption {
-//FIXME: need to review JWE and support JSR-353
-//    protected JsonWebEncryptionHeader jsonWebEncryptionHeader;
-//
-//    /**
-//     * Create an attached Header
-//     *
-//     * @return
-//     */
-//    public JsonWebEncryptionHeader createHeader() {
-//        if (jsonWebEncryptionHeader == null) {
-//            jsonWebEncryptionHeader = new JsonWebEncryptionHeader();
-//        }
-//        return jsonWebEncryptionHeader;
-//    }
-//
-//    /**
-//     * Get the {@link JsonWebEncryptionHeader}
-//     *
-//     * @return
-//     */
-//    public JsonWebEncryptionHeader getJsonWebEncryptionHeader() {
-//        return jsonWebEncryptionHeader;
-//    }
-//
-//    /**
-//     * Set the {@link JsonWebEncryptionHeader}
-//     *
-//     * @param jsonWebEncryptionHeader
-//     */
-//    public void setJsonWebEncryptionHeader(JsonWebEncryptionHeader jsonWebEncryptionHeader) {
-//        this.jsonWebEncryptionHeader = jsonWebEncryptionHeader;
-//    }
-//
-//    /**
-//     * Encrypt
-//     *
-//     * @param plainText
-//     * @param recipientPublicKey
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    public String encrypt(String plainText, PublicKey recipientPublicKey) throws ProcessingException {
-//        if (jsonWebEncryptionHeader == null) {
-//            throw MESSAGES.jsonEncryptionHeaderMissing();
-//        }
-//        if (plainText == null) {
-//            throw MESSAGES.invalidNullArgument("plainText");
-//        }
-//        if (recipientPublicKey == null) {
-//            throw MESSAGES.invalidNullArgument("recipientPublicKey");
-//        }
-//        byte[] contentMasterKey = createContentMasterKey();
-//        return encrypt(plainText, recipientPublicKey, contentMasterKey);
-//    }
-//
-//    /**
-//     * Encrypt
-//     *
-//     * @param plainText
-//     * @param recipientPublicKey
-//     * @param contentMasterKey
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    public String encrypt(String plainText, PublicKey recipientPublicKey, byte[] contentMasterKey) throws ProcessingException {
-////        if (jsonWebEncryptionHeader == null) {
-////            throw MESSAGES.jsonEncryptionHeaderMissing();
-////        }
-////        if (plainText == null) {
-////            throw MESSAGES.invalidNullArgument("plainText");
-////        }
-////        if (recipientPublicKey == null) {
-////            throw MESSAGES.invalidNullArgument("recipientPublicKey");
-////        }
-////        if (contentMasterKey == null) {
-////            return encrypt(plainText, recipientPublicKey);
-////        }
-////
-////        SecretKey contentEncryptionKey = new SecretKeySpec(contentMasterKey, JsonUtil.AES);
-////
-////        // Encrypt using Recipient's public key to yield JWE Encrypted Key
-////        byte[] jweEncryptedKey = encryptKey(recipientPublicKey, contentMasterKey);
-////        String encodedJWEKey = JsonUtil.b64Encode(jweEncryptedKey);
-////
-////        StringBuilder builder = new StringBuilder(JsonUtil.b64Encode(jsonWebEncryptionHeader.toString()));
-////        builder.append(PERIOD);
-////        builder.append(encodedJWEKey);
-////
-////        if (jsonWebEncryptionHeader.needIntegrity()) {
-////            int cekLength = jsonWebEncryptionHeader.getCEKLength();
-////            byte[] cek = generateCEK(contentEncryptionKey.getEncoded(), cekLength);
-//
-//            // Deal with IV
-////            String iv;
-////            try {
-////                iv = jsonWebEncryptionHeader.getDelegate().getString("iv");
-////            } catch (JSONException e) {
-////                throw MESSAGES.ignorableError(e);
-////            }
-////            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv.getBytes());
-////
-////            byte[] encryptedText = JsonUtil.encryptUsingAES_CBC(plainText, cek, ivParameterSpec);
-////            String encodedJWEText = JsonUtil.b64Encode(encryptedText);
-////            builder.append(PERIOD);
-////            builder.append(encodedJWEText);
-////
-////            int cikLength = jsonWebEncryptionHeader.getCIKLength();
-////            byte[] cik = generateCIK(contentEncryptionKey.getEncoded(), cikLength);
-////            byte[] integrityValue = performMac(cik, builder.toString().getBytes());
-////            String encodedIntegrityValue = JsonUtil.b64Encode(integrityValue);
-////
-////            builder.append(PERIOD);
-////            builder.append(encodedIntegrityValue);
-//        } else {
-//            // Encrypt the plain text
-//            byte[] encryptedText = encryptText(plainText, recipientPublicKey);
-//            String encodedJWEText = JsonUtil.b64Encode(encryptedText);
-//            builder.append(PERIOD);
-//            builder.append(encodedJWEText);
-//        }
-//
-//        return builder.toString();
-//    }
-//
-//    /**
-//     * Decrypt using a {@link PrivateKey}
-//     *
-//     * @param encryptedText
-//     * @param privateKey
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    public String decrypt(String encryptedText, PrivateKey privateKey) throws ProcessingException {
-//        if (privateKey == null) {
-//            throw MESSAGES.invalidNullArgument("privateKey");
-//        }
-//        try {
-//            String[] splitBits = encryptedText.split("\\.");
-//            int length = splitBits.length;
-//            String encodedHeader = splitBits[0];
-//            String encodedKey = splitBits[1];
-//            String encodedValue = splitBits[2];
-//            String encodedIntegrity = null;
-//            if (length == 4) {
-//                encodedIntegrity = splitBits[3];
-//            }
-//
-//            String decodedHeader = new String(Base64.decode(encodedHeader));
-//            JsonWebEncryptionHeader header = new JsonWebEncryptionHeader();
-//            header.load(decodedHeader);
-//
-//            if (header.needIntegrity()) {
-//
-//                byte[] decodedKey = Base64.decode(encodedKey);
-//
-//                byte[] secretKey = decryptKey(privateKey, decodedKey);
-//
-//                int cekLength = header.getCEKLength();
-//                byte[] cek = generateCEK(secretKey, cekLength);
-//
-//                // Deal with IV
-////FIXME: need to review JWE and support JSR-353
-//                String iv;
-////                try {
-////                    iv = header.getDelegate().getString("iv");
-////                } catch (JSONException e) {
-////                    throw MESSAGES.ignorableError(e);
-////                }
-////
-////                IvParameterSpec ivParameter = new IvParameterSpec(iv.getBytes());
-////
-////                byte[] decodedText = Base64.decode(encodedValue);
-////                byte[] plainText = JsonUtil.decryptUsingAES_CBC(decodedText, cek, ivParameter);
-////
-////                int cikLength = header.getCIKLength();
-////                byte[] cik = generateCIK(secretKey, cikLength);
-////
-////                StringBuilder builder = new StringBuilder(JsonUtil.b64Encode(header.toString()));
-////                builder.append(PERIOD).append(encodedKey).append(PERIOD).append(encodedValue);
-////
-////                byte[] integrityValue = performMac(cik, builder.toString().getBytes());
-////                String encodedIntegrityValue = JsonUtil.b64Encode(integrityValue);
-////
-////                if (byteEquals(encodedIntegrityValue.getBytes(), encodedIntegrity.getBytes())) {
-////                    return new String(plainText);
-////                } else {
-////                    throw new RuntimeException("Integrity Checks Failed");
-////                }
-//            }
-//
-//            Cipher textCipher = header.getCipherBasedOnAlg();
-//            textCipher.init(Cipher.DECRYPT_MODE, privateKey);
-//
-//            byte[] decodedText = Base64.decode(encodedValue);
-//            byte[] plainText = textCipher.doFinal(decodedText);
-//
-//            return new String(plainText);
-//        } catch (Exception e) {
-//            throw MESSAGES.processingException(e);
-//        }
-//    }
-//
-//    private byte[] encryptText(String plainText, PublicKey recipientPublicKey) throws ProcessingException {
-//        if (recipientPublicKey == null) {
-//            throw MESSAGES.invalidNullArgument("recipientPublicKey");
-//        }
-//        try {
-//            Cipher cipher = jsonWebEncryptionHeader.getCipherBasedOnAlg();
-//            cipher.init(Cipher.ENCRYPT_MODE, recipientPublicKey);
-//
-//            return cipher.doFinal(plainText.getBytes());
-//        } catch (Exception e) {
-//            throw MESSAGES.processingException(e);
-//        }
-//    }
-//
-//    private byte[] encryptKey(PublicKey publicKey, byte[] contentMasterKey) throws ProcessingException {
-//        if (publicKey == null) {
-//            throw MESSAGES.invalidNullArgument("publicKey");
-//        }
-//        try {
-//            Cipher cipher = jsonWebEncryptionHeader.getCipherBasedOnAlg();
-//            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-//
-//            return cipher.doFinal(contentMasterKey);
-//        } catch (Exception e) {
-//            throw MESSAGES.processingException(e);
-//        }
-//    }
-//
-//    private byte[] decryptKey(PrivateKey privateKey, byte[] encryptedKey) throws ProcessingException {
-//        if (privateKey == null) {
-//            throw MESSAGES.invalidNullArgument("privateKey");
-//        }
-//        try {
-//            Cipher cipher = jsonWebEncryptionHeader.getCipherBasedOnAlg();
-//            cipher.init(Cipher.DECRYPT_MODE, privateKey);
-//
-//            return cipher.doFinal(encryptedKey);
-//        } catch (Exception e) {
-//            throw MESSAGES.processingException(e);
-//        }
-//    }
-//
-//    /**
-//     * Generate a random byte array.
-//     *
-//     * @return
-//     */
-//    private byte[] createContentMasterKey() {
-//        return UUID.randomUUID().toString().getBytes();
-//    }
-//
-//    /**
-//     * Content Integrity Key (CIK) A key used with a MAC function to ensure the integrity of the Ciphertext and the parameters
-//     * used to create it.
-//     *
-//     * @param keyBytes
-//     * @param cikByteLength
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    private byte[] generateCIK(byte[] keyBytes, int cikByteLength) throws ProcessingException {
-//        // "Integrity"
-//        final byte[] otherInfo = { 73, 110, 116, 101, 103, 114, 105, 116, 121 };
-//        ConcatenationKeyDerivation kdfGen = new ConcatenationKeyDerivation(JsonUtil.SHA_256);
-//        return kdfGen.concatKDF(keyBytes, cikByteLength, otherInfo);
-//    }
-//
-//    /**
-//     * Content Encryption Key (CEK) A symmetric key used to encrypt the Plaintext for the recipient to produce the Ciphertext.
-//     *
-//     * @param keyBytes
-//     * @param cekByteLength
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    private byte[] generateCEK(byte[] keyBytes, int cekByteLength) throws ProcessingException {
-//        // "Encryption"
-//        final byte[] otherInfo = { 69, 110, 99, 114, 121, 112, 116, 105, 111, 110 };
-//        ConcatenationKeyDerivation kdfGen = new ConcatenationKeyDerivation(JsonUtil.SHA_256);
-//        return kdfGen.concatKDF(keyBytes, cekByteLength, otherInfo);
-//    }
-//
-//    private byte[] performMac(byte[] key, byte[] data) throws ProcessingException {
-//        Mac mac = null;
-//        try {
-//            mac = Mac.getInstance(jsonWebEncryptionHeader.getMessageAuthenticationCodeAlgo());
-//
-//            mac.init(new SecretKeySpec(key, mac.getAlgorithm()));
-//            mac.update(data);
-//            return mac.doFinal();
-//        } catch (Exception e) {
-//            throw MESSAGES.processingException(e);
-//        }
-//    }
-//
-//    private boolean byteEquals(byte[] b1, byte[] b2) {
-//        // Check if the addresses match
-//        if (b1 == b2) {
-//            return true;
-//        }
-//
-//        // Check if either one is null
-//        if (b1 == null || b2 == null) {
-//            return false;
-//        }
-//
-//        // Match on the lengths
-//        if (b1.length != b2.length) {
-//            return false;
-//        }
-//
-//        // Match each byte
-//        int notMatching = 0;
-//
-//        for (int index = 0; index != b1.length; index++) {
-//            notMatching |= (b1[index] ^ b2[index]);
-//        }
-//        return notMatching == 0;
-//    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PARTS = 5;
+    private static final int MAX_HEADER_LENGTH = 8 * 1024;
+    private static final int MAX_ENCRYPTED_KEY_LENGTH = 1024;
+
+    /**
+     * <p>The length of the ciphertext that is kept in memory while a stream is decrypted. Longer ciphertexts are
+     * written to a temporary file.</p>
+     */
+    public static final int MAX_BUFFERED_CONTENT_LENGTH = 1024 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Map<KeyManagementAlgorithm, Cipher>> KEY_CIPHERS = new ThreadLocal<Map<KeyManagementAlgorithm, Cipher>>() {
+        @Override
+        protected Map<KeyManagementAlgorithm, Cipher> initialValue() {
+            return new LinkedHashMap<KeyManagementAlgorithm, Cipher>();
+        }
+    };
+
+    private static final ContentKeyCache CONTENT_KEYS = new ContentKeyCache();
+
+    private final JsonWebEncryptionHeader header;
+
+    public JsonWebEncryption(JsonWebEncryptionHeader header) {
+        if (header == null) {
+            throw MESSAGES.invalidNullArgument("Header");
+        }
+
+        this.header = header;
+    }
+
+    public JsonWebEncryptionHeader getHeader() {
+        return this.header;
+    }
+
+    /**
+     * <p>Encrypts the given content and returns the compact serialization.</p>
+     *
+     * @param plainText
+     * @param key The shared symmetric key when the algorithm is <code>dir</code>, or the public key of the recipient.
+     * @return
+     */
+    public String encrypt(byte[] plainText, Key key) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Base64Url.getEncodedLength(plainText.length) + 512);
+
+        try {
+            encrypt(new ByteArrayInputStream(plainText), outputStream, key);
+
+            return outputStream.toString("US-ASCII");
+        } catch (IOException e) {
+            throw MESSAGES.cryptoEncryptionFailed(this.header.getEncryptionAlgorithm().name(), e);
+        }
+    }
+
+    /**
+     * <p>Encrypts the content read from the given stream, until its end, and writes the compact serialization to the
+     * given stream. None of the streams is closed.</p>
+     *
+     * @param plainText
+     * @param output
+     * @param key The shared symmetric key when the algorithm is <code>dir</code>, or the public key of the recipient.
+     * @throws IOException
+     */
+    public void encrypt(InputStream plainText, OutputStream output, Key key) throws IOException {
+        EncryptionAlgorithm encryptionAlgorithm = this.header.getEncryptionAlgorithm();
+        byte[] contentKey;
+        byte[] encryptedKey;
+
+        if (KeyManagementAlgorithm.DIR.equals(this.header.getAlgorithm())) {
+            contentKey = getSharedKey(encryptionAlgorithm, key);
+            encryptedKey = new byte[0];
+        } else {
+            contentKey = new byte[encryptionAlgorithm.getKeyLength()];
+            RANDOM.nextBytes(contentKey);
+            encryptedKey = wrapKey(this.header.getAlgorithm(), contentKey, key);
+        }
+
+        byte[] iv = new byte[AESGCMCipher.IV_LENGTH];
+
+        RANDOM.nextBytes(iv);
+
+        byte[] encodedHeader = toASCII(this.header.getEncoded());
+        AESGCMCipher cipher = AESGCMCipher.encrypt(encryptionAlgorithm, contentKey, iv, encodedHeader);
+
+        output.write(encodedHeader);
+        output.write('.');
+        output.write(toASCII(Base64Url.encode(encryptedKey)));
+        output.write('.');
+        output.write(toASCII(Base64Url.encode(iv)));
+        output.write('.');
+
+        Base64Url.OutputStream cipherText = new Base64Url.OutputStream(output);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+
+        while ((read = plainText.read(buffer)) != -1) {
+            cipherText.write(buffer, 0, cipher.update(buffer, 0, read, buffer, 0));
+        }
+
+        cipherText.finish();
+
+        output.write('.');
+        output.write(toASCII(Base64Url.encode(cipher.getTag())));
+    }
+
+    /**
+     * <p>Decrypts the given compact serialization and returns the content.</p>
+     *
+     * @param jwe
+     * @param key The shared symmetric key when the algorithm is <code>dir</code>, or the private key of the recipient.
+     * @return
+     * @throws org.picketlink.json.JsonException if the content can not be decrypted or was changed.
+     */
+    public static byte[] decrypt(String jwe, Key key) {
+        if (jwe == null) {
+            throw MESSAGES.invalidNullArgument("JWE");
+        }
+
+        byte[] serialization = toASCII(jwe);
+        int[] periods = new int[PARTS - 1];
+        int count = 0;
+
+        for (int i = 0; i < serialization.length; i++) {
+            if (serialization[i] == '.') {
+                if (count == periods.length) {
+                    throw MESSAGES.invalidCompactSerialization(PARTS);
+                }
+
+                periods[count++] = i;
+            }
+        }
+
+        if (count != periods.length) {
+            throw MESSAGES.invalidCompactSerialization(PARTS);
+        }
+
+        JsonWebEncryptionHeader header = JsonWebEncryptionHeader.parse(jwe.substring(0, periods[0]));
+        byte[] encodedHeader = Arrays.copyOf(serialization, periods[0]);
+        String encodedKey = jwe.substring(periods[0] + 1, periods[1]);
+        byte[] iv = decodePart(serialization, periods[1] + 1, periods[2]);
+        byte[] cipherText = decodePart(serialization, periods[2] + 1, periods[3]);
+        byte[] tag = decodePart(serialization, periods[3] + 1, serialization.length);
+
+        AESGCMCipher cipher = AESGCMCipher.decrypt(header.getEncryptionAlgorithm(),
+            getContentKey(header, encodedKey, key), checkIV(iv), encodedHeader);
+
+        cipher.update(cipherText, 0, cipherText.length, cipherText, 0);
+        cipher.verify(tag);
+
+        return cipherText;
+    }
+
+    /**
+     * <p>Decrypts the compact serialization read from the given stream, until its end, and writes the content to the
+     * given stream. None of the streams is closed.</p>
+     *
+     * <p>Nothing is written unless the authentication tag is verified. The ciphertext is read and authenticated first,
+     * and then decrypted again from the {@link CipherTextBuffer} that kept it.</p>
+     *
+     * @param jwe
+     * @param plainText
+     * @param key The shared symmetric key when the algorithm is <code>dir</code>, or the private key of the recipient.
+     * @return The header of the decrypted JWE.
+     * @throws IOException
+     * @throws org.picketlink.json.JsonException if the content can not be decrypted or was changed.
+     */
+    public static JsonWebEncryptionHeader decrypt(InputStream jwe, OutputStream plainText, Key key) throws IOException {
+        Base64Url.InputStream parts = new Base64Url.InputStream(jwe);
+        byte[] encodedHeader = parts.readEncodedPart(MAX_HEADER_LENGTH);
+        JsonWebEncryptionHeader header = JsonWebEncryptionHeader.parse(new String(encodedHeader, "US-ASCII"));
+
+        nextPart(parts);
+
+        String encodedKey = new String(parts.readEncodedPart(Base64Url.getEncodedLength(MAX_ENCRYPTED_KEY_LENGTH)),
+            "US-ASCII");
+
+        nextPart(parts);
+
+        byte[] iv = checkIV(parts.readPart(AESGCMCipher.IV_LENGTH));
+
+        nextPart(parts);
+
+        EncryptionAlgorithm encryptionAlgorithm = header.getEncryptionAlgorithm();
+        byte[] contentKey = getContentKey(header, encodedKey, key);
+        AESGCMCipher cipher = AESGCMCipher.decrypt(encryptionAlgorithm, contentKey, iv, encodedHeader);
+        CipherTextBuffer cipherText = new CipherTextBuffer();
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] discarded = new byte[BUFFER_SIZE];
+            int read;
+
+            while ((read = parts.read(buffer, 0, buffer.length)) != -1) {
+                cipherText.write(buffer, 0, read);
+                cipher.update(buffer, 0, read, discarded, 0);
+            }
+
+            nextPart(parts);
+
+            byte[] tag = parts.readPart(AESGCMCipher.TAG_LENGTH);
+
+            if (parts.nextPart()) {
+                throw MESSAGES.invalidCompactSerialization(PARTS);
+            }
+
+            cipher.verify(tag);
+
+            // the content is authentic, decrypt it again to release it
+            cipher = AESGCMCipher.decrypt(encryptionAlgorithm, contentKey, iv, encodedHeader);
+
+            InputStream content = cipherText.getInputStream();
+
+            try {
+                while ((read = content.read(buffer, 0, buffer.length)) != -1) {
+                    plainText.write(buffer, 0, cipher.update(buffer, 0, read, buffer, 0));
+                }
+            } finally {
+                content.close();
+            }
+
+            cipher.verify(tag);
+        } finally {
+            cipherText.delete();
+        }
+
+        return header;
+    }
+
+    private static void nextPart(Base64Url.InputStream parts) throws IOException {
+        if (!parts.nextPart()) {
+            throw MESSAGES.invalidCompactSerialization(PARTS);
+        }
+    }
+
+    private static byte[] decodePart(byte[] serialization, int start, int end) {
+        return Base64Url.decode(serialization, start, end - start);
+    }
+
+    private static byte[] checkIV(byte[] iv) {
+        if (iv.length != AESGCMCipher.IV_LENGTH) {
+            throw MESSAGES.invalidCompactSerialization(PARTS);
+        }
+
+        return iv;
+    }
+
+    private static byte[] getContentKey(JsonWebEncryptionHeader header, String encodedKey, Key key) {
+        EncryptionAlgorithm encryptionAlgorithm = header.getEncryptionAlgorithm();
+        KeyManagementAlgorithm algorithm = header.getAlgorithm();
+
+        if (KeyManagementAlgorithm.DIR.equals(algorithm)) {
+            if (encodedKey.length() != 0) {
+                throw MESSAGES.invalidCompactSerialization(PARTS);
+            }
+
+            return getSharedKey(encryptionAlgorithm, key);
+        }
+
+        if (!(key instanceof PrivateKey)) {
+            throw MESSAGES.cryptoInvalidEncryptionKey(algorithm.getName());
+        }
+
+        byte[] contentKey = CONTENT_KEYS.get(encodedKey, key);
+
+        if (contentKey == null) {
+            contentKey = unwrapKey(algorithm, Base64Url.decode(encodedKey), key);
+
+            // a key that can not be decrypted is replaced by a random one, so that the failure is only reported by the
+            // verification of the tag and no oracle on the key decryption is exposed
+            if (contentKey == null || contentKey.length != encryptionAlgorithm.getKeyLength()) {
+                contentKey = new byte[encryptionAlgorithm.getKeyLength()];
+                RANDOM.nextBytes(contentKey);
+            } else {
+                CONTENT_KEYS.put(encodedKey, key, contentKey);
+            }
+        }
+
+        return contentKey;
+    }
+
+    private static byte[] getSharedKey(EncryptionAlgorithm encryptionAlgorithm, Key key) {
+        byte[] encoded = key != null ? key.getEncoded() : null;
+
+        if (encoded == null || encoded.length != encryptionAlgorithm.getKeyLength()) {
+            throw MESSAGES.cryptoInvalidEncryptionKey(encryptionAlgorithm.name());
+        }
+
+        return encoded;
+    }
+
+    private static byte[] wrapKey(KeyManagementAlgorithm algorithm, byte[] contentKey, Key key) {
+        if (!(key instanceof PublicKey)) {
+            throw MESSAGES.cryptoInvalidEncryptionKey(algorithm.getName());
+        }
+
+        try {
+            Cipher cipher = getKeyCipher(algorithm);
+
+            cipher.init(Cipher.ENCRYPT_MODE, key, RANDOM);
+
+            return cipher.doFinal(contentKey);
+        } catch (GeneralSecurityException e) {
+            throw MESSAGES.cryptoEncryptionFailed(algorithm.getName(), e);
+        }
+    }
+
+    private static byte[] unwrapKey(KeyManagementAlgorithm algorithm, byte[] encryptedKey, Key key) {
+        Cipher cipher = getKeyCipher(algorithm);
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key);
+        } catch (GeneralSecurityException e) {
+            throw MESSAGES.cryptoDecryptionFailed(algorithm.getName(), e);
+        }
+
+        try {
+            return cipher.doFinal(encryptedKey);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static Cipher getKeyCipher(KeyManagementAlgorithm algorithm) {
+        Map<KeyManagementAlgorithm, Cipher> ciphers = KEY_CIPHERS.get();
+        Cipher cipher = ciphers.get(algorithm);
+
+        if (cipher == null) {
+            try {
+                cipher = Cipher.getInstance(algorithm.getTransformation());
+            } catch (GeneralSecurityException e) {
+                throw MESSAGES.cryptoNoSuchAlgorithm(algorithm.getTransformation(), e);
+            }
+
+            ciphers.put(algorithm, cipher);
+        }
+
+        return cipher;
+    }
+
+    private static byte[] toASCII(String value) {
+        try {
+            return value.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * <p>Keeps the ciphertext of a stream until its tag is verified: in memory up to
+     * {@link #MAX_BUFFERED_CONTENT_LENGTH} bytes, and in a temporary file beyond. The ciphertext does not need to be
+     * protected, so the file is only deleted once the content is decrypted.</p>
+     */
+    private static class CipherTextBuffer {
+
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileOutput;
+
+        void write(byte[] b, int off, int len) throws IOException {
+            if (this.file == null && this.memory.size() + len > MAX_BUFFERED_CONTENT_LENGTH) {
+                this.file = File.createTempFile("picketlink-jwe", ".tmp");
+                this.fileOutput = new BufferedOutputStream(new FileOutputStream(this.file), BUFFER_SIZE);
+                this.memory.writeTo(this.fileOutput);
+                this.memory = null;
+            }
+
+            if (this.file != null) {
+                this.fileOutput.write(b, off, len);
+            } else {
+                this.memory.write(b, off, len);
+            }
+        }
+
+        InputStream getInputStream() throws IOException {
+            if (this.file == null) {
+                return new ByteArrayInputStream(this.memory.toByteArray());
+            }
+
+            this.fileOutput.close();
+            this.fileOutput = null;
+
+            return new BufferedInputStream(new FileInputStream(this.file), BUFFER_SIZE);
+        }
+
+        void delete() {
+            if (this.file != null) {
+                if (this.fileOutput != null) {
+                    try {
+                        this.fileOutput.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+
+                this.file.delete();
+            }
+        }
+    }
+
+    /**
+     * <p>The content encryption keys most recently decrypted, by encrypted key, so that a key that is used for many
+     * messages, like the key of a session, is only decrypted once per recipient key.</p>
+     */
+    private static class ContentKeyCache {
+
+        private static final int MAX_SIZE = 256;
+
+        private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+
+        synchronized byte[] get(String encryptedKey, Key key) {
+            Entry entry = this.entries.get(encryptedKey);
+
+            // the same encrypted key only maps to the same content key for the same recipient key
+            if (entry == null || entry.key != key) {
+                return null;
+            }
+
+            return entry.contentKey;
+        }
+
+        synchronized void put(String encryptedKey, Key key, byte[] contentKey) {
+            this.entries.put(encryptedKey, new Entry(key, contentKey));
+        }
+
+        private static class Entry {
+
+            private final Key key;
+            private final byte[] contentKey;
+
+            Entry(Key key, byte[] contentKey) {
+                this.key = key;
+                this.contentKey = contentKey;
+            }
+        }
+    }
 }
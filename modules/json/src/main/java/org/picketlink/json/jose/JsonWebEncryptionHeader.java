@@ -17,204 +17,182 @@
  */
 package org.picketlink.json.jose;
 
+import org.picketlink.json.jose.crypto.EncryptionAlgorithm;
+import org.picketlink.json.jose.crypto.KeyManagementAlgorithm;
+import org.picketlink.json.util.Base64Url;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+
+import static org.picketlink.json.JsonConstants.COMMON.ALG;
+import static org.picketlink.json.JsonConstants.COMMON.ENC;
+import static org.picketlink.json.JsonConstants.JWT.HEADER_CONTENT_TYPE;
+import static org.picketlink.json.JsonConstants.KID;
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
 /**
- * Represents the JsonWebEncryptionHeader
+ * <p>The header of a {@link JsonWebEncryption}, which names the algorithms that determine the content encryption key
+ * and encrypt the content. The header is encoded once, and the encoded form is the additional authenticated data of
+ * the encryption.</p>
  *
  * @author anil saldhana
  * @since Jul 27, 2012
  */
 public class JsonWebEncryptionHeader {
-//FIXME: need to review JWE and support JSR-353
-//    private JSONObject delegate;
-//
-//    /**
-//     * Get the underlying {@link JSONObject}
-//     *
-//     * @return
-//     */
-//    public JSONObject getDelegate() {
-//        return delegate;
-//    }
-//
-//    /**
-//     * Set the underlying {@link JSONObject}
-//     *
-//     * @param delegate
-//     */
-//    public void setDelegate(JSONObject delegate) {
-//        this.delegate = delegate;
-//    }
-//
-//    /**
-//     * Check if there is a need for integrity value
-//     *
-//     * @return
-//     */
-//    public boolean needIntegrity() {
-//        if (delegate != null)
-//            try {
-//                return delegate.getString("int") != null;
-//            } catch (JSONException e) {
-//                throw PicketLinkJSONMessages.MESSAGES.ignorableError(e);
-//            }
-//        else
-//            return false;
-//    }
-//
-//    /**
-//     * Based on the alg entry, determine the {@link Cipher}
-//     *
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    public Cipher getCipherBasedOnAlg() throws ProcessingException {
-//        try {
-//            if (delegate == null) {
-//                return Cipher.getInstance("RSA/ECB/PKCS1Padding");
-//            }
-//
-//            if (JsonConstants.JWE.ENC_ALG_RSA_OAEP.equals(delegate.getString(ALG))) {
-//                return Cipher.getInstance("RSA/ECB/OAEPWithSHA1AndMGF1Padding");
-//            } else if (JsonConstants.JWE.ENC_ALG_RSA1_5.equals(delegate.getString(ALG))) {
-//                return Cipher.getInstance("RSA/ECB/PKCS1Padding");
-//            }
-//        } catch (Exception e) {
-//            throw PicketLinkJSONMessages.MESSAGES.processingException(e);
-//        }
-//        return null;
-//    }
-//
-//    /**
-//     * Based on the enc entry, determine the {@link Cipher}
-//     *
-//     * @return
-//     * @throws ProcessingException
-//     */
-//    public Cipher getCipherBasedOnEnc() throws ProcessingException {
-//        if (delegate != null) {
-//            String enc = null;
-//            try {
-//                enc = delegate.getString(ENC);
-//            } catch (JSONException e1) {
-//                throw PicketLinkJSONMessages.MESSAGES.ignorableError(e1);
-//            }
-//            if (enc.contains("CBC")) {
-//                try {
-//                    return Cipher.getInstance("AES/CBC/PKCS5Padding");
-//                } catch (Exception e) {
-//                    throw PicketLinkJSONMessages.MESSAGES.processingException(e);
-//                }
-//            }
-//        }
-//        return null;
-//    }
-//
-//    /**
-//     * Get the CEK length
-//     *
-//     * @return
-//     */
-//    public int getCEKLength() {
-//        int cekLength = 128 / 8;
-//        if (delegate == null)
-//            return cekLength;
-//
-//        String enc = null;
-//        try {
-//            enc = delegate.getString(ENC);
-//        } catch (JSONException e) {
-//            throw PicketLinkJSONMessages.MESSAGES.ignorableError(e);
-//        }
-//        if (ENC_ALG_A128CBC.equals(enc)) {
-//            cekLength = 128 / 8;
-//        } else if (ENC_ALG_A192CBC.equals(enc)) {
-//            cekLength = 192 / 8;
-//        } else if (ENC_ALG_A256CBC.equals(enc)) {
-//            cekLength = 256 / 8;
-//        } else if (ENC_ALG_A512CBC.equals(enc)) {
-//            cekLength = 512 / 8;
-//        }
-//        return cekLength;
-//    }
-//
-//    /**
-//     * Get the CIK length
-//     *
-//     * @return
-//     */
-//    public int getCIKLength() {
-//        int cikLength = 256 / 8;
-//        if (delegate == null)
-//            return cikLength;
-//
-//        String integrity = null;
-//
-//        try {
-//            integrity = delegate.getString("int");
-//        } catch (JSONException e) {
-//            throw PicketLinkJSONMessages.MESSAGES.ignorableError(e);
-//        }
-//
-//        if (SIGN_ALG_HS256.equals(integrity)) {
-//            cikLength = 256 / 8;
-//        } else if (SIGN_ALG_HS384.equals(integrity)) {
-//            cikLength = 384 / 8;
-//        } else if (SIGN_ALG_HS512.equals(integrity)) {
-//            cikLength = 512 / 8;
-//        }
-//        return cikLength;
-//    }
-//
-//    /**
-//     * Get the Message Authentication Code algorithm
-//     *
-//     * @return
-//     */
-//    public String getMessageAuthenticationCodeAlgo() {
-//        String algo = "HMACSHA256";
-//        if (delegate == null)
-//            return algo;
-//
-//        String integrity = null;
-//
-//        try {
-//            integrity = delegate.getString("int");
-//        } catch (JSONException e) {
-//            throw PicketLinkJSONMessages.MESSAGES.ignorableError(e);
-//        }
-//
-//        if ("HS256".equals(integrity)) { // HMAC SHA-256
-//            algo = "HMACSHA256";
-//        } else if ("HS384".equals(integrity)) { // HMAC SHA-384
-//            algo = "HMACSHA384";
-//        } else if ("HS512".equals(integrity)) { // HMAC SHA-512
-//            algo = "HMACSHA512";
-//        }
-//        return algo;
-//    }
-//
-//    /**
-//     * Given a JSON String, load internals
-//     *
-//     * @param json
-//     * @throws ProcessingException
-//     */
-//    public void load(String json) throws ProcessingException {
-//        try {
-//            this.delegate = new JSONObject(json);
-//        } catch (JSONException j) {
-//            throw PicketLinkJSONMessages.MESSAGES.processingException(j);
-//        }
-//    }
-//
-//    /**
-//     * Provide a JSON Representation
-//     */
-//    @Override
-//    public String toString() {
-//        if (delegate == null)
-//            return "";
-//
-//        return delegate.toString();
-//    }
+
+    private final JsonObject headers;
+    private final String encoded;
+
+    public JsonWebEncryptionHeader(KeyManagementAlgorithm algorithm, EncryptionAlgorithm encryptionAlgorithm) {
+        this(algorithm, encryptionAlgorithm, null, null);
+    }
+
+    /**
+     * @param algorithm
+     * @param encryptionAlgorithm
+     * @param keyId The id of the key that determines the content encryption key, or null.
+     * @param contentType The type of the content, or null.
+     */
+    public JsonWebEncryptionHeader(KeyManagementAlgorithm algorithm, EncryptionAlgorithm encryptionAlgorithm, String keyId,
+        String contentType) {
+        this(createHeaders(algorithm, encryptionAlgorithm, keyId, contentType));
+    }
+
+    public JsonWebEncryptionHeader(JsonObject headers) {
+        this(headers, encode(headers));
+    }
+
+    private JsonWebEncryptionHeader(JsonObject headers, String encoded) {
+        this.headers = headers;
+        this.encoded = encoded;
+
+        // the algorithms must be known before anything is encrypted or decrypted
+        getAlgorithm();
+        getEncryptionAlgorithm();
+    }
+
+    /**
+     * <p>Creates an instance from its encoded form, as found in the compact serialization.</p>
+     *
+     * @param encoded
+     * @return
+     */
+    public static JsonWebEncryptionHeader parse(String encoded) {
+        JsonObject headers;
+
+        try {
+            headers = Json.createReader(new ByteArrayInputStream(Base64Url.decode(encoded))).readObject();
+        } catch (RuntimeException e) {
+            throw MESSAGES.invalidFormat(encoded);
+        }
+
+        return new JsonWebEncryptionHeader(headers, encoded);
+    }
+
+    public KeyManagementAlgorithm getAlgorithm() {
+        return KeyManagementAlgorithm.resolve(getRequiredHeader(ALG));
+    }
+
+    public EncryptionAlgorithm getEncryptionAlgorithm() {
+        return EncryptionAlgorithm.resolve(getRequiredHeader(ENC));
+    }
+
+    public String getKeyId() {
+        return getHeader(KID);
+    }
+
+    public String getContentType() {
+        return getHeader(HEADER_CONTENT_TYPE);
+    }
+
+    /**
+     * <p>Returns a header given its name, or null if the header is not present or is not a string.</p>
+     *
+     * @param name
+     * @return
+     */
+    public String getHeader(String name) {
+        JsonValue value = this.headers.get(name);
+
+        if (value instanceof JsonString) {
+            return ((JsonString) value).getString();
+        }
+
+        return null;
+    }
+
+    public JsonObject getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * <p>Returns the base64url encoding of the header.</p>
+     *
+     * @return
+     */
+    public String getEncoded() {
+        return this.encoded;
+    }
+
+    @Override
+    public String toString() {
+        return toJson(this.headers);
+    }
+
+    private String getRequiredHeader(String name) {
+        String value = getHeader(name);
+
+        if (value == null) {
+            throw MESSAGES.missingHeader(name);
+        }
+
+        return value;
+    }
+
+    private static JsonObject createHeaders(KeyManagementAlgorithm algorithm, EncryptionAlgorithm encryptionAlgorithm,
+        String keyId, String contentType) {
+        if (algorithm == null) {
+            throw MESSAGES.invalidNullArgument("Algorithm");
+        }
+
+        if (encryptionAlgorithm == null) {
+            throw MESSAGES.invalidNullArgument("Encryption Algorithm");
+        }
+
+        JsonObjectBuilder builder = Json.createObjectBuilder()
+            .add(ALG, algorithm.getName())
+            .add(ENC, encryptionAlgorithm.name());
+
+        if (keyId != null) {
+            builder.add(KID, keyId);
+        }
+
+        if (contentType != null) {
+            builder.add(HEADER_CONTENT_TYPE, contentType);
+        }
+
+        return builder.build();
+    }
+
+    private static String encode(JsonObject headers) {
+        try {
+            return Base64Url.encode(toJson(headers).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw MESSAGES.failEncodeToken(e);
+        }
+    }
+
+    private static String toJson(JsonObject headers) {
+        StringWriter writer = new StringWriter();
+
+        Json.createWriter(writer).writeObject(headers);
+
+        return writer.toString();
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>AES in Galois/Counter Mode, with a 96 bits initialization vector and a 128 bits authentication tag.</p>
+ *
+ * <p>The content is encrypted in counter mode by the AES {@link javax.crypto.Cipher} of the platform, which uses the
+ * AES instructions of the processor when they are available, and authenticated with {@link GHash}. Content of any
+ * length is processed with a fixed amount of memory, by calling {@link #update(byte[], int, int, byte[], int)} for each
+ * piece of it. Unlike the GCM {@link javax.crypto.Cipher}, decryption does not hold back the plaintext until the tag
+ * is verified: it must be discarded if {@link #verify(byte[])} fails, which
+ * {@link org.picketlink.json.jose.JsonWebEncryption} does by only releasing content that it has verified.</p>
+ *
+ * <p>The ciphers are reused by the operations of the same thread. An instance must not be shared between threads.</p>
+ */
+public final class AESGCMCipher {
+
+    public static final int IV_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    private static final int BLOCK_SIZE = 16;
+
+    // a counter of 32 bits starting at 2 for the content
+    private static final long MAX_CONTENT_LENGTH = (0xffffffffL - 1) * BLOCK_SIZE;
+
+    private static final ThreadLocal<Ciphers> CIPHERS = new ThreadLocal<Ciphers>();
+
+    private final EncryptionAlgorithm algorithm;
+    private final boolean encrypt;
+    private final byte[] tagMask;
+    private Ciphers ciphers;
+    private long aadLength;
+    private long contentLength;
+
+    private AESGCMCipher(EncryptionAlgorithm algorithm, boolean encrypt, byte[] key, byte[] iv, byte[] aad) {
+        if (key == null || key.length != algorithm.getKeyLength()) {
+            throw MESSAGES.cryptoInvalidEncryptionKey(algorithm.name());
+        }
+
+        if (iv == null || iv.length != IV_LENGTH) {
+            throw MESSAGES.invalidNullArgument("Initialization Vector");
+        }
+
+        this.algorithm = algorithm;
+        this.encrypt = encrypt;
+        this.ciphers = acquireCiphers();
+
+        try {
+            SecretKeySpec secretKey = new SecretKeySpec(key, "AES");
+
+            this.ciphers.block.init(Cipher.ENCRYPT_MODE, secretKey);
+            this.ciphers.hash.init(this.ciphers.block.doFinal(new byte[BLOCK_SIZE]));
+
+            byte[] counter = new byte[BLOCK_SIZE];
+
+            System.arraycopy(iv, 0, counter, 0, IV_LENGTH);
+            counter[BLOCK_SIZE - 1] = 1;
+
+            // the first block of the key stream masks the tag, and the content is encrypted with the next ones
+            this.ciphers.counter.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(counter));
+            this.tagMask = this.ciphers.counter.update(new byte[BLOCK_SIZE]);
+        } catch (GeneralSecurityException e) {
+            this.ciphers = null;
+
+            if (encrypt) {
+                throw MESSAGES.cryptoEncryptionFailed(algorithm.name(), e);
+            }
+
+            throw MESSAGES.cryptoDecryptionFailed(algorithm.name(), e);
+        }
+
+        if (aad != null) {
+            this.ciphers.hash.update(aad, 0, aad.length);
+            this.ciphers.hash.pad();
+            this.aadLength = aad.length;
+        }
+    }
+
+    /**
+     * <p>Creates a cipher that encrypts content.</p>
+     *
+     * @param algorithm
+     * @param key The content encryption key.
+     * @param iv
+     * @param aad The additional authenticated data, or null.
+     * @return
+     */
+    public static AESGCMCipher encrypt(EncryptionAlgorithm algorithm, byte[] key, byte[] iv, byte[] aad) {
+        return new AESGCMCipher(algorithm, true, key, iv, aad);
+    }
+
+    /**
+     * <p>Creates a cipher that decrypts content.</p>
+     *
+     * @param algorithm
+     * @param key The content encryption key.
+     * @param iv
+     * @param aad The additional authenticated data, or null.
+     * @return
+     */
+    public static AESGCMCipher decrypt(EncryptionAlgorithm algorithm, byte[] key, byte[] iv, byte[] aad) {
+        return new AESGCMCipher(algorithm, false, key, iv, aad);
+    }
+
+    /**
+     * <p>Encrypts or decrypts <code>len</code> bytes of the input, and writes the same number of bytes to the
+     * output.</p>
+     *
+     * @param input
+     * @param off
+     * @param len
+     * @param output
+     * @param outputOff
+     * @return The number of bytes written.
+     */
+    public int update(byte[] input, int off, int len, byte[] output, int outputOff) {
+        Ciphers ciphers = getCiphers();
+
+        this.contentLength += len;
+
+        if (this.contentLength > MAX_CONTENT_LENGTH) {
+            throw failure(null);
+        }
+
+        // the tag authenticates the ciphertext, which is the input when decrypting
+        if (!this.encrypt) {
+            ciphers.hash.update(input, off, len);
+        }
+
+        try {
+            int written = ciphers.counter.update(input, off, len, output, outputOff);
+
+            if (this.encrypt) {
+                ciphers.hash.update(output, outputOff, written);
+            }
+
+            return written;
+        } catch (GeneralSecurityException e) {
+            throw failure(e);
+        }
+    }
+
+    /**
+     * <p>Finishes the encryption and returns the authentication tag.</p>
+     *
+     * @return
+     */
+    public byte[] getTag() {
+        if (!this.encrypt) {
+            throw new IllegalStateException("The tag is only created when encrypting.");
+        }
+
+        return computeTag();
+    }
+
+    /**
+     * <p>Finishes the decryption and verifies the given authentication tag.</p>
+     *
+     * @param tag
+     * @throws org.picketlink.json.JsonException if the tag does not match the content.
+     */
+    public void verify(byte[] tag) {
+        if (this.encrypt) {
+            throw new IllegalStateException("The tag is only verified when decrypting.");
+        }
+
+        if (!MessageDigest.isEqual(computeTag(), tag)) {
+            throw MESSAGES.cryptoInvalidAuthenticationTag();
+        }
+    }
+
+    private byte[] computeTag() {
+        byte[] tag = getCiphers().hash.finish(this.aadLength * 8, this.contentLength * 8);
+
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            tag[i] ^= this.tagMask[i];
+        }
+
+        releaseCiphers(this.ciphers);
+        this.ciphers = null;
+
+        return tag;
+    }
+
+    private Ciphers getCiphers() {
+        if (this.ciphers == null) {
+            throw new IllegalStateException("The operation is finished.");
+        }
+
+        return this.ciphers;
+    }
+
+    private RuntimeException failure(Exception cause) {
+        if (this.encrypt) {
+            return MESSAGES.cryptoEncryptionFailed(this.algorithm.name(), cause);
+        }
+
+        return MESSAGES.cryptoDecryptionFailed(this.algorithm.name(), cause);
+    }
+
+    // the ciphers are taken from the thread while in use, so that two operations of a thread never share them
+    private static Ciphers acquireCiphers() {
+        Ciphers ciphers = CIPHERS.get();
+
+        if (ciphers != null) {
+            CIPHERS.set(null);
+            return ciphers;
+        }
+
+        try {
+            return new Ciphers(Cipher.getInstance("AES/ECB/NoPadding"), Cipher.getInstance("AES/CTR/NoPadding"));
+        } catch (GeneralSecurityException e) {
+            throw MESSAGES.cryptoNoSuchAlgorithm("AES", e);
+        }
+    }
+
+    private static void releaseCiphers(Ciphers ciphers) {
+        CIPHERS.set(ciphers);
+    }
+
+    private static class Ciphers {
+
+        private final Cipher block;
+        private final Cipher counter;
+        private final GHash hash = new GHash();
+
+        Ciphers(Cipher block, Cipher counter) {
+            this.block = block;
+            this.counter = counter;
+        }
+    }
+}
@@ -21,6 +21,8 @@
  */
 package org.picketlink.json.jose.crypto;
 
+import static org.picketlink.json.JsonConstants.JWK.KEY_TYPE_OCT;
+import static org.picketlink.json.JsonConstants.RSA;
 import static org.picketlink.json.JsonMessages.MESSAGES;
 
 /**
@@ -30,30 +32,41 @@ import static org.picketlink.json.JsonMessages.MESSAGES;
  */
 public enum Algorithm {
 
-    NONE("none", null),
+    NONE("none", null, null),
 
     // HMAC
-    HS256("HMACSHA256", HMACSignatureProvider.instance()),
-    HS384("HMACSHA384", HMACSignatureProvider.instance()),
-    HS512("HMACSHA512", HMACSignatureProvider.instance()),
+    HS256("HMACSHA256", HMACSignatureProvider.instance(), KEY_TYPE_OCT),
+    HS384("HMACSHA384", HMACSignatureProvider.instance(), KEY_TYPE_OCT),
+    HS512("HMACSHA512", HMACSignatureProvider.instance(), KEY_TYPE_OCT),
 
     // RSASSA-PKCS1-v1_5
-    RS256("SHA256withRSA", RSASignatureProvider.instance()),
-    RS384("SHA384withRSA", RSASignatureProvider.instance()),
-    RS512("SHA512withRSA", RSASignatureProvider.instance());
+    RS256("SHA256withRSA", RSASignatureProvider.instance(), RSA),
+    RS384("SHA384withRSA", RSASignatureProvider.instance(), RSA),
+    RS512("SHA512withRSA", RSASignatureProvider.instance(), RSA);
 
     private final String algorithm;
     private final SignatureProvider signatureProvider;
+    private final String keyType;
 
-    Algorithm(String algorithm, SignatureProvider signatureProvider) {
+    Algorithm(String algorithm, SignatureProvider signatureProvider, String keyType) {
         this.algorithm = algorithm;
         this.signatureProvider = signatureProvider;
+        this.keyType = keyType;
     }
 
     public String getAlgorithm() {
         return this.algorithm;
     }
 
+    /**
+     * <p>The type of the JSON Web Keys that can be used with this algorithm, or null if no key is used.</p>
+     *
+     * @return
+     */
+    public String getKeyType() {
+        return this.keyType;
+    }
+
     public boolean isNone() {
         return NONE.equals(this);
     }
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose.crypto;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>{@link java.lang.Enum} representing the supported content encryption algorithms of JSON Web Encryption.</p>
+ */
+public enum EncryptionAlgorithm {
+
+    // AES in Galois/Counter Mode
+    A128GCM(16),
+    A192GCM(24),
+    A256GCM(32);
+
+    private final int keyLength;
+
+    EncryptionAlgorithm(int keyLength) {
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * <p>Returns the length of the content encryption key, in bytes.</p>
+     *
+     * @return
+     */
+    public int getKeyLength() {
+        return this.keyLength;
+    }
+
+    public static EncryptionAlgorithm resolve(String name) {
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException iae) {
+            throw MESSAGES.cryptoUnsupportedEncryptionAlgorithm(name);
+        }
+    }
+}
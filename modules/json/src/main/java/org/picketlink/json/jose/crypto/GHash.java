@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose.crypto;
+
+/**
+ * <p>The GHASH function of the Galois/Counter Mode, computed over data given in pieces of any length.</p>
+ *
+ * <p>The multiplication by the hash subkey uses a table of its products with every byte value, which is computed for
+ * each subkey. An instance can be initialized again with another subkey, so that the table is reused.</p>
+ */
+final class GHash {
+
+    private static final int BLOCK_SIZE = 16;
+
+    // reduction of the byte shifted out when multiplying by x^8
+    private static final long[] REDUCTION = new long[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            long[] value = {0, i};
+
+            for (int bit = 0; bit < 8; bit++) {
+                multiplyByX(value);
+            }
+
+            REDUCTION[i] = value[0];
+        }
+    }
+
+    private final long[] productsHigh = new long[256];
+    private final long[] productsLow = new long[256];
+    private final byte[] partialBlock = new byte[BLOCK_SIZE];
+    private int partialLength;
+    private long hashHigh;
+    private long hashLow;
+
+    /**
+     * <p>Starts a new hash with the given subkey.</p>
+     *
+     * @param subkey the hash subkey, which is the encryption of the zero block.
+     */
+    void init(byte[] subkey) {
+        long[] value = {toLong(subkey, 0), toLong(subkey, 8)};
+
+        // the most significant bit of a byte is the coefficient of the lowest degree
+        for (int i = 0x80; i > 0; i >>= 1) {
+            this.productsHigh[i] = value[0];
+            this.productsLow[i] = value[1];
+            multiplyByX(value);
+        }
+
+        this.productsHigh[0] = 0;
+        this.productsLow[0] = 0;
+
+        for (int i = 2; i < 256; i <<= 1) {
+            for (int j = 1; j < i; j++) {
+                this.productsHigh[i + j] = this.productsHigh[i] ^ this.productsHigh[j];
+                this.productsLow[i + j] = this.productsLow[i] ^ this.productsLow[j];
+            }
+        }
+
+        this.hashHigh = 0;
+        this.hashLow = 0;
+        this.partialLength = 0;
+    }
+
+    void update(byte[] data, int off, int len) {
+        int end = off + len;
+
+        if (this.partialLength > 0) {
+            int count = Math.min(BLOCK_SIZE - this.partialLength, len);
+
+            System.arraycopy(data, off, this.partialBlock, this.partialLength, count);
+            this.partialLength += count;
+            off += count;
+
+            if (this.partialLength < BLOCK_SIZE) {
+                return;
+            }
+
+            block(this.partialBlock, 0);
+            this.partialLength = 0;
+        }
+
+        while (end - off >= BLOCK_SIZE) {
+            block(data, off);
+            off += BLOCK_SIZE;
+        }
+
+        if (off < end) {
+            System.arraycopy(data, off, this.partialBlock, 0, end - off);
+            this.partialLength = end - off;
+        }
+    }
+
+    /**
+     * <p>Completes the last block with zeros, as done at the end of the additional data and of the ciphertext.</p>
+     */
+    void pad() {
+        if (this.partialLength > 0) {
+            for (int i = this.partialLength; i < BLOCK_SIZE; i++) {
+                this.partialBlock[i] = 0;
+            }
+
+            block(this.partialBlock, 0);
+            this.partialLength = 0;
+        }
+    }
+
+    /**
+     * <p>Returns the hash, after the block with the lengths of the additional data and of the ciphertext.</p>
+     *
+     * @param aadBits
+     * @param cipherTextBits
+     * @return
+     */
+    byte[] finish(long aadBits, long cipherTextBits) {
+        pad();
+
+        multiply(this.hashHigh ^ aadBits, this.hashLow ^ cipherTextBits);
+
+        byte[] hash = new byte[BLOCK_SIZE];
+
+        toBytes(this.hashHigh, hash, 0);
+        toBytes(this.hashLow, hash, 8);
+
+        return hash;
+    }
+
+    private void block(byte[] data, int off) {
+        multiply(this.hashHigh ^ toLong(data, off), this.hashLow ^ toLong(data, off + 8));
+    }
+
+    // multiplies the given block by the subkey, one byte at a time starting from the last
+    private void multiply(long high, long low) {
+        int index = (int) low & 0xff;
+        long resultHigh = this.productsHigh[index];
+        long resultLow = this.productsLow[index];
+
+        for (int shift = 8; shift < 64; shift += 8) {
+            int reduction = (int) resultLow & 0xff;
+
+            index = (int) (low >>> shift) & 0xff;
+            resultLow = ((resultLow >>> 8) | (resultHigh << 56)) ^ this.productsLow[index];
+            resultHigh = (resultHigh >>> 8) ^ REDUCTION[reduction] ^ this.productsHigh[index];
+        }
+
+        for (int shift = 0; shift < 64; shift += 8) {
+            int reduction = (int) resultLow & 0xff;
+
+            index = (int) (high >>> shift) & 0xff;
+            resultLow = ((resultLow >>> 8) | (resultHigh << 56)) ^ this.productsLow[index];
+            resultHigh = (resultHigh >>> 8) ^ REDUCTION[reduction] ^ this.productsHigh[index];
+        }
+
+        this.hashHigh = resultHigh;
+        this.hashLow = resultLow;
+    }
+
+    private static void multiplyByX(long[] value) {
+        boolean carry = (value[1] & 1) != 0;
+
+        value[1] = (value[1] >>> 1) | (value[0] << 63);
+        value[0] = value[0] >>> 1;
+
+        if (carry) {
+            value[0] ^= 0xe100000000000000L;
+        }
+    }
+
+    private static long toLong(byte[] data, int off) {
+        long value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[off + i] & 0xff);
+        }
+
+        return value;
+    }
+
+    private static void toBytes(long value, byte[] data, int off) {
+        for (int i = 7; i >= 0; i--) {
+            data[off + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -2,15 +2,29 @@ package org.picketlink.json.jose.crypto;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.util.Arrays;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.Map;
 
 import static org.picketlink.json.JsonMessages.MESSAGES;
 
 /**
+ * <p>{@link SignatureProvider} for the HMAC algorithms. Each thread keeps a {@link Mac} for each algorithm, which is only
+ * initialized again when it is used with another key.</p>
+ *
  * @author Pedro Igor
  */
 public class HMACSignatureProvider implements SignatureProvider {
 
+    private static final ThreadLocal<Map<Algorithm, KeyedMac>> MACS = new ThreadLocal<Map<Algorithm, KeyedMac>>() {
+        @Override
+        protected Map<Algorithm, KeyedMac> initialValue() {
+            return new EnumMap<Algorithm, KeyedMac>(Algorithm.class);
+        }
+    };
+
     private static HMACSignatureProvider instance;
 
     private HMACSignatureProvider() {
@@ -27,24 +41,63 @@ public class HMACSignatureProvider implements SignatureProvider {
 
     public byte[] sign(byte[] data, Algorithm algorithm, byte[] key) {
         try {
-            Mac mac = Mac.getInstance(algorithm.getAlgorithm());
-            SecretKeySpec keySpec = new SecretKeySpec(key, mac.getAlgorithm());
+            return sign(data, algorithm, new SecretKeySpec(key, algorithm.getAlgorithm()));
+        } catch (IllegalArgumentException e) {
+            throw MESSAGES.cryptoSignatureFailed(algorithm, e);
+        }
+    }
 
-            mac.init(keySpec);
-            mac.update(data);
+    public boolean verify(byte[] data, Algorithm algorithm, byte[] signature, byte[] key) {
+        try {
+            return verify(data, algorithm, signature, new SecretKeySpec(key, algorithm.getAlgorithm()));
+        } catch (IllegalArgumentException e) {
+            throw MESSAGES.cryptoSignatureValidationFailed(algorithm, e);
+        }
+    }
 
-            return mac.doFinal();
+    public byte[] sign(byte[] data, Algorithm algorithm, Key key) {
+        try {
+            return mac(data, algorithm, key);
         } catch (Exception e) {
             throw MESSAGES.cryptoSignatureFailed(algorithm, e);
         }
     }
 
-    public boolean verify(byte[] data, Algorithm algorithm, byte[] signature, byte[] key) {
+    public boolean verify(byte[] data, Algorithm algorithm, byte[] signature, Key key) {
         try {
-            return Arrays.equals(sign(data, algorithm, key), signature);
+            return MessageDigest.isEqual(mac(data, algorithm, key), signature);
         } catch (Exception e) {
             throw MESSAGES.cryptoSignatureValidationFailed(algorithm, e);
         }
     }
 
+    private byte[] mac(byte[] data, Algorithm algorithm, Key key) throws GeneralSecurityException {
+        Map<Algorithm, KeyedMac> macs = MACS.get();
+        KeyedMac keyedMac = macs.get(algorithm);
+
+        if (keyedMac == null) {
+            keyedMac = new KeyedMac(Mac.getInstance(algorithm.getAlgorithm()));
+            macs.put(algorithm, keyedMac);
+        }
+
+        if (keyedMac.key == null || !keyedMac.key.equals(key)) {
+            keyedMac.key = null;
+            keyedMac.mac.init(key);
+            keyedMac.key = key;
+        }
+
+        // doFinal resets the mac, which stays initialized with the key
+        return keyedMac.mac.doFinal(data);
+    }
+
+    private static class KeyedMac {
+
+        private final Mac mac;
+        private Key key;
+
+        private KeyedMac(Mac mac) {
+            this.mac = mac;
+        }
+    }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.json.jose.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.picketlink.json.util.JsonUtil.b64Encode;
+
+/**
+ * <p>Bounded cache of the keys decoded from their encoded form, keyed by the SHA-256 fingerprint of the encoded key. A
+ * key given as bytes is only decoded by the {@link KeyFactory} the first time it is used.</p>
+ */
+class KeyCache {
+
+    static final int MAX_SIZE = 64;
+
+    private final String algorithm;
+    private final Map<String, Key> keys = new LinkedHashMap<String, Key>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Key> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    KeyCache(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * <p>Returns the private key with the given PKCS#8 encoding.</p>
+     *
+     * @param encoded
+     * @return
+     * @throws GeneralSecurityException
+     */
+    PrivateKey getPrivateKey(byte[] encoded) throws GeneralSecurityException {
+        String fingerprint = fingerprint(encoded);
+        Key key = get(fingerprint);
+
+        if (!(key instanceof PrivateKey)) {
+            key = KeyFactory.getInstance(this.algorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            put(fingerprint, key);
+        }
+
+        return (PrivateKey) key;
+    }
+
+    /**
+     * <p>Returns the public key with the given X.509 encoding.</p>
+     *
+     * @param encoded
+     * @return
+     * @throws GeneralSecurityException
+     */
+    PublicKey getPublicKey(byte[] encoded) throws GeneralSecurityException {
+        String fingerprint = fingerprint(encoded);
+        Key key = get(fingerprint);
+
+        if (!(key instanceof PublicKey)) {
+            key = KeyFactory.getInstance(this.algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+            put(fingerprint, key);
+        }
+
+        return (PublicKey) key;
+    }
+
+    int size() {
+        synchronized (this.keys) {
+            return this.keys.size();
+        }
+    }
+
+    private Key get(String fingerprint) {
+        synchronized (this.keys) {
+            return this.keys.get(fingerprint);
+        }
+    }
+
+    private void put(String fingerprint, Key key) {
+        synchronized (this.keys) {
+            this.keys.put(fingerprint, key);
+        }
+    }
+
+    private static String fingerprint(byte[] encoded) throws GeneralSecurityException {
+        return b64Encode(MessageDigest.getInstance("SHA-256").digest(encoded));
+    }
+}
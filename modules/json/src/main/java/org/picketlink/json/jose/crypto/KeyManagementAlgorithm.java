@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jose.crypto;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>{@link java.lang.Enum} representing the supported key management algorithms of JSON Web Encryption, which
+ * determine the content encryption key.</p>
+ */
+public enum KeyManagementAlgorithm {
+
+    // the shared symmetric key is the content encryption key
+    DIR("dir", null),
+
+    // RSAES OAEP, with SHA-1 and MGF1 with SHA-1
+    RSA_OAEP("RSA-OAEP", "RSA/ECB/OAEPWithSHA-1AndMGF1Padding");
+
+    private final String name;
+    private final String transformation;
+
+    KeyManagementAlgorithm(String name, String transformation) {
+        this.name = name;
+        this.transformation = transformation;
+    }
+
+    /**
+     * <p>Returns the name of the algorithm in the <code>alg</code> header.</p>
+     *
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * <p>Returns the {@link javax.crypto.Cipher} transformation that encrypts the content encryption key, or null if
+     * the key is not encrypted.</p>
+     *
+     * @return
+     */
+    public String getTransformation() {
+        return this.transformation;
+    }
+
+    public static KeyManagementAlgorithm resolve(String name) {
+        for (KeyManagementAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+
+        throw MESSAGES.cryptoUnsupportedEncryptionAlgorithm(name);
+    }
+}
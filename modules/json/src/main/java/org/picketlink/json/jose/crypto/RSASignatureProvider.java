@@ -1,20 +1,33 @@
 package org.picketlink.json.jose.crypto;
 
-import java.security.KeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
+import java.util.EnumMap;
+import java.util.Map;
 
 import static org.picketlink.json.JsonMessages.MESSAGES;
 
 /**
+ * <p>{@link SignatureProvider} for the RSASSA-PKCS1-v1_5 algorithms. Keys given in their encoded form are decoded once
+ * and cached by fingerprint, and each thread keeps a {@link Signature} for each algorithm, which is only initialized
+ * again when it is used with another key.</p>
+ *
  * @author Pedro Igor
  */
 public class RSASignatureProvider implements SignatureProvider {
 
     private static final String ALGORITHM = "RSA";
+    private static final KeyCache KEYS = new KeyCache(ALGORITHM);
+    private static final ThreadLocal<Map<Algorithm, KeyedSignature>> SIGNATURES = new ThreadLocal<Map<Algorithm, KeyedSignature>>() {
+        @Override
+        protected Map<Algorithm, KeyedSignature> initialValue() {
+            return new EnumMap<Algorithm, KeyedSignature>(Algorithm.class);
+        }
+    };
+
     private static RSASignatureProvider instance;
 
     static final SignatureProvider instance() {
@@ -26,37 +39,95 @@ public class RSASignatureProvider implements SignatureProvider {
     }
 
     public byte[] sign(byte[] data, Algorithm algorithm, byte[] key) {
+        PrivateKey privateKey;
+
+        try {
+            privateKey = KEYS.getPrivateKey(key);
+        } catch (Exception e) {
+            throw MESSAGES.cryptoSignatureFailed(algorithm, e);
+        }
+
+        return sign(data, algorithm, privateKey);
+    }
+
+    public boolean verify(byte[] data, Algorithm algorithm, byte[] signature, byte[] key) {
+        PublicKey publicKey;
+
+        try {
+            publicKey = KEYS.getPublicKey(key);
+        } catch (Exception e) {
+            throw MESSAGES.cryptoSignatureValidationFailed(algorithm, e);
+        }
+
+        return verify(data, algorithm, signature, publicKey);
+    }
+
+    public byte[] sign(byte[] data, Algorithm algorithm, Key key) {
         try {
-            PKCS8EncodedKeySpec privateKeySpec = new PKCS8EncodedKeySpec(key);
-            KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
-            PrivateKey privateKey = keyFactory.generatePrivate(privateKeySpec);
-            Signature signature = Signature.getInstance(algorithm.getAlgorithm());
+            KeyedSignature keyedSignature = getSignature(algorithm);
+
+            if (keyedSignature.key != key) {
+                keyedSignature.key = null;
+                keyedSignature.signature.initSign((PrivateKey) key);
+            }
+
+            // the signature is reset after signing, and stays initialized for signing with the key
+            keyedSignature.key = null;
+            keyedSignature.signature.update(data);
+
+            byte[] signature = keyedSignature.signature.sign();
 
-            signature.initSign(privateKey);
-            signature.update(data);
+            keyedSignature.key = key;
 
-            return signature.sign();
+            return signature;
         } catch (Exception e) {
             throw MESSAGES.cryptoSignatureFailed(algorithm, e);
         }
     }
 
-    public boolean verify(byte[] data, Algorithm algorithm, byte[] signature, byte[] key) {
+    public boolean verify(byte[] data, Algorithm algorithm, byte[] signature, Key key) {
         try {
-            X509EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(key);
-            KeyFactory keyFactory = KeyFactory.getInstance(ALGORITHM);
-            Signature verifier = Signature.getInstance(algorithm.getAlgorithm());
-            PublicKey publicKey = keyFactory.generatePublic(publicKeySpec);
+            KeyedSignature keyedSignature = getSignature(algorithm);
+
+            if (keyedSignature.key != key) {
+                keyedSignature.key = null;
+                keyedSignature.signature.initVerify((PublicKey) key);
+            }
+
+            // the signature is reset after verifying, and stays initialized for verifying with the key
+            keyedSignature.key = null;
+            keyedSignature.signature.update(data);
+
+            boolean valid = keyedSignature.signature.verify(signature);
 
-            verifier.initVerify(publicKey);
-            verifier.update(data);
+            keyedSignature.key = key;
 
-            return verifier.verify(signature);
+            return valid;
         } catch (Exception e) {
             throw MESSAGES.cryptoSignatureValidationFailed(algorithm, e);
         }
+    }
+
+    private KeyedSignature getSignature(Algorithm algorithm) throws GeneralSecurityException {
+        Map<Algorithm, KeyedSignature> signatures = SIGNATURES.get();
+        KeyedSignature keyedSignature = signatures.get(algorithm);
+
+        if (keyedSignature == null) {
+            keyedSignature = new KeyedSignature(Signature.getInstance(algorithm.getAlgorithm()));
+            signatures.put(algorithm, keyedSignature);
+        }
 
+        return keyedSignature;
     }
 
+    private static class KeyedSignature {
+
+        private final Signature signature;
+        private Key key;
+
+        private KeyedSignature(Signature signature) {
+            this.signature = signature;
+        }
+    }
 
 }
@@ -23,6 +23,8 @@ package org.picketlink.json.jose.crypto;
 
 import org.picketlink.json.JsonException;
 
+import java.security.Key;
+
 /**
  * @author  Pedro Igor
  */
@@ -31,4 +33,27 @@ public interface SignatureProvider {
     byte[] sign(byte[] data, Algorithm algorithm, byte[] key) throws JsonException;
     boolean verify(byte[] data, Algorithm algorithm, byte[] signature, byte[] key);
 
+    /**
+     * <p>Signs the data with a key that is already decoded, so that it does not have to be decoded for every
+     * signature.</p>
+     *
+     * @param data
+     * @param algorithm
+     * @param key
+     * @return
+     * @throws JsonException
+     */
+    byte[] sign(byte[] data, Algorithm algorithm, Key key) throws JsonException;
+
+    /**
+     * <p>Verifies the signature of the data with a key that is already decoded.</p>
+     *
+     * @param data
+     * @param algorithm
+     * @param signature
+     * @param key
+     * @return
+     */
+    boolean verify(byte[] data, Algorithm algorithm, byte[] signature, Key key);
+
 }
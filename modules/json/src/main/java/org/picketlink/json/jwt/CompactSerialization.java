@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.jwt;
+
+import org.picketlink.json.util.Base64;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>The parts of a token in the compact serialization: the encoded header, claims set and, if the token is signed,
+ * signature, separated by periods.</p>
+ *
+ * <p>The token is converted to its ASCII bytes once. The parts are located by the position of the periods and decoded
+ * straight from those bytes, and the signature is verified over the bytes of the token as they were received.</p>
+ */
+public class CompactSerialization {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final byte[] token;
+    private final int headerEnd;
+    private final int claimsEnd;
+
+    private CompactSerialization(byte[] token, int headerEnd, int claimsEnd) {
+        this.token = token;
+        this.headerEnd = headerEnd;
+        this.claimsEnd = claimsEnd;
+    }
+
+    /**
+     * <p>Locates the parts of the given token.</p>
+     *
+     * @param json
+     * @return
+     */
+    public static CompactSerialization parse(String json) {
+        int headerEnd = json.indexOf('.');
+
+        if (headerEnd == -1) {
+            throw MESSAGES.invalidFormat(json);
+        }
+
+        int claimsEnd = json.indexOf('.', headerEnd + 1);
+
+        if (claimsEnd == -1) {
+            claimsEnd = json.length();
+        }
+
+        return new CompactSerialization(json.getBytes(ASCII), headerEnd, claimsEnd);
+    }
+
+    /**
+     * <p>Returns the decoded header.</p>
+     *
+     * @return
+     */
+    public byte[] getHeader() {
+        return Base64.decode(this.token, 0, this.headerEnd);
+    }
+
+    /**
+     * <p>Returns the decoded claims set.</p>
+     *
+     * @return
+     */
+    public byte[] getClaims() {
+        return Base64.decode(this.token, this.headerEnd + 1, this.claimsEnd - this.headerEnd - 1);
+    }
+
+    public boolean hasSignature() {
+        return this.claimsEnd + 1 < this.token.length;
+    }
+
+    /**
+     * <p>Returns the decoded signature.</p>
+     *
+     * @return
+     */
+    public byte[] getSignature() {
+        return Base64.decode(this.token, this.claimsEnd + 1, this.token.length - this.claimsEnd - 1);
+    }
+
+    /**
+     * <p>Returns the bytes the signature is computed over: the encoded header and claims set, separated by a period.</p>
+     *
+     * @return
+     */
+    public byte[] getSigningInput() {
+        return Arrays.copyOf(this.token, this.claimsEnd);
+    }
+}
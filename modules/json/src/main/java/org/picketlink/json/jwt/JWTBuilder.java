@@ -21,14 +21,18 @@
  */
 package org.picketlink.json.jwt;
 
+import org.picketlink.json.util.LazyJsonObject;
+
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import java.io.ByteArrayInputStream;
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
-import static org.picketlink.json.JsonConstants.COMMON.PERIOD;
 import static org.picketlink.json.JsonConstants.JWT.CLAIM_AUDIENCE;
 import static org.picketlink.json.JsonConstants.JWT.CLAIM_EXPIRATION;
 import static org.picketlink.json.JsonConstants.JWT.CLAIM_ID;
@@ -39,7 +43,6 @@ import static org.picketlink.json.JsonConstants.JWT.CLAIM_SUBJECT;
 import static org.picketlink.json.JsonConstants.JWT.HEADER_CONTENT_TYPE;
 import static org.picketlink.json.JsonConstants.JWT.HEADER_TYPE;
 import static org.picketlink.json.JsonMessages.MESSAGES;
-import static org.picketlink.json.util.JsonUtil.b64Decode;
 
 /**
  * <p>A {@link JWTBuilder} is used to construct {@link JWT} instances.
@@ -55,6 +58,9 @@ import static org.picketlink.json.util.JsonUtil.b64Decode;
  */
 public class JWTBuilder<T extends JWT, B extends JWTBuilder> {
 
+    private static final Set<String> REGISTERED_CLAIMS = new HashSet<String>(Arrays.asList(CLAIM_ISSUER,
+        CLAIM_SUBJECT, CLAIM_AUDIENCE, CLAIM_EXPIRATION, CLAIM_NOT_BEFORE, CLAIM_ISSUED_AT, CLAIM_ID));
+
     private final JsonObjectBuilder headersBuilder;
     private final JsonObjectBuilder claimsBuilder;
     private final Class<T> tokenType;
@@ -160,16 +166,20 @@ public class JWTBuilder<T extends JWT, B extends JWTBuilder> {
      * @return
      */
     public T build(String json) {
-        if (!json.contains(PERIOD)) {
-            throw MESSAGES.invalidFormat(json);
-        }
-
-        String[] portions = json.split("\\" + PERIOD);
+        return build(CompactSerialization.parse(json));
+    }
 
-        byte[] header = b64Decode(portions[0]);
-        byte[] claims = b64Decode(portions[1]);
+    /**
+     * <p>Builds a {@link JWT} instance from the parts of its JSON representation. The claims set is only parsed when
+     * it is used, and the registered claims are read without parsing the other claims.</p>
+     *
+     * @param token
+     * @return
+     */
+    protected T build(CompactSerialization token) {
+        JsonObject headersObject = Json.createReader(new ByteArrayInputStream(token.getHeader())).readObject();
 
-        return build(Json.createReader(new ByteArrayInputStream(header)).readObject(), Json.createReader(new ByteArrayInputStream(claims)).readObject());
+        return build(headersObject, new LazyJsonObject(token.getClaims(), REGISTERED_CLAIMS));
     }
 
     /**
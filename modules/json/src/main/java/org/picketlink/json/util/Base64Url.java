@@ -0,0 +1,493 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.util;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import static org.picketlink.json.JsonMessages.MESSAGES;
+
+/**
+ * <p>Base64url encoding without padding, as used by the compact serialization of JOSE objects.</p>
+ *
+ * <p>Besides encoding and decoding arrays, this class provides streams to encode and decode content of any length with
+ * a fixed amount of memory.</p>
+ */
+public class Base64Url {
+
+    private static final byte[] ALPHABET;
+    private static final byte[] DECODABET = new byte[128];
+
+    static {
+        try {
+            ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Arrays.fill(DECODABET, (byte) -1);
+
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODABET[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * <p>Encodes the given bytes.</p>
+     *
+     * @param source
+     * @return
+     */
+    public static String encode(byte[] source) {
+        return encode(source, 0, source.length);
+    }
+
+    /**
+     * <p>Encodes <code>len</code> bytes of the given array, starting at <code>off</code>.</p>
+     *
+     * @param source
+     * @param off
+     * @param len
+     * @return
+     */
+    public static String encode(byte[] source, int off, int len) {
+        byte[] encoded = new byte[getEncodedLength(len)];
+
+        encode(source, off, len, encoded, 0);
+
+        try {
+            return new String(encoded, "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * <p>Decodes the given string.</p>
+     *
+     * @param encoded
+     * @return
+     */
+    public static byte[] decode(String encoded) {
+        byte[] source = new byte[encoded.length()];
+
+        for (int i = 0; i < source.length; i++) {
+            char c = encoded.charAt(i);
+
+            // characters out of the alphabet are rejected when decoding
+            source[i] = c < 128 ? (byte) c : (byte) 0x7f;
+        }
+
+        return decode(source, 0, source.length);
+    }
+
+    /**
+     * <p>Decodes <code>len</code> bytes of the given array, starting at <code>off</code>.</p>
+     *
+     * @param source
+     * @param off
+     * @param len
+     * @return
+     */
+    public static byte[] decode(byte[] source, int off, int len) {
+        if (len % 4 == 1) {
+            throw MESSAGES.invalidBase64Url(off + len - 1);
+        }
+
+        byte[] decoded = new byte[len * 3 / 4];
+
+        decode(source, off, len, decoded, 0);
+
+        return decoded;
+    }
+
+    /**
+     * <p>Returns the number of characters that encode the given number of bytes.</p>
+     *
+     * @param length
+     * @return
+     */
+    public static int getEncodedLength(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    private static int encode(byte[] source, int off, int len, byte[] destination, int destinationOff) {
+        int end = off + len - len % 3;
+        int d = destinationOff;
+
+        for (int s = off; s < end; s += 3) {
+            int bits = (source[s] & 0xff) << 16 | (source[s + 1] & 0xff) << 8 | (source[s + 2] & 0xff);
+
+            destination[d++] = ALPHABET[bits >>> 18];
+            destination[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+            destination[d++] = ALPHABET[(bits >>> 6) & 0x3f];
+            destination[d++] = ALPHABET[bits & 0x3f];
+        }
+
+        int remaining = off + len - end;
+
+        if (remaining > 0) {
+            int bits = (source[end] & 0xff) << 16;
+
+            if (remaining == 2) {
+                bits |= (source[end + 1] & 0xff) << 8;
+            }
+
+            destination[d++] = ALPHABET[bits >>> 18];
+            destination[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+
+            if (remaining == 2) {
+                destination[d++] = ALPHABET[(bits >>> 6) & 0x3f];
+            }
+        }
+
+        return d - destinationOff;
+    }
+
+    private static int decode(byte[] source, int off, int len, byte[] destination, int destinationOff) {
+        int end = off + len - len % 4;
+        int d = destinationOff;
+
+        for (int s = off; s < end; s += 4) {
+            int bits = decode(source, s) << 18 | decode(source, s + 1) << 12 | decode(source, s + 2) << 6
+                | decode(source, s + 3);
+
+            destination[d++] = (byte) (bits >>> 16);
+            destination[d++] = (byte) (bits >>> 8);
+            destination[d++] = (byte) bits;
+        }
+
+        int remaining = off + len - end;
+
+        if (remaining > 1) {
+            int bits = decode(source, end) << 18 | decode(source, end + 1) << 12;
+
+            destination[d++] = (byte) (bits >>> 16);
+
+            if (remaining == 3) {
+                bits |= decode(source, end + 2) << 6;
+                destination[d++] = (byte) (bits >>> 8);
+            }
+        } else if (remaining == 1) {
+            throw MESSAGES.invalidBase64Url(end);
+        }
+
+        return d - destinationOff;
+    }
+
+    private static int decode(byte[] source, int position) {
+        byte c = source[position];
+        byte value = c < 0 ? -1 : DECODABET[c];
+
+        if (value == -1) {
+            throw MESSAGES.invalidBase64Url(position);
+        }
+
+        return value;
+    }
+
+    /**
+     * <p>Encodes the bytes written to it and writes the encoded characters to the underlying stream. The last
+     * characters are only written when {@link #finish()} is called, which does not close the underlying stream.</p>
+     */
+    public static class OutputStream extends java.io.FilterOutputStream {
+
+        private static final int BUFFER_SIZE = 3 * 1024;
+
+        private final byte[] pending = new byte[3];
+        private final byte[] encoded = new byte[BUFFER_SIZE / 3 * 4];
+        private int pendingLength;
+
+        public OutputStream(java.io.OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int end = off + len;
+
+            // complete the bytes left from the previous write
+            while (this.pendingLength > 0 && this.pendingLength < 3 && off < end) {
+                this.pending[this.pendingLength++] = b[off++];
+            }
+
+            if (this.pendingLength == 3) {
+                this.out.write(this.encoded, 0, encode(this.pending, 0, 3, this.encoded, 0));
+                this.pendingLength = 0;
+            }
+
+            while (end - off >= 3) {
+                int chunk = Math.min(BUFFER_SIZE, (end - off) / 3 * 3);
+
+                this.out.write(this.encoded, 0, encode(b, off, chunk, this.encoded, 0));
+                off += chunk;
+            }
+
+            while (off < end) {
+                this.pending[this.pendingLength++] = b[off++];
+            }
+        }
+
+        /**
+         * <p>Writes the characters encoding the last bytes.</p>
+         *
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            if (this.pendingLength > 0) {
+                this.out.write(this.encoded, 0, encode(this.pending, 0, this.pendingLength, this.encoded, 0));
+                this.pendingLength = 0;
+            }
+        }
+    }
+
+    /**
+     * <p>Decodes a sequence of encoded parts separated by periods, like a JOSE object in the compact serialization.</p>
+     *
+     * <p>The stream returns the decoded bytes of the current part until its end, when {@link #read(byte[], int, int)}
+     * returns -1. Then {@link #nextPart()} moves to the next part.</p>
+     */
+    public static class InputStream extends java.io.FilterInputStream {
+
+        private static final int BUFFER_SIZE = 4 * 1024;
+        private static final byte PERIOD = '.';
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final byte[] quantum = new byte[4];
+        private final byte[] decoded = new byte[3];
+        private int bufferPosition;
+        private int bufferLength;
+        private int quantumLength;
+        private int decodedPosition;
+        private int decodedLength;
+        private long position;
+        private boolean endOfPart;
+        private boolean endOfStream;
+
+        public InputStream(java.io.InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            int read = 0;
+
+            while (read < len) {
+                if (this.decodedPosition < this.decodedLength) {
+                    int count = Math.min(len - read, this.decodedLength - this.decodedPosition);
+
+                    System.arraycopy(this.decoded, this.decodedPosition, b, off + read, count);
+                    this.decodedPosition += count;
+                    read += count;
+                    continue;
+                }
+
+                if (this.endOfPart) {
+                    break;
+                }
+
+                // decode the whole quanta available in the buffer straight to the destination
+                int available = len - read;
+
+                if (this.quantumLength == 0 && available >= 3) {
+                    int count = decodeBuffered(b, off + read, available / 3);
+
+                    if (count > 0) {
+                        read += count;
+                        continue;
+                    }
+                }
+
+                fillQuantum();
+            }
+
+            return read == 0 && this.endOfPart ? -1 : read;
+        }
+
+        /**
+         * <p>Reads the encoded characters of the current part, up to <code>maxLength</code> characters.</p>
+         *
+         * @param maxLength
+         * @return
+         * @throws IOException
+         */
+        public byte[] readEncodedPart(int maxLength) throws IOException {
+            java.io.ByteArrayOutputStream encodedPart = new java.io.ByteArrayOutputStream();
+            int c;
+
+            while (!this.endOfPart && (c = nextByte()) != -1) {
+                if (c == PERIOD) {
+                    this.endOfPart = true;
+                } else {
+                    if (encodedPart.size() == maxLength) {
+                        throw MESSAGES.invalidBase64Url(this.position);
+                    }
+
+                    encodedPart.write(c);
+                }
+            }
+
+            this.endOfPart = true;
+
+            return encodedPart.toByteArray();
+        }
+
+        /**
+         * <p>Reads the remaining decoded bytes of the current part, up to <code>maxLength</code> bytes.</p>
+         *
+         * @param maxLength
+         * @return
+         * @throws IOException
+         */
+        public byte[] readPart(int maxLength) throws IOException {
+            byte[] part = new byte[maxLength];
+            int length = 0;
+            int read;
+
+            while (length < maxLength && (read = read(part, length, maxLength - length)) != -1) {
+                length += read;
+            }
+
+            if (length == maxLength && read(new byte[1], 0, 1) != -1) {
+                throw MESSAGES.invalidBase64Url(this.position);
+            }
+
+            return Arrays.copyOf(part, length);
+        }
+
+        /**
+         * <p>Moves to the next part, skipping what is left of the current one.</p>
+         *
+         * @return false if there is no next part.
+         * @throws IOException
+         */
+        public boolean nextPart() throws IOException {
+            byte[] skipped = new byte[BUFFER_SIZE];
+
+            while (read(skipped, 0, skipped.length) != -1) {
+                // skip
+            }
+
+            if (this.endOfStream) {
+                return false;
+            }
+
+            this.endOfPart = false;
+
+            return true;
+        }
+
+        private int decodeBuffered(byte[] b, int off, int maxQuanta) throws IOException {
+            if (this.bufferPosition == this.bufferLength && !fillBuffer()) {
+                return 0;
+            }
+
+            int start = this.bufferPosition;
+            int end = Math.min(this.bufferLength, start + maxQuanta * 4);
+            int periodIndex = start;
+
+            while (periodIndex < end && this.buffer[periodIndex] != PERIOD) {
+                periodIndex++;
+            }
+
+            int count = (periodIndex - start) / 4 * 4;
+
+            if (count == 0) {
+                return 0;
+            }
+
+            try {
+                decode(this.buffer, start, count, b, off);
+            } catch (RuntimeException e) {
+                throw MESSAGES.invalidBase64Url(this.position);
+            }
+
+            this.bufferPosition += count;
+            this.position += count;
+
+            return count / 4 * 3;
+        }
+
+        private void fillQuantum() throws IOException {
+            while (this.quantumLength < 4) {
+                int c = nextByte();
+
+                if (c == -1 || c == PERIOD) {
+                    this.endOfPart = true;
+                    break;
+                }
+
+                this.quantum[this.quantumLength++] = (byte) c;
+            }
+
+            try {
+                this.decodedLength = decode(this.quantum, 0, this.quantumLength, this.decoded, 0);
+            } catch (RuntimeException e) {
+                throw MESSAGES.invalidBase64Url(this.position);
+            }
+
+            this.decodedPosition = 0;
+            this.quantumLength = 0;
+        }
+
+        private int nextByte() throws IOException {
+            if (this.bufferPosition == this.bufferLength && !fillBuffer()) {
+                return -1;
+            }
+
+            this.position++;
+
+            return this.buffer[this.bufferPosition++] & 0xff;
+        }
+
+        private boolean fillBuffer() throws IOException {
+            if (this.endOfStream) {
+                return false;
+            }
+
+            int read = this.in.read(this.buffer, 0, this.buffer.length);
+
+            if (read == -1) {
+                this.endOfStream = true;
+                return false;
+            }
+
+            this.bufferPosition = 0;
+            this.bufferLength = read;
+
+            return true;
+        }
+    }
+}
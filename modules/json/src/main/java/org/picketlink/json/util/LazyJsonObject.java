@@ -0,0 +1,285 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.json.util;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.util.AbstractMap;
+import java.util.Set;
+
+/**
+ * <p>A {@link javax.json.JsonObject} that is only parsed when it is used.</p>
+ *
+ * <p>The values of a set of well known names are read with a streaming parser the first time one of them is looked
+ * up, without building the other values of the object. The whole object is only parsed when another value is looked
+ * up, or when it is used as a {@link java.util.Map}. Values of the well known names that are objects, or arrays that
+ * contain objects or arrays, cause the whole object to be parsed.</p>
+ *
+ * <p>As the object is parsed lazily, a malformed JSON document is only reported when the object is used.</p>
+ */
+public class LazyJsonObject extends AbstractMap<String, JsonValue> implements JsonObject {
+
+    private final byte[] json;
+    private final Set<String> scannedNames;
+    private volatile JsonObject scannedObject;
+    private volatile JsonObject object;
+
+    /**
+     * @param json the UTF-8 encoded JSON object, which must not be changed afterwards
+     * @param scannedNames the names whose values are read without parsing the whole object
+     */
+    public LazyJsonObject(byte[] json, Set<String> scannedNames) {
+        this.json = json;
+        this.scannedNames = scannedNames;
+    }
+
+    @Override
+    public JsonValue get(Object name) {
+        return getObject(name).get(name);
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return getObject(name).containsKey(name);
+    }
+
+    @Override
+    public Set<Entry<String, JsonValue>> entrySet() {
+        return getObject().entrySet();
+    }
+
+    public JsonArray getJsonArray(String name) {
+        return (JsonArray) get(name);
+    }
+
+    public JsonObject getJsonObject(String name) {
+        return (JsonObject) get(name);
+    }
+
+    public JsonNumber getJsonNumber(String name) {
+        return (JsonNumber) get(name);
+    }
+
+    public JsonString getJsonString(String name) {
+        return (JsonString) get(name);
+    }
+
+    public String getString(String name) {
+        return getJsonString(name).getString();
+    }
+
+    public String getString(String name, String defaultValue) {
+        JsonValue value = get(name);
+
+        if (value instanceof JsonString) {
+            return ((JsonString) value).getString();
+        }
+
+        return defaultValue;
+    }
+
+    public int getInt(String name) {
+        return getJsonNumber(name).intValue();
+    }
+
+    public int getInt(String name, int defaultValue) {
+        JsonValue value = get(name);
+
+        if (value instanceof JsonNumber) {
+            return ((JsonNumber) value).intValue();
+        }
+
+        return defaultValue;
+    }
+
+    public boolean getBoolean(String name) {
+        JsonValue value = get(name);
+
+        if (value == null) {
+            throw new NullPointerException();
+        } else if (value == JsonValue.TRUE) {
+            return true;
+        } else if (value == JsonValue.FALSE) {
+            return false;
+        }
+
+        throw new ClassCastException();
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        JsonValue value = get(name);
+
+        if (value == JsonValue.TRUE) {
+            return true;
+        } else if (value == JsonValue.FALSE) {
+            return false;
+        }
+
+        return defaultValue;
+    }
+
+    public boolean isNull(String name) {
+        return JsonValue.NULL.equals(get(name));
+    }
+
+    public ValueType getValueType() {
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public String toString() {
+        return getObject().toString();
+    }
+
+    /**
+     * <p>Returns an object that has the value of the given name: the object of the scanned values if the name is one
+     * of the scanned names and the whole object has not been parsed yet, or the whole object.</p>
+     */
+    private JsonObject getObject(Object name) {
+        JsonObject object = this.object;
+
+        if (object == null && this.scannedNames.contains(name)) {
+            object = this.scannedObject;
+
+            if (object == null) {
+                object = scan();
+            }
+        }
+
+        if (object == null) {
+            object = getObject();
+        }
+
+        return object;
+    }
+
+    private JsonObject getObject() {
+        JsonObject object = this.object;
+
+        if (object == null) {
+            object = Json.createReader(new ByteArrayInputStream(this.json)).readObject();
+            this.object = object;
+        }
+
+        return object;
+    }
+
+    /**
+     * <p>Reads the values of the scanned names, skipping the other values.</p>
+     *
+     * @return the object of the scanned values, or null if a value can not be read without parsing the whole object
+     */
+    private JsonObject scan() {
+        JsonParser parser = Json.createParser(new ByteArrayInputStream(this.json));
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+
+        try {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                return null;
+            }
+
+            int depth = 1;
+
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+
+                if (depth == 1 && event == JsonParser.Event.KEY_NAME) {
+                    String name = parser.getString();
+
+                    if (this.scannedNames.contains(name) && !addValue(parser, builder, name)) {
+                        return null;
+                    }
+                } else if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) {
+                    depth++;
+                } else if (event == JsonParser.Event.END_OBJECT || event == JsonParser.Event.END_ARRAY) {
+                    depth--;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+
+        JsonObject scannedObject = builder.build();
+
+        this.scannedObject = scannedObject;
+
+        return scannedObject;
+    }
+
+    private boolean addValue(JsonParser parser, JsonObjectBuilder builder, String name) {
+        JsonParser.Event event = parser.next();
+
+        if (event == JsonParser.Event.START_ARRAY) {
+            JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+
+            while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                switch (event) {
+                    case VALUE_STRING:
+                        arrayBuilder.add(parser.getString());
+                        break;
+                    case VALUE_NUMBER:
+                        arrayBuilder.add(parser.getBigDecimal());
+                        break;
+                    case VALUE_TRUE:
+                        arrayBuilder.add(true);
+                        break;
+                    case VALUE_FALSE:
+                        arrayBuilder.add(false);
+                        break;
+                    case VALUE_NULL:
+                        arrayBuilder.addNull();
+                        break;
+                    default:
+                        return false;
+                }
+            }
+
+            builder.add(name, arrayBuilder);
+
+            return true;
+        }
+
+        switch (event) {
+            case VALUE_STRING:
+                builder.add(name, parser.getString());
+                return true;
+            case VALUE_NUMBER:
+                builder.add(name, parser.getBigDecimal());
+                return true;
+            case VALUE_TRUE:
+                builder.add(name, true);
+                return true;
+            case VALUE_FALSE:
+                builder.add(name, false);
+                return true;
+            case VALUE_NULL:
+                builder.addNull(name);
+                return true;
+            default:
+                return false;
+        }
+    }
+}
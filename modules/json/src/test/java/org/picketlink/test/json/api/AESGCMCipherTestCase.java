@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.json.api;
+
+import org.junit.Test;
+import org.picketlink.json.JsonException;
+import org.picketlink.json.jose.crypto.AESGCMCipher;
+import org.picketlink.json.jose.crypto.EncryptionAlgorithm;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>Known answer tests for {@link AESGCMCipher}, using the test cases 1, 2, 4 and 16 from "The Galois/Counter Mode of
+ * Operation (GCM)" by McGrew and Viega, as published by NIST.</p>
+ */
+public class AESGCMCipherTestCase {
+
+    private static final String ZERO_KEY = "00000000000000000000000000000000";
+    private static final String ZERO_IV = "000000000000000000000000";
+
+    private static final String KEY = "feffe9928665731c6d6a8f9467308308";
+    private static final String IV = "cafebabefacedbaddecaf888";
+    private static final String PLAIN_TEXT = "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+        + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b39";
+    private static final String AAD = "feedfacedeadbeeffeedfacedeadbeefabaddad2";
+
+    @Test
+    public void testEmptyContent() {
+        assertKnownAnswer(EncryptionAlgorithm.A128GCM, ZERO_KEY, ZERO_IV, "", null, "",
+            "58e2fccefa7e3061367f1d57a4e7455a");
+    }
+
+    @Test
+    public void testSingleBlock() {
+        assertKnownAnswer(EncryptionAlgorithm.A128GCM, ZERO_KEY, ZERO_IV, "00000000000000000000000000000000", null,
+            "0388dace60b6a392f328c2b971b2fe78", "ab6e47d42cec13bdf53a67b21257bddf");
+    }
+
+    @Test
+    public void testPartialBlockWithAdditionalData() {
+        assertKnownAnswer(EncryptionAlgorithm.A128GCM, KEY, IV, PLAIN_TEXT, AAD,
+            "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+                + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091",
+            "5bc94fbc3221a5db94fae95ae7121a47");
+    }
+
+    @Test
+    public void testPartialBlockWith256BitKey() {
+        assertKnownAnswer(EncryptionAlgorithm.A256GCM, KEY + KEY, IV, PLAIN_TEXT, AAD,
+            "522dc1f099567d07f47f37a32a84427d643a8cdcbfe5c0c97598a2bd2555d1aa"
+                + "8cb08e48590dbb3da7b08b1056828838c5f61e6393ba7a0abcc9f662",
+            "76fc6ece0f4e1768cddf8853bb2d551b");
+    }
+
+    @Test
+    public void failChangedTag() {
+        byte[] tag = hex("5bc94fbc3221a5db94fae95ae7121a47");
+
+        tag[AESGCMCipher.TAG_LENGTH - 1] ^= 1;
+
+        AESGCMCipher cipher = AESGCMCipher.decrypt(EncryptionAlgorithm.A128GCM, hex(KEY), hex(IV), hex(AAD));
+        byte[] cipherText = hex("42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+            + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091");
+
+        cipher.update(cipherText, 0, cipherText.length, new byte[cipherText.length], 0);
+
+        try {
+            cipher.verify(tag);
+            fail();
+        } catch (JsonException expected) {
+        }
+    }
+
+    private void assertKnownAnswer(EncryptionAlgorithm algorithm, String key, String iv, String plainText, String aad,
+        String cipherText, String tag) {
+        byte[] aadBytes = aad == null ? null : hex(aad);
+
+        // whole, and in chunks that do not line up with the 16 bytes blocks
+        for (int chunk : new int[] {Integer.MAX_VALUE, 7}) {
+            AESGCMCipher cipher = AESGCMCipher.encrypt(algorithm, hex(key), hex(iv), aadBytes);
+
+            assertArrayEquals(hex(cipherText), update(cipher, hex(plainText), chunk));
+            assertArrayEquals(hex(tag), cipher.getTag());
+
+            cipher = AESGCMCipher.decrypt(algorithm, hex(key), hex(iv), aadBytes);
+
+            assertArrayEquals(hex(plainText), update(cipher, hex(cipherText), chunk));
+
+            cipher.verify(hex(tag));
+        }
+    }
+
+    private byte[] update(AESGCMCipher cipher, byte[] input, int chunk) {
+        byte[] output = new byte[input.length];
+        int written = 0;
+
+        for (int off = 0; off < input.length; off += chunk) {
+            written += cipher.update(input, off, Math.min(chunk, input.length - off), output, written);
+        }
+
+        return Arrays.copyOf(output, written);
+    }
+
+    private static byte[] hex(String value) {
+        if (value.length() == 0) {
+            return new byte[0];
+        }
+
+        byte[] bytes = new BigInteger("1" + value, 16).toByteArray();
+
+        return Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+}
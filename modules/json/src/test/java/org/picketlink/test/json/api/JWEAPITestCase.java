@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.json.api;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.json.JsonException;
+import org.picketlink.json.jose.JsonWebEncryption;
+import org.picketlink.json.jose.JsonWebEncryptionHeader;
+import org.picketlink.json.jose.crypto.EncryptionAlgorithm;
+import org.picketlink.json.jose.crypto.KeyManagementAlgorithm;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JWEAPITestCase {
+
+    private KeyPair keyPair;
+    private SecretKeySpec sharedKey;
+    private byte[] content;
+
+    @Before
+    public void onBefore() throws Exception {
+        Random random = new Random();
+        byte[] key = new byte[EncryptionAlgorithm.A256GCM.getKeyLength()];
+
+        random.nextBytes(key);
+
+        this.keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        this.sharedKey = new SecretKeySpec(key, "AES");
+        this.content = new byte[100000];
+
+        random.nextBytes(this.content);
+    }
+
+    @Test
+    public void testDirectEncryption() throws Exception {
+        JsonWebEncryption jwe = new JsonWebEncryption(new JsonWebEncryptionHeader(KeyManagementAlgorithm.DIR,
+            EncryptionAlgorithm.A256GCM, "shared", null));
+
+        String encrypted = jwe.encrypt(this.content, this.sharedKey);
+
+        assertEquals(5, encrypted.split("\\.", -1).length);
+        assertEquals("", encrypted.split("\\.", -1)[1]);
+        assertArrayEquals(this.content, JsonWebEncryption.decrypt(encrypted, this.sharedKey));
+    }
+
+    @Test
+    public void testRSAOAEPEncryption() throws Exception {
+        JsonWebEncryption jwe = new JsonWebEncryption(new JsonWebEncryptionHeader(KeyManagementAlgorithm.RSA_OAEP,
+            EncryptionAlgorithm.A128GCM));
+
+        String encrypted = jwe.encrypt(this.content, this.keyPair.getPublic());
+
+        assertArrayEquals(this.content, JsonWebEncryption.decrypt(encrypted, this.keyPair.getPrivate()));
+
+        // the content key is now cached
+        assertArrayEquals(this.content, JsonWebEncryption.decrypt(encrypted, this.keyPair.getPrivate()));
+
+        try {
+            JsonWebEncryption.decrypt(encrypted, KeyPairGenerator.getInstance("RSA").generateKeyPair().getPrivate());
+            fail();
+        } catch (JsonException expected) {
+        }
+    }
+
+    @Test
+    public void testStreamEncryption() throws Exception {
+        JsonWebEncryption jwe = new JsonWebEncryption(new JsonWebEncryptionHeader(KeyManagementAlgorithm.RSA_OAEP,
+            EncryptionAlgorithm.A256GCM));
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        jwe.encrypt(new ByteArrayInputStream(this.content), encrypted, this.keyPair.getPublic());
+
+        assertArrayEquals(this.content, JsonWebEncryption.decrypt(encrypted.toString("US-ASCII"),
+            this.keyPair.getPrivate()));
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        JsonWebEncryptionHeader header = JsonWebEncryption.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+            decrypted, this.keyPair.getPrivate());
+
+        assertEquals(EncryptionAlgorithm.A256GCM, header.getEncryptionAlgorithm());
+        assertArrayEquals(this.content, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testChangedContentIsRejected() throws Exception {
+        JsonWebEncryption jwe = new JsonWebEncryption(new JsonWebEncryptionHeader(KeyManagementAlgorithm.DIR,
+            EncryptionAlgorithm.A256GCM));
+        char[] encrypted = jwe.encrypt(this.content, this.sharedKey).toCharArray();
+        int position = new String(encrypted).lastIndexOf('.') - 10;
+
+        encrypted[position] = encrypted[position] == 'A' ? 'B' : 'A';
+
+        try {
+            JsonWebEncryption.decrypt(new String(encrypted), this.sharedKey);
+            fail();
+        } catch (JsonException expected) {
+        }
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+        try {
+            JsonWebEncryption.decrypt(new ByteArrayInputStream(new String(encrypted).getBytes("US-ASCII")),
+                decrypted, this.sharedKey);
+            fail();
+        } catch (JsonException expected) {
+        }
+
+        assertEquals(0, decrypted.size());
+    }
+
+    @Test
+    public void testLargeStreamEncryption() throws Exception {
+        JsonWebEncryption jwe = new JsonWebEncryption(new JsonWebEncryptionHeader(KeyManagementAlgorithm.DIR,
+            EncryptionAlgorithm.A256GCM));
+        byte[] content = new byte[JsonWebEncryption.MAX_BUFFERED_CONTENT_LENGTH * 2 + 5];
+
+        new Random().nextBytes(content);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        jwe.encrypt(new ByteArrayInputStream(content), encrypted, this.sharedKey);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+        JsonWebEncryption.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, this.sharedKey);
+
+        assertArrayEquals(content, decrypted.toByteArray());
+
+        byte[] changed = encrypted.toByteArray();
+        int position = new String(changed, "US-ASCII").lastIndexOf('.') - 10;
+
+        changed[position] = (byte) (changed[position] == 'A' ? 'B' : 'A');
+        decrypted = new ByteArrayOutputStream();
+
+        try {
+            JsonWebEncryption.decrypt(new ByteArrayInputStream(changed), decrypted, this.sharedKey);
+            fail();
+        } catch (JsonException expected) {
+        }
+
+        assertEquals(0, decrypted.size());
+    }
+
+    @Test(expected = JsonException.class)
+    public void failInvalidSerialization() throws Exception {
+        JsonWebEncryption.decrypt("a.b.c", this.sharedKey);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.json.api;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.json.JsonException;
+import org.picketlink.json.jose.JWK;
+import org.picketlink.json.jose.JWKSet;
+import org.picketlink.json.jose.JWKSetStore;
+import org.picketlink.json.jose.JWS;
+import org.picketlink.json.jose.JWSBuilder;
+import org.picketlink.json.util.JsonUtil;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class JWKSetAPITestCase {
+
+    private KeyPair keyPair;
+    private KeyPair anotherKeyPair;
+
+    @Before
+    public void onBefore() throws Exception {
+        this.keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        this.anotherKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+    }
+
+    @Test
+    public void testKeySetSerialization() {
+        byte[] secretKey = "super_secret_key".getBytes();
+        JWKSet keySet = new JWKSet(Arrays.asList(
+            JWK.create("rsa-1", this.keyPair.getPublic()),
+            JWK.create("rsa-2", this.anotherKeyPair.getPrivate()),
+            JWK.create("hmac-1", new SecretKeySpec(secretKey, "HmacSHA256"))));
+
+        JWKSet parsedKeySet = JWKSet.parse(keySet.toString());
+
+        assertEquals(3, parsedKeySet.size());
+        assertEquals("RSA", parsedKeySet.getKey("rsa-1").getKeyType());
+        assertArrayEquals(this.keyPair.getPublic().getEncoded(), parsedKeySet.getKey("rsa-1").getKey().getEncoded());
+        assertNull(parsedKeySet.getKey("rsa-1").getPrivateKey());
+        assertArrayEquals(this.anotherKeyPair.getPublic().getEncoded(),
+            parsedKeySet.getKey("rsa-2").getKey().getEncoded());
+        assertNotNull(parsedKeySet.getKey("rsa-2").getPrivateKey());
+        assertArrayEquals(secretKey, parsedKeySet.getKey("hmac-1").getKey().getEncoded());
+        assertNull(parsedKeySet.getKey("unknown"));
+    }
+
+    @Test
+    public void testUnsupportedKeysAreIgnored() {
+        JWKSet keySet = JWKSet.parse("{\"keys\":[{\"kty\":\"EC\",\"kid\":\"ec-1\",\"crv\":\"P-256\"},"
+            + JWK.create("rsa-1", this.keyPair.getPublic()) + "]}");
+
+        assertEquals(1, keySet.size());
+        assertNull(keySet.getKey("ec-1"));
+        assertNotNull(keySet.getKey("rsa-1"));
+    }
+
+    @Test
+    public void testKeyIsSelectedFromKeyId() {
+        JWKSet keySet = new JWKSet(Arrays.asList(
+            JWK.create("rsa-1", this.keyPair.getPublic()),
+            JWK.create("rsa-2", this.anotherKeyPair.getPublic())));
+
+        JWS token = new JWSBuilder()
+            .rsa256(this.anotherKeyPair.getPrivate())
+            .keyId("rsa-2")
+            .subject("subject")
+            .build();
+
+        JWS parsedToken = new JWSBuilder().build(token.encode(), keySet);
+
+        assertEquals("subject", parsedToken.getSubject());
+    }
+
+    @Test(expected = JsonException.class)
+    public void failUnknownKeyId() {
+        JWKSet keySet = new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic())));
+
+        JWS token = new JWSBuilder()
+            .rsa256(this.keyPair.getPrivate())
+            .keyId("rsa-2")
+            .build();
+
+        new JWSBuilder().build(token.encode(), keySet);
+    }
+
+    @Test(expected = JsonException.class)
+    public void failKeyOfAnotherKeyId() {
+        JWKSet keySet = new JWKSet(Arrays.asList(
+            JWK.create("rsa-1", this.keyPair.getPublic()),
+            JWK.create("rsa-2", this.anotherKeyPair.getPublic())));
+
+        JWS token = new JWSBuilder()
+            .rsa256(this.keyPair.getPrivate())
+            .keyId("rsa-2")
+            .build();
+
+        new JWSBuilder().build(token.encode(), keySet);
+    }
+
+    @Test(expected = JsonException.class)
+    public void failUnsignedTokenWithKeyId() {
+        JWKSet keySet = new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic())));
+
+        new JWSBuilder().build(unsignedToken("{\"alg\":\"none\",\"kid\":\"rsa-1\"}"), keySet);
+    }
+
+    @Test(expected = JsonException.class)
+    public void failUnsignedTokenWithoutKeyId() {
+        JWKSet keySet = new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic())));
+
+        new JWSBuilder().build(unsignedToken("{\"alg\":\"none\"}"), keySet);
+    }
+
+    @Test(expected = JsonException.class)
+    public void failUnsignedTokenFromKeySetStore() throws Exception {
+        File keySetFile = File.createTempFile("jwks", ".json");
+        keySetFile.deleteOnExit();
+
+        write(keySetFile, new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic()))));
+
+        JWKSetStore keySetStore = new JWKSetStore(keySetFile.toURI().toURL(), 0);
+
+        new JWSBuilder().build(unsignedToken("{\"alg\":\"none\",\"kid\":\"rsa-1\"}"), keySetStore);
+    }
+
+    @Test(expected = JsonException.class)
+    public void failHmacTokenWithRsaKey() {
+        JWKSet keySet = new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic())));
+
+        // signed with the public key, which is known to anyone, as a HMAC secret.
+        JWS token = new JWSBuilder()
+            .hmac256(this.keyPair.getPublic().getEncoded())
+            .keyId("rsa-1")
+            .build();
+
+        new JWSBuilder().build(token.encode(), keySet);
+    }
+
+    @Test(expected = JsonException.class)
+    public void failRsaTokenWithHmacKey() {
+        JWKSet keySet = new JWKSet(Arrays.asList(
+            JWK.create("hmac-1", new SecretKeySpec("super_secret_key".getBytes(), "HmacSHA256"))));
+
+        JWS token = new JWSBuilder()
+            .rsa256(this.keyPair.getPrivate())
+            .keyId("hmac-1")
+            .build();
+
+        new JWSBuilder().build(token.encode(), keySet);
+    }
+
+    @Test
+    public void testRotatedKeysAreRead() throws Exception {
+        File keySetFile = File.createTempFile("jwks", ".json");
+        keySetFile.deleteOnExit();
+
+        write(keySetFile, new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic()))));
+
+        JWKSetStore keySetStore = new JWKSetStore(keySetFile.toURI().toURL(), 0);
+
+        assertNotNull(keySetStore.getKey("rsa-1"));
+
+        write(keySetFile, new JWKSet(Arrays.asList(
+            JWK.create("rsa-1", this.keyPair.getPublic()),
+            JWK.create("rsa-2", this.anotherKeyPair.getPublic()))));
+        keySetFile.setLastModified(System.currentTimeMillis() + 10000);
+
+        JWS token = new JWSBuilder()
+            .rsa256(this.anotherKeyPair.getPrivate())
+            .keyId("rsa-2")
+            .build();
+
+        assertNotNull(new JWSBuilder().build(token.encode(), keySetStore));
+        assertEquals(2, keySetStore.getKeySet().size());
+    }
+
+    @Test(expected = JsonException.class, timeout = 10000)
+    public void failUnresponsiveKeySetLocation() throws Exception {
+        // the connection is accepted by the backlog of the socket, but nothing is ever sent back
+        ServerSocket serverSocket = new ServerSocket(0);
+
+        try {
+            URL location = new URL("http://localhost:" + serverSocket.getLocalPort() + "/jwks");
+
+            new JWKSetStore(location, 0, 1000, 200).refresh();
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testKeysAreFoundWhileKeySetIsRead() throws Exception {
+        final String keySet = new JWKSet(Arrays.asList(JWK.create("rsa-1", this.keyPair.getPublic()))).toString();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+
+        URL location = new URL(null, "test:jwks", new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        if (reads.incrementAndGet() > 1) {
+                            reading.countDown();
+
+                            try {
+                                resume.await();
+                            } catch (InterruptedException e) {
+                                throw new IOException(e.getMessage());
+                            }
+                        }
+
+                        return new ByteArrayInputStream(keySet.getBytes("UTF-8"));
+                    }
+                };
+            }
+        });
+
+        final JWKSetStore keySetStore = new JWKSetStore(location, 0);
+
+        assertNotNull(keySetStore.getKey("rsa-1"));
+
+        Thread refresh = new Thread() {
+            @Override
+            public void run() {
+                keySetStore.refresh();
+            }
+        };
+
+        refresh.start();
+        reading.await();
+
+        // the key set being read does not block the lookups of the current one
+        assertNotNull(keySetStore.getKey("rsa-1"));
+
+        resume.countDown();
+        refresh.join();
+
+        assertEquals(1, keySetStore.getKeySet().size());
+    }
+
+    private String unsignedToken(String headers) {
+        return JsonUtil.b64Encode(headers) + "." + JsonUtil.b64Encode("{\"sub\":\"admin\"}") + ".";
+    }
+
+    private void write(File file, JWKSet keySet) throws Exception {
+        FileWriter writer = new FileWriter(file);
+
+        try {
+            writer.write(keySet.toString());
+        } finally {
+            writer.close();
+        }
+    }
+}
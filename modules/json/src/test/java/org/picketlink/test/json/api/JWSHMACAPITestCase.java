@@ -29,6 +29,7 @@ import org.picketlink.json.jose.JWSBuilder;
 import org.picketlink.json.jwt.JWT;
 import org.picketlink.json.jwt.JWTBuilder;
 
+import javax.crypto.spec.SecretKeySpec;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
@@ -73,6 +74,23 @@ public class JWSHMACAPITestCase {
         assertNotNull(parsedToken);
     }
 
+    @Test
+    public void testHMAC256SignatureWithDecodedKey() {
+        byte[] secretKey = new String("super_secret_key").getBytes();
+        SecretKeySpec keySpec = new SecretKeySpec(secretKey, "HmacSHA256");
+
+        String jsonEncoded = new JWSBuilder()
+            .hmac256(keySpec)
+            .id("1")
+            .issuer("issuer")
+            .build()
+            .encode();
+
+        assertEquals(new JWSBuilder().hmac256(secretKey).id("1").issuer("issuer").build().encode(), jsonEncoded);
+        assertNotNull(new JWSBuilder().build(jsonEncoded, keySpec));
+        assertNotNull(new JWSBuilder().build(jsonEncoded, secretKey));
+    }
+
     @Test
     public void testHMAC384Signature() {
         byte[] secretKey = new String("super_secret_key").getBytes();
@@ -169,6 +169,39 @@ public class JWSRSAAPITestCase {
         assertNotNull(parsedToken);
     }
 
+    @Test
+    public void testRSA256SignatureWithDecodedKeys() {
+        JWS token = new JWSBuilder()
+            .rsa256(this.keyPair.getPrivate())
+            .id("1")
+            .issuer("issuer")
+            .subject("subject")
+            .build();
+
+        String jsonEncoded = token.encode();
+
+        // the same key, decoded or not, gives the same signature
+        assertEquals(jsonEncoded, new JWSBuilder()
+            .rsa256(this.keyPair.getPrivate().getEncoded())
+            .id("1")
+            .issuer("issuer")
+            .subject("subject")
+            .build().encode());
+
+        assertNotNull(new JWSBuilder().build(jsonEncoded, this.keyPair.getPublic()));
+        assertNotNull(new JWSBuilder().build(jsonEncoded, this.keyPair.getPublic().getEncoded()));
+    }
+
+    @Test(expected = JsonException.class)
+    public void failInvalidSignatureWithDecodedKey() {
+        JWS token = new JWSBuilder()
+            .rsa256(this.anotherKeyPair.getPrivate())
+            .id("1")
+            .build();
+
+        new JWSBuilder().build(token.encode(), this.keyPair.getPublic());
+    }
+
     @Test(expected = JsonException.class)
     public void failInvalidSignature() {
         JWS token = new JWSBuilder()
@@ -146,6 +146,33 @@ public class JWTAPITestCase {
         assertNotNull(parsedToken);
     }
 
+    @Test
+    public void testParsedClaimsAreReadLazily() {
+        JWT token = new JWTBuilder()
+            .id("1")
+            .issuer("issuer")
+            .subject("subject")
+            .audience("A", "B")
+            .expiration(123)
+            .claim("roles", "maintainer", "profile")
+            .build();
+
+        String jsonEncoded = token.encode();
+
+        JWT parsedToken = new JWTBuilder().build(jsonEncoded);
+
+        // registered claims are read without parsing the other claims
+        assertEquals("issuer", parsedToken.getIssuer());
+        assertEquals("subject", parsedToken.getSubject());
+        assertArrayEquals(new String[] {"A", "B"}, parsedToken.getAudience().toArray());
+        assertEquals(Integer.valueOf(123), parsedToken.getExpiration());
+
+        assertArrayEquals(new String[] {"maintainer", "profile"}, parsedToken.getClaimValues("roles").toArray());
+        assertEquals(token.getClaims(), parsedToken.getClaims());
+        assertEquals(token.toString(), parsedToken.toString());
+        assertEquals(jsonEncoded, parsedToken.encode());
+    }
+
     public static class MyWebToken extends JWT {
 
         public static final String CLAIM_ROLES = "roles";